@@ -44,6 +44,7 @@ import org.eclipse.hudson.jna.NativeAccessException;
 
 import hudson.util.io.Archiver;
 import hudson.util.io.ArchiverFactory;
+import hudson.util.io.ParallelGZIPOutputStream;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -570,6 +571,21 @@ public final class FilePath implements Serializable {
             public OutputStream compress(OutputStream out) throws IOException {
                 return new GZIPOutputStream(new BufferedOutputStream(out));
             }
+        },
+        /**
+         * Same format as {@link #GZIP}, compressed on several threads by
+         * {@link ParallelGZIPOutputStream}.
+         *
+         * @since 3.3.4
+         */
+        PARALLEL_GZIP {
+            public InputStream extract(InputStream in) throws IOException {
+                return GZIP.extract(in);
+            }
+
+            public OutputStream compress(OutputStream out) throws IOException {
+                return new ParallelGZIPOutputStream(new BufferedOutputStream(out));
+            }
         };
         private static final int BUFFER_SIZE = 8192;
 
@@ -27,22 +27,35 @@ import hudson.remoting.Engine;
 import hudson.remoting.Channel.Listener;
 import hudson.remoting.Channel.Mode;
 import hudson.cli.CliManagerImpl;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
 import hudson.util.IOException2;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.BindException;
+import java.net.SocketTimeoutException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
@@ -69,25 +82,63 @@ import hudson.cli.CliEntryPoint;
  * server restarts, so right now this secret master key is generated once and
  * used forever, which makes this whole scheme less secure.
  *
+ * <h2>Threads</h2> <p> Connections are accepted by this thread, at most
+ * {@link #MAX_CONNECTS_PER_SECOND} a second, so that many slaves reconnecting
+ * at once queue up in the backlog of the port instead of all being handled at
+ * once. Their handshakes are read, in the order they were accepted, by a pool
+ * of {@link #HANDSHAKE_THREADS} threads, and at most
+ * {@link #MAX_PENDING_HANDSHAKES} connections wait for theirs to be read. A
+ * connection has {@link #HANDSHAKE_TIMEOUT} milliseconds from when it's
+ * accepted to send its handshake. Slaves that don't send the right secret key
+ * are turned away right there. The others are connected to their computers by
+ * the thread that read their handshake, and then use the streams of their
+ * socket, so that writing to a slave doesn't take another thread, and an
+ * interrupted thread that writes doesn't close the connection.
+ *
  * @author Kohsuke Kawaguchi
  */
 public final class TcpSlaveAgentListener extends Thread {
 
     private final ServerSocket serverSocket;
+    private final ExecutorService handshakeThreads;
+    /**
+     * Permits for the connections whose handshake is to be read.
+     */
+    private final Semaphore pendingHandshakes = new Semaphore(MAX_PENDING_HANDSHAKES);
+    /**
+     * Secret key the slaves are to send, null to use the one of
+     * {@link Hudson}.
+     */
+    private final String secretKey;
     private volatile boolean shuttingDown;
     public final int configuredPort;
+    /**
+     * Number of connections that can be accepted right away, for
+     * {@link #MAX_CONNECTS_PER_SECOND}.
+     */
+    private double tokens = 1;
+    private long lastRefill = System.currentTimeMillis();
 
     /**
      * @param port Use 0 to choose a random port.
      */
     public TcpSlaveAgentListener(int port) throws IOException {
+        this(port, null);
+    }
+
+    TcpSlaveAgentListener(int port, String secretKey) throws IOException {
         super("TCP slave agent listener port=" + port);
+        this.secretKey = secretKey;
+        serverSocket = new ServerSocket();
         try {
-            serverSocket = new ServerSocket(port);
+            serverSocket.bind(new InetSocketAddress(port), BACKLOG);
         } catch (BindException e) {
+            serverSocket.close();
             throw (BindException) new BindException("Failed to listen on port " + port + " because it's already in use.").initCause(e);
         }
         this.configuredPort = port;
+        handshakeThreads = new ThreadPoolExecutor(HANDSHAKE_THREADS, HANDSHAKE_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ExceptionCatchingThreadFactory(new DaemonThreadFactory()));
 
         LOGGER.info("JNLP slave agent listener started on TCP port " + getPort());
 
@@ -102,23 +153,28 @@ public final class TcpSlaveAgentListener extends Thread {
     }
 
     private String getSecretKey() {
-        return Hudson.getInstance().getSecretKey();
+        return secretKey != null ? secretKey : Hudson.getInstance().getSecretKey();
     }
 
     @Override
     public void run() {
         try {
-            // the loop eventually terminates when the socket is closed.
-            while (true) {
-                Socket s = serverSocket.accept();
-
-                // this prevents a connection from silently terminated by the router in between or the other peer
-                // and that goes without unnoticed. However, the time out is often very long (for example 2 hours
-                // by default in Linux) that this alone is enough to prevent that.
-                s.setKeepAlive(true);
-                s.setTcpNoDelay(true);
-
-                new ConnectionHandler(s).start();
+            while (!shuttingDown) {
+                // leave the connections in the backlog while we're busy
+                pendingHandshakes.acquire();
+                throttle();
+                Socket s;
+                try {
+                    s = serverSocket.accept();
+                } catch (IOException e) {
+                    pendingHandshakes.release();
+                    throw e;
+                }
+                accept(s);
+            }
+        } catch (InterruptedException e) {
+            if (!shuttingDown) {
+                LOGGER.log(Level.SEVERE, "JNLP slave agent listener interrupted", e);
             }
         } catch (IOException e) {
             if (!shuttingDown) {
@@ -127,6 +183,83 @@ public final class TcpSlaveAgentListener extends Thread {
         }
     }
 
+    /**
+     * Waits until a connection can be accepted without going over
+     * {@link #MAX_CONNECTS_PER_SECOND}.
+     */
+    private void throttle() throws InterruptedException {
+        while (true) {
+            int rate = MAX_CONNECTS_PER_SECOND;
+            if (rate <= 0) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1000.0);
+            lastRefill = now;
+            if (tokens >= 1) {
+                tokens--;
+                return;
+            }
+            Thread.sleep((long) Math.ceil((1 - tokens) * 1000 / rate));
+        }
+    }
+
+    private void accept(Socket s) {
+        try {
+            // this prevents a connection from silently terminated by the router in between or the other peer
+            // and that goes without unnoticed. However, the time out is often very long (for example 2 hours
+            // by default in Linux) that this alone is enough to prevent that.
+            s.setKeepAlive(true);
+            s.setTcpNoDelay(true);
+            handshakeThreads.execute(new Handshake(s));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to accept a connection from " + s.getRemoteSocketAddress(), e);
+            pendingHandshakes.release();
+            close(s);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            pendingHandshakes.release();
+            close(s);
+        }
+    }
+
+    /**
+     * Turns away the slaves that don't have the secret key, and serves the
+     * other connections.
+     */
+    private void dispatch(Handshake h) {
+        try {
+            if (!h.isAuthorized()) {
+                LOGGER.warning("Connection from " + h.address + " is aborted: Unauthorized access");
+                h.socket.getOutputStream().write("Unauthorized access\n".getBytes("UTF-8"));
+                close(h.socket);
+                return;
+            }
+            // closing the streams shuts down a half of the connection
+            InputStream in = new SequenceInputStream(
+                    new ByteArrayInputStream(h.buf, 0, h.size), new SocketInputStream(h.socket));
+            ConnectionHandler handler = new ConnectionHandler(h.socket, new DataInputStream(in),
+                    new SocketOutputStream(h.socket));
+            if (h.isCli()) {
+                // the handler serves the CLI session until it ends
+                new Thread(handler, handler.getName()).start();
+            } else {
+                handler.run();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to handle the connection from " + h.address, e);
+            close(h.socket);
+        }
+    }
+
+    private static void close(Socket s) {
+        try {
+            s.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
     /**
      * Initiates the shuts down of the listener.
      */
@@ -137,31 +270,159 @@ public final class TcpSlaveAgentListener extends Thread {
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Failed to close down TCP port", e);
         }
+        // in case it waits for a permit or for the rate limit
+        interrupt();
+        handshakeThreads.shutdown();
     }
 
-    private final class ConnectionHandler extends Thread {
+    /**
+     * Handshake of a connection, which is read by one of the handshake
+     * threads. The handshake is made of the strings the client writes with
+     * {@link java.io.DataOutputStream#writeUTF(String)} before it waits for
+     * the answer: the protocol, and the secret key and the node name for the
+     * JNLP protocols.
+     */
+    private final class Handshake implements Runnable {
+
+        final Socket socket;
+        final Object address;
+        final long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;
+        byte[] buf = new byte[256];
+        int size;
+        private String protocol;
+
+        Handshake(Socket socket) {
+            this.socket = socket;
+            this.address = socket.getRemoteSocketAddress();
+        }
+
+        public void run() {
+            try {
+                read();
+            } catch (SocketTimeoutException e) {
+                LOGGER.warning("Connection from " + address + " didn't complete its handshake in time");
+                close(socket);
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to read the handshake from " + address, e);
+                close(socket);
+                return;
+            } finally {
+                pendingHandshakes.release();
+            }
+            dispatch(this);
+        }
+
+        /**
+         * Reads the handshake, until {@link #deadline}.
+         */
+        private void read() throws IOException {
+            InputStream in = socket.getInputStream();
+            while (!isComplete()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException();
+                }
+                socket.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+                if (size == buf.length) {
+                    if (buf.length >= MAX_HANDSHAKE_SIZE) {
+                        throw new IOException("Handshake too long");
+                    }
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                int n = in.read(buf, size, buf.length - size);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                size += n;
+            }
+            socket.setSoTimeout(0);
+        }
+
+        private boolean isComplete() throws IOException {
+            int pos = 0;
+            int needed = 1;
+            for (int i = 0; i < needed; i++) {
+                if (size - pos < 2) {
+                    return false;
+                }
+                int length = ((buf[pos] & 0xff) << 8) | (buf[pos + 1] & 0xff);
+                if (size - pos - 2 < length) {
+                    return false;
+                }
+                if (i == 0) {
+                    protocol = open().readUTF();
+                    if (protocol.equals("Protocol:JNLP-connect")) {
+                        needed = 3;
+                    } else if (protocol.equals("Protocol:JNLP2-connect")) {
+                        needed = 2;
+                    }
+                }
+                pos += 2 + length;
+            }
+            return true;
+        }
+
+        boolean isCli() {
+            return protocol.equals("Protocol:CLI-connect");
+        }
+
+        /**
+         * Checks the secret key sent by JNLP slaves. The other protocols
+         * are checked by {@link ConnectionHandler}.
+         */
+        boolean isAuthorized() throws IOException {
+            DataInputStream in = open();
+            in.readUTF();
+            if (protocol.equals("Protocol:JNLP-connect")) {
+                return getSecretKey().equals(in.readUTF());
+            }
+            if (protocol.equals("Protocol:JNLP2-connect")) {
+                Properties request = new Properties();
+                request.load(new ByteArrayInputStream(in.readUTF().getBytes("UTF-8")));
+                return getSecretKey().equals(request.getProperty("Secret-Key"));
+            }
+            return true;
+        }
+
+        private DataInputStream open() {
+            return new DataInputStream(new ByteArrayInputStream(buf, 0, size));
+        }
+    }
+
+    private final class ConnectionHandler implements Runnable {
 
         private final Socket s;
+        /**
+         * Input from the client, from the start of the handshake.
+         */
+        private final DataInputStream in;
+        private final OutputStream output;
         /**
          * Unique number to identify this connection. Used in the log.
          */
         private final int id;
 
-        public ConnectionHandler(Socket s) {
+        public ConnectionHandler(Socket s, DataInputStream in, OutputStream output) {
             this.s = s;
+            this.in = in;
+            this.output = output;
             synchronized (getClass()) {
                 id = iotaGen++;
             }
-            setName("TCP slave agent connection handler #" + id + " with " + s.getRemoteSocketAddress());
         }
 
-        @Override
+        String getName() {
+            return "TCP slave agent connection handler #" + id + " with " + s.getRemoteSocketAddress();
+        }
+
         public void run() {
+            String threadName = Thread.currentThread().getName();
+            Thread.currentThread().setName(getName());
             try {
                 LOGGER.info("Accepted connection #" + id + " from " + s.getRemoteSocketAddress());
 
-                DataInputStream in = new DataInputStream(s.getInputStream());
-                PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+                PrintWriter out = new PrintWriter(output, true);
 
                 String s = in.readUTF();
 
@@ -193,6 +454,8 @@ public final class TcpSlaveAgentListener extends Thread {
                 } catch (IOException _) {
                     // try to clean up the socket
                 }
+            } finally {
+                Thread.currentThread().setName(threadName);
             }
         }
 
@@ -203,8 +466,8 @@ public final class TcpSlaveAgentListener extends Thread {
             out.println("Welcome");
             Channel channel = new Channel("CLI channel from " + s.getInetAddress(),
                     Computer.threadPoolForRemoting, Mode.BINARY,
-                    new BufferedInputStream(new SocketInputStream(this.s)),
-                    new BufferedOutputStream(new SocketOutputStream(this.s)), null, true);
+                    new BufferedInputStream(in),
+                    new BufferedOutputStream(output), null, true);
             channel.setProperty(CliEntryPoint.class.getName(), new CliManagerImpl());
             channel.join();
         }
@@ -306,7 +569,7 @@ public final class TcpSlaveAgentListener extends Thread {
             logw.println("JNLP agent connected from " + this.s.getInetAddress());
 
             try {
-                computer.setChannel(new BufferedInputStream(this.s.getInputStream()), new BufferedOutputStream(this.s.getOutputStream()), log,
+                computer.setChannel(new BufferedInputStream(in), new BufferedOutputStream(output), log,
                         new Listener() {
                             @Override
                             public void onClosed(Channel channel, IOException cause) {
@@ -354,6 +617,36 @@ public final class TcpSlaveAgentListener extends Thread {
         }
     }
     private static int iotaGen = 1;
+    /**
+     * Size of the backlog of the port, where the connections wait to be
+     * accepted.
+     */
+    private static final int BACKLOG = 1024;
+    private static final int MAX_HANDSHAKE_SIZE = 64 * 1024;
+    /**
+     * Number of threads that read the handshakes and connect the slaves.
+     *
+     * @since 3.3.4
+     */
+    public static int HANDSHAKE_THREADS = Integer.getInteger(TcpSlaveAgentListener.class.getName() + ".handshakeThreads", 10);
+    /**
+     * At most how many connections are accepted a second. 0 for no limit.
+     *
+     * @since 3.3.4
+     */
+    public static int MAX_CONNECTS_PER_SECOND = Integer.getInteger(TcpSlaveAgentListener.class.getName() + ".maxConnectsPerSecond", 100);
+    /**
+     * At most how many connections can wait for their handshake to be read.
+     *
+     * @since 3.3.4
+     */
+    public static int MAX_PENDING_HANDSHAKES = Integer.getInteger(TcpSlaveAgentListener.class.getName() + ".maxPendingHandshakes", 500);
+    /**
+     * How long a connection has to send its handshake, in milliseconds.
+     *
+     * @since 3.3.4
+     */
+    public static long HANDSHAKE_TIMEOUT = Long.getLong(TcpSlaveAgentListener.class.getName() + ".handshakeTimeout", 30 * 1000);
     private static final Logger LOGGER = Logger.getLogger(TcpSlaveAgentListener.class.getName());
     private static final String COOKIE_NAME = TcpSlaveAgentListener.class.getName() + ".cookie";
 }
@@ -22,25 +22,40 @@ import hudson.util.IOException2;
 import hudson.util.IOUtils;
 import hudson.util.Secret;
 import hudson.util.TimeUnit2;
+import hudson.util.CharSpool;
+import hudson.util.LineEndNormalizingWriter;
+import hudson.util.io.BlockCompressedFile;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.framework.io.ByteBuffer;
 import org.kohsuke.stapler.framework.io.LargeText;
+import org.kohsuke.stapler.framework.io.WriterOutputStream;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
+import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -70,15 +85,137 @@ public class AnnotatedLargeText<T> extends LargeText {
      * Can be null.
      */
     private T context;
+    /**
+     * Compressed text, which is read instead of the file given to
+     * {@link LargeText}. Null if the text is not compressed.
+     */
+    private final BlockCompressedFile compressed;
+    /**
+     * File that holds the text, or null if it's in memory or compressed.
+     */
+    private final File file;
 
     public AnnotatedLargeText(File file, Charset charset, boolean completed, T context) {
         super(file, charset, completed);
         this.context = context;
+        this.compressed = null;
+        this.file = file;
+    }
+
+    /**
+     * Text compressed with {@link BlockCompressedFile}, which is always
+     * complete.
+     *
+     * @since 3.3.4
+     */
+    public AnnotatedLargeText(BlockCompressedFile compressed, Charset charset, T context) {
+        super(compressed.getFile(), charset, true);
+        this.context = context;
+        this.compressed = compressed;
+        this.file = null;
     }
 
     public AnnotatedLargeText(ByteBuffer memory, Charset charset, boolean completed, T context) {
         super(memory, charset, completed);
         this.context = context;
+        this.compressed = null;
+        this.file = null;
+    }
+
+    @Override
+    public long length() {
+        return compressed != null ? compressed.length() : super.length();
+    }
+
+    @Override
+    public Reader readAll() throws IOException {
+        return compressed != null ? new InputStreamReader(compressed.open(0), charset) : super.readAll();
+    }
+
+    /**
+     * Same as {@link LargeText#doProgressText(StaplerRequest, StaplerResponse)},
+     * but with offsets in the uncompressed text when it's compressed.
+     */
+    @Override
+    public void doProgressText(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (file != null && !isHtml()) {
+            doProgressFileText(req, rsp);
+            return;
+        }
+        if (compressed == null) {
+            super.doProgressText(req, rsp);
+            return;
+        }
+        setContentType(rsp);
+        rsp.setStatus(HttpServletResponse.SC_OK);
+
+        long start = 0;
+        String s = req.getParameter("start");
+        if (s != null) {
+            start = Long.parseLong(s);
+        }
+        if (compressed.length() < start) {
+            start = 0;  // text rolled over
+        }
+        CharSpool spool = new CharSpool();
+        long r = writeLogTo(start, spool);
+
+        rsp.addHeader("X-Text-Size", String.valueOf(r));
+        if (!isComplete()) {
+            rsp.addHeader("X-More-Data", "true");
+        }
+
+        Writer w = createWriter(req, rsp, r - start);
+        spool.writeTo(new LineEndNormalizingWriter(w));
+        w.close();
+    }
+
+    /**
+     * Plain text of a file, which is streamed to the response as it's read
+     * instead of being spooled first, as the size of the response can be
+     * known before writing it.
+     */
+    private void doProgressFileText(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        setContentType(rsp);
+        rsp.setStatus(HttpServletResponse.SC_OK);
+
+        if (!file.exists()) {
+            // file doesn't exist yet
+            rsp.addHeader("X-Text-Size", "0");
+            rsp.addHeader("X-More-Data", "true");
+            return;
+        }
+
+        long start = 0;
+        String s = req.getParameter("start");
+        if (s != null) {
+            start = Long.parseLong(s);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < start) {
+                start = 0;  // text rolled over
+            }
+            long end = getEnd(raf, start);
+            rsp.addHeader("X-Text-Size", String.valueOf(Math.max(start, end)));
+            if (!isComplete()) {
+                rsp.addHeader("X-More-Data", "true");
+            }
+
+            Writer w = createWriter(req, rsp, end - start);
+            OutputStream out = new PlainTextConsoleOutputStream(
+                    new WriterOutputStream(new LineEndNormalizingWriter(w), charset));
+            byte[] buf = acquireBuffer();
+            try {
+                transfer(raf, start, end, out, buf);
+            } finally {
+                releaseBuffer(buf);
+            }
+            out.flush();
+            w.close();
+        } finally {
+            raf.close();
+        }
     }
 
     public void doProgressiveHtml(StaplerRequest req, StaplerResponse rsp) throws IOException {
@@ -99,7 +236,8 @@ public class AnnotatedLargeText<T> extends LargeText {
      * differentiate.
      */
     private boolean isHtml() {
-        return Stapler.getCurrentRequest().getAttribute("html") != null;
+        StaplerRequest req = Stapler.getCurrentRequest();
+        return req != null && req.getAttribute("html") != null;
     }
 
     @Override
@@ -146,13 +284,167 @@ public class AnnotatedLargeText<T> extends LargeText {
 
     @Override
     public long writeLogTo(long start, OutputStream out) throws IOException {
-        return super.writeLogTo(start, new PlainTextConsoleOutputStream(out));
+        if (file != null) {
+            return writePlainFileTo(start, out);
+        }
+        return writeRawLogTo(start, new PlainTextConsoleOutputStream(out));
+    }
+
+    /**
+     * Writes the file from the given offset without the {@link ConsoleNote}s.
+     *
+     * <p> The file is sent with {@link FileChannel#transferTo} as long as it
+     * has no note, and through {@link PlainTextConsoleOutputStream} from the
+     * first chunk that has one.
+     */
+    private long writePlainFileTo(long start, OutputStream out) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] buf = acquireBuffer();
+        try {
+            long end = getEnd(raf, start);
+            FileChannel channel = raf.getChannel();
+            WritableByteChannel target = out instanceof FileOutputStream
+                    ? ((FileOutputStream) out).getChannel() : Channels.newChannel(out);
+            long pos = start;
+            while (pos < end) {
+                int len = (int) Math.min(buf.length, end - pos);
+                raf.seek(pos);
+                raf.readFully(buf, 0, len);
+                if (hasNote(buf, len)) {
+                    // notes start in this chunk at the earliest
+                    pos = transfer(raf, pos, end, new PlainTextConsoleOutputStream(out), buf);
+                    break;
+                }
+                long chunkEnd = pos + len;
+                while (pos < chunkEnd) {
+                    long n = channel.transferTo(pos, chunkEnd - pos, target);
+                    if (n <= 0) {
+                        throw new IOException("Failed to transfer " + file + " at " + pos);
+                    }
+                    pos += n;
+                }
+            }
+            out.flush();
+            return pos;
+        } finally {
+            releaseBuffer(buf);
+            raf.close();
+        }
+    }
+
+    private static boolean hasNote(byte[] buf, int len) {
+        for (int i = 0; i < len; i++) {
+            if (buf[i] == ConsoleNote.PREAMBLE[0]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the text as is, from the given offset.
+     */
+    private long writeRawLogTo(long start, OutputStream out) throws IOException {
+        if (file != null) {
+            return writeFileTo(start, out);
+        }
+        if (compressed == null) {
+            return super.writeLogTo(start, out);
+        }
+        // only the blocks from the start offset are inflated
+        InputStream in = compressed.open(start);
+        try {
+            return start + IOUtils.copyLarge(in, out);
+        } finally {
+            in.close();
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes the file from the given offset, straight to the output.
+     *
+     * <p> Like {@link LargeText}, if the text is still being written, it's only
+     * written up to the last line end.
+     */
+    private long writeFileTo(long start, OutputStream out) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] buf = acquireBuffer();
+        try {
+            long r = transfer(raf, start, getEnd(raf, start), out, buf);
+            out.flush();
+            return r;
+        } finally {
+            releaseBuffer(buf);
+            raf.close();
+        }
+    }
+
+    /**
+     * Gets how far the file can be written from the given offset.
+     */
+    private long getEnd(RandomAccessFile raf, long start) throws IOException {
+        long end = raf.length();
+        return isComplete() ? end : findLastLineEnd(raf, start, end);
+    }
+
+    /**
+     * @return the offset up to which the file was written.
+     */
+    private static long transfer(RandomAccessFile raf, long start, long end, OutputStream out, byte[] buf)
+            throws IOException {
+        raf.seek(start);
+        long pos = start;
+        while (pos < end) {
+            int n = raf.read(buf, 0, (int) Math.min(buf.length, end - pos));
+            if (n < 0) {
+                break;
+            }
+            out.write(buf, 0, n);
+            pos += n;
+        }
+        return pos;
+    }
+
+    /**
+     * Gets a buffer to copy the file with, so that the requests that poll the
+     * console don't each allocate their own.
+     */
+    private static byte[] acquireBuffer() {
+        byte[] buf = BUFFERS.poll();
+        return buf != null ? buf : new byte[BUFFER_SIZE];
+    }
+
+    private static void releaseBuffer(byte[] buf) {
+        BUFFERS.offer(buf);
+    }
+
+    /**
+     * Finds the end of the last complete line in the given range.
+     *
+     * @return the offset right after the last CR or LF, or {@code start} if
+     * there's none.
+     */
+    static long findLastLineEnd(RandomAccessFile raf, long start, long end) throws IOException {
+        byte[] buf = new byte[1024];
+        for (long p = end; p > start;) {
+            int len = (int) Math.min(buf.length, p - start);
+            p -= len;
+            raf.seek(p);
+            raf.readFully(buf, 0, len);
+            for (int i = len - 1; i >= 0; i--) {
+                if (buf[i] == '\r' || buf[i] == '\n') {
+                    return p + i + 1;
+                }
+            }
+        }
+        return start;
     }
 
     public long writeHtmlTo(long start, Writer w) throws IOException {
         ConsoleAnnotationOutputStream caw = new ConsoleAnnotationOutputStream(
                 w, createAnnotator(Stapler.getCurrentRequest()), context, charset);
-        long r = super.writeLogTo(start, caw);
+        long r = writeRawLogTo(start, caw);
 
         ObjectOutputStream oos = null;
         try {
@@ -175,4 +467,12 @@ public class AnnotatedLargeText<T> extends LargeText {
         }
         return r;
     }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Buffers that aren't in use, up to one per request that may be served
+     * at once.
+     */
+    private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<byte[]>(
+            Integer.getInteger(AnnotatedLargeText.class.getName() + ".buffers", 32));
 }
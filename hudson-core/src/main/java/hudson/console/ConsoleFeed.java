@@ -0,0 +1,608 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.console;
+
+import hudson.model.Run;
+import hudson.triggers.SafeTimerTask;
+import hudson.triggers.Trigger;
+import hudson.util.io.BlockCompressedFile;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Pushes the annotated console output of a running build to the browsers
+ * that follow it, as server-sent events.
+ *
+ * <p> Instead of each browser polling {@link AnnotatedLargeText#doProgressiveHtml}
+ * and having the log opened and the {@link ConsoleAnnotator} deserialized for
+ * every poll, there's one feed per build that's followed. Every
+ * {@link #INTERVAL} milliseconds, one of the responses following it reads
+ * what's appended to the log, annotates it once with the same
+ * {@link ConsoleAnnotator}, and hands the resulting HTML to all of them. The
+ * annotation thus happens in a request, like for the polls, and on as many
+ * threads as there are builds followed. When a feed starts, the log is
+ * annotated from its beginning, so that the annotators are in the same state
+ * as if the feed had followed it all along. A feed is kept for
+ * {@link #GRACE_PERIOD} milliseconds after its last subscriber leaves, so
+ * that the browsers that reconnect don't have the log annotated from its
+ * beginning again. A subscriber that starts earlier in the log than the feed
+ * first annotates that part on its own.
+ *
+ * <p> Each event carries the offset in the log up to which it goes as its id,
+ * so a browser that reconnects with <tt>Last-Event-ID</tt> picks up where it
+ * stopped, from the last chunks the feed keeps. Responses are ended after
+ * {@link #TIMEOUT} milliseconds, or when a subscriber falls too far behind,
+ * to let the browser reconnect rather than holding on to a request thread
+ * for the whole build. At most {@link #MAX_STREAMS} responses follow feeds at
+ * once; the others are answered 503, and the browsers go back to polling.
+ *
+ * @since 3.3.4
+ */
+public final class ConsoleFeed {
+
+    /**
+     * Set to true to answer 404 to streaming requests, so that browsers go
+     * back to polling.
+     */
+    public static boolean DISABLED = Boolean.getBoolean(ConsoleFeed.class.getName() + ".disabled");
+    /**
+     * How often the log is read, in milliseconds.
+     */
+    public static int INTERVAL = Integer.getInteger(ConsoleFeed.class.getName() + ".interval", 1000);
+    /**
+     * How long a single response lasts, in milliseconds.
+     */
+    public static int TIMEOUT = Integer.getInteger(ConsoleFeed.class.getName() + ".timeout", 30 * 1000);
+    /**
+     * Number of responses that can follow feeds at once, each holding a
+     * request thread.
+     */
+    public static int MAX_STREAMS = Integer.getInteger(ConsoleFeed.class.getName() + ".maxStreams", 200);
+    /**
+     * How long a feed is kept without subscribers, in milliseconds.
+     */
+    public static int GRACE_PERIOD = Integer.getInteger(ConsoleFeed.class.getName() + ".gracePeriod", 2 * 60 * 1000);
+    /**
+     * How long the connection can stay silent before a comment is sent to
+     * detect closed connections, in milliseconds.
+     */
+    private static final int KEEP_ALIVE = 15 * 1000;
+    /**
+     * Number of chunks a subscriber can lag behind before it's dropped, and
+     * number of chunks kept for the browsers that reconnect.
+     */
+    static final int MAX_PENDING = 100;
+    /**
+     * Number of characters of HTML above which it's handed out.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final Map<Run<?, ?>, ConsoleFeed> FEEDS = new HashMap<Run<?, ?>, ConsoleFeed>();
+    /**
+     * Number of responses following feeds, guarded by {@link #FEEDS}.
+     */
+    private static int streams;
+
+    private final Run<?, ?> run;
+    private final List<Subscriber> subscribers = new ArrayList<Subscriber>();
+    private final History history = new History(MAX_PENDING);
+    private final LogReader reader;
+    /**
+     * If the log has been annotated up to where the feed starts.
+     */
+    private boolean started;
+    private long lastRead;
+    /**
+     * When the last subscriber left.
+     */
+    private long idleSince;
+    private boolean closed;
+
+    private ConsoleFeed(Run<?, ?> run) {
+        this.run = run;
+        this.reader = new LogReader(run, 0) {
+            @Override
+            protected void onChunk(String html, long offset) {
+                if (started) {
+                    publish(new Chunk(html, offset));
+                }
+            }
+        };
+    }
+
+    /**
+     * Streams the console output of the given build, from the <tt>start</tt>
+     * parameter or the <tt>Last-Event-ID</tt> header, until the build completes.
+     */
+    public static void stream(Run<?, ?> run, StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (DISABLED) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long start = 0;
+        String s = req.getHeader("Last-Event-ID");
+        if (s == null) {
+            s = req.getParameter("start");
+        }
+        if (s != null) {
+            try {
+                start = Math.max(0, Long.parseLong(s));
+            } catch (NumberFormatException e) {
+                rsp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+        }
+
+        if (!run.isLogUpdated()) {
+            // nothing to follow
+            Writer w = startEvents(rsp);
+            catchUp(run, start, Long.MAX_VALUE, true, w);
+            writeEnd(w);
+            w.close();
+            return;
+        }
+        if (!acquireStream()) {
+            rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        try {
+            Writer w = startEvents(rsp);
+            Subscriber subscriber = subscribe(run, start);
+            try {
+                catchUp(run, subscriber.start, subscriber.end, false, w);
+                subscriber.forward(w);
+            } finally {
+                subscriber.unsubscribe();
+            }
+            w.close();
+        } finally {
+            releaseStream();
+        }
+    }
+
+    private static boolean acquireStream() {
+        synchronized (FEEDS) {
+            if (streams >= MAX_STREAMS) {
+                return false;
+            }
+            streams++;
+            return true;
+        }
+    }
+
+    private static void releaseStream() {
+        synchronized (FEEDS) {
+            streams--;
+        }
+    }
+
+    private static Writer startEvents(StaplerResponse rsp) throws IOException {
+        rsp.setContentType("text/event-stream;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.setStatus(HttpServletResponse.SC_OK);
+        return rsp.getWriter();
+    }
+
+    private static Subscriber subscribe(Run<?, ?> run, long start) throws IOException {
+        while (true) {
+            ConsoleFeed feed;
+            synchronized (FEEDS) {
+                feed = FEEDS.get(run);
+                if (feed == null) {
+                    feed = new ConsoleFeed(run);
+                    FEEDS.put(run, feed);
+                }
+            }
+            Subscriber subscriber = feed.add(start);
+            if (subscriber != null) {
+                return subscriber;
+            }
+            // the feed closed in the mean time
+        }
+    }
+
+    private synchronized Subscriber add(long start) throws IOException {
+        if (closed) {
+            return null;
+        }
+        if (!started) {
+            try {
+                reader.read(findLastLineEnd(run), false);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            started = true;
+            history.reset(reader.emitted);
+        }
+        Subscriber subscriber;
+        List<Chunk> replay = start < reader.emitted ? history.since(start) : null;
+        if (replay != null) {
+            // a browser that reconnects
+            subscriber = new Subscriber(this, reader.emitted, reader.emitted);
+            subscriber.pending.addAll(replay);
+        } else {
+            subscriber = new Subscriber(this, Math.min(start, reader.emitted), reader.emitted);
+        }
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    private synchronized void remove(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+        if (subscribers.isEmpty() && !closed) {
+            idleSince = System.currentTimeMillis();
+            Timer timer = Trigger.timer;
+            if (timer == null) {
+                close();
+                return;
+            }
+            timer.schedule(new SafeTimerTask() {
+                @Override
+                protected void doRun() {
+                    closeIfIdle();
+                }
+            }, GRACE_PERIOD);
+        }
+    }
+
+    /**
+     * Closes the feed if nobody subscribed to it during the grace period.
+     */
+    private synchronized void closeIfIdle() {
+        if (subscribers.isEmpty() && System.currentTimeMillis() - idleSince >= GRACE_PERIOD) {
+            close();
+        }
+    }
+
+    /**
+     * Reads what has been appended to the log since the last time, if that
+     * was at least {@link #INTERVAL} milliseconds ago, and hands it to the
+     * subscribers.
+     */
+    private synchronized void pump() {
+        long now = System.currentTimeMillis();
+        if (closed || now - lastRead < INTERVAL) {
+            return;
+        }
+        lastRead = now;
+        // checked before reading, so that nothing written before completion is missed
+        boolean complete = !run.isLogUpdated();
+        try {
+            reader.read(Long.MAX_VALUE, complete);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the log of " + run, e);
+            complete = true;
+        } catch (RuntimeException e) {
+            // tried again at the next interval
+            LOGGER.log(Level.WARNING, "Failed to annotate the log of " + run, e);
+            return;
+        }
+        if (complete) {
+            publish(Chunk.END);
+            close();
+        }
+    }
+
+    private void publish(Chunk chunk) {
+        history.add(chunk);
+        for (Subscriber subscriber : new ArrayList<Subscriber>(subscribers)) {
+            if (!subscriber.pending.offer(chunk)) {
+                // it will reconnect and catch up from the log
+                subscriber.lagging = true;
+                subscribers.remove(subscriber);
+            }
+        }
+    }
+
+    private void close() {
+        closed = true;
+        synchronized (FEEDS) {
+            if (FEEDS.get(run) == this) {
+                FEEDS.remove(run);
+            }
+        }
+    }
+
+    /**
+     * Annotates a part of the log on its own, and writes it as events.
+     */
+    private static void catchUp(Run<?, ?> run, long start, long end, boolean complete, final Writer w) throws IOException {
+        if (start >= end) {
+            return;
+        }
+        new LogReader(run, start) {
+            @Override
+            protected void onChunk(String html, long offset) throws IOException {
+                writeEvent(w, html, offset);
+            }
+        }.read(end, complete);
+    }
+
+    private static long findLastLineEnd(Run<?, ?> run) throws IOException {
+        File log = run.getLogFile();
+        if (!log.exists()) {
+            return 0;
+        }
+        RandomAccessFile raf = new RandomAccessFile(log, "r");
+        try {
+            return AnnotatedLargeText.findLastLineEnd(raf, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens the log of the build at the given offset, whether it has been
+     * compressed or not.
+     */
+    private static InputStream openLog(Run<?, ?> run, long offset) throws IOException {
+        File log = run.getLogFile();
+        if (!log.exists() && run.getCompressedLogFile().exists()) {
+            BlockCompressedFile compressed = new BlockCompressedFile(run.getCompressedLogFile());
+            return compressed.open(Math.min(offset, compressed.length()));
+        }
+        RandomAccessFile raf = new RandomAccessFile(log, "r");
+        raf.seek(offset);
+        // closes raf as well
+        return Channels.newInputStream(raf.getChannel());
+    }
+
+    /**
+     * Writes an event, with a data line for each line of the HTML, as
+     * CR and LF would otherwise end the data.
+     */
+    static void writeEvent(Writer w, String html, long offset) throws IOException {
+        w.write("id: ");
+        w.write(String.valueOf(offset));
+        w.write("\ndata: ");
+        int len = html.length();
+        for (int i = 0; i < len; i++) {
+            char ch = html.charAt(i);
+            if (ch == '\r' || ch == '\n') {
+                if (ch == '\r' && i + 1 < len && html.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                w.write("\ndata: ");
+            } else {
+                w.write(ch);
+            }
+        }
+        w.write("\n\n");
+        w.flush();
+    }
+
+    private static void writeEnd(Writer w) throws IOException {
+        w.write("event: end\ndata:\n\n");
+        w.flush();
+    }
+
+    /**
+     * Annotates the log as it's read, and hands out the HTML in chunks of
+     * complete lines.
+     */
+    private abstract static class LogReader {
+
+        private final Run<?, ?> run;
+        private final StringWriter html = new StringWriter();
+        private final ConsoleAnnotationOutputStream<?> annotated;
+        /**
+         * Offset in the log up to which it has been read.
+         */
+        long offset;
+        /**
+         * Offset in the log up to which it has been annotated, which is less
+         * than {@link #offset} while a line is incomplete.
+         */
+        long emitted;
+
+        LogReader(Run<?, ?> run, long start) {
+            this.run = run;
+            this.offset = this.emitted = start;
+            this.annotated = new ConsoleAnnotationOutputStream<Run<?, ?>>(
+                    html, ConsoleAnnotator.<Run<?, ?>>initial(run), run, run.getCharset());
+        }
+
+        /**
+         * Reads the log up to the given offset, or up to its current end.
+         *
+         * @param complete if the log won't grow anymore, so that its last
+         * line is annotated even if it's incomplete.
+         */
+        void read(long end, boolean complete) throws IOException {
+            InputStream in = openLog(run, offset);
+            try {
+                byte[] buf = new byte[8192];
+                while (offset < end) {
+                    int len = in.read(buf, 0, (int) Math.min(buf.length, end - offset));
+                    if (len < 0) {
+                        break;
+                    }
+                    annotated.write(buf, 0, len);
+                    for (int i = len - 1; i >= 0; i--) {
+                        if (buf[i] == '\n') {
+                            emitted = offset + i + 1;
+                            break;
+                        }
+                    }
+                    offset += len;
+                    if (html.getBuffer().length() >= CHUNK_SIZE) {
+                        flushChunk();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            if (complete) {
+                annotated.forceEol();
+                emitted = offset;
+            }
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            StringBuffer buf = html.getBuffer();
+            if (buf.length() > 0) {
+                String chunk = buf.toString();
+                buf.setLength(0);
+                onChunk(chunk, emitted);
+            }
+        }
+
+        protected abstract void onChunk(String html, long offset) throws IOException;
+    }
+
+    /**
+     * Annotated HTML, up to an offset of the log.
+     */
+    static final class Chunk {
+
+        static final Chunk END = new Chunk(null, -1);
+
+        final String html;
+        final long offset;
+
+        Chunk(String html, long offset) {
+            this.html = html;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Last chunks handed out by a feed, to replay them to the browsers that
+     * reconnect.
+     */
+    static final class History {
+
+        private final int size;
+        private final LinkedList<Chunk> chunks = new LinkedList<Chunk>();
+        /**
+         * Offset in the log from which the chunks go.
+         */
+        private long start;
+
+        History(int size) {
+            this.size = size;
+        }
+
+        void reset(long start) {
+            this.start = start;
+            chunks.clear();
+        }
+
+        void add(Chunk chunk) {
+            if (chunk == Chunk.END) {
+                return;
+            }
+            if (chunks.size() == size) {
+                start = chunks.removeFirst().offset;
+            }
+            chunks.add(chunk);
+        }
+
+        /**
+         * Gets the chunks that follow the given offset in the log.
+         *
+         * @return null if the offset isn't the end of one of the chunks, or
+         * their start.
+         */
+        List<Chunk> since(long offset) {
+            if (offset == start) {
+                return new ArrayList<Chunk>(chunks);
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                if (chunks.get(i).offset == offset) {
+                    return new ArrayList<Chunk>(chunks.subList(i + 1, chunks.size()));
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A response following a feed.
+     */
+    private static final class Subscriber {
+
+        final ConsoleFeed feed;
+        final BlockingQueue<Chunk> pending = new LinkedBlockingQueue<Chunk>(MAX_PENDING);
+        /**
+         * Part of the log to catch up on before following the feed.
+         */
+        final long start, end;
+        volatile boolean lagging;
+
+        Subscriber(ConsoleFeed feed, long start, long end) {
+            this.feed = feed;
+            this.start = start;
+            this.end = end;
+        }
+
+        void forward(Writer w) throws IOException {
+            long now = System.currentTimeMillis();
+            long until = now + TIMEOUT;
+            long lastWrite = now;
+            try {
+                while (now < until) {
+                    feed.pump();
+                    if (lagging && pending.isEmpty()) {
+                        return;
+                    }
+                    Chunk chunk = pending.poll(INTERVAL, TimeUnit.MILLISECONDS);
+                    now = System.currentTimeMillis();
+                    if (chunk == Chunk.END) {
+                        writeEnd(w);
+                        return;
+                    }
+                    if (chunk != null) {
+                        writeEvent(w, chunk.html, chunk.offset);
+                        lastWrite = now;
+                    } else if (now - lastWrite >= KEEP_ALIVE) {
+                        w.write(":\n\n");
+                        w.flush();
+                        lastWrite = now;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // let the browser reconnect
+            }
+        }
+
+        void unsubscribe() {
+            feed.remove(this);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ConsoleFeed.class.getName());
+}
@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Random;
 import javax.servlet.ServletException;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
@@ -426,7 +427,12 @@ public abstract class AbstractItem extends Actionable implements Item, HttpDelet
                         // ignore
                     }
 
-                    Hudson.getInstance().rebuildDependencyGraph();
+                    if (this instanceof AbstractProject) {
+                        Hudson.getInstance().updateDependencyGraph(Collections.singleton((AbstractProject) this),
+                                Collections.<AbstractProject>emptySet());
+                    } else {
+                        Hudson.getInstance().rebuildDependencyGraph();
+                    }
                 }
             }
         }
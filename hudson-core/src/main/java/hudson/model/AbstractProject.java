@@ -82,6 +82,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -941,14 +942,18 @@ public abstract class AbstractProject<P extends AbstractProject<P, R>, R extends
             upstream = new HashSet<AbstractProject>(Items.fromNameList(req.getParameter("upstreamProjects"), AbstractProject.class));
         }
 
-        // dependency setting might have been changed by the user, so rebuild.
-        Hudson.getInstance().rebuildDependencyGraph();
+        // dependency setting might have been changed by the user, so update.
+        Hudson.getInstance().updateDependencyGraph(Collections.<AbstractProject>emptySet(), Collections.singleton(this));
 
         // reflect the submission of the pseudo 'upstream build trriger'.
         // this needs to be done after we release the lock on 'this',
         // or otherwise we could dead-lock
 
-        for (AbstractProject<?, ?> p : Hudson.getInstance().getAllItems(AbstractProject.class)) {
+        // only the requested upstream projects and those that currently trigger us need to be looked at
+        Set<AbstractProject> candidates = new LinkedHashSet<AbstractProject>(upstream);
+        candidates.addAll(Hudson.getInstance().getDependencyGraph().getUpstream(this));
+        List<AbstractProject> changed = new ArrayList<AbstractProject>();
+        for (AbstractProject<?, ?> p : candidates) {
             // Don't consider child projects such as MatrixConfiguration:
             if (!p.isConfigurable()) {
                 continue;
@@ -1009,6 +1014,7 @@ public abstract class AbstractProject<P extends AbstractProject<P, R>, R extends
                     BuildTrigger buildTrigger = pl.get(BuildTrigger.class);
                     CascadingUtil.getExternalProjectProperty(p, BUILD_TRIGGER_PROPERTY_NAME).setValue(buildTrigger);
                     p.save();
+                    changed.add(p);
                 }
             }
         }
@@ -1017,7 +1023,9 @@ public abstract class AbstractProject<P extends AbstractProject<P, R>, R extends
         Hudson.getInstance().getQueue().scheduleMaintenance();
 
         // this is to reflect the upstream build adjustments done above
-        Hudson.getInstance().rebuildDependencyGraph();
+        if (!changed.isEmpty()) {
+            Hudson.getInstance().updateDependencyGraph(Collections.<AbstractProject>emptySet(), changed);
+        }
     }
 
     /**
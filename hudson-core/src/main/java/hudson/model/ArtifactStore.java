@@ -0,0 +1,222 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import hudson.Util;
+import hudson.tasks.ArtifactArchiver;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Archived artifacts, stored once per content.
+ *
+ * <p> Each file is kept under its MD5 checksum, the one {@link Fingerprint}s
+ * use, and the files in the <tt>archive</tt> directory of the builds are
+ * hard links to it. So the builds still have their artifacts as plain files,
+ * while identical artifacts of different builds take the space of one. The
+ * checksums of the artifacts of a build are listed in
+ * <tt>archive.md5</tt>, in the build directory.
+ *
+ * <p> The links of a file are its references: when the artifacts of a build
+ * are deleted, the stored files that are no longer linked from any build
+ * are deleted too. Where the file system can't tell the number of links, the
+ * stored files are kept.
+ *
+ * @see ArtifactArchiver#DEDUPLICATE
+ * @since 3.3.4
+ */
+public final class ArtifactStore {
+
+    static final String MANIFEST = "archive.md5";
+
+    private final File dir;
+
+    public ArtifactStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Gets the store in <tt>HUDSON_HOME/artifactStore</tt>.
+     */
+    public static ArtifactStore get() {
+        File dir = new File(Hudson.getInstance().getRootDir(), "artifactStore");
+        ArtifactStore s = instance;
+        if (s == null || !s.dir.equals(dir)) {
+            instance = s = new ArtifactStore(dir);
+        }
+        return s;
+    }
+
+    /**
+     * Gets the file of the given checksum, which may not exist.
+     */
+    File getFile(String md5sum) {
+        return new File(dir, md5sum.substring(0, 2) + '/' + md5sum);
+    }
+
+    /**
+     * Creates the given file as a link to the stored file of the checksum.
+     *
+     * @return false if there is no such stored file, or if it can't be
+     * linked, in which case the caller is to get the file another way.
+     */
+    public synchronized boolean link(String md5sum, File target) {
+        File f = getFile(md5sum);
+        if (!f.exists()) {
+            return false;
+        }
+        target.getParentFile().mkdirs();
+        target.delete();
+        try {
+            Files.createLink(target.toPath(), f.toPath());
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to link " + target + " to " + f, e);
+            return false;
+        } catch (UnsupportedOperationException e) {
+            LOGGER.log(Level.FINE, "Failed to link " + target + " to " + f, e);
+            return false;
+        }
+    }
+
+    /**
+     * Stores the given file, or replaces it by a link to the stored file if
+     * there is one with the same content.
+     *
+     * @return the checksum of the file, or null if it isn't linked to the
+     * store.
+     */
+    public synchronized String add(File file) throws IOException {
+        String md5sum = Util.getDigestOf(new FileInputStream(file));
+        File f = getFile(md5sum);
+        try {
+            if (!f.exists()) {
+                f.getParentFile().mkdirs();
+                Files.createLink(f.toPath(), file.toPath());
+            } else if (!Files.isSameFile(f.toPath(), file.toPath())) {
+                File tmp = new File(file.getParentFile(), '.' + file.getName() + ".tmp");
+                tmp.delete();
+                Files.createLink(tmp.toPath(), f.toPath());
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    return null;
+                }
+            }
+            return md5sum;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to store " + file, e);
+            return null;
+        } catch (UnsupportedOperationException e) {
+            LOGGER.log(Level.FINE, "Failed to store " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the checksums of archived artifacts to the manifest of a build.
+     *
+     * @param md5sums checksums by path relative to the <tt>archive</tt>
+     * directory.
+     */
+    public synchronized void addToManifest(File buildDir, Map<String, String> md5sums) throws IOException {
+        Map<String, String> manifest = readManifest(buildDir);
+        manifest.putAll(md5sums);
+        PrintWriter w = new PrintWriter(new FileWriter(new File(buildDir, MANIFEST)));
+        try {
+            for (Entry<String, String> e : manifest.entrySet()) {
+                w.println(e.getValue() + "  " + e.getKey());
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Reads the manifest of a build.
+     *
+     * @return checksums by path relative to the <tt>archive</tt> directory,
+     * empty if the build has no manifest.
+     */
+    public static Map<String, String> readManifest(File buildDir) throws IOException {
+        Map<String, String> r = new TreeMap<String, String>();
+        File f = new File(buildDir, MANIFEST);
+        if (!f.exists()) {
+            return r;
+        }
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int i = line.indexOf("  ");
+                if (i > 0) {
+                    r.put(line.substring(i + 2), line.substring(0, i));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return r;
+    }
+
+    /**
+     * Deletes the stored files of the given checksums that are no longer
+     * linked from any build. To be called once the artifacts that referred
+     * to them are deleted.
+     */
+    public synchronized void release(Collection<String> md5sums) {
+        for (String md5sum : new HashSet<String>(md5sums)) {
+            File f = getFile(md5sum);
+            try {
+                if (f.exists() && ((Number) Files.getAttribute(f.toPath(), "unix:nlink")).intValue() <= 1) {
+                    f.delete();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to count the links of " + f, e);
+            } catch (UnsupportedOperationException e) {
+                return; // the file system doesn't count them
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Deletes the manifest of a build, and releases the stored files it
+     * referred to. To be called once the artifacts of the build are deleted.
+     */
+    public void release(File buildDir) throws IOException {
+        Set<String> md5sums = new HashSet<String>(readManifest(buildDir).values());
+        new File(buildDir, MANIFEST).delete();
+        release(md5sums);
+    }
+
+    private static volatile ArtifactStore instance;
+
+    private static final Logger LOGGER = Logger.getLogger(ArtifactStore.class.getName());
+}
@@ -0,0 +1,636 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import hudson.Util;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * {@link FingerprintStorage} that appends fingerprints in binary form to 256
+ * log files, one for each value of the first byte of the MD5 sum.
+ *
+ * <p> Each record of a shard is the length of what follows, the MD5 sum, the
+ * operation, the fingerprint unless it's deleted, and a CRC32 of it all. When
+ * a shard is first used, it's read once to find where the latest record of
+ * each fingerprint is, and a record that wasn't completely written is cut
+ * off. A shard is rewritten with only its latest records once they are less
+ * than half of it.
+ *
+ * <p> The MD5 sums of the fingerprints used by each job are appended to an
+ * index file of the job under <tt>jobs</tt>, so that they can be found
+ * without reading all the fingerprints.
+ *
+ * <p> Fingerprints still in the XML files of {@link XmlFingerprintStorage}
+ * are moved here as they are loaded.
+ *
+ * @since 3.3.4
+ */
+public class BinaryFingerprintStorage extends FingerprintStorage {
+
+    static final int MAGIC = 0x48465053;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    /**
+     * Shards with fewer records than this aren't compacted.
+     */
+    private static final int COMPACT_THRESHOLD = 1000;
+
+    /**
+     * Directory of the XML files, which are migrated.
+     */
+    private final File root;
+    private final File dir;
+    private final File jobsDir;
+    private final Shard[] shards = new Shard[256];
+    private final Object jobsLock = new Object();
+
+    /**
+     * @param root the directory of the fingerprints.
+     */
+    public BinaryFingerprintStorage(File root) {
+        this.root = root;
+        this.dir = new File(root, "store");
+        this.jobsDir = new File(dir, "jobs");
+    }
+
+    @Override
+    public Fingerprint load(byte[] md5sum) throws IOException {
+        byte[] record = shard(md5sum).read(md5sum);
+        if (record != null) {
+            return Fingerprint.readFrom(md5sum, new DataInputStream(
+                    new ByteArrayInputStream(record, 17, record.length - 17)));
+        }
+        return migrate(md5sum);
+    }
+
+    /**
+     * Moves a fingerprint from its XML file, if there's one.
+     */
+    private Fingerprint migrate(byte[] md5sum) throws IOException {
+        File xml = XmlFingerprintStorage.getFingerprintFile(root, md5sum);
+        if (!xml.exists()) {
+            return null;
+        }
+        Fingerprint fp = Fingerprint.load(xml);
+        if (fp != null) {
+            fp.markAllJobsNew();
+            List<Fingerprint> l = new ArrayList<Fingerprint>(1);
+            l.add(fp);
+            write(l);
+        }
+        if (xml.delete()) {
+            XmlFingerprintStorage.deleteIfEmpty(xml.getParentFile());
+            XmlFingerprintStorage.deleteIfEmpty(xml.getParentFile().getParentFile());
+        }
+        return fp;
+    }
+
+    @Override
+    protected void write(Collection<Fingerprint> fingerprints) throws IOException {
+        long start = 0;
+        if (LOGGER.isLoggable(Level.FINE)) {
+            start = System.currentTimeMillis();
+        }
+
+        Map<Shard, List<byte[]>> records = new HashMap<Shard, List<byte[]>>();
+        Map<String, List<byte[]>> jobs = new HashMap<String, List<byte[]>>();
+        for (Fingerprint fp : fingerprints) {
+            byte[] md5sum = Util.fromHexString(fp.getHashString());
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            out.write(md5sum);
+            out.writeByte(PUT);
+            fp.writeTo(out);
+            out.flush();
+
+            Shard shard = shard(md5sum);
+            List<byte[]> l = records.get(shard);
+            if (l == null) {
+                l = new ArrayList<byte[]>();
+                records.put(shard, l);
+            }
+            l.add(buf.toByteArray());
+
+            for (String job : fp.takeNewJobs()) {
+                List<byte[]> keys = jobs.get(job);
+                if (keys == null) {
+                    keys = new ArrayList<byte[]>();
+                    jobs.put(job, keys);
+                }
+                keys.add(md5sum);
+            }
+        }
+        for (Map.Entry<Shard, List<byte[]>> e : records.entrySet()) {
+            e.getKey().append(e.getValue());
+        }
+        for (Map.Entry<String, List<byte[]>> e : jobs.entrySet()) {
+            appendToJobIndex(e.getKey(), e.getValue());
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Saving " + fingerprints.size() + " fingerprints took " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    @Override
+    public void delete(byte[] md5sum) throws IOException {
+        shard(md5sum).delete(md5sum);
+        File xml = XmlFingerprintStorage.getFingerprintFile(root, md5sum);
+        if (xml.delete()) {
+            XmlFingerprintStorage.deleteIfEmpty(xml.getParentFile());
+            XmlFingerprintStorage.deleteIfEmpty(xml.getParentFile().getParentFile());
+        }
+    }
+
+    /**
+     * Lists the fingerprints of all the shards, and the ones that are still
+     * in XML files.
+     */
+    @Override
+    public List<byte[]> list() throws IOException {
+        List<byte[]> r = new ArrayList<byte[]>();
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shard(i);
+            if (shard.file.exists()) {
+                r.addAll(shard.keys());
+            }
+        }
+        r.addAll(XmlFingerprintStorage.list(root));
+        return r;
+    }
+
+    /**
+     * Reads the index file of the job. Fingerprints that have since been
+     * deleted are skipped, and are removed from the file once they are the
+     * majority of it.
+     */
+    @Override
+    public List<String> getFingerprints(String jobFullName) throws IOException {
+        synchronized (jobsLock) {
+            File file = getJobIndexFile(jobFullName);
+            if (!file.exists()) {
+                return new ArrayList<String>();
+            }
+            Set<String> all = new LinkedHashSet<String>();
+            int entries = 0;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (!jobFullName.equals(in.readUTF())) {
+                    // a job whose name has the same digest
+                    return new ArrayList<String>();
+                }
+                byte[] md5sum = new byte[16];
+                while (true) {
+                    try {
+                        in.readFully(md5sum);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    entries++;
+                    all.add(Util.toHexString(md5sum));
+                }
+            } finally {
+                in.close();
+            }
+
+            List<String> r = new ArrayList<String>();
+            for (String md5sum : all) {
+                byte[] key = Util.fromHexString(md5sum);
+                if (shard(key).contains(key) || XmlFingerprintStorage.getFingerprintFile(root, key).exists()) {
+                    r.add(md5sum);
+                }
+            }
+            if (entries > COMPACT_THRESHOLD && r.size() * 2 < entries) {
+                writeJobIndex(jobFullName, r);
+            }
+            return r;
+        }
+    }
+
+    private File getJobIndexFile(String jobFullName) {
+        return new File(jobsDir, Util.getDigestOf(jobFullName) + ".idx");
+    }
+
+    private void appendToJobIndex(String jobFullName, List<byte[]> keys) throws IOException {
+        synchronized (jobsLock) {
+            File file = getJobIndexFile(jobFullName);
+            boolean exists = file.exists();
+            if (!exists) {
+                jobsDir.mkdirs();
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            try {
+                if (!exists) {
+                    out.writeUTF(jobFullName);
+                }
+                for (byte[] key : keys) {
+                    out.write(key);
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private void writeJobIndex(String jobFullName, List<String> md5sums) throws IOException {
+        File file = getJobIndexFile(jobFullName);
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeUTF(jobFullName);
+            for (String md5sum : md5sums) {
+                out.write(Util.fromHexString(md5sum));
+            }
+        } finally {
+            out.close();
+        }
+        replace(tmp, file);
+    }
+
+    private Shard shard(byte[] md5sum) {
+        return shard(md5sum[0] & 0xFF);
+    }
+
+    private synchronized Shard shard(int i) {
+        if (shards[i] == null) {
+            shards[i] = new Shard(new File(dir, Util.toHexString(new byte[]{(byte) i}) + ".dat"));
+        }
+        return shards[i];
+    }
+
+    private static void replace(File src, File dst) throws IOException {
+        if (src.renameTo(dst)) {
+            return;
+        }
+        // can't rename over an existing file on some platforms
+        if (!dst.delete() || !src.renameTo(dst)) {
+            throw new IOException("Failed to rename " + src + " to " + dst);
+        }
+    }
+
+    /**
+     * One of the log files, and where the latest record of each of its
+     * fingerprints is.
+     */
+    private final class Shard {
+
+        final File file;
+        /**
+         * Opened when the shard is first used.
+         */
+        private RandomAccessFile raf;
+        private final KeyIndex index = new KeyIndex();
+        /**
+         * Number of records in the file, including the ones that have been
+         * superseded.
+         */
+        private int records;
+
+        Shard(File file) {
+            this.file = file;
+        }
+
+        private void open() throws IOException {
+            if (raf != null) {
+                return;
+            }
+            dir.mkdirs();
+            RandomAccessFile f = new RandomAccessFile(file, "rw");
+            try {
+                if (f.length() < HEADER_SIZE) {
+                    f.setLength(0);
+                    f.writeInt(MAGIC);
+                    f.writeInt(VERSION);
+                } else {
+                    if (f.readInt() != MAGIC || f.readInt() != VERSION) {
+                        throw new IOException("Not a fingerprint shard: " + file);
+                    }
+                    scan(f);
+                }
+            } catch (IOException e) {
+                f.close();
+                throw e;
+            }
+            raf = f;
+        }
+
+        /**
+         * Reads the records to index them, and cuts off the last one if it's
+         * incomplete.
+         */
+        private void scan(RandomAccessFile f) throws IOException {
+            long length = f.length();
+            long pos = HEADER_SIZE;
+            f.seek(pos);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(f.getChannel())));
+            CRC32 crc = new CRC32();
+            byte[] body = new byte[256];
+            while (pos + 4 <= length) {
+                int len = in.readInt();
+                if (len < 17 || pos + 4 + len + 4 > length) {
+                    break;
+                }
+                if (body.length < len) {
+                    body = new byte[len];
+                }
+                in.readFully(body, 0, len);
+                crc.reset();
+                crc.update(body, 0, len);
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                if (body[16] == DELETE) {
+                    index.remove(body, 0);
+                } else {
+                    index.put(body, 0, pos);
+                }
+                records++;
+                pos += 4 + len + 4;
+            }
+            if (pos < length) {
+                LOGGER.warning("Discarding the incomplete end of " + file + " after " + pos + " bytes");
+                f.setLength(pos);
+            }
+        }
+
+        synchronized byte[] read(byte[] md5sum) throws IOException {
+            if (raf == null && !file.exists()) {
+                return null;
+            }
+            open();
+            long offset = index.get(md5sum, 0);
+            if (offset < 0) {
+                return null;
+            }
+            raf.seek(offset);
+            byte[] body = new byte[raf.readInt()];
+            raf.readFully(body);
+            return body;
+        }
+
+        synchronized boolean contains(byte[] md5sum) throws IOException {
+            if (raf == null && !file.exists()) {
+                return false;
+            }
+            open();
+            return index.get(md5sum, 0) >= 0;
+        }
+
+        synchronized List<byte[]> keys() throws IOException {
+            open();
+            return index.keys();
+        }
+
+        /**
+         * Appends records, whose bodies start with the MD5 sum and the
+         * operation, in a single write.
+         */
+        synchronized void append(List<byte[]> bodies) throws IOException {
+            open();
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            CRC32 crc = new CRC32();
+            long pos = raf.length();
+            long[] offsets = new long[bodies.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                byte[] body = bodies.get(i);
+                offsets[i] = pos + out.size();
+                crc.reset();
+                crc.update(body);
+                out.writeInt(body.length);
+                out.write(body);
+                out.writeInt((int) crc.getValue());
+            }
+            raf.seek(pos);
+            raf.write(buf.toByteArray());
+
+            for (int i = 0; i < offsets.length; i++) {
+                byte[] body = bodies.get(i);
+                if (body[16] == DELETE) {
+                    index.remove(body, 0);
+                } else {
+                    index.put(body, 0, offsets[i]);
+                }
+            }
+            records += offsets.length;
+            if (records > COMPACT_THRESHOLD && index.size() * 2 < records) {
+                compact();
+            }
+        }
+
+        synchronized void delete(byte[] md5sum) throws IOException {
+            if (!contains(md5sum)) {
+                return;
+            }
+            byte[] body = new byte[17];
+            System.arraycopy(md5sum, 0, body, 0, 16);
+            body[16] = DELETE;
+            List<byte[]> l = new ArrayList<byte[]>(1);
+            l.add(body);
+            append(l);
+        }
+
+        /**
+         * Rewrites the file with only the latest records.
+         */
+        private void compact() throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            KeyIndex compacted = new KeyIndex();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                CRC32 crc = new CRC32();
+                for (byte[] md5sum : index.keys()) {
+                    raf.seek(index.get(md5sum, 0));
+                    byte[] body = new byte[raf.readInt()];
+                    raf.readFully(body);
+                    compacted.put(body, 0, out.size());
+                    crc.reset();
+                    crc.update(body);
+                    out.writeInt(body.length);
+                    out.write(body);
+                    out.writeInt((int) crc.getValue());
+                }
+            } finally {
+                out.close();
+            }
+            raf.close();
+            try {
+                replace(tmp, file);
+                index.replaceWith(compacted);
+                records = index.size();
+            } finally {
+                raf = new RandomAccessFile(file, "rw");
+            }
+        }
+    }
+
+    /**
+     * Map from MD5 sums to offsets, with open addressing over arrays so that
+     * an entry only takes three longs.
+     */
+    static final class KeyIndex {
+
+        private long[] hi = new long[16];
+        private long[] lo = new long[16];
+        /**
+         * Offset of each entry, where 0 is a free slot.
+         */
+        private long[] offsets = new long[16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return the offset, or -1 if the key isn't there.
+         */
+        long get(byte[] key, int off) {
+            int i = find(toLong(key, off), toLong(key, off + 8));
+            return offsets[i] == 0 ? -1 : offsets[i];
+        }
+
+        void put(byte[] key, int off, long offset) {
+            assert offset > 0;
+            if ((size + 1) * 4 > offsets.length * 3) {
+                grow();
+            }
+            long h = toLong(key, off), l = toLong(key, off + 8);
+            int i = find(h, l);
+            if (offsets[i] == 0) {
+                hi[i] = h;
+                lo[i] = l;
+                size++;
+            }
+            offsets[i] = offset;
+        }
+
+        void remove(byte[] key, int off) {
+            int mask = offsets.length - 1;
+            int i = find(toLong(key, off), toLong(key, off + 8));
+            if (offsets[i] == 0) {
+                return;
+            }
+            // shift back the entries that follow, so that lookups don't stop at the hole
+            for (int j = (i + 1) & mask; offsets[j] != 0; j = (j + 1) & mask) {
+                int k = slot(lo[j], mask);
+                if (i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+                    continue;
+                }
+                hi[i] = hi[j];
+                lo[i] = lo[j];
+                offsets[i] = offsets[j];
+                i = j;
+            }
+            offsets[i] = 0;
+            size--;
+        }
+
+        List<byte[]> keys() {
+            List<byte[]> r = new ArrayList<byte[]>(size);
+            for (int i = 0; i < offsets.length; i++) {
+                if (offsets[i] != 0) {
+                    byte[] key = new byte[16];
+                    fromLong(hi[i], key, 0);
+                    fromLong(lo[i], key, 8);
+                    r.add(key);
+                }
+            }
+            return r;
+        }
+
+        void replaceWith(KeyIndex that) {
+            hi = that.hi;
+            lo = that.lo;
+            offsets = that.offsets;
+            size = that.size;
+        }
+
+        /**
+         * Finds the slot of the key, or the free slot where it would go.
+         */
+        private int find(long h, long l) {
+            int mask = offsets.length - 1;
+            int i = slot(l, mask);
+            while (offsets[i] != 0 && (hi[i] != h || lo[i] != l)) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void grow() {
+            long[] oldHi = hi, oldLo = lo, oldOffsets = offsets;
+            hi = new long[oldOffsets.length * 2];
+            lo = new long[oldOffsets.length * 2];
+            offsets = new long[oldOffsets.length * 2];
+            for (int i = 0; i < oldOffsets.length; i++) {
+                if (oldOffsets[i] != 0) {
+                    int j = find(oldHi[i], oldLo[i]);
+                    hi[j] = oldHi[i];
+                    lo[j] = oldLo[i];
+                    offsets[j] = oldOffsets[i];
+                }
+            }
+        }
+
+        // MD5 sums are evenly distributed, so their bits can be used as they are
+        private static int slot(long l, int mask) {
+            return (int) (l ^ (l >>> 32)) & mask;
+        }
+
+        private static long toLong(byte[] b, int off) {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (b[off + i] & 0xFF);
+            }
+            return v;
+        }
+
+        private static void fromLong(long v, byte[] b, int off) {
+            for (int i = 7; i >= 0; i--) {
+                b[off + i] = (byte) v;
+                v >>>= 8;
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(BinaryFingerprintStorage.class.getName());
+}
@@ -29,9 +29,9 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -51,14 +51,42 @@ import org.springframework.security.core.context.SecurityContextHolder;
  * a change (which is relatively rare), a new instance will be created. This
  * eliminates the need of synchronization.
  *
+ * <p> When only a few projects change, {@link #update(Collection, Collection)}
+ * creates the new instance from the edges of this one, asking only the
+ * changed projects to build their dependencies again. The transitive
+ * closures are memoized, since the graph doesn't change once built.
+ *
  * @see Hudson#getDependencyGraph()
  * @author Kohsuke Kawaguchi
  */
 public final class DependencyGraph implements Comparator<AbstractProject> {
 
-    private Map<AbstractProject, List<DependencyGroup>> forward = new HashMap<AbstractProject, List<DependencyGroup>>();
-    private Map<AbstractProject, List<DependencyGroup>> backward = new HashMap<AbstractProject, List<DependencyGroup>>();
+    // All the maps are keyed by the full names of the projects, since lazily
+    // loaded projects may be loaded again as new instances.
+    private Map<String, List<DependencyGroup>> forward = new HashMap<String, List<DependencyGroup>>();
+    private Map<String, List<DependencyGroup>> backward = new HashMap<String, List<DependencyGroup>>();
+    /**
+     * Ungrouped edges, from which {@link #forward} and {@link #backward} are computed.
+     */
+    private Map<String, List<Dependency>> rawForward = new HashMap<String, List<Dependency>>();
+    private Map<String, List<Dependency>> rawBackward = new HashMap<String, List<Dependency>>();
+    /**
+     * Edges keyed by the project whose {@link AbstractProject#buildDependencyGraph(DependencyGraph)}
+     * declared them, so that they can be replaced when that project changes.
+     */
+    private Map<String, List<Dependency>> contributions = new HashMap<String, List<Dependency>>();
+    /**
+     * Project currently building its dependencies, while the graph is built.
+     */
+    private String contributor;
+    /**
+     * Projects whose lists in {@link #forward}/{@link #backward} need to be
+     * recomputed, while the graph is built.
+     */
+    private Set<String> touched = new HashSet<String>();
     private boolean built;
+    private final Map<String, Set<AbstractProject>> transitiveUpstream = new ConcurrentHashMap<String, Set<AbstractProject>>();
+    private final Map<String, Set<AbstractProject>> transitiveDownstream = new ConcurrentHashMap<String, Set<AbstractProject>>();
     /**
      * A unique set that holds the list of projects that have already computed
      * its dependency graph
@@ -69,6 +97,16 @@ public final class DependencyGraph implements Comparator<AbstractProject> {
      * Builds the dependency graph.
      */
     public DependencyGraph() {
+        this(null);
+    }
+
+    /**
+     * Builds the dependency graph from the edges declared by the given
+     * projects only, which must include every project that declares some.
+     *
+     * @param declarers null to ask all the projects.
+     */
+    /*package*/ DependencyGraph(Collection<? extends AbstractProject> declarers) {
         // Set full privileges while computing to avoid missing any projects the current user cannot see.
         // Use setContext (NOT getContext().setAuthentication()) so we don't affect concurrent threads for same HttpSession.
         SecurityContext saveCtx = SecurityContextHolder.getContext();
@@ -76,15 +114,15 @@ public final class DependencyGraph implements Comparator<AbstractProject> {
             NotSerilizableSecurityContext system = new NotSerilizableSecurityContext();
             system.setAuthentication(ACL.SYSTEM);
             SecurityContextHolder.setContext(system);
-            for (AbstractProject p : Hudson.getInstance().getAllItems(AbstractProject.class)) {
+            if (declarers == null) {
+                declarers = Hudson.getInstance().getAllItems(AbstractProject.class);
+            }
+            for (AbstractProject p : declarers) {
+                contributor = p.getFullName();
                 p.buildDependencyGraph(this);
             }
 
-            forward = finalize(forward);
-            backward = finalize(backward);
-
-            built = true;
-            alreadyComputedProjects.clear();
+            finish();
         } finally {
             if (saveCtx.getAuthentication() == null) {
                 SecurityContextHolder.clearContext();
@@ -99,7 +137,166 @@ public final class DependencyGraph implements Comparator<AbstractProject> {
      */
     private DependencyGraph(boolean dummy) {
         forward = backward = Collections.emptyMap();
+        rawForward = rawBackward = contributions = Collections.emptyMap();
+        built = true;
+    }
+
+    /**
+     * Builds a graph from the edges of another one.
+     *
+     * @see #update(Collection, Collection)
+     */
+    private DependencyGraph(DependencyGraph base, Collection<? extends AbstractProject> removed, Collection<? extends AbstractProject> updated) {
+        // Lists are never modified in place, so copying the maps is enough.
+        forward = new HashMap<String, List<DependencyGroup>>(base.forward);
+        backward = new HashMap<String, List<DependencyGroup>>(base.backward);
+        rawForward = new HashMap<String, List<Dependency>>(base.rawForward);
+        rawBackward = new HashMap<String, List<Dependency>>(base.rawBackward);
+        contributions = new HashMap<String, List<Dependency>>(base.contributions);
+
+        for (AbstractProject p : removed) {
+            String name = p.getFullName();
+            retract(name);
+            // Edges declared by other projects can't refer to p any more.
+            List<Dependency> out = rawForward.remove(name);
+            if (out != null) {
+                for (Dependency d : out) {
+                    removeRaw(rawBackward, d.getDownstreamProject().getFullName(), d);
+                }
+            }
+            List<Dependency> in = rawBackward.remove(name);
+            if (in != null) {
+                for (Dependency d : in) {
+                    removeRaw(rawForward, d.getUpstreamProject().getFullName(), d);
+                }
+            }
+            touched.add(name);
+        }
+
+        SecurityContext saveCtx = SecurityContextHolder.getContext();
+        try {
+            NotSerilizableSecurityContext system = new NotSerilizableSecurityContext();
+            system.setAuthentication(ACL.SYSTEM);
+            SecurityContextHolder.setContext(system);
+            for (AbstractProject p : updated) {
+                contributor = p.getFullName();
+                retract(contributor);
+                p.buildDependencyGraph(this);
+            }
+
+            finish();
+        } finally {
+            if (saveCtx.getAuthentication() == null) {
+                SecurityContextHolder.clearContext();
+            } else {
+                SecurityContextHolder.setContext(saveCtx);
+            }
+        }
+    }
+
+    /**
+     * Creates a new graph that reflects the changes to the given projects,
+     * without asking the other projects to build their dependencies again.
+     *
+     * <p> This is only correct when the edges declared by the other projects
+     * don't change, which is the case when a project is reconfigured or
+     * deleted, but not when a project is created or renamed, since others
+     * may refer to it by name.
+     *
+     * @param removed projects that no longer exist.
+     * @param updated projects whose configuration changed.
+     * @since 3.3.4
+     */
+    public DependencyGraph update(Collection<? extends AbstractProject> removed, Collection<? extends AbstractProject> updated) {
+        return new DependencyGraph(this, removed, updated);
+    }
+
+    /**
+     * Checks whether the edges of this graph refer to another instance of the
+     * given project than the given one, which happens when the project was
+     * loaded again since the graph was built. The edges declared by other
+     * projects then need to be built again too.
+     */
+    /*package*/ boolean hasOtherInstance(AbstractProject p) {
+        String name = p.getFullName();
+        List<Dependency> out = rawForward.get(name);
+        if (out != null) {
+            for (Dependency d : out) {
+                if (d.getUpstreamProject() != p) {
+                    return true;
+                }
+            }
+        }
+        List<Dependency> in = rawBackward.get(name);
+        if (in != null) {
+            for (Dependency d : in) {
+                if (d.getDownstreamProject() != p) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the edges that the given project declared.
+     */
+    private void retract(String name) {
+        List<Dependency> deps = contributions.remove(name);
+        if (deps != null) {
+            for (Dependency d : deps) {
+                removeRaw(rawForward, d.getUpstreamProject().getFullName(), d);
+                removeRaw(rawBackward, d.getDownstreamProject().getFullName(), d);
+            }
+        }
+    }
+
+    private void removeRaw(Map<String, List<Dependency>> map, String key, Dependency dep) {
+        List<Dependency> old = map.get(key);
+        if (old == null) {
+            return;
+        }
+        List<Dependency> l = new ArrayList<Dependency>(old.size());
+        for (Dependency d : old) {
+            if (d != dep) {
+                l.add(d);
+            }
+        }
+        if (l.isEmpty()) {
+            map.remove(key);
+        } else {
+            map.put(key, l);
+        }
+        touched.add(key);
+    }
+
+    private void addRaw(Map<String, List<Dependency>> map, String key, Dependency dep) {
+        List<Dependency> old = map.get(key);
+        List<Dependency> l = old == null ? new ArrayList<Dependency>() : new ArrayList<Dependency>(old);
+        l.add(dep);
+        map.put(key, l);
+    }
+
+    /**
+     * Groups the edges of the projects that have been touched, and makes the
+     * graph immutable.
+     */
+    private void finish() {
+        for (String name : touched) {
+            group(forward, name, rawForward.get(name));
+            group(backward, name, rawBackward.get(name));
+        }
+        touched = null;
+        contributor = null;
+
+        forward = Collections.unmodifiableMap(forward);
+        backward = Collections.unmodifiableMap(backward);
+        rawForward = Collections.unmodifiableMap(rawForward);
+        rawBackward = Collections.unmodifiableMap(rawBackward);
+        contributions = Collections.unmodifiableMap(contributions);
+
         built = true;
+        alreadyComputedProjects.clear();
     }
 
     /**
@@ -141,8 +338,8 @@ public final class DependencyGraph implements Comparator<AbstractProject> {
         return get(backward, p, true);
     }
 
-    private List<AbstractProject> get(Map<AbstractProject, List<DependencyGroup>> map, AbstractProject src, boolean up) {
-        List<DependencyGroup> v = map.get(src);
+    private List<AbstractProject> get(Map<String, List<DependencyGroup>> map, AbstractProject src, boolean up) {
+        List<DependencyGroup> v = map.get(src.getFullName());
         if (v == null) {
             return Collections.emptyList();
         }
@@ -167,8 +364,8 @@ public final class DependencyGraph implements Comparator<AbstractProject> {
         return get(backward, p);
     }
 
-    private List<Dependency> get(Map<AbstractProject, List<DependencyGroup>> map, AbstractProject src) {
-        List<DependencyGroup> v = map.get(src);
+    private List<Dependency> get(Map<String, List<DependencyGroup>> map, AbstractProject src) {
+        List<DependencyGroup> v = map.get(src.getFullName());
         if (v != null) {
             return Collections.<Dependency>unmodifiableList(v);
         } else {
@@ -191,8 +388,13 @@ public final class DependencyGraph implements Comparator<AbstractProject> {
         if (built) {
             throw new IllegalStateException();
         }
-        add(forward, dep.getUpstreamProject(), dep);
-        add(backward, dep.getDownstreamProject(), dep);
+        String upstream = dep.getUpstreamProject().getFullName();
+        String downstream = dep.getDownstreamProject().getFullName();
+        addRaw(rawForward, upstream, dep);
+        addRaw(rawBackward, downstream, dep);
+        addRaw(contributions, contributor, dep);
+        touched.add(upstream);
+        touched.add(downstream);
     }
 
     /**
@@ -258,7 +460,7 @@ public final class DependencyGraph implements Comparator<AbstractProject> {
      * project.
      */
     public Set<AbstractProject> getTransitiveUpstream(AbstractProject src) {
-        return getTransitive(backward, src, true);
+        return getTransitive(transitiveUpstream, backward, src, true);
     }
 
     /**
@@ -266,10 +468,26 @@ public final class DependencyGraph implements Comparator<AbstractProject> {
      * project.
      */
     public Set<AbstractProject> getTransitiveDownstream(AbstractProject src) {
-        return getTransitive(forward, src, false);
+        return getTransitive(transitiveDownstream, forward, src, false);
+    }
+
+    /**
+     * @return unmodifiable set, which is computed only once per graph and project.
+     */
+    private Set<AbstractProject> getTransitive(Map<String, Set<AbstractProject>> cache,
+            Map<String, List<DependencyGroup>> direction, AbstractProject src, boolean up) {
+        if (!built) {
+            return computeTransitive(direction, src, up);
+        }
+        Set<AbstractProject> r = cache.get(src.getFullName());
+        if (r == null) {
+            r = Collections.unmodifiableSet(computeTransitive(direction, src, up));
+            cache.put(src.getFullName(), r);
+        }
+        return r;
     }
 
-    private Set<AbstractProject> getTransitive(Map<AbstractProject, List<DependencyGroup>> direction, AbstractProject src, boolean up) {
+    private Set<AbstractProject> computeTransitive(Map<String, List<DependencyGroup>> direction, AbstractProject src, boolean up) {
         Set<AbstractProject> visited = new HashSet<AbstractProject>();
         Stack<AbstractProject> queue = new Stack<AbstractProject>();
 
@@ -288,12 +506,23 @@ public final class DependencyGraph implements Comparator<AbstractProject> {
         return visited;
     }
 
-    private void add(Map<AbstractProject, List<DependencyGroup>> map, AbstractProject key, Dependency dep) {
-        List<DependencyGroup> set = map.get(key);
-        if (set == null) {
-            set = new ArrayList<DependencyGroup>();
-            map.put(key, set);
+    /**
+     * Recomputes the grouped, sorted list of edges of the given project.
+     */
+    private void group(Map<String, List<DependencyGroup>> map, String key, List<Dependency> deps) {
+        if (deps == null || deps.isEmpty()) {
+            map.remove(key);
+            return;
         }
+        List<DependencyGroup> set = new ArrayList<DependencyGroup>();
+        for (Dependency dep : deps) {
+            add(set, dep);
+        }
+        Collections.sort(set, NAME_COMPARATOR);
+        map.put(key, Collections.unmodifiableList(set));
+    }
+
+    private void add(List<DependencyGroup> set, Dependency dep) {
         for (ListIterator<DependencyGroup> it = set.listIterator(); it.hasNext();) {
             DependencyGroup d = it.next();
             // Check for existing edge that connects the same two projects:
@@ -305,14 +534,6 @@ public final class DependencyGraph implements Comparator<AbstractProject> {
         // Otherwise add to list:
         set.add(new DependencyGroup(dep));
     }
-
-    private Map<AbstractProject, List<DependencyGroup>> finalize(Map<AbstractProject, List<DependencyGroup>> m) {
-        for (Entry<AbstractProject, List<DependencyGroup>> e : m.entrySet()) {
-            Collections.sort(e.getValue(), NAME_COMPARATOR);
-            e.setValue(Collections.unmodifiableList(e.getValue()));
-        }
-        return Collections.unmodifiableMap(m);
-    }
     /**
      * Margins between the project name and its bounding box.
      */
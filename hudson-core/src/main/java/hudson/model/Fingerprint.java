@@ -26,21 +26,26 @@ import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import hudson.Util;
 import hudson.XmlFile;
 import hudson.BulkChange;
-import hudson.model.listeners.SaveableListener;
 import hudson.util.HexBinaryConverter;
 import hudson.util.Iterators;
 import hudson.util.XStream2;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -449,6 +454,36 @@ public class Fingerprint implements ModelObject, Saveable {
             return ranges.get(ranges.size() - 1).isSmallerThan(n);
         }
 
+        /**
+         * Writes the ranges in a compact binary form, where each range is
+         * written as its distance from the previous one and its length.
+         */
+        /*package*/ synchronized void writeTo(DataOutput out) throws IOException {
+            writeVarInt(out, ranges.size());
+            int prev = 0;
+            for (Range r : ranges) {
+                writeVarInt(out, zigZag(r.start - prev));
+                writeVarInt(out, zigZag(r.end - r.start));
+                prev = r.end;
+            }
+        }
+
+        /**
+         * Reads ranges written by {@link #writeTo(DataOutput)}.
+         */
+        /*package*/ static RangeSet readFrom(DataInput in) throws IOException {
+            int size = readVarInt(in);
+            List<Range> ranges = new ArrayList<Range>(size);
+            int prev = 0;
+            for (int i = 0; i < size; i++) {
+                int start = prev + unZigZag(readVarInt(in));
+                int end = start + unZigZag(readVarInt(in));
+                ranges.add(new Range(start, end));
+                prev = end;
+            }
+            return new RangeSet(ranges);
+        }
+
         /**
          * Parses a {@link RangeSet} from a string like "1-3,5,7-9"
          */
@@ -533,13 +568,22 @@ public class Fingerprint implements ModelObject, Saveable {
      * Range of builds that use this file keyed by a job full name.
      */
     private final Hashtable<String, RangeSet> usages = new Hashtable<String, RangeSet>();
+    /**
+     * Jobs that started using this file since it was last written, for the
+     * index of {@link BinaryFingerprintStorage}.
+     */
+    private transient Set<String> newJobs;
 
     public Fingerprint(Run build, String fileName, byte[] md5sum) throws IOException {
-        this.original = build == null ? null : new BuildPtr(build);
+        this(build == null ? null : new BuildPtr(build), fileName, md5sum, new Date());
+        save();
+    }
+
+    /*package*/ Fingerprint(BuildPtr original, String fileName, byte[] md5sum, Date timestamp) {
+        this.original = original;
         this.md5sum = md5sum;
         this.fileName = fileName;
-        this.timestamp = new Date();
-        save();
+        this.timestamp = timestamp;
     }
 
     /**
@@ -670,12 +714,100 @@ public class Fingerprint implements ModelObject, Saveable {
             if (r == null) {
                 r = new RangeSet();
                 usages.put(jobFullName, r);
+                if (newJobs == null) {
+                    newJobs = new HashSet<String>();
+                }
+                newJobs.add(jobFullName);
             }
             r.add(n);
         }
         save();
     }
 
+    /**
+     * Gets the jobs that started using this file since the last call.
+     */
+    /*package*/ synchronized Set<String> takeNewJobs() {
+        Set<String> r = newJobs;
+        newJobs = null;
+        return r == null ? Collections.<String>emptySet() : r;
+    }
+
+    /**
+     * Considers all the jobs using this file as new, for a fingerprint that
+     * has been read from elsewhere.
+     */
+    /*package*/ synchronized void markAllJobsNew() {
+        newJobs = new HashSet<String>(usages.keySet());
+    }
+
+    /**
+     * Writes this fingerprint, except for its MD5 sum, in binary form.
+     */
+    /*package*/ synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(timestamp.getTime());
+        out.writeUTF(fileName);
+        out.writeBoolean(original != null);
+        if (original != null) {
+            out.writeUTF(original.name);
+            out.writeInt(original.number);
+        }
+        synchronized (usages) {
+            out.writeInt(usages.size());
+            for (Entry<String, RangeSet> e : usages.entrySet()) {
+                out.writeUTF(e.getKey());
+                e.getValue().writeTo(out);
+            }
+        }
+    }
+
+    /**
+     * Reads a fingerprint written by {@link #writeTo(DataOutputStream)}.
+     */
+    /*package*/ static Fingerprint readFrom(byte[] md5sum, DataInputStream in) throws IOException {
+        Date timestamp = new Date(in.readLong());
+        String fileName = in.readUTF();
+        BuildPtr original = null;
+        if (in.readBoolean()) {
+            original = new BuildPtr(in.readUTF(), in.readInt());
+        }
+        Fingerprint fp = new Fingerprint(original, fileName, md5sum, timestamp);
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String job = in.readUTF();
+            fp.usages.put(job, RangeSet.readFrom(in));
+        }
+        return fp;
+    }
+
+    private static void writeVarInt(DataOutput out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed number");
+    }
+
+    private static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unZigZag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
     /**
      * Returns true if any of the builds recorded in this fingerprint is still
      * retained.
@@ -703,25 +835,13 @@ public class Fingerprint implements ModelObject, Saveable {
     }
 
     /**
-     * Save the settings to a file.
+     * Saves this fingerprint to the {@link FingerprintStorage}.
      */
     public synchronized void save() throws IOException {
         if (BulkChange.contains(this)) {
             return;
         }
-
-        long start = 0;
-        if (logger.isLoggable(Level.FINE)) {
-            start = System.currentTimeMillis();
-        }
-
-        File file = getFingerprintFile(md5sum);
-        getConfigFile(file).write(this);
-        SaveableListener.fireOnChange(this, getConfigFile(file));
-
-        if (logger.isLoggable(Level.FINE)) {
-            logger.fine("Saving fingerprint " + file + " took " + (System.currentTimeMillis() - start) + "ms");
-        }
+        Hudson.getInstance().getFingerprintMap().getStorage().save(this);
     }
 
     public Api getApi() {
@@ -731,25 +851,13 @@ public class Fingerprint implements ModelObject, Saveable {
     /**
      * The file we save our configuration.
      */
-    private static XmlFile getConfigFile(File file) {
+    /*package*/ static XmlFile getConfigFile(File file) {
         return new XmlFile(XSTREAM, file);
     }
 
     /**
-     * Determines the file name from md5sum.
+     * Loads a {@link Fingerprint} from an XML file.
      */
-    private static File getFingerprintFile(byte[] md5sum) {
-        assert md5sum.length == 16;
-        return new File(Hudson.getInstance().getRootDir(),
-                "fingerprints/" + Util.toHexString(md5sum, 0, 1) + '/' + Util.toHexString(md5sum, 1, 1) + '/' + Util.toHexString(md5sum, 2, md5sum.length - 2) + ".xml");
-    }
-
-    /**
-     * Loads a {@link Fingerprint} from a file in the image.
-     */
-    /*package*/ static Fingerprint load(byte[] md5sum) throws IOException {
-        return load(getFingerprintFile(md5sum));
-    }
     /*package*/ static Fingerprint load(File file) throws IOException {
         XmlFile configFile = getConfigFile(file);
         if (!configFile.exists()) {
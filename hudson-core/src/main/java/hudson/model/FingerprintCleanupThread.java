@@ -17,12 +17,11 @@
 package hudson.model;
 
 import hudson.Extension;
+import hudson.Util;
 
-import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Level;
-import java.util.regex.Pattern;
 
 /**
  * Scans the fingerprint database and remove old records that are no longer
@@ -54,21 +53,17 @@ public final class FingerprintCleanupThread extends AsyncPeriodicWork {
     protected void execute(TaskListener listener) {
         int numFiles = 0;
 
-        File root = new File(Hudson.getInstance().getRootDir(), "fingerprints");
-        File[] files1 = root.listFiles(LENGTH2DIR_FILTER);
-        if (files1 != null) {
-            for (File file1 : files1) {
-                File[] files2 = file1.listFiles(LENGTH2DIR_FILTER);
-                for (File file2 : files2) {
-                    File[] files3 = file2.listFiles(FINGERPRINTFILE_FILTER);
-                    for (File file3 : files3) {
-                        if (check(file3)) {
-                            numFiles++;
-                        }
-                    }
-                    deleteIfEmpty(file2);
-                }
-                deleteIfEmpty(file1);
+        FingerprintStorage storage = Hudson.getInstance().getFingerprintMap().getStorage();
+        List<byte[]> all;
+        try {
+            all = storage.list();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to list fingerprints", e);
+            return;
+        }
+        for (byte[] md5sum : all) {
+            if (check(storage, md5sum)) {
+                numFiles++;
             }
         }
 
@@ -76,43 +71,18 @@ public final class FingerprintCleanupThread extends AsyncPeriodicWork {
     }
 
     /**
-     * Deletes a directory if it's empty.
-     */
-    private void deleteIfEmpty(File dir) {
-        String[] r = dir.list();
-        if (r == null) {
-            return; // can happen in a rare occasion
-        }
-        if (r.length == 0) {
-            dir.delete();
-        }
-    }
-
-    /**
-     * Examines the file and returns true if a file was deleted.
+     * Examines the fingerprint and returns true if it was deleted.
      */
-    private boolean check(File fingerprintFile) {
+    private boolean check(FingerprintStorage storage, byte[] md5sum) {
         try {
-            Fingerprint fp = Fingerprint.load(fingerprintFile);
-            if (!fp.isAlive()) {
-                fingerprintFile.delete();
+            Fingerprint fp = storage.load(md5sum);
+            if (fp != null && !fp.isAlive()) {
+                storage.delete(md5sum);
                 return true;
             }
         } catch (IOException e) {
-            logger.log(Level.WARNING, "Failed to process " + fingerprintFile, e);
+            logger.log(Level.WARNING, "Failed to process " + Util.toHexString(md5sum), e);
         }
         return false;
     }
-    private static final FileFilter LENGTH2DIR_FILTER = new FileFilter() {
-        public boolean accept(File f) {
-            return f.isDirectory() && f.getName().length() == 2;
-        }
-    };
-    private static final FileFilter FINGERPRINTFILE_FILTER = new FileFilter() {
-        private final Pattern PATTERN = Pattern.compile("[0-9a-f]{28}\\.xml");
-
-        public boolean accept(File f) {
-            return f.isFile() && PATTERN.matcher(f.getName()).matches();
-        }
-    };
 }
@@ -22,6 +22,8 @@ import hudson.util.KeyedDataStorage;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -44,6 +46,7 @@ public final class FingerprintMap extends KeyedDataStorage<Fingerprint, Fingerpr
      * longer in use.
      */
     private transient ConcurrentHashMap<String, Object> core = new ConcurrentHashMap<String, Object>();
+    private transient volatile FingerprintStorage storage;
 
     /**
      * Returns true if there's some data in the fingerprint database.
@@ -52,6 +55,50 @@ public final class FingerprintMap extends KeyedDataStorage<Fingerprint, Fingerpr
         return new File(Hudson.getInstance().getRootDir(), "fingerprints").exists();
     }
 
+    /**
+     * Gets where the fingerprints are stored.
+     *
+     * @since 3.3.4
+     */
+    public FingerprintStorage getStorage() {
+        FingerprintStorage s = storage;
+        if (s == null) {
+            synchronized (this) {
+                s = storage;
+                if (s == null) {
+                    storage = s = FingerprintStorage.create(new File(Hudson.getInstance().getRootDir(), "fingerprints"));
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Replaces where the fingerprints are stored, which is meant to be done
+     * before any fingerprint is used.
+     *
+     * @since 3.3.4
+     */
+    public void setStorage(FingerprintStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Gets the fingerprints of the files used by the given job.
+     *
+     * @since 3.3.4
+     */
+    public List<Fingerprint> getFingerprints(Job<?, ?> job) throws IOException {
+        List<Fingerprint> r = new ArrayList<Fingerprint>();
+        for (String md5sum : getStorage().getFingerprints(job.getFullName())) {
+            Fingerprint fp = get(md5sum);
+            if (fp != null) {
+                r.add(fp);
+            }
+        }
+        return r;
+    }
+
     /**
      * @param build set to non-null if {@link Fingerprint} to be created (if so)
      * will have this build as the owner. Otherwise null, to indicate an
@@ -93,7 +140,7 @@ public final class FingerprintMap extends KeyedDataStorage<Fingerprint, Fingerpr
     }
 
     protected Fingerprint load(String key) throws IOException {
-        return Fingerprint.load(toByteArray(key));
+        return getStorage().load(toByteArray(key));
     }
 
     private Object readResolve() {
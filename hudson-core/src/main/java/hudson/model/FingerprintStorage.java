@@ -0,0 +1,147 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Where {@link Fingerprint}s are persisted.
+ *
+ * <p> {@link FingerprintMap} takes care of keeping a single instance of each
+ * fingerprint in memory, so implementations only need to read and write them.
+ * Saves done within a {@link Batch} are written together when the batch is
+ * committed, which lets implementations write all the fingerprints of a build
+ * at once.
+ *
+ * @see FingerprintMap#getStorage()
+ * @since 3.3.4
+ */
+public abstract class FingerprintStorage {
+
+    private final ThreadLocal<Batch> batch = new ThreadLocal<Batch>();
+
+    /**
+     * Loads a fingerprint.
+     *
+     * @return null if there's no such fingerprint.
+     */
+    public abstract Fingerprint load(byte[] md5sum) throws IOException;
+
+    /**
+     * Deletes a fingerprint. Does nothing if there's no such fingerprint.
+     */
+    public abstract void delete(byte[] md5sum) throws IOException;
+
+    /**
+     * Lists the MD5 sums of all the fingerprints.
+     */
+    public abstract List<byte[]> list() throws IOException;
+
+    /**
+     * Lists the MD5 sums of the fingerprints that have been used by the given
+     * job, as hex strings.
+     */
+    public abstract List<String> getFingerprints(String jobFullName) throws IOException;
+
+    /**
+     * Writes fingerprints that have been saved.
+     */
+    protected abstract void write(Collection<Fingerprint> fingerprints) throws IOException;
+
+    /**
+     * Saves a fingerprint, or adds it to the current batch if there's one.
+     */
+    public void save(Fingerprint fp) throws IOException {
+        Batch b = batch.get();
+        if (b != null) {
+            b.fingerprints.add(fp);
+        } else {
+            write(Collections.singleton(fp));
+        }
+    }
+
+    /**
+     * Starts a batch on the current thread, during which saved fingerprints
+     * are only written when it's committed. Batches are used like this:
+     *
+     * <pre>
+     * Batch b = storage.startBatch();
+     * try {
+     *     ... update fingerprints ...
+     * } finally {
+     *     b.commit();
+     * }
+     * </pre>
+     *
+     * If a batch is already started, the returned one doesn't do anything
+     * when committed, and the fingerprints are written with the outer batch.
+     */
+    public Batch startBatch() {
+        if (batch.get() != null) {
+            return new Batch(null);
+        }
+        Batch b = new Batch(this);
+        batch.set(b);
+        return b;
+    }
+
+    /**
+     * Fingerprints saved by a thread, which are written together.
+     */
+    public static final class Batch {
+
+        private final FingerprintStorage storage;
+        private final Set<Fingerprint> fingerprints = new LinkedHashSet<Fingerprint>();
+
+        private Batch(FingerprintStorage storage) {
+            this.storage = storage;
+        }
+
+        /**
+         * Writes the fingerprints saved since the batch was started.
+         */
+        public void commit() throws IOException {
+            if (storage == null || storage.batch.get() != this) {
+                return;
+            }
+            storage.batch.remove();
+            if (!fingerprints.isEmpty()) {
+                storage.write(new ArrayList<Fingerprint>(fingerprints));
+            }
+        }
+    }
+
+    /**
+     * Creates the storage configured with the
+     * <tt>hudson.model.FingerprintStorage</tt> system property, which is
+     * either <tt>binary</tt> (the default), or <tt>xml</tt> for one XML file
+     * per fingerprint.
+     *
+     * @param root the directory of the fingerprints.
+     */
+    static FingerprintStorage create(File root) {
+        if ("xml".equals(System.getProperty(FingerprintStorage.class.getName()))) {
+            return new XmlFingerprintStorage(root);
+        }
+        return new BinaryFingerprintStorage(root);
+    }
+}
@@ -69,6 +69,7 @@ import hudson.remoting.VirtualChannel;
 import hudson.scm.RepositoryBrowser;
 import hudson.scm.SCM;
 import hudson.search.CollectionSearchIndex;
+import hudson.search.NameIndex;
 import hudson.search.SearchIndexBuilder;
 import hudson.security.*;
 import hudson.security.csrf.CrumbIssuer;
@@ -134,6 +135,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -313,6 +315,30 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
     private transient volatile boolean safeRestarting;
     private List<JDK> jdks = new ArrayList<JDK>();
     private transient volatile DependencyGraph dependencyGraph;
+    /**
+     * Guards the deferred computation of {@link #dependencyGraph}.
+     */
+    private transient final Object dependencyGraphLock = new Object();
+    /**
+     * {@link JobSummary}s of the top level jobs, keyed by their names.
+     */
+    private transient final Map<String, JobSummary> jobSummaries = new ConcurrentHashMap<String, JobSummary>();
+    /**
+     * Names of the top level jobs tied to each label, from {@link #jobSummaries}.
+     */
+    private transient final LabelIndex labelIndex = new LabelIndex();
+    /**
+     * Names of the top level items, for the search suggestions.
+     */
+    private transient final NameIndex itemNameIndex = new NameIndex();
+    /**
+     * Milliseconds it took for this instance to be ready, -1 while starting.
+     */
+    private transient volatile long startupTime = -1;
+    /**
+     * Number of jobs that had to be loaded during the start up, -1 while starting.
+     */
+    private transient volatile int startupItemsMaterialized = -1;
     /**
      * Currently active Views tab bar.
      */
@@ -577,6 +603,7 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
     public Hudson(File root, ServletContext context, PluginManager pluginManager, boolean restart) throws IOException, InterruptedException, ReactorException {
         // As hudson is starting, grant this process full control
         HudsonSecurityManager.grantFullControl();
+        final long start = System.currentTimeMillis();
         try {
             this.root = root;
             this.servletContext = context;
@@ -680,6 +707,11 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
                 scriptSupport = ScriptSupport.getAvailableScriptSupports().get(0);
             }
 
+            startupTime = System.currentTimeMillis() - start;
+            startupItemsMaterialized = itemsCache.getLoadCount();
+            logger.info(String.format("Ready after %dms, %d of %d jobs were loaded during start up",
+                    startupTime, startupItemsMaterialized, items.size()));
+
         } finally {
             HudsonSecurityManager.resetFullControl();
         }
@@ -847,6 +879,8 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
             TopLevelItem item = items.get(oldItemName);
             items.remove(oldItemName);
             items.put(newItemName, item);
+            itemNameIndex.remove(oldItemName);
+            itemNameIndex.add(newItemName);
         }
     }
 
@@ -1432,6 +1466,21 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
         return names;
     }
 
+    /**
+     * Gets the index of the names of the {@link TopLevelItem}s, which finds
+     * the items that match a search without loading them all.
+     *
+     * @since 3.3.4
+     */
+    public NameIndex getItemNameIndex() {
+        // items added by any means show up as a change of size; renames and
+        // deletions are applied as they happen
+        if (itemNameIndex.size() != items.size()) {
+            itemNameIndex.reset(items.keySet());
+        }
+        return itemNameIndex;
+    }
+
     /**
      * Gets the names of all the {@link TopLevelItem}s.
      */
@@ -2473,6 +2522,9 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
     public void onRenamed(TopLevelItem job, String oldName, String newName) throws IOException {
         items.remove(oldName);
         items.put(newName, job);
+        removeJobSummary(oldName);
+        itemNameIndex.remove(oldName);
+        itemNameIndex.add(newName);
 
         for (View v : views) {
             try {
@@ -2499,6 +2551,8 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
         }
 
         items.remove(item.getName());
+        removeJobSummary(item.getName());
+        itemNameIndex.remove(item.getName());
         
         for (View v : views) {
             try {
@@ -2598,6 +2652,10 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
                 public void run(Reactor session) throws Exception {
                     TopLevelItem item = (TopLevelItem) Items.load(Hudson.this, jobRootDir);
                     items.put(item.getName(), item);
+                    JobSummary summary = JobSummary.load(jobRootDir);
+                    if (summary != null) {
+                        putJobSummary(item.getName(), summary);
+                    }
                 }
             });
         }
@@ -2605,11 +2663,24 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
         g.requires(JOB_LOADED).add("Finalizing set up", new Executable() {
             public void run(Reactor session) throws Exception {
 
-                for (AbstractProject job : Hudson.getInstance().getAllItems(AbstractProject.class)) {
-                    job.cleanCascading();
-                }
+                if (LAZY_STARTUP) {
+                    // Only load the jobs whose summary is missing or tells
+                    // that there are cascading links to clean up.
+                    for (AbstractProject job : getJobsToCleanCascading()) {
+                        job.cleanCascading();
+                        // So that it isn't loaded again at the next start up
+                        updateJobSummary(job);
+                    }
+                    // Computed on first use, see getDependencyGraph()
+                    dependencyGraph = null;
+                } else {
+                    for (AbstractProject job : Hudson.getInstance().getAllItems(AbstractProject.class)) {
+                        job.cleanCascading();
+                        updateJobSummary(job);
+                    }
 
-                rebuildDependencyGraph();
+                    rebuildDependencyGraph();
+                }
 
                 // recompute label objects - populates the labels mapping.
                 {
@@ -3875,13 +3946,232 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
 
     /**
      * Rebuilds the dependency map.
+     *
+     * <p> With {@link #LAZY_STARTUP}, only the projects whose summary tells
+     * that they may declare dependencies are asked for them, so that the
+     * others aren't loaded.
      */
     public void rebuildDependencyGraph() {
-        dependencyGraph = new DependencyGraph();
+        synchronized (dependencyGraphLock) {
+            dependencyGraph = LAZY_STARTUP ? new DependencyGraph(getDependencyDeclarers()) : new DependencyGraph();
+        }
+    }
+
+    /**
+     * Gets the top level projects that may declare dependencies, according
+     * to their {@link JobSummary}, and the projects nested in them.
+     */
+    private List<AbstractProject> getDependencyDeclarers() {
+        List<AbstractProject> r = new ArrayList<AbstractProject>();
+        for (TopLevelItem item : items.values()) {
+            if (!JobSummary.mayDeclareDependencies(item.getName(), jobSummaries)) {
+                continue;
+            }
+            AbstractProject<?, ?> p = LazyTopLevelItem.getIfInstanceOf(item, AbstractProject.class);
+            if (p == null) {
+                continue;
+            }
+            r.add(p);
+            if (p instanceof ItemGroup) {
+                for (Item i : ((ItemGroup<?>) p).getItems()) {
+                    if (i instanceof AbstractProject) {
+                        r.add((AbstractProject) i);
+                    }
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Updates the dependency map after some projects were reconfigured or
+     * deleted, which is much cheaper than {@link #rebuildDependencyGraph()}
+     * when there are many projects. Changes that may affect the dependencies
+     * declared by other projects, like creating or renaming a project, still
+     * need a full rebuild. The cascading children of the updated projects are
+     * updated with them.
+     *
+     * @param removed projects that were deleted.
+     * @param updated projects whose configuration changed.
+     * @since 3.3.4
+     */
+    public void updateDependencyGraph(Collection<? extends AbstractProject> removed, Collection<? extends AbstractProject> updated) {
+        synchronized (dependencyGraphLock) {
+            DependencyGraph old = dependencyGraph;
+            if (old == null) {
+                // Not computed yet, it will be computed on first use
+                return;
+            }
+            List<AbstractProject> changed = new ArrayList<AbstractProject>(removed);
+            changed.addAll(updated);
+            for (AbstractProject p : changed) {
+                if (p instanceof ItemGroup || p.getParent() instanceof AbstractProject) {
+                    // Matrix projects declare dependencies for their configurations too
+                    rebuildDependencyGraph();
+                    return;
+                }
+            }
+            if (old == DependencyGraph.EMPTY) {
+                rebuildDependencyGraph();
+                return;
+            }
+            for (AbstractProject p : removed) {
+                Set<String> children = p.getCascadingChildrenNames();
+                if (children != null && !children.isEmpty()) {
+                    rebuildDependencyGraph();
+                    return;
+                }
+            }
+            // Cascading children inherit the triggers and publishers of their
+            // parent, so their dependencies change with it.
+            List<AbstractProject> projects = new ArrayList<AbstractProject>(new LinkedHashSet<AbstractProject>(updated));
+            for (int i = 0; i < projects.size(); i++) {
+                Set<String> children = projects.get(i).getCascadingChildrenNames();
+                if (children == null) {
+                    continue;
+                }
+                for (String name : children) {
+                    TopLevelItem item = items.get(name);
+                    AbstractProject child = item == null ? null : LazyTopLevelItem.getIfInstanceOf(item, AbstractProject.class);
+                    if (child == null) {
+                        rebuildDependencyGraph();
+                        return;
+                    }
+                    if (!projects.contains(child)) {
+                        projects.add(child);
+                    }
+                }
+            }
+            for (AbstractProject p : projects) {
+                if (old.hasOtherInstance(p)) {
+                    // Reloaded since the graph was built, the edges declared
+                    // by other projects still point to the old instance
+                    rebuildDependencyGraph();
+                    return;
+                }
+            }
+            dependencyGraph = old.update(removed, projects);
+        }
     }
 
     public DependencyGraph getDependencyGraph() {
-        return dependencyGraph;
+        DependencyGraph graph = dependencyGraph;
+        if (graph == null) {
+            synchronized (dependencyGraphLock) {
+                graph = dependencyGraph;
+                if (graph == null) {
+                    rebuildDependencyGraph();
+                    graph = dependencyGraph;
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Gets the {@link JobSummary} of the top level job of the given name.
+     *
+     * @return null if the job doesn't exist or hasn't been summarized yet.
+     */
+    public JobSummary getJobSummary(String name) {
+        return jobSummaries.get(name);
+    }
+
+    /**
+     * Milliseconds it took for Hudson to start up, or -1 if it is still
+     * starting.
+     */
+    public long getStartupTime() {
+        return startupTime;
+    }
+
+    /**
+     * Number of jobs that had to be loaded while Hudson was starting up, or
+     * -1 if it is still starting. With {@link #LAZY_STARTUP} this is expected
+     * to be a small fraction of all the jobs.
+     */
+    public int getStartupItemsMaterialized() {
+        return startupItemsMaterialized;
+    }
+
+    /**
+     * Refreshes the persisted {@link JobSummary} of a top level job. Called
+     * when the job is saved.
+     */
+    /*package*/ void updateJobSummary(Job<?, ?> job) {
+        if (job.getParent() != this) {
+            return;
+        }
+        JobSummary summary = new JobSummary(job);
+        if (!summary.equals(jobSummaries.get(job.getName()))) {
+            try {
+                summary.save(job.getRootDir());
+                putJobSummary(job.getName(), summary);
+            } catch (IOException e) {
+                logger.warn("Failed to save the summary of " + job.getName(), e);
+            }
+        }
+    }
+
+    private void putJobSummary(String name, JobSummary summary) {
+        jobSummaries.put(name, summary);
+        Set<String> labels = summary.getTiedLabelNames();
+        if (labels != null) {
+            labelIndex.put(name, labels);
+        } else {
+            labelIndex.remove(name);
+        }
+    }
+
+    private void removeJobSummary(String name) {
+        jobSummaries.remove(name);
+        labelIndex.remove(name);
+    }
+
+    /**
+     * Gets the projects tied to the given label that the current user can
+     * see. Only the projects the {@link JobSummary}s point to are loaded,
+     * plus the ones that don't have a summary with their labels yet, and
+     * the cascading children, whose label may come from a parent that
+     * changed since they were summarized.
+     */
+    /*package*/ List<AbstractProject> getTiedJobs(Label label) {
+        Set<String> names = labelIndex.get(label.getName());
+        List<AbstractProject> r = new ArrayList<AbstractProject>();
+        for (TopLevelItem item : items.values()) {
+            JobSummary summary = jobSummaries.get(item.getName());
+            boolean indexed = summary != null && summary.getTiedLabelNames() != null
+                    && summary.getCascadingProjectName() == null;
+            if (indexed && !names.contains(item.getName())) {
+                continue;
+            }
+            if (!item.hasPermission(Item.READ)) {
+                continue;
+            }
+            AbstractProject p = LazyTopLevelItem.getIfInstanceOf(item, AbstractProject.class);
+            if (p != null && (indexed || label.isTiedTo(p))) {
+                r.add(p);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Top level projects that need {@link Job#cleanCascading()}, as far as
+     * their {@link JobSummary} tells without loading them.
+     */
+    private List<AbstractProject> getJobsToCleanCascading() {
+        List<AbstractProject> r = new ArrayList<AbstractProject>();
+        for (TopLevelItem item : items.values()) {
+            JobSummary summary = jobSummaries.get(item.getName());
+            if (summary == null || !summary.isCascadingConsistent(jobSummaries)) {
+                AbstractProject p = LazyTopLevelItem.getIfInstanceOf(item, AbstractProject.class);
+                if (p != null) {
+                    r.add(p);
+                }
+            }
+        }
+        return r;
     }
 
     // for Jelly
@@ -4220,6 +4510,14 @@ public final class Hudson extends Node implements ItemGroup<TopLevelItem>, Stapl
     public static boolean PARALLEL_LOAD = !"false".equals(System.getProperty(Hudson.class.getName() + ".parallelLoad"));
     public static boolean KILL_AFTER_LOAD = Boolean.getBoolean(Hudson.class.getName() + ".killAfterLoad");
     public static boolean LOG_STARTUP_PERFORMANCE = Boolean.getBoolean(Hudson.class.getName() + ".logStartupPerformance");
+    /**
+     * If true, the start up relies on the persisted {@link JobSummary}s
+     * instead of loading every job, and the dependency graph is computed on
+     * first use, from the projects that declare dependencies only. Set the
+     * <tt>hudson.model.Hudson.lazyStartup</tt> system property to false to
+     * load every job at start up again.
+     */
+    public static boolean LAZY_STARTUP = !"false".equals(System.getProperty(Hudson.class.getName() + ".lazyStartup"));
     private static final boolean CONSISTENT_HASH = true; // Boolean.getBoolean(Hudson.class.getName()+".consistentHash");
     /**
      * Enabled by default as of 1.337. Will keep it for a while just in case we
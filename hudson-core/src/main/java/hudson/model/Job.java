@@ -389,6 +389,10 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
         if (isAllowSave()) {
             super.save();
             holdOffBuildUntilSave = false;
+            Hudson hudson = Hudson.getInstance();
+            if (hudson != null) {
+                hudson.updateJobSummary(this);
+            }
         }
     }
 
@@ -1861,7 +1865,9 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     }
 
     public Graph getBuildTimeGraph() {
-        Graph graph = new Graph(getLastBuild().getTimestamp(), 500, 400);
+        // the graph changes when a build completes
+        RunT last = getLastCompletedBuild();
+        Graph graph = new Graph(last == null ? -1 : last.getTimeInMillis() + last.getDuration(), 500, 400);
 
         DataSet<String, ChartLabel> data = new DataSet<String, ChartLabel>();
 
@@ -0,0 +1,287 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import hudson.XmlFile;
+import hudson.matrix.Axis;
+import hudson.matrix.MatrixProject;
+import hudson.triggers.TriggerSchedule;
+import hudson.util.DescribableList;
+import hudson.util.XStream2;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Small sidecar of a top level {@link Job}, persisted next to its
+ * {@code config.xml}, that records the relationships between jobs.
+ *
+ * <p> Reading the summaries is much cheaper than loading every job, so
+ * {@link Hudson} uses them at start up to check the cascading parent/child
+ * links, and to know the labels jobs are tied to and when their triggers
+ * are due, without materializing the {@link LazyTopLevelItem}s.
+ *
+ * <p> The edges of the dependency graph link loaded projects, so they can't
+ * be read from the summaries. The summaries record instead the build steps
+ * that declare dependencies, so that only the projects that have some, and
+ * the projects they point to, are loaded to build the graph.
+ *
+ * <p> Instances are immutable.
+ */
+public final class JobSummary {
+
+    static final String FILE_NAME = "summary.xml";
+
+    private final String name;
+    private final String type;
+    private final String cascadingProjectName;
+    private final Set<String> cascadingChildrenNames;
+    private final Set<String> tiedLabelNames;
+    private final Map<String, String> triggerSpecs;
+    private final Set<String> dependencyDeclarers;
+
+    JobSummary(Job<?, ?> job) {
+        this.name = job.getName();
+        this.type = job.getClass().getName();
+        this.cascadingProjectName = job.getCascadingProjectName();
+        this.cascadingChildrenNames = new TreeSet<String>();
+        if (job.getCascadingChildrenNames() != null) {
+            cascadingChildrenNames.addAll(job.getCascadingChildrenNames());
+        }
+        this.tiedLabelNames = new TreeSet<String>();
+        if (job instanceof AbstractProject) {
+            Label label = ((AbstractProject<?, ?>) job).getAssignedLabel();
+            if (label != null) {
+                tiedLabelNames.add(label.getName());
+            }
+        }
+        if (job instanceof MatrixProject) {
+            for (Axis axis : ((MatrixProject) job).getAxes()) {
+                tiedLabelNames.addAll(axis.getValues());
+            }
+        }
+        this.triggerSpecs = new TreeMap<String, String>();
+        if (job instanceof AbstractProject) {
+            triggerSpecs.putAll(TriggerSchedule.getSpecs((AbstractProject<?, ?>) job));
+        }
+        this.dependencyDeclarers = getDependencyDeclarers(job);
+    }
+
+    /**
+     * For the unit tests only.
+     */
+    JobSummary(String name, String type, String cascadingProjectName, Set<String> cascadingChildrenNames,
+            Set<String> tiedLabelNames, Map<String, String> triggerSpecs, Set<String> dependencyDeclarers) {
+        this.name = name;
+        this.type = type;
+        this.cascadingProjectName = cascadingProjectName;
+        this.cascadingChildrenNames = new TreeSet<String>(cascadingChildrenNames);
+        this.tiedLabelNames = tiedLabelNames == null ? null : new TreeSet<String>(tiedLabelNames);
+        this.triggerSpecs = triggerSpecs == null ? null : new TreeMap<String, String>(triggerSpecs);
+        this.dependencyDeclarers = dependencyDeclarers == null ? null : new TreeSet<String>(dependencyDeclarers);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Class name of the job.
+     */
+    public String getType() {
+        return type;
+    }
+
+    public String getCascadingProjectName() {
+        return cascadingProjectName;
+    }
+
+    public Set<String> getCascadingChildrenNames() {
+        return Collections.unmodifiableSet(cascadingChildrenNames);
+    }
+
+    /**
+     * Names of the labels the job is tied to: the label it is assigned to,
+     * and the values of the axes of a matrix project. Null if the summary
+     * was written before they were recorded.
+     *
+     * <p> The label of a cascading child may be inherited from its parent,
+     * and change with it without the child being saved, so these are only
+     * trusted for the jobs without a cascading parent.
+     *
+     * @see Label#getTiedJobs()
+     */
+    public Set<String> getTiedLabelNames() {
+        return tiedLabelNames == null ? null : Collections.unmodifiableSet(tiedLabelNames);
+    }
+
+    /**
+     * Cron specs of the triggers that run for the job, by trigger class name.
+     * Null if the summary was written before they were recorded.
+     *
+     * @see TriggerSchedule
+     */
+    public Map<String, String> getTriggerSpecs() {
+        return triggerSpecs == null ? null : Collections.unmodifiableMap(triggerSpecs);
+    }
+
+    /**
+     * Class names of the builders, publishers and build wrappers of the job
+     * that declare dependencies. Null if they aren't known, because the
+     * summary was written before they were recorded, or because the job
+     * builds its part of the dependency graph by itself.
+     *
+     * @see DependecyDeclarer
+     */
+    public Set<String> getDependencyDeclarers() {
+        return dependencyDeclarers == null ? null : Collections.unmodifiableSet(dependencyDeclarers);
+    }
+
+    /**
+     * Checks, with the summaries of all the jobs, whether the job of the
+     * given name may add edges to the dependency graph. Cascading children
+     * inherit the build steps of their parent, and aren't saved when it
+     * changes, so they may as soon as one of their ancestors may.
+     */
+    static boolean mayDeclareDependencies(String name, Map<String, JobSummary> summaries) {
+        Set<String> visited = new HashSet<String>();
+        while (name != null && visited.add(name)) {
+            JobSummary s = summaries.get(name);
+            if (s == null || s.dependencyDeclarers == null || !s.dependencyDeclarers.isEmpty()) {
+                return true;
+            }
+            name = s.cascadingProjectName;
+        }
+        return false;
+    }
+
+    private static Set<String> getDependencyDeclarers(Job<?, ?> job) {
+        Set<String> r = new TreeSet<String>();
+        if (!(job instanceof AbstractProject)) {
+            return r;
+        }
+        if (!(job instanceof BaseBuildableProject) || overridesBuildDependencyGraph(job.getClass())) {
+            return null;
+        }
+        BaseBuildableProject<?, ?> p = (BaseBuildableProject<?, ?>) job;
+        addDependencyDeclarers(p.getBuildersList(), r);
+        addDependencyDeclarers(p.getPublishersList(), r);
+        addDependencyDeclarers(p.getBuildWrappersList(), r);
+        return r;
+    }
+
+    private static void addDependencyDeclarers(DescribableList<?, ?> steps, Set<String> r) {
+        for (Object o : steps) {
+            if (o instanceof DependecyDeclarer) {
+                r.add(o.getClass().getName());
+            }
+        }
+    }
+
+    private static boolean overridesBuildDependencyGraph(Class<?> c) {
+        for (; c != BaseBuildableProject.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("buildDependencyGraph", DependencyGraph.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // look in the super class
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks, with the summaries of the other jobs, that every cascading
+     * child of this job still points back to it. If so, {@link Job#cleanCascading()}
+     * has nothing to remove and the job doesn't need to be loaded for it.
+     */
+    boolean isCascadingConsistent(Map<String, JobSummary> summaries) {
+        for (String child : cascadingChildrenNames) {
+            JobSummary s = summaries.get(child);
+            if (s == null || !type.equals(s.type) || !name.equals(s.cascadingProjectName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the summary of the job in the given directory.
+     *
+     * @return null if there is no summary, or if it can't be read.
+     */
+    static JobSummary load(File jobDir) {
+        XmlFile file = getFile(jobDir);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return (JobSummary) file.read();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+            return null;
+        }
+    }
+
+    void save(File jobDir) throws IOException {
+        getFile(jobDir).write(this);
+    }
+
+    private static XmlFile getFile(File jobDir) {
+        return new XmlFile(XSTREAM, new File(jobDir, FILE_NAME));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof JobSummary)) {
+            return false;
+        }
+        JobSummary that = (JobSummary) o;
+        return name.equals(that.name)
+                && type.equals(that.type)
+                && (cascadingProjectName == null ? that.cascadingProjectName == null
+                    : cascadingProjectName.equals(that.cascadingProjectName))
+                && cascadingChildrenNames.equals(that.cascadingChildrenNames)
+                && (tiedLabelNames == null ? that.tiedLabelNames == null
+                    : tiedLabelNames.equals(that.tiedLabelNames))
+                && (triggerSpecs == null ? that.triggerSpecs == null
+                    : triggerSpecs.equals(that.triggerSpecs))
+                && (dependencyDeclarers == null ? that.dependencyDeclarers == null
+                    : dependencyDeclarers.equals(that.dependencyDeclarers));
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    static {
+        XSTREAM.alias("jobSummary", JobSummary.class);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(JobSummary.class.getName());
+}
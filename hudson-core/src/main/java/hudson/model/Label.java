@@ -16,7 +16,6 @@
 
 package hudson.model;
 
-import hudson.Util;
 import static hudson.Util.fixNull;
 
 import hudson.model.labels.LabelAtom;
@@ -339,21 +338,25 @@ public abstract class Label extends Actionable implements Comparable<Label>, Mod
      */
     @Exported
     public List<AbstractProject> getTiedJobs() {
-        List<AbstractProject> r = new ArrayList<AbstractProject>();
-        for (AbstractProject p : Util.filter(Hudson.getInstance().getItems(), AbstractProject.class)) {
-            if (this.equals(p.getAssignedLabel())) {
-                r.add(p);
-            }
+        return Hudson.getInstance().getTiedJobs(this);
+    }
+
+    /**
+     * Returns true if the project is assigned to this label, or if this label
+     * is a value of one of the axes of the matrix project.
+     */
+    /*package*/ boolean isTiedTo(AbstractProject<?, ?> p) {
+        if (this.equals(p.getAssignedLabel())) {
+            return true;
         }
-        for (MatrixProject p : Util.filter(Hudson.getInstance().getItems(), MatrixProject.class)) {
-            for (Axis axis : p.getAxes()) {
-                if (axis.getValues().contains(getName())){
-                    r.add(p);
+        if (p instanceof MatrixProject) {
+            for (Axis axis : ((MatrixProject) p).getAxes()) {
+                if (axis.getValues().contains(getName())) {
+                    return true;
                 }
-                 
             }
         }
-        return r;
+        return false;
     }
 
     public boolean contains(Node node) {
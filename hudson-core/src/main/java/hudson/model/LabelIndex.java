@@ -0,0 +1,81 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Names of the top level jobs tied to each label, as recorded in their
+ * {@link JobSummary}. {@link Label#getTiedJobs()} uses it to load only the
+ * jobs that are tied to the label.
+ */
+final class LabelIndex {
+
+    /**
+     * Names of the jobs, by label name.
+     */
+    private final Map<String, Set<String>> jobs = new HashMap<String, Set<String>>();
+    /**
+     * Names of the labels, by job name.
+     */
+    private final Map<String, Set<String>> labels = new HashMap<String, Set<String>>();
+
+    /**
+     * Records the labels a job is tied to, replacing the ones it had.
+     */
+    synchronized void put(String job, Collection<String> labelNames) {
+        remove(job);
+        if (labelNames.isEmpty()) {
+            return;
+        }
+        Set<String> names = new HashSet<String>(labelNames);
+        labels.put(job, names);
+        for (String label : names) {
+            Set<String> s = jobs.get(label);
+            if (s == null) {
+                s = new HashSet<String>();
+                jobs.put(label, s);
+            }
+            s.add(job);
+        }
+    }
+
+    synchronized void remove(String job) {
+        Set<String> names = labels.remove(job);
+        if (names == null) {
+            return;
+        }
+        for (String label : names) {
+            Set<String> s = jobs.get(label);
+            s.remove(job);
+            if (s.isEmpty()) {
+                jobs.remove(label);
+            }
+        }
+    }
+
+    /**
+     * Gets the names of the jobs tied to the given label.
+     */
+    synchronized Set<String> get(String label) {
+        Set<String> s = jobs.get(label);
+        return s == null ? Collections.<String>emptySet() : new HashSet<String>(s);
+    }
+}
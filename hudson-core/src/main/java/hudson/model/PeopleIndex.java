@@ -0,0 +1,247 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import com.thoughtworks.xstream.XStream;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.Initializer;
+import hudson.model.listeners.RunListener;
+import hudson.scm.ChangeLogSet.Entry;
+import hudson.util.XStream2;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static hudson.init.InitMilestone.JOB_LOADED;
+
+/**
+ * Authors of the changes built by a project, with the time of the last build
+ * that had a change of theirs. {@link View.People} and
+ * {@link User#getProjects()} use it instead of reading the change sets of
+ * every build.
+ *
+ * <p> The index is kept in <tt>people.xml</tt> in the project's directory,
+ * and updated when a build completes. A project that doesn't have one yet
+ * gets it from its builds, the first time it's needed. Hudson does that for
+ * all projects in the background when it starts, so that it's rarely done
+ * while someone waits for a page.
+ *
+ * <p> Builds that are deleted are not removed from the index.
+ *
+ * @since 3.3.4
+ */
+public final class PeopleIndex {
+
+    /**
+     * Time of the last change of each author, by user id.
+     */
+    private final Map<String, Long> lastChanges = new TreeMap<String, Long>();
+    /**
+     * The project the index is built from if it has no file yet, which is
+     * the latest instance it was asked for, as the project may be reloaded.
+     */
+    private transient AbstractProject<?, ?> project;
+    private transient final File file;
+    private transient boolean loaded;
+
+    PeopleIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets the index of the given project.
+     */
+    public static PeopleIndex of(AbstractProject<?, ?> project) {
+        PeopleIndex index = of(new File(project.getRootDir(), "people.xml"));
+        synchronized (index) {
+            index.project = project;
+        }
+        return index;
+    }
+
+    /**
+     * Gets the index kept in the given file. There's one instance per file,
+     * even when the project is reloaded, so that the updates of the file
+     * are serialized, and don't overwrite each other.
+     */
+    static PeopleIndex of(File file) {
+        file = file.getAbsoluteFile();
+        synchronized (INDEXES) {
+            SoftReference<PeopleIndex> ref = INDEXES.get(file);
+            PeopleIndex index = ref == null ? null : ref.get();
+            if (index == null) {
+                // it's read again from the file when needed
+                for (Iterator<SoftReference<PeopleIndex>> itr = INDEXES.values().iterator(); itr.hasNext();) {
+                    if (itr.next().get() == null) {
+                        itr.remove();
+                    }
+                }
+                index = new PeopleIndex(file);
+                INDEXES.put(file, new SoftReference<PeopleIndex>(index));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Gets the time of the last change of each author, by user id.
+     */
+    public synchronized Map<String, Long> getLastChanges() {
+        load();
+        return new TreeMap<String, Long>(lastChanges);
+    }
+
+    /**
+     * Returns true if no change of the project has an author.
+     */
+    public synchronized boolean isEmpty() {
+        load();
+        return lastChanges.isEmpty();
+    }
+
+    /**
+     * Returns true if the user is the author of a change of the project.
+     */
+    public synchronized boolean contains(User user) {
+        load();
+        return lastChanges.containsKey(user.getId());
+    }
+
+    /**
+     * Adds the authors of the changes of a build.
+     */
+    public synchronized void add(AbstractBuild<?, ?> build) throws IOException {
+        load();
+        if (addChanges(build)) {
+            save();
+        }
+    }
+
+    private boolean addChanges(AbstractBuild<?, ?> build) {
+        boolean changed = false;
+        for (Entry e : build.getChangeSet()) {
+            User author = e.getAuthor();
+            if (author != null) {
+                changed |= add(author.getId(), build.getTimeInMillis());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Records a change of a user, if it's later than the last one.
+     */
+    synchronized boolean add(String id, long timestamp) {
+        load();
+        Long last = lastChanges.get(id);
+        if (last != null && last >= timestamp) {
+            return false;
+        }
+        lastChanges.put(id, timestamp);
+        return true;
+    }
+
+    synchronized void save() throws IOException {
+        new XmlFile(XSTREAM, file).write(this);
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (file.exists()) {
+            try {
+                new XmlFile(XSTREAM, file).unmarshal(this);
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file + ", rebuilding it", e);
+                lastChanges.clear();
+            }
+        }
+        if (project == null) {
+            return;
+        }
+        for (AbstractBuild<?, ?> b = project.getLastBuild(); b != null; b = b.getPreviousBuild()) {
+            addChanges(b);
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+        }
+    }
+
+    /**
+     * Builds the indexes of the projects that don't have one yet.
+     */
+    @Initializer(after = JOB_LOADED)
+    public static void backfill(final Hudson h) {
+        Thread t = new Thread("People index backfill") {
+            @Override
+            public void run() {
+                for (AbstractProject<?, ?> p : h.getAllItems(AbstractProject.class)) {
+                    try {
+                        of(p).isEmpty();
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Failed to index the people of " + p.getFullName(), e);
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Adds the authors of completed builds.
+     */
+    @Extension
+    public static final class CompletionListener extends RunListener<AbstractBuild> {
+
+        public CompletionListener() {
+            super(AbstractBuild.class);
+        }
+
+        @Override
+        public void onCompleted(AbstractBuild build, TaskListener listener) {
+            try {
+                of(build.getProject()).add(build);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to add the people of " + build + " to the index", e);
+            }
+        }
+    }
+
+    /**
+     * Indexes by their files. They're softly referenced, as the files are
+     * what persists them.
+     */
+    private static final Map<File, SoftReference<PeopleIndex>> INDEXES = new HashMap<File, SoftReference<PeopleIndex>>();
+    private static final XStream XSTREAM = new XStream2();
+    private static final Logger LOGGER = Logger.getLogger(PeopleIndex.class.getName());
+
+    static {
+        XSTREAM.alias("people", PeopleIndex.class);
+    }
+}
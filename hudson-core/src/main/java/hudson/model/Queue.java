@@ -112,6 +112,10 @@ import org.apache.commons.io.IOUtils;
  * example, when the user cancels a job in the queue.) See the corresponding
  * field for their exact meanings.
  *
+ * <p> Changes to the queue are made while holding the lock on the queue. The
+ * methods that only look at the queue don't take the lock, and see the
+ * contents as of the end of the last change instead.
+ *
  * @author Kohsuke Kawaguchi
  */
 @ExportedBean
@@ -141,6 +145,18 @@ public class Queue extends ResourceController implements Saveable {
      * has not started yet.
      */
     private final ItemList<BuildableItem> pendings = new ItemList<BuildableItem>();
+    /**
+     * Immutable copy of the four lists above. Read-only methods use it so
+     * that they never wait for {@link #maintain()}.
+     */
+    private volatile Snapshot snapshot = new Snapshot();
+    /**
+     * True when the lists changed since {@link #snapshot} was built.
+     */
+    private volatile boolean snapshotStale;
+    private volatile long lastMaintenanceDuration;
+    private volatile int lastMaintenanceItemsEvaluated;
+    private volatile long maintenanceCount;
 
     /**
      * Data structure created for each idle {@link Executor}. This is a job
@@ -315,6 +331,7 @@ public class Queue extends ResourceController implements Saveable {
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Failed to load the queue file " + getXMLQueueFile(), e);
         }
+        snapshotChanged();
     }
 
     /**
@@ -357,6 +374,7 @@ public class Queue extends ResourceController implements Saveable {
         waitingList.clear();
         blockedProjects.cancelAll();
         buildables.cancelAll();
+        snapshotChanged();
         scheduleMaintenance();
     }
 
@@ -461,7 +479,7 @@ public class Queue extends ResourceController implements Saveable {
 
         // Do we already have this task in the queue? Because if so, we won't schedule a new one.
         List<Item> duplicatesInQueue = new ArrayList<Item>();
-        for (Item item : getItems(p)) {
+        for (Item item : getLiveItems(p)) {
             boolean shouldScheduleItem = false;
             for (QueueAction action : item.getActions(QueueAction.class)) {
                 shouldScheduleItem |= action.shouldSchedule(actions);
@@ -479,6 +497,7 @@ public class Queue extends ResourceController implements Saveable {
             // put the item in the queue
             WaitingItem added = new WaitingItem(due, p, actions);
             waitingList.add(added);
+            snapshotChanged();
             scheduleMaintenance();   // let an executor know that a new item is in the queue.
             return added;
         }
@@ -516,6 +535,7 @@ public class Queue extends ResourceController implements Saveable {
         }
 
         if (queueUpdated) {
+            snapshotChanged();
             scheduleMaintenance();
         }
         return null;
@@ -559,12 +579,17 @@ public class Queue extends ResourceController implements Saveable {
             Item item = itr.next();
             if (item.task.equals(p)) {
                 itr.remove();
+                snapshotChanged();
                 item.onCancelled();
                 return true;
             }
         }
         // use bitwise-OR to make sure that both branches get evaluated all the time
-        return blockedProjects.cancel(p) != null | buildables.cancel(p) != null;
+        boolean r = blockedProjects.cancel(p) != null | buildables.cancel(p) != null;
+        if (r) {
+            snapshotChanged();
+        }
+        return r;
     }
 
     public synchronized boolean cancel(Item item) {
@@ -572,13 +597,14 @@ public class Queue extends ResourceController implements Saveable {
         // use bitwise-OR to make sure that all the branches get evaluated all the time
         boolean r = (item instanceof WaitingItem && waitingList.remove(item)) | blockedProjects.remove(item) | buildables.remove(item);
         if (r) {
+            snapshotChanged();
             item.onCancelled();
         }
         return r;
     }
 
-    public synchronized boolean isEmpty() {
-        return waitingList.isEmpty() && blockedProjects.isEmpty() && buildables.isEmpty() && pendings.isEmpty();
+    public boolean isEmpty() {
+        return snapshot().items.length == 0;
     }
 
     private synchronized WaitingItem peek() {
@@ -592,39 +618,12 @@ public class Queue extends ResourceController implements Saveable {
      * likely built sooner are at the end.
      */
     @Exported(inline = true)
-    public synchronized Item[] getItems() {
-        Item[] r = new Item[waitingList.size() + blockedProjects.size() + buildables.size() + pendings.size()];
-        waitingList.toArray(r);
-        int idx = waitingList.size();
-        for (BlockedItem p : blockedProjects.values()) {
-            r[idx++] = p;
-        }
-        for (BuildableItem p : reverse(buildables.values())) {
-            r[idx++] = p;
-        }
-        for (BuildableItem p : reverse(pendings.values())) {
-            r[idx++] = p;
-        }
-        return r;
+    public Item[] getItems() {
+        return snapshot().items.clone();
     }
 
-    public synchronized Item getItem(int id) {
-        for (Item item : waitingList) {
-            if (item.id == id) {
-                return item;
-            }
-        }
-        for (Item item : blockedProjects) {
-            if (item.id == id) {
-                return item;
-            }
-        }
-        for (Item item : buildables) {
-            if (item.id == id) {
-                return item;
-            }
-        }
-        for (Item item : pendings) {
+    public Item getItem(int id) {
+        for (Item item : snapshot().items) {
             if (item.id == id) {
                 return item;
             }
@@ -636,16 +635,17 @@ public class Queue extends ResourceController implements Saveable {
      * Gets all the {@link BuildableItem}s that are waiting for an executor in
      * the given {@link Computer}.
      */
-    public synchronized List<BuildableItem> getBuildableItems(Computer c) {
+    public List<BuildableItem> getBuildableItems(Computer c) {
+        Snapshot s = snapshot();
         List<BuildableItem> result = new ArrayList<BuildableItem>();
-        _getBuildableItems(c, buildables, result);
-        _getBuildableItems(c, pendings, result);
+        _getBuildableItems(c, s.buildables, result);
+        _getBuildableItems(c, s.pendings, result);
         return result;
     }
 
-    private void _getBuildableItems(Computer c, ItemList<BuildableItem> col, List<BuildableItem> result) {
+    private void _getBuildableItems(Computer c, List<BuildableItem> col, List<BuildableItem> result) {
         Node node = c.getNode();
-        for (BuildableItem p : col.values()) {
+        for (BuildableItem p : col) {
             if (node.canTake(p) == null) {
                 result.add(p);
             }
@@ -655,27 +655,29 @@ public class Queue extends ResourceController implements Saveable {
     /**
      * Gets the snapshot of all {@link BuildableItem}s.
      */
-    public synchronized List<BuildableItem> getBuildableItems() {
-        ArrayList<BuildableItem> r = new ArrayList<BuildableItem>(buildables.values());
-        r.addAll(pendings.values());
+    public List<BuildableItem> getBuildableItems() {
+        Snapshot s = snapshot();
+        ArrayList<BuildableItem> r = new ArrayList<BuildableItem>(s.buildables);
+        r.addAll(s.pendings);
         return r;
     }
 
     /**
      * Gets the snapshot of all {@link BuildableItem}s.
      */
-    public synchronized List<BuildableItem> getPendingItems() {
-        return new ArrayList<BuildableItem>(pendings.values());
+    public List<BuildableItem> getPendingItems() {
+        return new ArrayList<BuildableItem>(snapshot().pendings);
     }
 
     /**
      * Gets all items that are in the queue but not blocked
      */
-    public synchronized List<Item> getUnblockedItems() {
+    public List<Item> getUnblockedItems() {
+        Snapshot s = snapshot();
         List<Item> queuedNotBlocked = new ArrayList<Item>();
-        queuedNotBlocked.addAll(waitingList);
-        queuedNotBlocked.addAll(buildables);
-        queuedNotBlocked.addAll(pendings);
+        queuedNotBlocked.addAll(s.waitingList);
+        queuedNotBlocked.addAll(s.buildables);
+        queuedNotBlocked.addAll(s.pendings);
         // but not 'blockedProjects'
         return queuedNotBlocked;
     }
@@ -683,7 +685,7 @@ public class Queue extends ResourceController implements Saveable {
     /**
      * Works just like {@link #getUnblockedItems()} but return tasks.
      */
-    public synchronized Set<Task> getUnblockedTasks() {
+    public Set<Task> getUnblockedTasks() {
         List<Item> items = getUnblockedItems();
         Set<Task> unblockedTasks = new HashSet<Task>(items.size());
         for (Queue.Item t : items) {
@@ -695,8 +697,8 @@ public class Queue extends ResourceController implements Saveable {
     /**
      * Is the given task currently pending execution?
      */
-    public synchronized boolean isPending(Task t) {
-        for (BuildableItem i : pendings) {
+    public boolean isPending(Task t) {
+        for (BuildableItem i : snapshot().pendings) {
             if (i.task.equals(t)) {
                 return true;
             }
@@ -707,14 +709,15 @@ public class Queue extends ResourceController implements Saveable {
     /**
      * How many {@link BuildableItem}s are assigned for the given label?
      */
-    public synchronized int countBuildableItemsFor(Label l) {
+    public int countBuildableItemsFor(Label l) {
+        Snapshot s = snapshot();
         int r = 0;
-        for (BuildableItem bi : buildables.values()) {
+        for (BuildableItem bi : s.buildables) {
             if (bi.getAssignedLabel() == l) {
                 r++;
             }
         }
-        for (BuildableItem bi : pendings.values()) {
+        for (BuildableItem bi : s.pendings) {
             if (bi.getAssignedLabel() == l) {
                 r++;
             }
@@ -727,26 +730,9 @@ public class Queue extends ResourceController implements Saveable {
      *
      * @return null if the project is not in the queue.
      */
-    public synchronized Item getItem(Task t) {
-        BlockedItem bp = blockedProjects.get(t);
-        if (bp != null) {
-            return bp;
-        }
-        BuildableItem bi = buildables.get(t);
-        if (bi != null) {
-            return bi;
-        }
-        bi = pendings.get(t);
-        if (bi != null) {
-            return bi;
-        }
-
-        for (Item item : waitingList) {
-            if (item.task == t) {
-                return item;
-            }
-        }
-        return null;
+    public Item getItem(Task t) {
+        List<Item> items = snapshot().byTask.get(t);
+        return items == null ? null : items.get(0);
     }
 
     /**
@@ -754,7 +740,17 @@ public class Queue extends ResourceController implements Saveable {
      *
      * @return null if the project is not in the queue.
      */
-    public synchronized List<Item> getItems(Task t) {
+    public List<Item> getItems(Task t) {
+        List<Item> items = snapshot().byTask.get(t);
+        return items == null ? new ArrayList<Item>() : new ArrayList<Item>(items);
+    }
+
+    /**
+     * Like {@link #getItems(Task)}, but reads the lists instead of the
+     * snapshot, so that scheduling many tasks doesn't copy the queue each
+     * time. Must be called with the lock held.
+     */
+    private List<Item> getLiveItems(Task t) {
         List<Item> result = new ArrayList<Item>();
         result.addAll(blockedProjects.getAll(t));
         result.addAll(buildables.getAll(t));
@@ -776,16 +772,8 @@ public class Queue extends ResourceController implements Saveable {
     /**
      * Returns true if this queue contains the said project.
      */
-    public synchronized boolean contains(Task t) {
-        if (blockedProjects.containsKey(t) || buildables.containsKey(t) || pendings.containsKey(t)) {
-            return true;
-        }
-        for (Item item : waitingList) {
-            if (item.task == t) {
-                return true;
-            }
-        }
-        return false;
+    public boolean contains(Task t) {
+        return snapshot().byTask.containsKey(t);
     }
 
     /**
@@ -798,7 +786,9 @@ public class Queue extends ResourceController implements Saveable {
         if (exec instanceof OneOffExecutor) {
             OneOffExecutor ooe = (OneOffExecutor) exec;
             final WorkUnit wu = ooe.getAssignedWorkUnit();
-            pendings.remove(wu.context.item);
+            if (pendings.remove(wu.context.item)) {
+                snapshotChanged();
+            }
             return wu;
         }
 
@@ -846,7 +836,9 @@ public class Queue extends ResourceController implements Saveable {
 
                     // TODO: I think this has to be done by the last executor that leaves the pop(), not by main executor
                     if (offer.workUnit.isMainWork()) {
-                        pendings.remove(offer.workUnit.context.item);
+                        if (pendings.remove(offer.workUnit.context.item)) {
+                            snapshotChanged();
+                        }
                     }
 
                     return offer.workUnit;
@@ -908,7 +900,7 @@ public class Queue extends ResourceController implements Saveable {
      * Make sure we don't queue two tasks of the same project to be built unless
      * that project allows concurrent builds.
      */
-    private boolean allowNewBuildableTask(Task t) {
+    private boolean allowNewBuildableTask(Task t, MaintenancePass pass) {
         try {
             if (t.isConcurrentBuild()) {
                 return true;
@@ -916,7 +908,7 @@ public class Queue extends ResourceController implements Saveable {
         } catch (AbstractMethodError e) {
             // earlier versions don't have the "isConcurrentBuild" method, so fall back gracefully
         }
-        return !buildables.containsKey(t) && !pendings.containsKey(t);
+        return !pass.buildableTasks.contains(t);
     }
 
     /**
@@ -925,6 +917,50 @@ public class Queue extends ResourceController implements Saveable {
      * appropriately.
      */
     public synchronized void maintain() {
+        long start = System.nanoTime();
+        MaintenancePass pass = new MaintenancePass();
+        // Readers don't wait for the lock while the maintenance runs: the
+        // snapshot is up to date now, and doMaintain() doesn't mark it stale.
+        if (snapshotStale) {
+            publishSnapshot();
+        }
+        try {
+            doMaintain(pass);
+        } finally {
+            publishSnapshot();
+            lastMaintenanceDuration = (System.nanoTime() - start) / 1000000;
+            lastMaintenanceItemsEvaluated = pass.evaluated;
+            maintenanceCount++;
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Queue maintenance took " + lastMaintenanceDuration + "ms and evaluated "
+                        + pass.evaluated + " items");
+            }
+        }
+    }
+
+    /**
+     * Milliseconds taken by the last {@link #maintain()}.
+     */
+    public long getLastMaintenanceDuration() {
+        return lastMaintenanceDuration;
+    }
+
+    /**
+     * Number of items that the last {@link #maintain()} checked for blockage
+     * or offered to executors.
+     */
+    public int getLastMaintenanceItemsEvaluated() {
+        return lastMaintenanceItemsEvaluated;
+    }
+
+    /**
+     * Number of times {@link #maintain()} has run.
+     */
+    public long getMaintenanceCount() {
+        return maintenanceCount;
+    }
+
+    private void doMaintain(MaintenancePass pass) {
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine("Queue maintenance started " + this);
         }
@@ -933,12 +969,14 @@ public class Queue extends ResourceController implements Saveable {
             Iterator<BlockedItem> itr = blockedProjects.values().iterator();
             while (itr.hasNext()) {
                 BlockedItem p = itr.next();
-                if (!isBuildBlocked(p) && allowNewBuildableTask(p.task)) {
+                // check the cheap condition first, it's the usual reason for being blocked
+                if (allowNewBuildableTask(p.task, pass) && !isBuildBlocked(p)) {
                     // ready to be executed
                     LOGGER.fine(p.task.getFullDisplayName() + " no longer blocked");
                     itr.remove();
-                    makeBuildable(new BuildableItem(p));
+                    makeBuildable(new BuildableItem(p), pass);
                 }
+                pass.evaluated++;
             }
         }
 
@@ -950,11 +988,12 @@ public class Queue extends ResourceController implements Saveable {
                 break; // finished moving all ready items from queue
             }
             waitingList.remove(top);
+            pass.evaluated++;
             Task p = top.task;
-            if (!isBuildBlocked(top) && allowNewBuildableTask(p)) {
+            if (allowNewBuildableTask(p, pass) && !isBuildBlocked(top)) {
                 // ready to be executed immediately
                 LOGGER.fine(p.getFullDisplayName() + " ready to build");
-                makeBuildable(new BuildableItem(top));
+                makeBuildable(new BuildableItem(top), pass);
             } else {
                 // this can't be built now because another build is in progress
                 // set this project aside.
@@ -972,6 +1011,7 @@ public class Queue extends ResourceController implements Saveable {
         Iterator<BuildableItem> itr = buildables.iterator();
         while (itr.hasNext()) {
             BuildableItem p = itr.next();
+            pass.evaluated++;
 
             // one last check to make sure this build is not blocked.
             if (isBuildBlocked(p)) {
@@ -980,12 +1020,17 @@ public class Queue extends ResourceController implements Saveable {
                 continue;
             }
 
-            List<JobOffer> candidates = new ArrayList<JobOffer>(parked.size());
-            for (JobOffer j : parked.values()) {
+            // only look at the executors that may serve the assigned label
+            List<JobOffer> candidates = new ArrayList<JobOffer>();
+            for (JobOffer j : pass.getOffers(p.getAssignedLabel())) {
                 if (j.canTake(p)) {
                     candidates.add(j);
                 }
             }
+            if (candidates.isEmpty()) {
+                // no executor to map the item to
+                continue;
+            }
 
             MappingWorksheet ws = new MappingWorksheet(p, candidates);
             Mapping m = loadBalancer.map(p.task, ws);
@@ -1007,18 +1052,135 @@ public class Queue extends ResourceController implements Saveable {
         }
     }
 
-    private void makeBuildable(BuildableItem p) {
-        if (Hudson.FLYWEIGHT_SUPPORT && p.task instanceof FlyweightTask && !ifBlockedByHudsonShutdown(p.task)) {
-            ConsistentHash<Node> hash = new ConsistentHash<Node>(new Hash<Node>() {
-                public String hash(Node node) {
-                    return node.getNodeName();
+    /**
+     * State that is computed once per {@link #maintain()}, instead of once
+     * per item.
+     */
+    private final class MaintenancePass {
+
+        /**
+         * Tasks in {@link #buildables} or {@link #pendings}.
+         */
+        final Set<Task> buildableTasks = new HashSet<Task>();
+        /**
+         * Parked executors, bucketed by the label they can serve. Null stands
+         * for items that have no assigned label.
+         */
+        private final Map<Label, List<JobOffer>> offers = new HashMap<Label, List<JobOffer>>();
+        /**
+         * Whether the classes of the nodes override
+         * {@link Node#canTake(BuildableItem)}.
+         */
+        private final Map<Class<?>, Boolean> takers = new HashMap<Class<?>, Boolean>();
+        private ConsistentHash<Node> nodeHash;
+        int evaluated;
+
+        MaintenancePass() {
+            for (BuildableItem p : buildables) {
+                buildableTasks.add(p.task);
+            }
+            for (BuildableItem p : pendings) {
+                buildableTasks.add(p.task);
+            }
+        }
+
+        /**
+         * Parked executors that may take the items of the given label: the
+         * ones on the nodes of the label, and the ones on nodes that decide by
+         * themselves which items they take. Availability changes during the
+         * pass, so {@link JobOffer#canTake(BuildableItem)} still needs to be
+         * checked.
+         */
+        List<JobOffer> getOffers(Label label) {
+            List<JobOffer> r = offers.get(label);
+            if (r == null) {
+                r = new ArrayList<JobOffer>();
+                for (JobOffer j : parked.values()) {
+                    Node node = j.getNode();
+                    if (node == null) {
+                        continue;
+                    }
+                    if ((label == null ? node.getMode() == Mode.NORMAL : label.contains(node)) || overridesCanTake(node)) {
+                        r.add(j);
+                    }
+                }
+                offers.put(label, r);
+            }
+            return r;
+        }
+
+        private boolean overridesCanTake(Node node) {
+            Boolean b = takers.get(node.getClass());
+            if (b == null) {
+                try {
+                    b = node.getClass().getMethod("canTake", BuildableItem.class).getDeclaringClass() != Node.class;
+                } catch (NoSuchMethodException e) {
+                    throw new AssertionError(e);
+                }
+                takers.put(node.getClass(), b);
+            }
+            return b;
+        }
+
+        /**
+         * Nodes weighted by their number of executors, to pick where to run
+         * {@link FlyweightTask}s.
+         */
+        ConsistentHash<Node> getNodeHash() {
+            if (nodeHash == null) {
+                nodeHash = new ConsistentHash<Node>(new Hash<Node>() {
+                    public String hash(Node node) {
+                        return node.getNodeName();
+                    }
+                });
+                Hudson h = Hudson.getInstance();
+                nodeHash.add(h, h.getNumExecutors() * 100);
+                for (Node n : h.getNodes()) {
+                    nodeHash.add(n, n.getNumExecutors() * 100);
                 }
-            });
-            Hudson h = Hudson.getInstance();
-            hash.add(h, h.getNumExecutors() * 100);
-            for (Node n : h.getNodes()) {
-                hash.add(n, n.getNumExecutors() * 100);
             }
+            return nodeHash;
+        }
+    }
+
+    /**
+     * Marks the snapshot as out of date. Must be called with the lock held,
+     * after every change. The snapshot is built again on the next read, or
+     * at the end of {@link #maintain()}, so a series of changes costs one
+     * copy of the queue.
+     */
+    private void snapshotChanged() {
+        snapshotStale = true;
+    }
+
+    /**
+     * Builds the snapshot from the current contents of the queue. Must be
+     * called with the lock held.
+     */
+    private void publishSnapshot() {
+        snapshot = new Snapshot(waitingList, blockedProjects, buildables, pendings);
+        snapshotStale = false;
+    }
+
+    /**
+     * Gets the up to date snapshot. Only waits for the lock if there were
+     * changes since it was last built.
+     */
+    private Snapshot snapshot() {
+        if (snapshotStale) {
+            synchronized (this) {
+                if (snapshotStale) {
+                    publishSnapshot();
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    private void makeBuildable(BuildableItem p, MaintenancePass pass) {
+        pass.buildableTasks.add(p.task);
+        if (Hudson.FLYWEIGHT_SUPPORT && p.task instanceof FlyweightTask && !ifBlockedByHudsonShutdown(p.task)) {
+            ConsistentHash<Node> hash = pass.getNodeHash();
 
             Label lbl = p.getAssignedLabel();
             for (Node n : hash.list(p.task.getFullDisplayName())) {
@@ -1745,6 +1907,68 @@ public class Queue extends ResourceController implements Saveable {
         }
     }
 
+    /**
+     * Immutable view of the queue contents at some point.
+     */
+    static final class Snapshot {
+
+        final List<WaitingItem> waitingList;
+        final List<BlockedItem> blockedProjects;
+        final List<BuildableItem> buildables;
+        final List<BuildableItem> pendings;
+        /**
+         * All the items, in the order of {@link Queue#getItems()}.
+         */
+        final Item[] items;
+        /**
+         * Items of each task, blocked first, then buildable, pending and waiting.
+         */
+        final Map<Task, List<Item>> byTask;
+
+        Snapshot() {
+            this(Collections.<WaitingItem>emptySet(), Collections.<BlockedItem>emptyList(),
+                    Collections.<BuildableItem>emptyList(), Collections.<BuildableItem>emptyList());
+        }
+
+        Snapshot(Collection<WaitingItem> waitingList, List<BlockedItem> blockedProjects,
+                List<BuildableItem> buildables, List<BuildableItem> pendings) {
+            this.waitingList = Collections.unmodifiableList(new ArrayList<WaitingItem>(waitingList));
+            this.blockedProjects = Collections.unmodifiableList(new ArrayList<BlockedItem>(blockedProjects));
+            this.buildables = Collections.unmodifiableList(new ArrayList<BuildableItem>(buildables));
+            this.pendings = Collections.unmodifiableList(new ArrayList<BuildableItem>(pendings));
+
+            items = new Item[waitingList.size() + blockedProjects.size() + buildables.size() + pendings.size()];
+            this.waitingList.toArray(items);
+            int idx = waitingList.size();
+            for (BlockedItem p : this.blockedProjects) {
+                items[idx++] = p;
+            }
+            for (BuildableItem p : reverse(this.buildables)) {
+                items[idx++] = p;
+            }
+            for (BuildableItem p : reverse(this.pendings)) {
+                items[idx++] = p;
+            }
+
+            byTask = new HashMap<Task, List<Item>>();
+            index(this.blockedProjects);
+            index(this.buildables);
+            index(this.pendings);
+            index(this.waitingList);
+        }
+
+        private void index(List<? extends Item> list) {
+            for (Item item : list) {
+                List<Item> l = byTask.get(item.task);
+                if (l == null) {
+                    l = new ArrayList<Item>(1);
+                    byTask.put(item.task, l);
+                }
+                l.add(item);
+            }
+        }
+    }
+
     /**
      * {@link ArrayList} of {@link Item} with more convenience methods.
      */
@@ -29,7 +29,7 @@ import hudson.Util;
 import hudson.XmlFile;
 import hudson.cli.declarative.CLIMethod;
 import hudson.console.AnnotatedLargeText;
-import hudson.console.ConsoleNote;
+import hudson.console.ConsoleFeed;
 import hudson.matrix.MatrixBuild;
 import hudson.matrix.MatrixRun;
 import hudson.model.Descriptor.FormException;
@@ -50,8 +50,10 @@ import hudson.util.IOException2;
 import hudson.util.LogTaskListener;
 import hudson.util.XStream2;
 import hudson.util.ProcessTree;
+import hudson.util.io.BlockCompressedFile;
+import hudson.util.io.LineIndexOutputStream;
+import hudson.util.io.LogLines;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -67,13 +69,13 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -1192,9 +1194,69 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
         return new File(getRootDir(), "log");
     }
 
+    /**
+     * Returns the log file compressed by {@link BlockCompressedFile}, which
+     * replaces {@link #getLogFile()} once the build is over if
+     * {@link #COMPRESS_LOGS} is set.
+     *
+     * @since 3.3.4
+     */
+    public File getCompressedLogFile() {
+        File logFile = getLogFile();
+        return new File(logFile.getParentFile(), logFile.getName() + ".blk");
+    }
+
+    /**
+     * Gets the compressed log, if the plain log doesn't exist.
+     *
+     * @return null if the log is not compressed.
+     */
+    private BlockCompressedFile getCompressedLog() throws IOException {
+        if (getLogFile().exists()) {
+            return null;
+        }
+        File compressedLogFile = getCompressedLogFile();
+        return compressedLogFile.exists() ? new BlockCompressedFile(compressedLogFile) : null;
+    }
+
+    /**
+     * Length of the log, whether it's compressed or not.
+     *
+     * @since 3.3.4
+     */
+    public long getLogLength() {
+        try {
+            BlockCompressedFile compressed = getCompressedLog();
+            if (compressed != null) {
+                return compressed.length();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + getCompressedLogFile(), e);
+        }
+        return getLogFile().length();
+    }
+
+    /**
+     * Replaces the log with its compressed version.
+     */
+    private void compressLog() {
+        File logFile = getLogFile();
+        if (!logFile.exists()) {
+            return;
+        }
+        try {
+            BlockCompressedFile.compress(logFile, getCompressedLogFile());
+            if (!logFile.delete()) {
+                LOGGER.warning("Failed to delete " + logFile + " after compressing it");
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to compress " + logFile, e);
+        }
+    }
+
     /**
      * Returns an input stream that reads from the log file. It will use a
-     * gzip-compressed log file (log.gz) if that exists.
+     * compressed log file (log.blk or log.gz) if that exists.
      *
      * @throws IOException
      * @return an input stream from the log file, or null if none exists
@@ -1206,6 +1268,11 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
             return new FileInputStream(logFile);
         }
 
+        BlockCompressedFile compressed = getCompressedLog();
+        if (compressed != null) {
+            return compressed.open(0);
+        }
+
         File compressedLogFile = new File(logFile.getParentFile(), logFile.getName() + ".gz");
         if (compressedLogFile.exists()) {
             return new GZIPInputStream(new FileInputStream(compressedLogFile));
@@ -1248,6 +1315,14 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
      * Used to URL-bind {@link AnnotatedLargeText}.
      */
     public AnnotatedLargeText getLogText() {
+        try {
+            BlockCompressedFile compressed = getCompressedLog();
+            if (compressed != null) {
+                return new AnnotatedLargeText(compressed, getCharset(), this);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + getCompressedLogFile(), e);
+        }
         return new AnnotatedLargeText(getLogFile(), getCharset(), !isLogUpdated(), this);
     }
 
@@ -1292,6 +1367,9 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
         File artifactsDir = getArtifactsDir();
 
         Util.deleteContentsRecursive(artifactsDir);
+        if (new File(getRootDir(), ArtifactStore.MANIFEST).exists()) {
+            ArtifactStore.get().release(getRootDir());
+        }
     }
 
     /**
@@ -1308,9 +1386,13 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
 
         File rootDir = getRootDir();
         File tmp = new File(rootDir.getParentFile(), '.' + rootDir.getName());
+        Collection<String> storedArtifacts = ArtifactStore.readManifest(rootDir).values();
 
         boolean renamingSucceeded = rootDir.renameTo(tmp);
         Util.deleteRecursive(tmp);
+        if (!storedArtifacts.isEmpty()) {
+            ArtifactStore.get().release(storedArtifacts);
+        }
         // some user reported that they see some left-over .xyz files in the workspace,
         // so just to make sure we've really deleted it, schedule the deletion on VM exit, too.
         if (tmp.exists()) {
@@ -1467,7 +1549,9 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
                     // don't do buffering so that what's written to the listener
                     // gets reflected to the file immediately, which can then be
                     // served to the browser immediately
-                    logger = new FileOutputStream(getLogFile());
+                    // the line index lets getLog(int) read lines without going through the whole log
+                    logger = new LineIndexOutputStream(new FileOutputStream(getLogFile()),
+                            LineIndexOutputStream.getIndexFile(getLogFile()));
                     RunT build = job.getBuild();
 
                     // Global log filters
@@ -1553,6 +1637,9 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
                 if (logger != null) {
                     IOUtils.closeQuietly(logger);
                 }
+                if (COMPRESS_LOGS) {
+                    compressLog();
+                }
 
                 try {
                     save();
@@ -1654,6 +1741,14 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
      */
     @Deprecated
     public String getLog() throws IOException {
+        if (getCompressedLog() != null) {
+            Reader reader = getLogReader();
+            try {
+                return IOUtils.toString(reader);
+            } finally {
+                reader.close();
+            }
+        }
         return Util.loadFile(getLogFile(), getCharset());
     }
 
@@ -1667,33 +1762,31 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
      * @throws IOException If there is a problem reading the log file.
      */
     public List<String> getLog(int maxLines) throws IOException {
-        int lineCount = 0;
-        List<String> logLines = new LinkedList<String>();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(getLogFile()), getCharset()));
-        try {
-            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-                logLines.add(line);
-                ++lineCount;
-                // If we have too many lines, remove the oldest line.  This way we
-                // never have to hold the full contents of a huge log file in memory.
-                // Adding to and removing from the ends of a linked list are cheap
-                // operations.
-                if (lineCount > maxLines) {
-                    logLines.remove(0);
-                }
-            }
-        } finally {
-            reader.close();
+        File logFile = getLogFile();
+        File indexFile = LineIndexOutputStream.getIndexFile(logFile);
+        // Only the end of the log is read, which matters for huge logs
+        LogLines log;
+        BlockCompressedFile compressed = getCompressedLog();
+        if (compressed != null) {
+            log = new LogLines(compressed, indexFile, getCharset());
+        } else if (logFile.exists()) {
+            log = new LogLines(logFile, indexFile, getCharset());
+        } else {
+            throw new FileNotFoundException(logFile.getPath());
         }
+        List<String> logLines = log.tail(maxLines);
 
         // If the log has been truncated, include that information.
         // Use set (replaces the first element) rather than add so that
         // the list doesn't grow beyond the specified maximum number of lines.
-        if (lineCount > maxLines) {
-            logLines.set(0, "[...truncated " + (lineCount - (maxLines - 1)) + " lines...]");
+        if (logLines.size() == maxLines) {
+            long lineCount = log.count();
+            if (lineCount > maxLines) {
+                logLines.set(0, "[...truncated " + (lineCount - (maxLines - 1)) + " lines...]");
+            }
         }
 
-        return ConsoleNote.removeNotes(logLines);
+        return logLines;
     }
 
     public void doBuildStatus(StaplerRequest req, StaplerResponse rsp) throws IOException {
@@ -1844,6 +1937,17 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
         getLogText().doProgressText(req, rsp);
     }
 
+    /**
+     * Pushes the annotated console output as server-sent events, for as long
+     * as the build runs.
+     *
+     * @see ConsoleFeed
+     * @since 3.3.4
+     */
+    public void doConsoleStream(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        ConsoleFeed.stream(this, req, rsp);
+    }
+
     public void doToggleLogKeep(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
         keepLog(!keepLog);
         rsp.forwardToPreviousPage(req);
@@ -2042,6 +2146,14 @@ public abstract class Run<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
         XSTREAM.registerConverter(Result.conv);
     }
     private static final Logger LOGGER = Logger.getLogger(Run.class.getName());
+    /**
+     * Compress the logs of the builds that are over, with {@link BlockCompressedFile}.
+     * Plugins that read {@link #getLogFile()} directly, instead of
+     * {@link #getLogInputStream()} or {@link #getLogText()}, won't see those logs.
+     *
+     * @since 3.3.4
+     */
+    public static boolean COMPRESS_LOGS = Boolean.getBoolean(Run.class.getName() + ".compressLogs");
     /**
      * Sort by date. Newer ones first.
      */
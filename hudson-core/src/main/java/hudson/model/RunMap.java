@@ -35,7 +35,6 @@ import hudson.XmlFile;
 import hudson.model.listeners.RunListener;
 import hudson.model.listeners.SaveableListener;
 import hudson.tasks.test.AbstractTestResultAction;
-import hudson.util.AtomicFileWriter;
 import hudson.util.XStream2;
 import java.io.BufferedReader;
 import java.io.File;
@@ -50,12 +49,14 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -75,6 +76,9 @@ import org.apache.commons.lang.StringUtils;
  * <p> This class is multi-thread safe by using copy-on-write technique, and it
  * also updates the bi-directional links within {@link Run} accordingly.
  *
+ * <p> The build history is persisted in a {@link RunMapIndex}. Older
+ * {@code _runmap.xml} files are migrated to it when the map is loaded.
+ *
  * @author Kohsuke Kawaguchi
  */
 public final class RunMap<J extends Job<J, R>, R extends Run<J, R>> 
@@ -126,8 +130,11 @@ public final class RunMap<J extends Job<J, R>, R extends Run<J, R>>
     private volatile Map<Integer, Long> buildsTimeMap = new HashMap<Integer, Long>();
     
     
+    // Legacy XML persistence, only read to migrate to the binary index.
     private transient File persistenceFile;
     
+    private transient RunMapIndex index;
+    
     // Marker to indicate if this objects need to be saved to disk
     private transient volatile boolean dirty;
     
@@ -198,7 +205,7 @@ public final class RunMap<J extends Job<J, R>, R extends Run<J, R>>
         
         recalcMarkers();
         
-        saveToRunMapXml();
+        saveIndex();
     }
     
     private synchronized void recalcMarkers() {
@@ -587,54 +594,33 @@ public final class RunMap<J extends Job<J, R>, R extends Run<J, R>>
         // If saved Runmap exists, load from that.
         File buildDir = job.getBuildDir();
         persistenceFile = new java.io.File(buildDir, "_runmap.xml");
+        index = new RunMapIndex(buildDir);
         
-        if ( !loadFromRunMapXml(job, cons)) {
+        if ( loadFromIndex(cons)) {
+            return;
+        }
+        
+        if ( loadFromRunMapXml(job, cons)) {
+            // Migrate to the binary index, the XML file is not needed after that.
+            try {
+                index.rewrite(builds.values());
+                markDirty(false);
+                persistenceFile.delete();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, "Cannot migrate _runmap.xml to the build index", ex);
+                index.delete();
+            }
+        }
+        else {
         
-            final Hudson.HudsonDateFormat formatter = Run.ID_FORMATTER;
-
             TreeMap<Integer, RunValue<J,R>> m = new TreeMap<Integer, RunValue<J,R>>(BUILD_TIME_COMPARATOR);
             
             buildDir.mkdirs();
-            String[] buildDirs = buildDir.list(new FilenameFilter() {
-                public boolean accept(File dir, String name) {
-                    // HUDSON-1461 sometimes create bogus data directories with impossible dates, such as year 0, April 31st,
-                    // or August 0th. Date object doesn't roundtrip those, so we eventually fail to load this data.
-                    // Don't even bother trying.
-                    if (!isCorrectDate(name)) {
-                        LOGGER.fine("Skipping " + new File(dir, name));
-                        return false;
-                    }
-                    return !name.startsWith("0000") && new File(dir, name).isDirectory();
-                }
-
-                private boolean isCorrectDate(String name) {
-                    try {
-                        if (formatter.format(formatter.parse(name)).equals(name)) {
-                            return true;
-                        }
-                    } catch (ParseException e) {
-                        // fall through
-                    }
-                    return false;
-                }
-            });
+            String[] buildDirs = listBuildDirs(buildDir);
 
             for (String build : buildDirs) {
                 
-                if (buildXmlExists(new File(buildDir, build))) {
-                    // if the build result file isn't in the directory, ignore it.
-                    try {
-                        RunValue<J,R> lzRunValue = new LazyRunValue<J,R>(this, buildDir, build, cons);
-                        
-                        R b = lzRunValue.getBuild();
-                        long timeInMillis = b.getTimeInMillis();
-                        buildsTimeMap.put(b.getNumber(), timeInMillis);
-                        lzRunValue.timeInMillis = timeInMillis;
-                        m.put(b.getNumber(), lzRunValue);
-                    } catch (InstantiationError e) {
-                        e.printStackTrace();
-                    }
-                }
+                loadBuildDir(m, buildDir, build, cons);
             }
             
             reset(m);
@@ -642,6 +628,60 @@ public final class RunMap<J extends Job<J, R>, R extends Run<J, R>>
 
     }
     
+    /**
+     * Lists the build directories in the given directory of a job.
+     */
+    private static String[] listBuildDirs(File buildDir) {
+        final Hudson.HudsonDateFormat formatter = Run.ID_FORMATTER;
+        String[] buildDirs = buildDir.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                // HUDSON-1461 sometimes create bogus data directories with impossible dates, such as year 0, April 31st,
+                // or August 0th. Date object doesn't roundtrip those, so we eventually fail to load this data.
+                // Don't even bother trying.
+                if (!isCorrectDate(name)) {
+                    LOGGER.fine("Skipping " + new File(dir, name));
+                    return false;
+                }
+                return !name.startsWith("0000") && new File(dir, name).isDirectory();
+            }
+
+            private boolean isCorrectDate(String name) {
+                try {
+                    if (formatter.format(formatter.parse(name)).equals(name)) {
+                        return true;
+                    }
+                } catch (ParseException e) {
+                    // fall through
+                }
+                return false;
+            }
+        });
+        return buildDirs != null ? buildDirs : new String[0];
+    }
+    
+    /**
+     * Loads the build in the given directory into the map, if it has a
+     * build.xml file.
+     */
+    private boolean loadBuildDir(TreeMap<Integer, RunValue<J,R>> m, File buildDir, String build, Constructor<R> cons) {
+        if (buildXmlExists(new File(buildDir, build))) {
+            // if the build result file isn't in the directory, ignore it.
+            try {
+                RunValue<J,R> lzRunValue = new LazyRunValue<J,R>(this, buildDir, build, cons);
+                
+                R b = lzRunValue.getBuild();
+                long timeInMillis = b.getTimeInMillis();
+                buildsTimeMap.put(b.getNumber(), timeInMillis);
+                lzRunValue.timeInMillis = timeInMillis;
+                m.put(b.getNumber(), lzRunValue);
+                return true;
+            } catch (InstantiationError e) {
+                e.printStackTrace();
+            }
+        }
+        return false;
+    }
+    
     private synchronized void markDirty(boolean value) {
         this.dirty = value;
         if ( !dirty ) {
@@ -656,26 +696,95 @@ public final class RunMap<J extends Job<J, R>, R extends Run<J, R>>
         return dirty;
     }
     
-    private synchronized void saveToRunMapXml() {
-        if (!isDirty() || persistenceFile == null) {
+    private synchronized void saveIndex() {
+        if (!isDirty() || index == null) {
             return;
         }
         
-        AtomicFileWriter w = null;
         try {
-            w = new AtomicFileWriter(persistenceFile);
-            w.write("<?xml version='1.0' encoding='UTF-8'?>\n");
-            xstream.toXML(this, w);
-            w.commit();
+            index.update(builds.values());
             markDirty(false);
-        } catch (Exception ex) {
-            LOGGER.log(Level.SEVERE, "Cannot write RunMap.xml", ex);
-        } finally {
-            if ( w != null) {
-                try { w.abort();} catch (IOException ex) {};
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "Cannot write build index", ex);
+            // Start over with a full rewrite on the next save
+            index.delete();
+        }
+        
+    }
+    
+    private synchronized boolean loadFromIndex(Constructor<R> cons) {
+        
+        assert index != null;
+        
+        if ( !index.exists()) {
+            return false;
+        }
+        
+        List<LazyRunValue<J,R>> values;
+        try {
+            values = index.load(this);
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "Cannot read build index, rebuilding it", ex);
+            index.delete();
+            return false;
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.SEVERE, "Cannot read build index, rebuilding it", ex);
+            index.delete();
+            return false;
+        }
+        
+        // The index is only saved from time to time, so reconcile it with
+        // the build directories: builds deleted behind our back are dropped
+        // and builds the index doesn't know about yet are loaded.
+        File buildDir = persistenceFile.getParentFile();
+        Set<String> buildDirs = new HashSet<String>(Arrays.asList(listBuildDirs(buildDir)));
+        boolean changed = false;
+        
+        buildsTimeMap.clear();
+        TreeMap<Integer, RunValue<J,R>> m = new TreeMap<Integer, RunValue<J,R>>(BUILD_TIME_COMPARATOR);
+        for (LazyRunValue<J,R> lrv: values) {
+            // Directories are recorded with a trailing slash.
+            if ( !buildDirs.remove(StringUtils.removeEnd(lrv.key.buildDir, "/"))) {
+                changed = true;
+                continue;
             }
+            lrv.key.ctor = cons;
+            buildsTimeMap.put(lrv.getNumber(), lrv.timeInMillis);
+            m.put(lrv.getNumber(), lrv);
+        }
+        for (String build: buildDirs) {
+            changed |= loadBuildDir(m, buildDir, build, cons);
         }
         
+        // Map is ordered newest first
+        RunValue<J,R> newer = null;
+        for (RunValue<J,R> rv: m.values()) {
+            rv.setNext(newer);
+            if ( newer != null) {
+                newer.setPrevious(rv);
+            }
+            newer = rv;
+        }
+        
+        builds = Collections.unmodifiableSortedMap(m);
+        recalcMarkers();
+        // Nothing has changed compared to what is on disk, unless the
+        // index had to be reconciled.
+        markDirty(changed);
+        
+        // If any builds were still building when the index was last written,
+        // update it with their current status.
+        for (RunValue<J,R> rv: m.values()) {
+            if ( rv.isBuilding()) {
+                rv.sync();
+            }
+        }
+        if ( isDirty()) {
+            recalcMarkers();
+            saveIndex();
+        }
+        
+        return true;
     }
     
     private synchronized boolean loadFromRunMapXml(J job, Constructor<R> cons) {
@@ -707,7 +816,7 @@ public final class RunMap<J extends Job<J, R>, R extends Run<J, R>>
                 // update runMap with new status and save the file again.
                 if ( wasBuilding ) {
                     recalcMarkers();
-                    saveToRunMapXml();
+                    saveIndex();
                 }
                 
                 return true;
@@ -843,7 +952,7 @@ public final class RunMap<J extends Job<J, R>, R extends Run<J, R>>
                     // or is in the process of being added.
                     rv.sync();
                     p.builds.recalcMarkers();
-                    p.builds.saveToRunMapXml();
+                    p.builds.saveIndex();
                 }
 
             }
@@ -958,7 +1067,7 @@ public final class RunMap<J extends Job<J, R>, R extends Run<J, R>>
             }
         }
         
-        private boolean isDirty() {
+        boolean isDirty() {
             return dirty;
         }
         
@@ -1559,6 +1668,17 @@ public final class RunMap<J extends Job<J, R>, R extends Run<J, R>>
             sync();
         }
         
+        /**
+         * Used when loaded from {@link RunMapIndex}. The constructor is
+         * filled in later by {@link RunMap#load}.
+         */
+        static <J extends Job<J,R>, R extends Run<J,R>> LazyRunValue<J,R> fromIndex(RunMap<J,R> runMap, File buildsDir, String buildDir) {
+            LazyRunValue<J,R> rv = new LazyRunValue<J,R>(runMap);
+            rv.key.buildsDir = buildsDir;
+            rv.key.buildDir = buildDir;
+            return rv;
+        }
+        
         @Override
         File buildDir() {
             return new File(key.buildsDir, key.buildDir);
@@ -0,0 +1,368 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binary, append-only persistence of the build history held by a {@link RunMap}.
+ *
+ * <p> Every build is stored as a fixed-width record in {@value #INDEX_FILE}.
+ * Variable length values such as display names and node names are kept in
+ * the companion string table {@value #STRINGS_FILE}, and records refer to
+ * them by offset. New builds are appended, builds whose status changes are
+ * patched in place and deleted builds are only flagged, so the cost of a
+ * save is proportional to the number of changed builds instead of the length
+ * of the history.
+ *
+ * <p> The index is memory-mapped when loaded. When too much of it has become
+ * garbage (deleted records, strings no longer referenced) it is compacted
+ * as part of the load.
+ *
+ * <p> This class is not thread safe, {@link RunMap} serializes access to it.
+ */
+final class RunMapIndex {
+
+    static final String INDEX_FILE = "_runmap.idx";
+    static final String STRINGS_FILE = "_runmap.str";
+
+    private static final int MAGIC = 0x48424958; // "HBIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * number(4) flags(4) timestamp(8) duration(8) result(1) state(1)
+     * padding(2) and six string references(4 each).
+     */
+    static final int RECORD_SIZE = 52;
+
+    private static final int FLAG_BUILDING = 1;
+    private static final int FLAG_LOG_UPDATED = 2;
+    private static final int FLAG_DELETED = 4;
+
+    private static final Result[] RESULTS = {
+        Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT, Result.ABORTED
+    };
+    private static final Run.State[] STATES = Run.State.values();
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File buildsDir;
+    private final File indexFile;
+    private final File stringsFile;
+
+    // Build number to record slot of the live records.
+    private final Map<Integer, Integer> slots = new HashMap<Integer, Integer>();
+    // Total number of record slots, including deleted ones.
+    private int slotCount;
+
+    // Interned strings to their reference in the string table.
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private long stringsLength;
+
+    RunMapIndex(File buildsDir) {
+        this.buildsDir = buildsDir;
+        this.indexFile = new File(buildsDir, INDEX_FILE);
+        this.stringsFile = new File(buildsDir, STRINGS_FILE);
+    }
+
+    boolean exists() {
+        return indexFile.exists() && stringsFile.exists();
+    }
+
+    /**
+     * Reads all the live records of the index into {@link RunMap.LazyRunValue}s,
+     * in no particular order.
+     */
+    <J extends Job<J, R>, R extends Run<J, R>> List<RunMap.LazyRunValue<J, R>> load(RunMap<J, R> runMap) throws IOException {
+        slots.clear();
+        strings.clear();
+        slotCount = 0;
+
+        List<RunMap.LazyRunValue<J, R>> values = new ArrayList<RunMap.LazyRunValue<J, R>>();
+        Map<Integer, String> decoded = new HashMap<Integer, String>();
+        ByteBuffer index = map(indexFile);
+        ByteBuffer table = map(stringsFile);
+        stringsLength = table.limit();
+
+        if (index.limit() < HEADER_SIZE || index.getInt(0) != MAGIC) {
+            throw new IOException("Not a build index: " + indexFile);
+        }
+        if (index.getInt(4) != VERSION || index.getInt(8) != RECORD_SIZE) {
+            throw new IOException("Unsupported build index version in " + indexFile);
+        }
+
+        // A partially written trailing record is ignored, and overwritten by the next append.
+        int count = (index.limit() - HEADER_SIZE) / RECORD_SIZE;
+        long liveStrings = 0;
+        for (int slot = 0; slot < count; slot++) {
+            int pos = HEADER_SIZE + slot * RECORD_SIZE;
+            int flags = index.getInt(pos + 4);
+            if ((flags & FLAG_DELETED) != 0) {
+                continue;
+            }
+
+            String[] str = new String[6];
+            for (int i = 0; i < str.length; i++) {
+                int ref = index.getInt(pos + 28 + i * 4);
+                if (ref != 0 && !decoded.containsKey(ref)) {
+                    String s = readString(table, ref);
+                    decoded.put(ref, s);
+                    strings.put(s, ref);
+                    liveStrings += 4 + table.getInt(ref - 1);
+                }
+                str[i] = decoded.get(ref);
+            }
+
+            RunMap.LazyRunValue<J, R> rv = RunMap.LazyRunValue.fromIndex(runMap, buildsDir, str[0]);
+            rv.buildNumber = index.getInt(pos);
+            rv.isBuilding = (flags & FLAG_BUILDING) != 0;
+            rv.isLogUpdated = (flags & FLAG_LOG_UPDATED) != 0;
+            rv.timeInMillis = index.getLong(pos + 8);
+            rv.duration = index.getLong(pos + 16);
+            byte result = index.get(pos + 24);
+            byte state = index.get(pos + 25);
+            if (result >= RESULTS.length || state >= STATES.length) {
+                throw new IOException("Corrupt record for build #" + rv.buildNumber + " in " + indexFile);
+            }
+            rv.result = result < 0 ? null : RESULTS[result];
+            rv.state = state < 0 ? null : STATES[state];
+            rv.displayName = str[1];
+            rv.fullDisplayName = str[2];
+            rv.description = str[3];
+            rv.url = str[4];
+            rv.builtOnStr = str[5];
+
+            // A build number can only appear once among the live records,
+            // but be defensive about an interrupted rewrite.
+            Integer old = slots.put(rv.buildNumber, slot);
+            if (old != null) {
+                for (Iterator<RunMap.LazyRunValue<J, R>> itr = values.iterator(); itr.hasNext();) {
+                    if (itr.next().buildNumber == rv.buildNumber) {
+                        itr.remove();
+                    }
+                }
+            }
+            values.add(rv);
+        }
+        slotCount = count;
+
+        int garbageRecords = count - values.size();
+        long garbageStrings = stringsLength - liveStrings;
+        if ((garbageRecords > 64 && garbageRecords > values.size())
+                || (garbageStrings > 64 * 1024 && garbageStrings > liveStrings)) {
+            rewrite(values);
+        }
+        return values;
+    }
+
+    /**
+     * Throws away the current index and writes all the given values afresh.
+     */
+    void rewrite(Collection<? extends RunMap.RunValue<?, ?>> values) throws IOException {
+        File tmpIndex = new File(buildsDir, INDEX_FILE + ".tmp");
+        File tmpStrings = new File(buildsDir, STRINGS_FILE + ".tmp");
+
+        slots.clear();
+        strings.clear();
+        slotCount = 0;
+        stringsLength = 0;
+
+        RandomAccessFile idx = new RandomAccessFile(tmpIndex, "rw");
+        RandomAccessFile str = new RandomAccessFile(tmpStrings, "rw");
+        try {
+            idx.setLength(0);
+            str.setLength(0);
+            writeHeader(idx);
+            for (RunMap.RunValue<?, ?> rv : values) {
+                writeRecord(idx, str, rv);
+            }
+        } finally {
+            idx.close();
+            str.close();
+        }
+
+        // The two files can't be replaced at once. Removing the index first
+        // means a crash in between leaves no index, and the next load scans
+        // the build directories, instead of an index pointing into the new
+        // string table.
+        if (indexFile.exists() && !indexFile.delete()) {
+            throw new IOException("Unable to delete " + indexFile);
+        }
+        replace(tmpStrings, stringsFile);
+        replace(tmpIndex, indexFile);
+    }
+
+    /**
+     * Brings the index up to date with the given live values. Values that are
+     * not yet in the index are appended, dirty ones are patched in place and
+     * builds that are no longer present are flagged as deleted.
+     */
+    void update(Collection<? extends RunMap.RunValue<?, ?>> values) throws IOException {
+        if (!exists()) {
+            rewrite(values);
+            return;
+        }
+
+        RandomAccessFile idx = new RandomAccessFile(indexFile, "rw");
+        RandomAccessFile str = new RandomAccessFile(stringsFile, "rw");
+        try {
+            // Drop any partially written trailing record or string.
+            idx.setLength(HEADER_SIZE + (long) slotCount * RECORD_SIZE);
+            str.setLength(stringsLength);
+
+            Set<Integer> removed = new HashSet<Integer>(slots.keySet());
+            for (RunMap.RunValue<?, ?> rv : values) {
+                removed.remove(rv.buildNumber);
+                if (!slots.containsKey(rv.buildNumber) || rv.isDirty()) {
+                    writeRecord(idx, str, rv);
+                }
+            }
+
+            for (Integer number : removed) {
+                int slot = slots.remove(number);
+                long pos = HEADER_SIZE + (long) slot * RECORD_SIZE;
+                idx.seek(pos + 4);
+                int flags = idx.readInt();
+                idx.seek(pos + 4);
+                idx.writeInt(flags | FLAG_DELETED);
+            }
+        } finally {
+            idx.close();
+            str.close();
+        }
+    }
+
+    void delete() {
+        indexFile.delete();
+        stringsFile.delete();
+        slots.clear();
+        strings.clear();
+        slotCount = 0;
+        stringsLength = 0;
+    }
+
+    private void writeHeader(RandomAccessFile idx) throws IOException {
+        idx.seek(0);
+        idx.writeInt(MAGIC);
+        idx.writeInt(VERSION);
+        idx.writeInt(RECORD_SIZE);
+        idx.writeInt(0);
+    }
+
+    private void writeRecord(RandomAccessFile idx, RandomAccessFile str, RunMap.RunValue<?, ?> rv) throws IOException {
+        // Strings go first, so a record never refers to a string that was not written.
+        int buildDir = intern(str, rv.relativeBuildDir(buildsDir));
+        int displayName = intern(str, rv.displayName);
+        int fullDisplayName = intern(str, rv.fullDisplayName);
+        int description = intern(str, rv.description);
+        int url = intern(str, rv.url);
+        int builtOn = intern(str, rv.builtOnStr);
+
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        buf.putInt(rv.buildNumber);
+        buf.putInt((rv.isBuilding ? FLAG_BUILDING : 0) | (rv.isLogUpdated ? FLAG_LOG_UPDATED : 0));
+        buf.putLong(rv.timeInMillis);
+        buf.putLong(rv.duration);
+        buf.put(rv.result == null ? (byte) -1 : (byte) rv.result.ordinal);
+        buf.put(rv.state == null ? (byte) -1 : (byte) rv.state.ordinal());
+        buf.putShort((short) 0);
+        buf.putInt(buildDir);
+        buf.putInt(displayName);
+        buf.putInt(fullDisplayName);
+        buf.putInt(description);
+        buf.putInt(url);
+        buf.putInt(builtOn);
+
+        Integer slot = slots.get(rv.buildNumber);
+        if (slot == null) {
+            slot = slotCount++;
+            slots.put(rv.buildNumber, slot);
+        }
+        idx.seek(HEADER_SIZE + (long) slot * RECORD_SIZE);
+        idx.write(buf.array());
+    }
+
+    /**
+     * Returns the reference of the given string in the string table, appending
+     * it if necessary. 0 stands for null.
+     */
+    private int intern(RandomAccessFile str, String s) throws IOException {
+        if (s == null) {
+            return 0;
+        }
+        Integer ref = strings.get(s);
+        if (ref == null) {
+            byte[] bytes = s.getBytes(UTF8);
+            str.seek(stringsLength);
+            str.writeInt(bytes.length);
+            str.write(bytes);
+            ref = (int) stringsLength + 1;
+            stringsLength += 4 + bytes.length;
+            strings.put(s, ref);
+        }
+        return ref;
+    }
+
+    private String readString(ByteBuffer table, int ref) throws IOException {
+        int pos = ref - 1;
+        int length = pos >= 0 && pos <= table.limit() - 4 ? table.getInt(pos) : -1;
+        if (length < 0 || length > table.limit() - pos - 4) {
+            throw new IOException("String reference " + ref + " out of bounds of " + stringsFile);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = table.get(pos + 4 + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    private static MappedByteBuffer map(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            raf.close();
+        }
+    }
+
+    private static void replace(File tmp, File dest) throws IOException {
+        if (!tmp.renameTo(dest)) {
+            if (dest.exists() && !dest.delete()) {
+                tmp.delete();
+                throw new IOException("Unable to delete " + dest);
+            }
+            if (!tmp.renameTo(dest)) {
+                throw new IOException("Unable to rename " + tmp + " to " + dest);
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -58,6 +59,9 @@ class TopLevelItemsCache {
     
     final LoadingCache<LazyTopLevelItem.Key, TopLevelItem> cache;
     
+    // Number of items read from disk so far
+    private final AtomicInteger loadCount = new AtomicInteger();
+    
     TopLevelItemsCache() { 
         
         cache = CacheBuilder.newBuilder()
@@ -79,6 +83,7 @@ class TopLevelItemsCache {
 
                     @Override
                     public TopLevelItem load(LazyTopLevelItem.Key key) throws Exception {
+                        loadCount.incrementAndGet();
                         try {
                             TopLevelItem item = (TopLevelItem) key.configFile.read();
                             item.onLoad(key.parent, key.name);
@@ -114,4 +119,11 @@ class TopLevelItemsCache {
         cache.put(key, item);
     }
     
+    /**
+     * Number of times an item has been read from disk.
+     */
+    int getLoadCount() {
+        return loadCount.get();
+    }
+    
 }
@@ -15,6 +15,7 @@
 
 package hudson.model;
 
+import com.google.common.base.Predicate;
 import com.thoughtworks.xstream.XStream;
 import hudson.CopyOnWrite;
 import hudson.FeedAdapter;
@@ -357,20 +358,17 @@ public class User extends AbstractModelObject implements AccessControlled, Savea
 
     /**
      * Gets the list of {@link Build}s that include changes by this user, by the
-     * timestamp order.
+     * timestamp order. Builds are only loaded as the list is read.
      *
      * TODO: do we need some index for this?
      */
     public RunList getBuilds() {
-        List<AbstractBuild> r = new ArrayList<AbstractBuild>();
-        for (AbstractProject<?, ?> p : Hudson.getInstance().getAllItems(AbstractProject.class)) {
-            for (AbstractBuild<?, ?> b : p.getBuilds()) {
-                if (b.hasParticipant(this)) {
-                    r.add(b);
-                }
+        Predicate<AbstractBuild> participated = new Predicate<AbstractBuild>() {
+            public boolean apply(AbstractBuild b) {
+                return b.hasParticipant(User.this);
             }
-        }
-        return RunList.fromRuns(r);
+        };
+        return new RunList<AbstractBuild>(Hudson.getInstance().getAllItems(AbstractProject.class)).filter(participated);
     }
 
     /**
@@ -381,7 +379,7 @@ public class User extends AbstractModelObject implements AccessControlled, Savea
     public Set<AbstractProject<?, ?>> getProjects() {
         Set<AbstractProject<?, ?>> r = new HashSet<AbstractProject<?, ?>>();
         for (AbstractProject<?, ?> p : Hudson.getInstance().getAllItems(AbstractProject.class)) {
-            if (p.hasParticipant(this)) {
+            if (PeopleIndex.of(p).contains(this)) {
                 r.add(p);
             }
         }
@@ -489,11 +487,11 @@ public class User extends AbstractModelObject implements AccessControlled, Savea
     }
 
     public void doRssAll(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
-        rss(req, rsp, " all builds", RunList.fromRuns(getBuilds()), Run.FEED_ADAPTER);
+        rss(req, rsp, " all builds", getBuilds(), Run.FEED_ADAPTER);
     }
 
     public void doRssFailed(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
-        rss(req, rsp, " regression builds", RunList.fromRuns(getBuilds()).regressionOnly(), Run.FEED_ADAPTER);
+        rss(req, rsp, " regression builds", getBuilds().regressionOnly(), Run.FEED_ADAPTER);
     }
 
     public void doRssLatest(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
@@ -22,9 +22,9 @@ import hudson.Util;
 import hudson.model.Descriptor.FormException;
 import static hudson.model.Hudson.checkGoodName;
 import hudson.model.Node.Mode;
-import hudson.scm.ChangeLogSet.Entry;
 import hudson.search.CollectionSearchIndex;
 import hudson.search.SearchIndexBuilder;
+import hudson.search.SearchItem;
 import hudson.security.*;
 import hudson.util.AbstractRunList;
 import hudson.util.BuildHistoryList;
@@ -502,17 +502,17 @@ public abstract class View extends AbstractModelObject implements AccessControll
                 for (Job job : item.getAllJobs()) {
                     if (job instanceof AbstractProject) {
                         AbstractProject<?, ?> p = (AbstractProject) job;
-                        for (AbstractBuild<?, ?> build : p.getBuilds()) {
-                            for (Entry entry : build.getChangeSet()) {
-                                User user = entry.getAuthor();
-
-                                UserInfo info = users.get(user);
-                                if (info == null) {
-                                    users.put(user, new UserInfo(user, p, build.getTimestamp()));
-                                } else if (info.getLastChange().before(build.getTimestamp())) {
-                                    info.project = p;
-                                    info.lastChange = build.getTimestamp();
-                                }
+                        for (Map.Entry<String, Long> e : PeopleIndex.of(p).getLastChanges().entrySet()) {
+                            User user = User.get(e.getKey());
+                            Calendar lastChange = new GregorianCalendar();
+                            lastChange.setTimeInMillis(e.getValue());
+
+                            UserInfo info = users.get(user);
+                            if (info == null) {
+                                users.put(user, new UserInfo(user, p, lastChange));
+                            } else if (info.getLastChange().before(lastChange)) {
+                                info.project = p;
+                                info.lastChange = lastChange;
                             }
                         }
                     }
@@ -535,16 +535,8 @@ public abstract class View extends AbstractModelObject implements AccessControll
         public static boolean isApplicable(Collection<? extends Item> items) {
             for (Item item : items) {
                 for (Job job : item.getAllJobs()) {
-                    if (job instanceof AbstractProject) {
-                        AbstractProject<?, ?> p = (AbstractProject) job;
-                        for (AbstractBuild<?, ?> build : p.getBuilds()) {
-                            for (Entry entry : build.getChangeSet()) {
-                                User user = entry.getAuthor();
-                                if (user != null) {
-                                    return true;
-                                }
-                            }
-                        }
+                    if (job instanceof AbstractProject && !PeopleIndex.of((AbstractProject) job).isEmpty()) {
+                        return true;
                     }
                 }
             }
@@ -555,7 +547,7 @@ public abstract class View extends AbstractModelObject implements AccessControll
     @Override
     public SearchIndexBuilder makeSearchIndex() {
         return super.makeSearchIndex()
-                .add(new CollectionSearchIndex() {// for jobs in the view
+                .add(new CollectionSearchIndex<TopLevelItem>() {// for jobs in the view
             protected TopLevelItem get(String key) {
                 return getItem(key);
             }
@@ -563,6 +555,22 @@ public abstract class View extends AbstractModelObject implements AccessControll
             protected Collection<TopLevelItem> all() {
                 return getItems();
             }
+
+            @Override
+            public void suggest(String token, List<SearchItem> result) {
+                // only load the items whose names match
+                int n = 0;
+                for (String name : Hudson.getInstance().getItemNameIndex().suggest(token, Integer.MAX_VALUE)) {
+                    if (n >= MAX_SUGGESTIONS) {
+                        break;
+                    }
+                    TopLevelItem item = getItem(name);
+                    if (item != null && contains(item)) {
+                        result.add(item);
+                        n++;
+                    }
+                }
+            }
         });
     }
 
@@ -668,6 +676,12 @@ public abstract class View extends AbstractModelObject implements AccessControll
         RSS.forwardToRss(getDisplayName() + " last builds only", getUrl(),
                 lastBuilds, Run.FEED_ADAPTER_LATEST, req, rsp);
     }
+    /**
+     * Maximum number of jobs a view suggests for a search token. The
+     * suggestions are ranked afterwards, and only the first ones are shown.
+     */
+    private static final int MAX_SUGGESTIONS = 100;
+
     /**
      * A list of available view types.
      *
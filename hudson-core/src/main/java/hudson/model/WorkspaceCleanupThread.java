@@ -17,21 +17,43 @@
 package hudson.model;
 
 import hudson.FilePath;
+import hudson.FilePath.FileCallable;
 import hudson.Util;
 import hudson.Extension;
+import hudson.remoting.VirtualChannel;
+import hudson.scm.SCM;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.IOException2;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import org.eclipse.hudson.security.team.TeamManager;
 
 /**
  * Clean up old left-over workspaces from slaves.
  *
+ * <p> Each slave gets one {@link FileCallable} that lists its workspaces,
+ * decides which ones to delete and deletes them, so that cleaning a slave
+ * takes one round-trip. Up to {@link #PARALLELISM} slaves are cleaned at
+ * once.
+ *
  * @author Kohsuke Kawaguchi
  */
 @Extension
@@ -64,10 +86,31 @@ public class WorkspaceCleanupThread extends AsyncPeriodicWork {
             this.listener = listener;
 
             Hudson h = Hudson.getInstance();
-            for (Node n : h.getNodes()) {
-                if (n instanceof Slave) {
-                    process((Slave) n);
+            final Policy policy = new Policy(h);
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            ExecutorService es = Executors.newFixedThreadPool(Math.max(1, PARALLELISM),
+                    new ExceptionCatchingThreadFactory(new DaemonThreadFactory()));
+            try {
+                for (Node n : h.getNodes()) {
+                    if (n instanceof Slave) {
+                        final Slave s = (Slave) n;
+                        futures.add(es.submit(new Callable<Void>() {
+                            public Void call() throws InterruptedException {
+                                process(s, policy);
+                                return null;
+                            }
+                        }));
+                    }
+                }
+                for (Future<?> f : futures) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        e.getCause().printStackTrace(listener.error("Failed to clean up a slave"));
+                    }
                 }
+            } finally {
+                es.shutdownNow();
             }
 
             process(h);
@@ -90,8 +133,8 @@ public class WorkspaceCleanupThread extends AsyncPeriodicWork {
     }
 
     private boolean shouldBeDeleted(String jobName, FilePath dir, Node n) throws IOException, InterruptedException {
-        // TODO: the use of remoting is not optimal.
-        // One remoting can execute "exists", "lastModified", and "delete" all at once.
+        // only used for the master and for the workspaces whose SCM gets a say,
+        // the other slave workspaces are handled by Cleanup in one go
         TopLevelItem item = Hudson.getInstance().getItem(jobName);
         if (item == null) {
             //bug fix https://bugs.eclipse.org/bugs/show_bug.cgi?id=434000
@@ -119,7 +162,7 @@ public class WorkspaceCleanupThread extends AsyncPeriodicWork {
 
         // if younger than a month, keep it
         long now = new Date().getTime();
-        if (dir.lastModified() + 30 * DAY > now) {
+        if (dir.lastModified() + RETENTION > now) {
             LOGGER.fine("Directory " + dir + " is only " + Util.getTimeSpanString(now - dir.lastModified()) + " old, so not deleting");
             return false;
         }
@@ -144,7 +187,7 @@ public class WorkspaceCleanupThread extends AsyncPeriodicWork {
         return true;
     }
 
-    private void process(Slave s) throws InterruptedException {
+    private void process(Slave s, Policy policy) throws InterruptedException {
         listener.getLogger().println("Scanning " + s.getNodeName());
 
         try {
@@ -153,15 +196,22 @@ public class WorkspaceCleanupThread extends AsyncPeriodicWork {
                 return;
             }
 
-            List<FilePath> dirs = path.list(DIR_FILTER);
-            if (dirs == null) {
-                return;
+            Summary summary = path.act(new Cleanup(policy.forNode(s), new Date().getTime()));
+            for (String name : summary.deleted) {
+                listener.getLogger().println("Deleted " + path.child(name));
+            }
+            for (Map.Entry<String, String> e : summary.failed.entrySet()) {
+                listener.error("Failed to delete " + path.child(e.getKey()) + ": " + e.getValue());
             }
-            for (FilePath dir : dirs) {
-                if (shouldBeDeleted(dir.getName(), dir, s)) {
+            // the SCMs that may veto the deletion get to look at the workspace
+            for (String name : summary.toConfirm) {
+                FilePath dir = path.child(name);
+                if (shouldBeDeleted(name, dir, s)) {
                     delete(dir);
                 }
             }
+            listener.getLogger().println("Cleaned " + s.getNodeName() + ": " + summary.deleted.size()
+                    + " workspaces deleted, " + summary.kept + " kept");
         } catch (IOException e) {
             e.printStackTrace(listener.error("Failed on " + s.getNodeName()));
         }
@@ -176,18 +226,209 @@ public class WorkspaceCleanupThread extends AsyncPeriodicWork {
         }
     }
 
-    private static class DirectoryFilter implements FileFilter, Serializable {
+    /**
+     * What the jobs tell about their workspaces, computed once for all the
+     * slaves.
+     */
+    private static final class Policy {
 
-        public boolean accept(File f) {
-            return f.isDirectory();
+        private final Set<String> jobs = new HashSet<String>();
+        /**
+         * Names of the projects by the name of the node they were last built
+         * on.
+         */
+        private final Map<String, Set<String>> lastBuiltOn = new HashMap<String, Set<String>>();
+        /**
+         * Names of the projects whose SCM may veto the deletion.
+         */
+        private final Set<String> scmChecked = new HashSet<String>();
+
+        Policy(Hudson h) {
+            for (String name : h.getItemMap().keySet()) {
+                TopLevelItem item = h.getItem(name);
+                if (item == null) {
+                    continue;
+                }
+                jobs.add(name);
+                if (item instanceof AbstractProject) {
+                    AbstractProject<?, ?> p = (AbstractProject<?, ?>) item;
+                    Node lb = p.getLastBuiltOn();
+                    if (lb != null) {
+                        Set<String> names = lastBuiltOn.get(lb.getNodeName());
+                        if (names == null) {
+                            names = new HashSet<String>();
+                            lastBuiltOn.put(lb.getNodeName(), names);
+                        }
+                        names.add(name);
+                    }
+                    if (p.getScm() != null && overridesProcessWorkspaceBeforeDeletion(p.getScm())) {
+                        scmChecked.add(name);
+                    }
+                }
+            }
+        }
+
+        NodePolicy forNode(Node n) {
+            Set<String> active = lastBuiltOn.get(n.getNodeName());
+            return new NodePolicy(jobs, active == null ? Collections.<String>emptySet() : active, scmChecked);
         }
+
+        private static boolean overridesProcessWorkspaceBeforeDeletion(SCM scm) {
+            try {
+                return scm.getClass().getMethod("processWorkspaceBeforeDeletion",
+                        AbstractProject.class, FilePath.class, Node.class).getDeclaringClass() != SCM.class;
+            } catch (NoSuchMethodException e) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * {@link Policy} as it applies to the workspaces of one node.
+     */
+    static final class NodePolicy implements Serializable {
+
+        private final Set<String> jobs;
+        private final Set<String> active;
+        private final Set<String> scmChecked;
+
+        NodePolicy(Set<String> jobs, Set<String> active, Set<String> scmChecked) {
+            this.jobs = new HashSet<String>(jobs);
+            this.active = new HashSet<String>(active);
+            this.scmChecked = new HashSet<String>(scmChecked);
+        }
+
+        /**
+         * Gets the job a workspace belongs to, or null if there is no such
+         * job anymore. Workspaces of concurrent builds have "_number" added
+         * to the job name.
+         */
+        String getOwner(String dir) {
+            if (jobs.contains(dir)) {
+                return dir;
+            }
+            int index = dir.lastIndexOf('_');
+            if (index > 0 && jobs.contains(dir.substring(0, index))) {
+                return dir.substring(0, index);
+            }
+            return null;
+        }
+
         private static final long serialVersionUID = 1L;
     }
-    private static final FileFilter DIR_FILTER = new DirectoryFilter();
+
+    /**
+     * Outcome of the clean up of the workspaces of a node.
+     */
+    static final class Summary implements Serializable {
+
+        final List<String> deleted = new ArrayList<String>();
+        /**
+         * Error messages by workspace.
+         */
+        final Map<String, String> failed = new HashMap<String, String>();
+        /**
+         * Workspaces to delete if their SCM agrees.
+         */
+        final List<String> toConfirm = new ArrayList<String>();
+        int kept;
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Lists the workspaces of a node, decides which ones to delete and
+     * deletes them, on the node.
+     */
+    static final class Cleanup implements FileCallable<Summary> {
+
+        private final NodePolicy policy;
+        private final long now;
+
+        Cleanup(NodePolicy policy, long now) {
+            this.policy = policy;
+            this.now = now;
+        }
+
+        public Summary invoke(File root, VirtualChannel channel) throws IOException {
+            final Summary summary = new Summary();
+            File[] dirs = root.listFiles();
+            if (dirs == null) {
+                return summary;
+            }
+            List<File> toDelete = new ArrayList<File>();
+            for (File dir : dirs) {
+                if (!dir.isDirectory()) {
+                    continue;
+                }
+                String owner = policy.getOwner(dir.getName());
+                if (owner == null) {
+                    // no such project anymore
+                    toDelete.add(dir);
+                } else if (dir.lastModified() + RETENTION > now || policy.active.contains(owner)) {
+                    // too young, or the active workspace
+                    summary.kept++;
+                } else if (policy.scmChecked.contains(owner)) {
+                    summary.toConfirm.add(dir.getName());
+                } else {
+                    toDelete.add(dir);
+                }
+            }
+
+            ExecutorService es = Executors.newFixedThreadPool(Math.max(1, Math.min(DELETE_THREADS, toDelete.size())),
+                    new ExceptionCatchingThreadFactory(new DaemonThreadFactory()));
+            try {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (final File dir : toDelete) {
+                    futures.add(es.submit(new Runnable() {
+                        public void run() {
+                            try {
+                                Util.deleteRecursive(dir);
+                                synchronized (summary) {
+                                    summary.deleted.add(dir.getName());
+                                }
+                            } catch (IOException e) {
+                                synchronized (summary) {
+                                    summary.failed.put(dir.getName(), e.toString());
+                                }
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                throw (IOException) new InterruptedIOException().initCause(e);
+            } catch (ExecutionException e) {
+                throw new IOException2(e.getCause());
+            } finally {
+                es.shutdown();
+            }
+            return summary;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Number of workspaces deleted at once on a node.
+     */
+    private static final int DELETE_THREADS = 4;
     private static final long DAY = 1000 * 60 * 60 * 24;
+    /**
+     * Workspaces younger than this are kept.
+     */
+    private static final long RETENTION = 30 * DAY;
     private static final Logger LOGGER = Logger.getLogger(WorkspaceCleanupThread.class.getName());
     /**
      * Can be used to disable workspace clean up.
      */
     public static boolean disabled = Boolean.getBoolean(WorkspaceCleanupThread.class.getName() + ".disabled");
+    /**
+     * Number of slaves cleaned up at once.
+     *
+     * @since 3.3.4
+     */
+    public static int PARALLELISM = Integer.getInteger(WorkspaceCleanupThread.class.getName() + ".parallelism", 4);
 }
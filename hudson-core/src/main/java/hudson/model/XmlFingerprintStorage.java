@@ -0,0 +1,163 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.listeners.SaveableListener;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * {@link FingerprintStorage} that keeps each fingerprint in its own XML file,
+ * under <tt>xx/yy/</tt> directories named after the first bytes of its MD5 sum.
+ *
+ * <p> This is how fingerprints were always stored. Finding the fingerprints
+ * of a job requires reading all of them.
+ *
+ * @since 3.3.4
+ */
+public class XmlFingerprintStorage extends FingerprintStorage {
+
+    private final File root;
+
+    /**
+     * @param root the directory of the fingerprints.
+     */
+    public XmlFingerprintStorage(File root) {
+        this.root = root;
+    }
+
+    @Override
+    public Fingerprint load(byte[] md5sum) throws IOException {
+        return Fingerprint.load(getFingerprintFile(root, md5sum));
+    }
+
+    @Override
+    protected void write(Collection<Fingerprint> fingerprints) throws IOException {
+        for (Fingerprint fp : fingerprints) {
+            long start = 0;
+            if (LOGGER.isLoggable(Level.FINE)) {
+                start = System.currentTimeMillis();
+            }
+
+            File file = getFingerprintFile(root, Util.fromHexString(fp.getHashString()));
+            XmlFile configFile = Fingerprint.getConfigFile(file);
+            synchronized (fp) {
+                configFile.write(fp);
+            }
+            SaveableListener.fireOnChange(fp, configFile);
+
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Saving fingerprint " + file + " took " + (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+    }
+
+    @Override
+    public void delete(byte[] md5sum) throws IOException {
+        File file = getFingerprintFile(root, md5sum);
+        if (file.delete()) {
+            deleteIfEmpty(file.getParentFile());
+            deleteIfEmpty(file.getParentFile().getParentFile());
+        }
+    }
+
+    @Override
+    public List<byte[]> list() throws IOException {
+        return list(root);
+    }
+
+    @Override
+    public List<String> getFingerprints(String jobFullName) throws IOException {
+        List<String> r = new ArrayList<String>();
+        for (byte[] md5sum : list()) {
+            Fingerprint fp = load(md5sum);
+            if (fp != null && fp.getUsages().containsKey(jobFullName)) {
+                r.add(fp.getHashString());
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Lists the MD5 sums of the XML files under the given directory.
+     */
+    static List<byte[]> list(File root) {
+        List<byte[]> r = new ArrayList<byte[]>();
+        File[] files1 = root.listFiles(LENGTH2DIR_FILTER);
+        if (files1 != null) {
+            for (File file1 : files1) {
+                File[] files2 = file1.listFiles(LENGTH2DIR_FILTER);
+                if (files2 == null) {
+                    continue;
+                }
+                for (File file2 : files2) {
+                    File[] files3 = file2.listFiles(FINGERPRINTFILE_FILTER);
+                    if (files3 == null) {
+                        continue;
+                    }
+                    for (File file3 : files3) {
+                        String name = file3.getName();
+                        r.add(Util.fromHexString(file1.getName() + file2.getName() + name.substring(0, name.length() - 4)));
+                    }
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Determines the file name from md5sum.
+     */
+    static File getFingerprintFile(File root, byte[] md5sum) {
+        assert md5sum.length == 16;
+        return new File(root, Util.toHexString(md5sum, 0, 1) + '/' + Util.toHexString(md5sum, 1, 1) + '/' + Util.toHexString(md5sum, 2, md5sum.length - 2) + ".xml");
+    }
+
+    /**
+     * Deletes a directory if it's empty.
+     */
+    static void deleteIfEmpty(File dir) {
+        String[] r = dir.list();
+        if (r == null) {
+            return; // can happen in a rare occasion
+        }
+        if (r.length == 0) {
+            dir.delete();
+        }
+    }
+
+    private static final FileFilter LENGTH2DIR_FILTER = new FileFilter() {
+        public boolean accept(File f) {
+            return f.isDirectory() && f.getName().length() == 2;
+        }
+    };
+    private static final FileFilter FINGERPRINTFILE_FILTER = new FileFilter() {
+        private final Pattern PATTERN = Pattern.compile("[0-9a-f]{28}\\.xml");
+
+        public boolean accept(File f) {
+            return f.isFile() && PATTERN.matcher(f.getName()).matches();
+        }
+    };
+    private static final Logger LOGGER = Logger.getLogger(XmlFingerprintStorage.class.getName());
+}
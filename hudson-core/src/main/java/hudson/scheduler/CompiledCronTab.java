@@ -0,0 +1,198 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.scheduler;
+
+import java.util.TimeZone;
+
+/**
+ * {@link CronTab} evaluated on timestamps, without {@link java.util.Calendar}.
+ *
+ * <p> The bit masks of the tab are matched against the fields of the local
+ * date, which is computed from the number of days since the epoch. None of
+ * the methods allocate, so the tab can be evaluated continuously.
+ *
+ * <p> Local times skipped by a daylight saving change never match. Local
+ * times repeated by one match the first time only.
+ *
+ * @see CronTab#compile()
+ * @since 3.3.4
+ */
+public final class CompiledCronTab {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    /**
+     * Number of days {@link #nextFireAfter(long)} looks ahead. A tab like
+     * "0 0 29 2 1" matches once in up to 40 years.
+     */
+    private static final int MAX_DAYS = 50 * 366;
+
+    private final long minutes;
+    private final long hours;
+    private final long days;
+    private final long months;
+    private final long daysOfWeek;
+    private final TimeZone timeZone;
+
+    /**
+     * Last answer of {@link #nextFireAfter(long)}: no time in
+     * <tt>(lastFrom, lastNext)</tt> matches.
+     */
+    private long lastFrom = Long.MAX_VALUE;
+    private long lastNext;
+
+    CompiledCronTab(CronTab tab, TimeZone timeZone) {
+        this.minutes = tab.bits[0];
+        this.hours = tab.bits[1];
+        this.days = tab.bits[2];
+        this.months = tab.bits[3];
+        this.daysOfWeek = tab.dayOfWeek;
+        this.timeZone = timeZone;
+    }
+
+    public TimeZone getTimeZone() {
+        return timeZone;
+    }
+
+    /**
+     * Returns true if the minute of the given time matches this tab.
+     */
+    public boolean matches(long t) {
+        long minute = localMinute(t);
+        long day = floorDiv(minute, MINUTES_PER_DAY);
+        int m = (int) (minute - day * MINUTES_PER_DAY);
+        return isSet(minutes, m % 60) && isSet(hours, m / 60) && matchesDay(day);
+    }
+
+    /**
+     * Computes the start of the first minute after the given time that
+     * matches this tab. For a time <tt>t</tt> at the start of a minute,
+     * <tt>nextFireAfter(t - 1)</tt> is what {@link CronTab#ceil(long)} returns.
+     *
+     * @return -1 if no time matches this tab, like February 30th.
+     */
+    public long nextFireAfter(long t) {
+        synchronized (this) {
+            if (lastFrom <= t && t < lastNext) {
+                return lastNext;
+            }
+        }
+        long r = -1;
+        long from = t;
+        long minute = localMinute(t) + 1;
+        while (true) {
+            long local = nextLocalMinute(minute);
+            if (local < 0) {
+                break;
+            }
+            long ms = local * MINUTE;
+            int offset = timeZone.getOffset(ms - timeZone.getRawOffset());
+            long utc = ms - timeZone.getOffset(ms - offset);
+            if (utc > t && localMinute(utc) == local) {
+                r = utc;
+                break;
+            }
+            // skipped or repeated by a daylight saving change
+            minute = local + 1;
+        }
+        if (r >= 0) {
+            synchronized (this) {
+                lastFrom = from;
+                lastNext = r;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Finds the first local minute at or after the given one that matches,
+     * or -1.
+     */
+    private long nextLocalMinute(long minute) {
+        long day = floorDiv(minute, MINUTES_PER_DAY);
+        int m = (int) (minute - day * MINUTES_PER_DAY);
+        int hour = m / 60;
+        int min = m % 60;
+        for (int i = 0; i < MAX_DAYS; i++, day++, hour = 0, min = 0) {
+            if (!matchesDay(day)) {
+                continue;
+            }
+            int h = ceil(hours, hour);
+            if (h < 0) {
+                continue;
+            }
+            int n = ceil(minutes, h == hour ? min : 0);
+            if (n < 0) {
+                h = ceil(hours, h + 1);
+                if (h < 0) {
+                    continue;
+                }
+                n = ceil(minutes, 0);
+                if (n < 0) {
+                    return -1;
+                }
+            }
+            return day * MINUTES_PER_DAY + h * 60 + n;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the month, day of month and day of week of the given number of
+     * days since the epoch, converted to the proleptic Gregorian calendar.
+     */
+    private boolean matchesDay(long day) {
+        if (!isSet(daysOfWeek, (int) (day - floorDiv(day + 4, 7) * 7 + 4))) {
+            return false;
+        }
+        // see http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        long z = day + 719468;
+        long era = floorDiv(z, 146097);
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int dayOfMonth = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        return isSet(months, month) && isSet(days, dayOfMonth);
+    }
+
+    private long localMinute(long t) {
+        return floorDiv(t + timeZone.getOffset(t), MINUTE);
+    }
+
+    private static boolean isSet(long bits, int n) {
+        return (bits & (1L << n)) != 0;
+    }
+
+    /**
+     * Gets the first bit at or above n that is on, or -1.
+     */
+    private static int ceil(long bits, int n) {
+        if (n > 63) {
+            return -1;
+        }
+        long b = bits & (-1L << n);
+        return b == 0 ? -1 : Long.numberOfTrailingZeros(b);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long r = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            r--;
+        }
+        return r;
+    }
+}
@@ -19,6 +19,7 @@ package hudson.scheduler;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.Locale;
+import java.util.TimeZone;
 
 import static java.util.Calendar.*;
 
@@ -266,6 +267,25 @@ public final class CronTab {
         };
     }
 
+    /**
+     * Compiles this tab for evaluation in the default time zone, as
+     * {@link #ceil(long)} does.
+     *
+     * @since 3.3.4
+     */
+    public CompiledCronTab compile() {
+        return compile(TimeZone.getDefault());
+    }
+
+    /**
+     * Compiles this tab for evaluation in the given time zone.
+     *
+     * @since 3.3.4
+     */
+    public CompiledCronTab compile(TimeZone timeZone) {
+        return new CompiledCronTab(this, timeZone);
+    }
+
     /**
      * Computes the nearest future timestamp that matches this cron tab. <p>
      * More precisely, given the time 't', computes another smallest time x such
@@ -274,6 +294,9 @@ public final class CronTab {
      * <ul> <li>x >= t (inclusive) <li>x matches this crontab </ul>
      *
      * <p> Note that if t already matches this cron, it's returned as is.
+     *
+     * @throws IllegalArgumentException if no time matches this cron tab,
+     * like February 30th.
      */
     public Calendar ceil(long t) {
         Calendar cal = new GregorianCalendar(Locale.US);
@@ -287,8 +310,12 @@ public final class CronTab {
      * This method modifies the given calendar and returns the same object.
      */
     public Calendar ceil(Calendar cal) {
+        int rounds = 0;
         OUTER:
         while (true) {
+            if (++rounds > MAX_ROUNDS) {
+                throw new IllegalArgumentException("No time matches " + spec);
+            }
             for (CalendarField f : CalendarField.ADJUST_ORDER) {
                 int cur = f.valueOf(cal);
                 int next = f.ceil(this, cur);
@@ -325,6 +352,8 @@ public final class CronTab {
      * <ul> <li>x &lt;= t (inclusive) <li>x matches this crontab </ul>
      *
      * <p> Note that if t already matches this cron, it's returned as is.
+     *
+     * @throws IllegalArgumentException if no time matches this cron tab.
      */
     public Calendar floor(long t) {
         Calendar cal = new GregorianCalendar(Locale.US);
@@ -338,8 +367,12 @@ public final class CronTab {
      * This method modifies the given calendar and returns the same object.
      */
     public Calendar floor(Calendar cal) {
+        int rounds = 0;
         OUTER:
         while (true) {
+            if (++rounds > MAX_ROUNDS) {
+                throw new IllegalArgumentException("No time matches " + spec);
+            }
             for (CalendarField f : CalendarField.ADJUST_ORDER) {
                 int cur = f.valueOf(cal);
                 int next = f.floor(this, cur);
@@ -377,6 +410,13 @@ public final class CronTab {
         }
     }
 
+    /**
+     * Number of adjustments after which {@link #ceil(Calendar)} and
+     * {@link #floor(Calendar)} give up. Valid tabs need a handful, tabs that
+     * never match would go on forever.
+     */
+    private static final int MAX_ROUNDS = 1000;
+
     void set(String format) throws RecognitionException {
         set(format, 1);
     }
@@ -30,9 +30,14 @@ import org.antlr.runtime.RecognitionException;
 public final class CronTabList {
 
     private final List<CronTab> tabs;
+    private final List<CompiledCronTab> compiled;
 
     public CronTabList(Collection<CronTab> tabs) {
         this.tabs = new ArrayList<CronTab>(tabs);
+        this.compiled = new ArrayList<CompiledCronTab>(tabs.size());
+        for (CronTab tab : tabs) {
+            compiled.add(tab.compile());
+        }
     }
 
     /**
@@ -47,6 +52,25 @@ public final class CronTabList {
         return false;
     }
 
+    /**
+     * Computes the start of the first minute after the given time that
+     * matches one of the tabs.
+     *
+     * @return -1 if no time matches.
+     * @see CompiledCronTab#nextFireAfter(long)
+     * @since 3.3.4
+     */
+    public long nextFireAfter(long t) {
+        long r = -1;
+        for (CompiledCronTab tab : compiled) {
+            long next = tab.nextFireAfter(t);
+            if (next >= 0 && (r < 0 || next < r)) {
+                r = next;
+            }
+        }
+        return r;
+    }
+
     /**
      * Checks if this crontab entry looks reasonable, and if not, return an
      * warning message.
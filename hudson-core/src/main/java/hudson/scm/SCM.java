@@ -135,6 +135,21 @@ public abstract class SCM implements Describable<SCM>, ExtensionPoint {
         return true;
     }
 
+    /**
+     * Identifies the repository, and branch where it applies, that this SCM
+     * polls, like <tt>svn:https://svn.example.org/repo/trunk</tt>. Polls of
+     * jobs that use the same repository don't run at the same time, so that
+     * many jobs don't all poll the server at once.
+     *
+     * <p> The default implementation returns null, which means the repository
+     * isn't known and the job polls on its own.
+     *
+     * @since 3.3.4
+     */
+    public String getRepositoryKey() {
+        return null;
+    }
+
     /**
      * Returns true if this SCM requires a checked out workspace for doing
      * polling.
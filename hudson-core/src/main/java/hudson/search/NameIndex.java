@@ -0,0 +1,158 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Set of names that can be searched by substring without going through all
+ * of them, for the suggestions of a {@link SearchIndex}.
+ *
+ * <p> Every suffix of every name is kept in sorted order, so the names that
+ * contain a token are the ones with a suffix that starts with it, and they
+ * are found with one lookup. Names are compared the same way as
+ * {@link CollectionSearchIndex} does, that is case sensitively.
+ *
+ * @since 3.3.4
+ */
+public final class NameIndex {
+
+    private final Set<String> names = new HashSet<String>();
+    private final TreeSet<Suffix> suffixes = new TreeSet<Suffix>(Suffix.ORDER);
+
+    public synchronized int size() {
+        return names.size();
+    }
+
+    public synchronized boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    public synchronized void add(String name) {
+        if (names.add(name)) {
+            for (int i = 0; i < name.length(); i++) {
+                suffixes.add(new Suffix(name, i, name));
+            }
+        }
+    }
+
+    public synchronized void remove(String name) {
+        if (names.remove(name)) {
+            for (int i = 0; i < name.length(); i++) {
+                suffixes.remove(new Suffix(name, i, name));
+            }
+        }
+    }
+
+    /**
+     * Replaces all the names.
+     */
+    public synchronized void reset(Collection<String> names) {
+        this.names.clear();
+        suffixes.clear();
+        for (String name : names) {
+            add(name);
+        }
+    }
+
+    /**
+     * Gets the names that contain the given token. The names that start with
+     * it come first, then the shorter ones.
+     *
+     * @param max maximum number of names to return.
+     */
+    public synchronized List<String> suggest(String token, int max) {
+        List<Suffix> matches = new ArrayList<Suffix>();
+        for (Suffix s : suffixes.tailSet(new Suffix(token, 0, ""))) {
+            if (!s.startsWith(token)) {
+                break;
+            }
+            matches.add(s);
+        }
+        Collections.sort(matches, RANK);
+
+        List<String> r = new ArrayList<String>();
+        Set<String> seen = new HashSet<String>();
+        for (Suffix s : matches) {
+            if (r.size() >= max) {
+                break;
+            }
+            if (seen.add(s.name)) {
+                r.add(s.name);
+            }
+        }
+        return r;
+    }
+
+    private static final Comparator<Suffix> RANK = new Comparator<Suffix>() {
+        public int compare(Suffix a, Suffix b) {
+            if ((a.offset == 0) != (b.offset == 0)) {
+                return a.offset == 0 ? -1 : 1;
+            }
+            if (a.name.length() != b.name.length()) {
+                return a.name.length() - b.name.length();
+            }
+            return a.name.compareTo(b.name);
+        }
+    };
+
+    /**
+     * Suffix of {@link #text} that starts at {@link #offset}, without copying
+     * it.
+     */
+    private static final class Suffix {
+
+        final String text;
+        final int offset;
+        final String name;
+
+        Suffix(String text, int offset, String name) {
+            this.text = text;
+            this.offset = offset;
+            this.name = name;
+        }
+
+        boolean startsWith(String token) {
+            return text.startsWith(token, offset);
+        }
+
+        static final Comparator<Suffix> ORDER = new Comparator<Suffix>() {
+            public int compare(Suffix a, Suffix b) {
+                int i = a.offset;
+                int j = b.offset;
+                while (i < a.text.length() && j < b.text.length()) {
+                    char c = a.text.charAt(i++);
+                    char d = b.text.charAt(j++);
+                    if (c != d) {
+                        return c - d;
+                    }
+                }
+                int r = (a.text.length() - a.offset) - (b.text.length() - b.offset);
+                if (r != 0) {
+                    return r;
+                }
+                r = a.name.compareTo(b.name);
+                return r != 0 ? r : a.offset - b.offset;
+            }
+        };
+    }
+}
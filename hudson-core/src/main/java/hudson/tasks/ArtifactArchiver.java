@@ -18,17 +18,26 @@ package hudson.tasks;
 
 import hudson.Extension;
 import hudson.FilePath;
+import hudson.FilePath.FileCallable;
 import hudson.Launcher;
 import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.ArtifactStore;
 import hudson.model.BuildListener;
 import hudson.model.Hudson;
 import hudson.model.Result;
+import hudson.remoting.VirtualChannel;
 import hudson.util.FormValidation;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import net.sf.json.JSONObject;
+import org.apache.tools.ant.types.FileSet;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
@@ -165,7 +174,16 @@ public class ArtifactArchiver extends Recorder {
             }
 
             String artifacts = build.getEnvironment(listener).expand(this.artifacts);
-            if (ws.copyRecursiveTo(artifacts, excludes, new FilePath(dir), compressionType) == 0) {
+            long start = System.currentTimeMillis();
+            int count = DEDUPLICATE ? archiveToStore(build, ws, artifacts, dir)
+                    : ws.copyRecursiveTo(artifacts, excludes, new FilePath(dir), compressionType);
+            if (count > 0) {
+                long duration = Math.max(1, System.currentTimeMillis() - start);
+                long kb = sizeOf(dir) / 1024;
+                listener.getLogger().println(Messages.ArtifactArchiver_Archived(count, kb,
+                        Util.getTimeSpanString(duration), kb * 1000 / duration));
+            }
+            if (count == 0) {
                 if (build.getResult().isBetterOrEqualTo(Result.UNSTABLE)) {
                     // If the build failed, don't complain that there was no matching artifact.
                     // The build probably didn't even get to the point where it produces artifacts.
@@ -195,6 +213,88 @@ public class ArtifactArchiver extends Recorder {
         return true;
     }
 
+    private static long sizeOf(File f) {
+        File[] children = f.listFiles();
+        if (children == null) {
+            return f.length();
+        }
+        long size = 0;
+        for (File c : children) {
+            size += sizeOf(c);
+        }
+        return size;
+    }
+
+    /**
+     * Archives the artifacts through the {@link ArtifactStore}, so that only
+     * the files it doesn't have yet are transferred and stored.
+     *
+     * @return the number of files archived.
+     */
+    private int archiveToStore(AbstractBuild<?, ?> build, FilePath ws, String artifacts, File dir)
+            throws IOException, InterruptedException {
+        ArtifactStore store = ArtifactStore.get();
+        Map<String, String> md5sums = ws.act(new ComputeDigests(artifacts, excludes));
+        Map<String, String> manifest = new TreeMap<String, String>();
+        List<String> missing = new ArrayList<String>();
+        for (Map.Entry<String, String> e : md5sums.entrySet()) {
+            if (store.link(e.getValue(), new File(dir, e.getKey()))) {
+                manifest.put(e.getKey(), e.getValue());
+            } else {
+                missing.add(e.getKey());
+            }
+        }
+
+        if (missing.size() == md5sums.size()) {
+            // nothing to reuse, transfer them all in one go
+            ws.copyRecursiveTo(artifacts, excludes, new FilePath(dir), compressionType);
+        } else {
+            for (String path : missing) {
+                ws.child(path).copyToWithPermission(new FilePath(new File(dir, path)));
+            }
+        }
+        for (String path : missing) {
+            File f = new File(dir, path);
+            if (f.exists()) {
+                // the content may have changed since its checksum was computed
+                String md5sum = store.add(f);
+                if (md5sum != null) {
+                    manifest.put(path, md5sum);
+                }
+            }
+        }
+        store.addToManifest(build.getRootDir(), manifest);
+        return md5sums.size();
+    }
+
+    /**
+     * Computes the checksums of the artifacts in the workspace.
+     */
+    private static final class ComputeDigests implements FileCallable<Map<String, String>> {
+
+        private final String includes;
+        private final String excludes;
+
+        ComputeDigests(String includes, String excludes) {
+            this.includes = includes;
+            this.excludes = excludes;
+        }
+
+        public Map<String, String> invoke(File base, VirtualChannel channel) throws IOException {
+            Map<String, String> r = new TreeMap<String, String>();
+            if (!base.exists()) {
+                return r;
+            }
+            FileSet fs = Util.createFileSet(base, includes, excludes);
+            for (String path : fs.getDirectoryScanner(new org.apache.tools.ant.Project()).getIncludedFiles()) {
+                r.put(path.replace('\\', '/'), Util.getDigestOf(new FileInputStream(new File(base, path))));
+            }
+            return r;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
     @Override
     public boolean prebuild(AbstractBuild<?, ?> build, BuildListener listener) {
         if (latestOnly) {
@@ -209,7 +309,8 @@ public class ArtifactArchiver extends Recorder {
                     if (ad.exists()) {
                         listener.getLogger().println(Messages.ArtifactArchiver_DeletingOld(b.getDisplayName()));
                         try {
-                            Util.deleteRecursive(ad);
+                            b.deleteArtifacts();
+                            ad.delete();
                         } catch (IOException e) {
                             e.printStackTrace(listener.error(e.getMessage()));
                         }
@@ -221,6 +322,17 @@ public class ArtifactArchiver extends Recorder {
         return true;
     }
 
+    /**
+     * If true, artifacts are archived through the {@link ArtifactStore}:
+     * identical files of different builds are stored once, and only the
+     * files the master doesn't have yet are transferred from the slave.
+     * Requires the build directories and <tt>HUDSON_HOME</tt> to be on the
+     * same file system.
+     *
+     * @since 3.3.4
+     */
+    public static boolean DEDUPLICATE = Boolean.getBoolean(ArtifactArchiver.class.getName() + ".deduplicate");
+
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
     }
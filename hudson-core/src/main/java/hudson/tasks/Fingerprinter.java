@@ -29,6 +29,7 @@ import hudson.model.BuildListener;
 import hudson.model.Fingerprint;
 import hudson.model.Fingerprint.BuildPtr;
 import hudson.model.FingerprintMap;
+import hudson.model.FingerprintStorage;
 import hudson.model.Hudson;
 import hudson.model.Result;
 import hudson.model.Run;
@@ -92,6 +93,8 @@ public class Fingerprinter extends Recorder implements Serializable {
 
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException {
+        // all the fingerprints of the build are written at once
+        FingerprintStorage.Batch batch = Hudson.getInstance().getFingerprintMap().getStorage().startBatch();
         try {
             listener.getLogger().println(Messages.Fingerprinter_Recording());
 
@@ -118,6 +121,13 @@ public class Fingerprinter extends Recorder implements Serializable {
         } catch (IOException e) {
             e.printStackTrace(listener.error(Messages.Fingerprinter_Failed()));
             build.setResult(Result.FAILURE);
+        } finally {
+            try {
+                batch.commit();
+            } catch (IOException e) {
+                e.printStackTrace(listener.error(Messages.Fingerprinter_Failed()));
+                build.setResult(Result.FAILURE);
+            }
         }
 
         // failing to record fingerprints is an error but not fatal
@@ -20,7 +20,6 @@ import org.jvnet.localizer.Localizable;
 import hudson.model.AbstractBuild;
 import hudson.model.Run;
 import hudson.tasks.test.TestResult;
-import org.dom4j.Element;
 import org.kohsuke.stapler.export.Exported;
 
 import java.text.DecimalFormat;
@@ -65,6 +64,11 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
      * are set, otherwise null, in which case {@link SuiteResult#stdout}.
      */
     private final String stdout, stderr;
+    /**
+     * Where the stack trace, stdout and stderr are read from, if this was
+     * loaded from a {@link TestResultFile}.
+     */
+    private transient TestResultFile.Blob errorStackTraceBlob, stdoutBlob, stderrBlob;
     /**
      * This test has been failing since this build number (not id.)
      *
@@ -72,8 +76,7 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
      */
     private /*final*/ int failedSince;
 
-    private static float parseTime(Element testCase) {
-        String time = testCase.attributeValue("time");
+    static float parseTime(String time) {
         if (time != null) {
             time = time.replace(",", "");
             try {
@@ -89,62 +92,39 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
         return 0.0f;
     }
 
-    CaseResult(SuiteResult parent, Element testCase, String testClassName, boolean keepLongStdio) {
-        // schema for JUnit report XML format is not available in Ant,
-        // so I don't know for sure what means what.
-        // reports in http://www.nabble.com/difference-in-junit-publisher-and-ant-junitreport-tf4308604.html#a12265700
-        // indicates that maybe I shouldn't use @classname altogether.
-
-        //String cn = testCase.attributeValue("classname");
-        //if(cn==null)
-        //    // Maven seems to skip classname, and that shows up in testSuite/@name
-        //    cn = parent.getName();
-
-
-        /*
-         According to http://www.nabble.com/NPE-(Fatal%3A-Null)-in-recording-junit-test-results-td23562964.html
-         there's some odd-ball cases where testClassName is null but
-         @name contains fully qualified name.
-         */
-        String nameAttr = testCase.attributeValue("name");
-        if (testClassName == null && nameAttr.contains(".")) {
-            testClassName = nameAttr.substring(0, nameAttr.lastIndexOf('.'));
-            nameAttr = nameAttr.substring(nameAttr.lastIndexOf('.') + 1);
-        }
-
-        className = testClassName;
-        testName = nameAttr;
-        errorStackTrace = getError(testCase);
-        errorDetails = getErrorMessage(testCase);
+    /**
+     * @param errorStackTrace the text of the error or failure, null if the
+     * test didn't fail.
+     * @param stdout stdout reported for the test case, already trimmed.
+     * @param stderr stderr reported for the test case, already trimmed.
+     * @see SuiteResultParser
+     */
+    CaseResult(SuiteResult parent, String className, String testName, String errorStackTrace, String errorDetails,
+            float duration, boolean skipped, String stdout, String stderr) {
+        this.className = className;
+        this.testName = testName;
+        this.errorStackTrace = errorStackTrace;
+        this.errorDetails = errorDetails;
         this.parent = parent;
-        duration = parseTime(testCase);
-        skipped = isMarkedAsSkipped(testCase);
-        @SuppressWarnings("LeakingThisInConstructor")
-        Collection<CaseResult> _this = Collections.singleton(this);
-        stdout = possiblyTrimStdio(_this, keepLongStdio, testCase.elementText("system-out"));
-        stderr = possiblyTrimStdio(_this, keepLongStdio, testCase.elementText("system-err"));
+        this.duration = duration;
+        this.skipped = skipped;
+        this.stdout = stdout;
+        this.stderr = stderr;
     }
-    private static final int HALF_MAX_SIZE = 500;
 
-    static String possiblyTrimStdio(Collection<CaseResult> results, boolean keepLongStdio, String stdio) { // HUDSON-6516
-        if (stdio == null) {
-            return null;
-        }
-        if (keepLongStdio) {
-            return stdio;
-        }
-        for (CaseResult result : results) {
-            if (result.errorStackTrace != null) {
-                return stdio;
-            }
-        }
-        int len = stdio.length();
-        int middle = len - HALF_MAX_SIZE * 2;
-        if (middle <= 0) {
-            return stdio;
-        }
-        return stdio.substring(0, HALF_MAX_SIZE) + "...[truncated " + middle + " chars]..." + stdio.substring(len - HALF_MAX_SIZE, len);
+    /**
+     * Used by {@link TestResultFile} to load a test, whose stack trace,
+     * stdout and stderr are read when they're needed.
+     */
+    CaseResult(SuiteResult parent, String className, String testName, String errorDetails, float duration,
+            boolean skipped, int failedSince, TestResultFile.Blob errorStackTrace, TestResultFile.Blob stdout, TestResultFile.Blob stderr) {
+        this(parent, className, testName, null, errorDetails, duration, skipped, null, null);
+        this.failedSince = failedSince;
+        this.errorStackTraceBlob = errorStackTrace;
+        this.stdoutBlob = stdout;
+        this.stderrBlob = stderr;
     }
+    static final int HALF_MAX_SIZE = 500;
 
     /**
      * Used to create a fake failure, when Hudson fails to load data from XML
@@ -166,35 +146,6 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
         return classResult;
     }
 
-    private static String getError(Element testCase) {
-        String msg = testCase.elementText("error");
-        if (msg != null) {
-            return msg;
-        }
-        return testCase.elementText("failure");
-    }
-
-    private static String getErrorMessage(Element testCase) {
-
-        Element msg = testCase.element("error");
-        if (msg == null) {
-            msg = testCase.element("failure");
-        }
-        if (msg == null) {
-            return null; // no error or failure elements! damn!
-        }
-
-        return msg.attributeValue("message");
-    }
-
-    /**
-     * If the testCase element includes the skipped element (as output by
-     * TestNG), then the test has neither passed nor failed, it was never run.
-     */
-    private static boolean isMarkedAsSkipped(Element testCase) {
-        return testCase.element("skipped") != null;
-    }
-
     public String getDisplayName() {
         return testName;
     }
@@ -311,9 +262,9 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
         // If we haven't calculated failedSince yet, and we should,
         // do it now.
         if (failedSince == 0 && getFailCount() == 1) {
-            CaseResult prev = getPreviousResult();
+            TestHistory.Case prev = getPreviousCase();
             if (prev != null && !prev.isPassed()) {
-                this.failedSince = prev.failedSince;
+                this.failedSince = prev.getFailedSince();
             } else if (getOwner() != null) {
                 this.failedSince = getOwner().getNumber();
             } else {
@@ -360,6 +311,7 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
      */
     @Exported
     public String getStdout() {
+        String stdout = getCaseStdout();
         if (stdout != null) {
             return stdout;
         }
@@ -378,6 +330,7 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
      */
     @Exported
     public String getStderr() {
+        String stderr = getCaseStderr();
         if (stderr != null) {
             return stderr;
         }
@@ -388,6 +341,29 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
         return getSuiteResult().getStderr();
     }
 
+    /**
+     * {@link #getFailedSince()}, without computing it if it hasn't been.
+     */
+    int getStoredFailedSince() {
+        return failedSince;
+    }
+
+    /**
+     * The stdout reported for this test case, or null if it's only reported
+     * for the suite.
+     */
+    String getCaseStdout() {
+        return stdout != null ? stdout : TestResultFile.Blob.load(stdoutBlob);
+    }
+
+    /**
+     * The stderr reported for this test case, or null if it's only reported
+     * for the suite.
+     */
+    String getCaseStderr() {
+        return stderr != null ? stderr : TestResultFile.Blob.load(stderrBlob);
+    }
+
     @Override
     public CaseResult getPreviousResult() {
         if (parent == null) {
@@ -400,6 +376,28 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
         return pr.getCase(getName());
     }
 
+    /**
+     * Looks this test up in the previous build that has test results. The
+     * {@link TestHistory} of the job is used when it knows that build, so
+     * that its test report doesn't have to be loaded.
+     *
+     * @return null if the test wasn't run in the previous build.
+     */
+    private TestHistory.Case getPreviousCase() {
+        if (parent != null && parent.getParent() != null
+                && parent.getParent().getParentAction() instanceof TestResultAction) {
+            AbstractBuild<?, ?> owner = getOwner();
+            if (owner != null) {
+                TestHistory.Build b = TestHistory.of(owner.getProject()).getPrevious(owner.getNumber());
+                if (b != null) {
+                    return b.getCase(parent.getName(), getName());
+                }
+            }
+        }
+        CaseResult prev = getPreviousResult();
+        return prev == null ? null : new TestHistory.Case(prev);
+    }
+
     /**
      * Case results have no children
      *
@@ -457,7 +455,7 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
      */
     @Exported
     public String getErrorStackTrace() {
-        return errorStackTrace;
+        return errorStackTrace != null ? errorStackTrace : TestResultFile.Blob.load(errorStackTraceBlob);
     }
 
     /**
@@ -473,7 +471,7 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
      * otherwise.
      */
     public boolean isPassed() {
-        return !skipped && errorStackTrace == null;
+        return !skipped && errorStackTrace == null && errorStackTraceBlob == null;
     }
 
     /**
@@ -515,9 +513,9 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
         this.parent = parent;
         // some old test data doesn't have failedSince value set, so for those compute them.
         if (!isPassed() && failedSince == 0) {
-            CaseResult prev = getPreviousResult();
+            TestHistory.Case prev = getPreviousCase();
             if (prev != null && !prev.isPassed()) {
-                this.failedSince = prev.failedSince;
+                this.failedSince = prev.getFailedSince();
             } else {
                 this.failedSince = getOwner().getNumber();
             }
@@ -533,7 +531,7 @@ public final class CaseResult extends TestResult implements Comparable<CaseResul
         if (skipped) {
             return Status.SKIPPED;
         }
-        CaseResult pr = getPreviousResult();
+        TestHistory.Case pr = getPreviousCase();
         if (pr == null) {
             return isPassed() ? Status.PASSED : Status.FAILED;
         }
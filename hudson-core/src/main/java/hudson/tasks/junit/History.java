@@ -15,7 +15,10 @@
  *******************************************************************************/
 package hudson.tasks.junit;
 
+import hudson.Util;
 import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildHistory.Record;
 import hudson.model.Hudson;
 import hudson.tasks.test.TestObject;
 import hudson.tasks.test.TestResult;
@@ -101,24 +104,17 @@ public class History {
         ySeriesPassed.setBaseURL(getRelPath(req) + "/${buildNo}");
         data.addYSeries(ySeriesPassed);
 
-        List<TestResult> list;
-        try {
-            list = getList(
-                    Integer.parseInt(Stapler.getCurrentRequest().getParameter("start")),
-                    Integer.parseInt(Stapler.getCurrentRequest().getParameter("end")));
-        } catch (NumberFormatException e) {
-            list = getList();
-        }
+        List<Point> list = getPoints();
 
-        for (hudson.tasks.test.TestResult o : list) {
-            xSeries.add("#" + String.valueOf(o.getOwner().number));
+        for (final Point o : list) {
+            xSeries.add("#" + String.valueOf(o.number));
 
-            double duration = o.getDuration() / 60;
-            if (o.getFailCount() > 0) {
+            double duration = o.duration / 60;
+            if (o.failCount > 0) {
                 ySeriesFailed.add(duration);
                 ySeriesSkipped.add(0.);
                 ySeriesPassed.add(0.);
-            } else if (o.getSkipCount() > 0) {
+            } else if (o.skipCount > 0) {
                 ySeriesSkipped.add(duration);
                 ySeriesFailed.add(0.);
                 ySeriesPassed.add(0.);
@@ -132,9 +128,9 @@ public class History {
             data.add(duration, "", new HistoryChartLabel(o) {
                 @Override
                 public Color getColor(int row, int column) {
-                    if (o.getFailCount() > 0) {
+                    if (o.failCount > 0) {
                         return ColorPalette.RED;
-                    } else if (o.getSkipCount() > 0) {
+                    } else if (o.skipCount > 0) {
                         return ColorPalette.YELLOW;
                     } else {
                         return ColorPalette.BLUE;
@@ -176,25 +172,18 @@ public class History {
         ySeriesPassed.setBaseURL(getRelPath(req) + "/${buildNo}");
         data.addYSeries(ySeriesPassed);
 
-        List<TestResult> list;
-        try {
-            list = getList(
-                    Integer.parseInt(Stapler.getCurrentRequest().getParameter("start")),
-                    Integer.parseInt(Stapler.getCurrentRequest().getParameter("end")));
-        } catch (NumberFormatException e) {
-            list = getList();
-        }
+        List<Point> list = getPoints();
 
-        for (TestResult o : list) {
-            xSeries.add(o.getOwner().getDisplayName());
-            ySeriesFailed.add((double) o.getFailCount());
-            ySeriesSkipped.add((double) o.getSkipCount());
-            ySeriesPassed.add((double) (o.getTotalCount() - o.getFailCount() - o.getSkipCount()));
+        for (Point o : list) {
+            xSeries.add(o.displayName);
+            ySeriesFailed.add((double) o.failCount);
+            ySeriesSkipped.add((double) o.skipCount);
+            ySeriesPassed.add((double) (o.totalCount - o.failCount - o.skipCount));
 
             // For backward compatibility with JFreechart
-            data.add(o.getPassCount(), "2Passed", new HistoryChartLabel(o));
-            data.add(o.getFailCount(), "1Failed", new HistoryChartLabel(o));
-            data.add(o.getSkipCount(), "0Skipped", new HistoryChartLabel(o));
+            data.add(o.totalCount - o.failCount - o.skipCount, "2Passed", new HistoryChartLabel(o));
+            data.add(o.failCount, "1Failed", new HistoryChartLabel(o));
+            data.add(o.skipCount, "0Skipped", new HistoryChartLabel(o));
         }
         
         // We want to display the build result from older to latest
@@ -203,26 +192,127 @@ public class History {
         return data;
     }
 
+    /**
+     * Gets the points of the graphs for the builds requested with the
+     * "start" and "end" parameters.
+     */
+    private List<Point> getPoints() {
+        int start;
+        int end;
+        try {
+            start = Integer.parseInt(Stapler.getCurrentRequest().getParameter("start"));
+            end = Integer.parseInt(Stapler.getCurrentRequest().getParameter("end"));
+        } catch (NumberFormatException e) {
+            start = 0;
+            end = Integer.MAX_VALUE;
+        }
+
+        List<Point> points = getPointsFromHistory(start, end);
+        if (points != null) {
+            return points;
+        }
+        points = new ArrayList<Point>();
+        for (TestResult o : getList(start, end)) {
+            AbstractBuild<?, ?> b = o.getOwner();
+            points.add(new Point(b.number, b.getDisplayName(), b.getBuiltOnStr(),
+                    b.getUrl() + o.getTestResultAction().getUrlName() + o.getUrl(),
+                    o.getDuration(), o.getFailCount(), o.getSkipCount(), o.getTotalCount()));
+        }
+        return points;
+    }
+
+    /**
+     * Gets the points of the graphs from the {@link TestHistory} of the job,
+     * without loading the builds.
+     *
+     * @return null if the history doesn't cover the test object or the builds.
+     */
+    private List<Point> getPointsFromHistory(int start, int end) {
+        boolean isCase = testObject instanceof CaseResult;
+        if (!isCase && !(testObject instanceof hudson.tasks.junit.TestResult)) {
+            return null;
+        }
+        if (!(testObject.getTestResultAction() instanceof TestResultAction)) {
+            return null;
+        }
+        AbstractProject<?, ?> job = testObject.getOwner().getProject();
+        List<? extends Record<?, ?>> records = job.getBuildHistoryData().allRecords();
+        end = Math.min(end, records.size());
+        if (start >= end) {
+            return null;
+        }
+        records = records.subList(start, end);
+        TestHistory history = TestHistory.of(job);
+        if (!history.covers(records.get(records.size() - 1).getNumber())) {
+            return null;
+        }
+
+        String urlName = testObject.getTestResultAction().getUrlName();
+        List<Point> points = new ArrayList<Point>();
+        for (Record<?, ?> r : records) {
+            if (r.isBuilding()) {
+                continue;
+            }
+            TestHistory.Build b = history.get(r.getNumber());
+            if (b == null) {
+                continue;
+            }
+            String url = r.getUrl() + urlName + testObject.getUrl();
+            if (isCase) {
+                CaseResult cr = (CaseResult) testObject;
+                TestHistory.Case c = b.getCase(cr.getSuiteResult().getName(), cr.getName());
+                if (c != null) {
+                    points.add(new Point(r.getNumber(), r.getDisplayName(), r.getBuiltOnNodeName(), url, c.getDuration(),
+                            c.isPassed() || c.isSkipped() ? 0 : 1, c.isSkipped() ? 1 : 0, 1));
+                }
+            } else {
+                points.add(new Point(r.getNumber(), r.getDisplayName(), r.getBuiltOnNodeName(), url, b.getDuration(),
+                        b.getFailCount(), b.getSkipCount(), b.getTotalCount()));
+            }
+        }
+        return points;
+    }
+
+    /**
+     * The test object in a build, as shown in the graphs.
+     */
+    private static final class Point {
+
+        final int number;
+        final String displayName;
+        final String builtOn;
+        /**
+         * URL of the test object, relative to the context path.
+         */
+        final String url;
+        final float duration;
+        final int failCount;
+        final int skipCount;
+        final int totalCount;
+
+        Point(int number, String displayName, String builtOn, String url, float duration, int failCount, int skipCount, int totalCount) {
+            this.number = number;
+            this.displayName = displayName;
+            this.builtOn = builtOn;
+            this.url = url;
+            this.duration = duration;
+            this.failCount = failCount;
+            this.skipCount = skipCount;
+            this.totalCount = totalCount;
+        }
+    }
+
     // For backward compatibility with JFreechart
     class HistoryChartLabel extends ChartLabel {
 
-        TestResult o;
-        String url;
+        final Point o;
 
-        public HistoryChartLabel(TestResult o) {
+        HistoryChartLabel(Point o) {
             this.o = o;
-            this.url = null;
-        }
-
-        private void generateUrl() {
-            AbstractBuild<?, ?> build = o.getOwner();
-            String buildLink = build.getUrl();
-            String actionUrl = o.getTestResultAction().getUrlName();
-            this.url = Hudson.getInstance().getRootUrl() + buildLink + actionUrl + o.getUrl();
         }
 
         public int compareTo(ChartLabel that) {
-            return this.o.getOwner().number - ((HistoryChartLabel) that).o.getOwner().number;
+            return this.o.number - ((HistoryChartLabel) that).o.number;
         }
 
         @Override
@@ -241,13 +331,12 @@ public class History {
 
         @Override
         public String toString() {
-            String l = o.getOwner().getDisplayName();
-            String s = o.getOwner().getBuiltOnStr();
+            String l = o.displayName;
+            String s = o.builtOn;
             if (s != null) {
                 l += ' ' + s;
             }
             return l;
-//            return o.getDisplayName() + " " + o.getOwner().getDisplayName();
         }
 
         @Override
@@ -257,15 +346,12 @@ public class History {
 
         @Override
         public String getLink(int row, int column) {
-            if (this.url == null) {
-                generateUrl();
-            }
-            return url;
+            return Hudson.getInstance().getRootUrl() + o.url;
         }
 
         @Override
         public String getToolTip(int row, int column) {
-            return o.getOwner().getDisplayName() + " : " + o.getDurationString();
+            return o.displayName + " : " + Util.getTimeSpanString((long) (o.duration * 1000));
         }
     }
     
@@ -16,13 +16,7 @@
 
 package hudson.tasks.junit;
 
-import hudson.tasks.test.TestObject;
-import hudson.util.IOException2;
-import org.apache.commons.io.FileUtils;
-import org.dom4j.Document;
 import org.dom4j.DocumentException;
-import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
@@ -35,8 +29,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Result of one test suite.
@@ -68,6 +60,11 @@ public final class SuiteResult implements Serializable {
     private transient hudson.tasks.junit.TestResult parent;
     
     private transient Map<String,CaseResult> caseResultNameMap;
+    /**
+     * Where stdout and stderr are read from, if this was loaded from a
+     * {@link TestResultFile}.
+     */
+    private transient TestResultFile.Blob stdoutBlob, stderrBlob;
 
     SuiteResult(String name, String stdout, String stderr) {
         this.name = name;
@@ -77,120 +74,36 @@ public final class SuiteResult implements Serializable {
     }
     
 
-    /**
-     * Parses the JUnit XML file into {@link SuiteResult}s. This method returns
-     * a collection, as a single XML may have multiple &lt;testsuite> elements
-     * wrapped into the top-level &lt;testsuites>.
-     */
-    static List<SuiteResult> parse(File xmlReport, boolean keepLongStdio) throws DocumentException, IOException {
-        List<SuiteResult> r = new ArrayList<SuiteResult>();
-
-        // parse into DOM
-        SAXReader saxReader = new SAXReader();
-        // install EntityResolver for resolving DTDs, which are in files created by TestNG.
-        XMLEntityResolver resolver = new XMLEntityResolver();
-        saxReader.setEntityResolver(resolver);
-        Document result = saxReader.read(xmlReport);
-        Element root = result.getRootElement();
-
-        getTestSuites(root, r, xmlReport, keepLongStdio);
+    SuiteResult(String file, String name, String timestamp, String stdout, String stderr) {
+        this.file = file;
+        this.name = name;
+        this.timestamp = timestamp;
+        this.stdout = stdout;
+        this.stderr = stderr;
+    }
 
-        return r;
+    SuiteResult(String file, String name, String timestamp, TestResultFile.Blob stdout, TestResultFile.Blob stderr) {
+        this(file, name, timestamp, (String) null, null);
+        this.stdoutBlob = stdout;
+        this.stderrBlob = stderr;
     }
 
     /**
-     * Gets the "testsuite" elements that contain at least one "testcase"
-     * element. Finds all the elements recursively in order to find nested
-     * "testsuite" elements. Bug 6546
+     * Parses the JUnit XML file into {@link SuiteResult}s. This method returns
+     * a collection, as a single XML may have multiple &lt;testsuite> elements
+     * wrapped into the top-level &lt;testsuites>.
+     *
+     * <p> All the "testsuite" elements that contain at least one "testcase"
+     * element are returned, including nested ones. Bug 6546
      *
      * @see http://issues.hudson-ci.org/browse/HUDSON-6545
-     * @param element XML element to examine
-     * @param r List of SuiteResult
-     * @param xmlReport A Junit XML report file
      * @param keepLongStdio if true, retain a suite's complete stdout/stderr
      * even if this is huge and the suite passed
      */
-    static private void getTestSuites(Element element, List<SuiteResult> r, File xmlReport, boolean keepLongStdio) throws DocumentException, IOException {
-        if (element.elements("testcase").size() != 0) {
-            r.add(new SuiteResult(xmlReport, element, keepLongStdio));
-        }
-        for (Element suite : (List<Element>) element.elements("testsuite")) {
-            getTestSuites(suite, r, xmlReport, keepLongStdio);
-        }
+    static List<SuiteResult> parse(File xmlReport, boolean keepLongStdio) throws DocumentException, IOException {
+        return SuiteResultParser.parse(xmlReport, keepLongStdio);
     }
 
-    /**
-     * @param xmlReport A JUnit XML report file whose top level element is
-     * 'testsuite'.
-     * @param suite The parsed result of {@code xmlReport}
-     */
-    private SuiteResult(File xmlReport, Element suite, boolean keepLongStdio) throws DocumentException, IOException {
-        this.file = xmlReport.getAbsolutePath();
-        String name = suite.attributeValue("name");
-        if (name == null) // some user reported that name is null in their environment.
-        // see http://www.nabble.com/Unexpected-Null-Pointer-Exception-in-Hudson-1.131-tf4314802.html
-        {
-            name = '(' + xmlReport.getName() + ')';
-        } else {
-            String pkg = suite.attributeValue("package");
-            if (pkg != null && pkg.length() > 0) {
-                name = pkg + '.' + name;
-            }
-        }
-        this.name = TestObject.safe(name);
-        this.timestamp = suite.attributeValue("timestamp");
-
-        Element ex = suite.element("error");
-        if (ex != null) {
-            // according to junit-noframes.xsl l.229, this happens when the test class failed to load
-            addCase(new CaseResult(this, suite, "<init>", keepLongStdio));
-        }
-
-        for (Element e : (List<Element>) suite.elements("testcase")) {
-            // http://issues.hudson-ci.org/browse/HUDSON-1233 indicates that
-            // when <testsuites> is present, we are better off using @classname on the
-            // individual testcase class.
-
-            // http://issues.hudson-ci.org/browse/HUDSON-1463 indicates that
-            // @classname may not exist in individual testcase elements. We now
-            // also test if the testsuite element has a package name that can be used
-            // as the class name instead of the file name which is default.
-            String classname = e.attributeValue("classname");
-            if (classname == null) {
-                classname = suite.attributeValue("name");
-            }
-
-            // http://issues.hudson-ci.org/browse/HUDSON-1233 and
-            // http://www.nabble.com/difference-in-junit-publisher-and-ant-junitreport-tf4308604.html#a12265700
-            // are at odds with each other --- when both are present,
-            // one wants to use @name from <testsuite>,
-            // the other wants to use @classname from <testcase>.
-
-            addCase(new CaseResult(this, e, classname, keepLongStdio));
-        }
-
-        String stdout = suite.elementText("system-out");
-        String stderr = suite.elementText("system-err");
-        if (stdout == null && stderr == null) {
-            // Surefire never puts stdout/stderr in the XML. Instead, it goes to a separate file
-            Matcher m = SUREFIRE_FILENAME.matcher(xmlReport.getName());
-            if (m.matches()) {
-                // look for ***-output.txt from TEST-***.xml
-                File mavenOutputFile = new File(xmlReport.getParentFile(), m.group(1) + "-output.txt");
-                if (mavenOutputFile.exists()) {
-                    try {
-                        stdout = FileUtils.readFileToString(mavenOutputFile);
-                    } catch (IOException e) {
-                        throw new IOException2("Failed to read " + mavenOutputFile, e);
-                    }
-                }
-            }
-        }
-
-        this.stdout = CaseResult.possiblyTrimStdio(cases, keepLongStdio, stdout);
-        this.stderr = CaseResult.possiblyTrimStdio(cases, keepLongStdio, stderr);
-    }
-    
     //Workaround for XStream marshalling
     private synchronized Map<String, CaseResult> getCaseResultNameMap() {
         if (caseResultNameMap == null) {
@@ -227,7 +140,7 @@ public final class SuiteResult implements Serializable {
      */
     @Exported
     public String getStdout() {
-        return stdout;
+        return stdout != null ? stdout : TestResultFile.Blob.load(stdoutBlob);
     }
 
     /**
@@ -238,7 +151,7 @@ public final class SuiteResult implements Serializable {
      */
     @Exported
     public String getStderr() {
-        return stderr;
+        return stderr != null ? stderr : TestResultFile.Blob.load(stderrBlob);
     }
 
     /**
@@ -313,5 +226,4 @@ public final class SuiteResult implements Serializable {
         return true;
     }
     private static final long serialVersionUID = 1L;
-    private static final Pattern SUREFIRE_FILENAME = Pattern.compile("TEST-(.+)\\.xml");
 }
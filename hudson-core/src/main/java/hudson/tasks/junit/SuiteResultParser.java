@@ -0,0 +1,357 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.tasks.junit;
+
+import hudson.tasks.test.TestObject;
+import hudson.util.IOException2;
+import org.dom4j.DocumentException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static javax.xml.stream.XMLStreamConstants.*;
+
+/**
+ * Builds {@link SuiteResult}s from a JUnit XML report as it's read with StAX,
+ * without building a DOM of the whole report.
+ *
+ * <p> Long stdout/stderr is trimmed as it's read, so that its memory use
+ * stays bounded. Output is kept in full if <tt>keepLongStdio</tt> is set, or
+ * if a failure of its suite or test case has been read before the output.
+ * Ant and Maven surefire both write failures before the output, but if a
+ * report has them the other way around, the trimmed output is kept.
+ *
+ * @since 3.3.4
+ */
+final class SuiteResultParser {
+
+    private final File xmlReport;
+    private final boolean keepLongStdio;
+    private final XMLStreamReader reader;
+    private final List<SuiteResult> suites = new ArrayList<SuiteResult>();
+
+    private SuiteResultParser(File xmlReport, boolean keepLongStdio, XMLStreamReader reader) {
+        this.xmlReport = xmlReport;
+        this.keepLongStdio = keepLongStdio;
+        this.reader = reader;
+    }
+
+    /**
+     * Parses the JUnit XML file into {@link SuiteResult}s.
+     *
+     * @see SuiteResult#parse(File, boolean)
+     */
+    static List<SuiteResult> parse(File xmlReport, boolean keepLongStdio) throws DocumentException, IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(xmlReport));
+        try {
+            XMLInputFactory xif = XMLInputFactory.newInstance();
+            xif.setProperty(XMLInputFactory.IS_COALESCING, false);
+            // the DTDs of TestNG reports declare nothing that's needed,
+            // and external entities could be used to read any file
+            xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            XMLStreamReader reader = xif.createXMLStreamReader(xmlReport.toURI().toString(), in);
+            try {
+                return new SuiteResultParser(xmlReport, keepLongStdio, reader).parse();
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new DocumentException(e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private List<SuiteResult> parse() throws XMLStreamException, IOException {
+        while (reader.next() != START_ELEMENT) {
+            // skip the prolog
+        }
+        readSuite();
+        return suites;
+    }
+
+    /**
+     * Reads an element that may be a test suite, and the "testsuite" elements
+     * nested in it. Like the tree walk this replaces, a suite comes before
+     * the suites nested in it, and is only kept if it has test cases.
+     */
+    private void readSuite() throws XMLStreamException, IOException {
+        int index = suites.size();
+        Item suite = read(true);
+        if (suite.cases.isEmpty()) {
+            return;
+        }
+
+        String name = suite.name;
+        if (name == null) {
+            // some user reported that name is null in their environment.
+            // see http://www.nabble.com/Unexpected-Null-Pointer-Exception-in-Hudson-1.131-tf4314802.html
+            name = '(' + xmlReport.getName() + ')';
+        } else if (suite.pkg != null && suite.pkg.length() > 0) {
+            name = suite.pkg + '.' + name;
+        }
+
+        boolean keep = keepLongStdio || suite.failed;
+        String stdout;
+        String stderr;
+        if (suite.stdout == null && suite.stderr == null) {
+            stdout = readSurefireOutput(keep);
+            stderr = null;
+        } else {
+            stdout = suite.stdout == null ? null : suite.stdout.toString(keep);
+            stderr = suite.stderr == null ? null : suite.stderr.toString(keep);
+        }
+
+        SuiteResult sr = new SuiteResult(xmlReport.getAbsolutePath(), TestObject.safe(name), suite.timestamp, stdout, stderr);
+        if (suite.errorText != null) {
+            // according to junit-noframes.xsl l.229, this happens when the test class failed to load
+            sr.addCase(toCaseResult(sr, suite, "<init>"));
+        }
+        for (Item c : suite.cases) {
+            // http://issues.hudson-ci.org/browse/HUDSON-1233 indicates that
+            // when <testsuites> is present, we are better off using @classname on the
+            // individual testcase class.
+
+            // http://issues.hudson-ci.org/browse/HUDSON-1463 indicates that
+            // @classname may not exist in individual testcase elements. We now
+            // also test if the testsuite element has a package name that can be used
+            // as the class name instead of the file name which is default.
+            sr.addCase(toCaseResult(sr, c, c.className != null ? c.className : suite.name));
+        }
+        suites.add(index, sr);
+    }
+
+    private CaseResult toCaseResult(SuiteResult parent, Item item, String className) {
+        /*
+         According to http://www.nabble.com/NPE-(Fatal%3A-Null)-in-recording-junit-test-results-td23562964.html
+         there's some odd-ball cases where testClassName is null but
+         @name contains fully qualified name.
+         */
+        String testName = item.name;
+        if (className == null && testName.contains(".")) {
+            className = testName.substring(0, testName.lastIndexOf('.'));
+            testName = testName.substring(testName.lastIndexOf('.') + 1);
+        }
+
+        String errorStackTrace;
+        String errorDetails;
+        if (item.errorText != null) {
+            errorStackTrace = item.errorText.toString(true);
+            errorDetails = item.errorMessage;
+        } else if (item.failureText != null) {
+            errorStackTrace = item.failureText.toString(true);
+            errorDetails = item.failureMessage;
+        } else {
+            errorStackTrace = errorDetails = null;
+        }
+
+        boolean keep = keepLongStdio || errorStackTrace != null;
+        return new CaseResult(parent, className, testName, errorStackTrace, errorDetails,
+                CaseResult.parseTime(item.time), item.skipped,
+                item.stdout == null ? null : item.stdout.toString(keep),
+                item.stderr == null ? null : item.stderr.toString(keep));
+    }
+
+    /**
+     * Reads the current element up to its end tag.
+     *
+     * @param suite true to read it as a test suite, false as a test case.
+     */
+    private Item read(boolean suite) throws XMLStreamException, IOException {
+        Item item = new Item(reader);
+        for (int type = reader.next(); type != END_ELEMENT; type = reader.next()) {
+            if (type != START_ELEMENT) {
+                continue;
+            }
+            String tag = reader.getLocalName();
+            if (suite && tag.equals("testcase")) {
+                Item c = read(false);
+                item.cases.add(c);
+                item.failed |= c.failed;
+            } else if (suite && tag.equals("testsuite")) {
+                readSuite();
+            } else if (tag.equals("error") && item.errorText == null) {
+                item.errorMessage = reader.getAttributeValue(null, "message");
+                item.errorText = readText(new Text(true));
+                item.failed = true;
+            } else if (!suite && tag.equals("failure") && item.failureText == null) {
+                item.failureMessage = reader.getAttributeValue(null, "message");
+                item.failureText = readText(new Text(true));
+                item.failed = true;
+            } else if (tag.equals("skipped")) {
+                // as output by TestNG: the test has neither passed nor failed, it was never run
+                item.skipped = true;
+                readText(null);
+            } else if (tag.equals("system-out") && item.stdout == null) {
+                item.stdout = readText(new Text(keepLongStdio || item.failed));
+            } else if (tag.equals("system-err") && item.stderr == null) {
+                item.stderr = readText(new Text(keepLongStdio || item.failed));
+            } else {
+                readText(null);
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Reads the text directly in the current element, up to its end tag.
+     *
+     * @param text where the text goes, or null to skip the element.
+     */
+    private Text readText(Text text) throws XMLStreamException {
+        int depth = 0;
+        while (true) {
+            switch (reader.next()) {
+                case START_ELEMENT:
+                    depth++;
+                    break;
+                case END_ELEMENT:
+                    if (depth-- == 0) {
+                        return text;
+                    }
+                    break;
+                case CHARACTERS:
+                case CDATA:
+                case SPACE:
+                    if (depth == 0 && text != null) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Surefire never puts stdout/stderr in the XML. Instead, it goes to a
+     * separate file.
+     */
+    private String readSurefireOutput(boolean keep) throws IOException {
+        Matcher m = SUREFIRE_FILENAME.matcher(xmlReport.getName());
+        if (!m.matches()) {
+            return null;
+        }
+        // look for ***-output.txt from TEST-***.xml
+        File mavenOutputFile = new File(xmlReport.getParentFile(), m.group(1) + "-output.txt");
+        if (!mavenOutputFile.exists()) {
+            return null;
+        }
+        try {
+            Text text = new Text(keep);
+            Reader r = new FileReader(mavenOutputFile);
+            try {
+                char[] buf = new char[8192];
+                int len;
+                while ((len = r.read(buf)) >= 0) {
+                    text.append(buf, 0, len);
+                }
+            } finally {
+                r.close();
+            }
+            return text.toString(keep);
+        } catch (IOException e) {
+            throw new IOException2("Failed to read " + mavenOutputFile, e);
+        }
+    }
+
+    /**
+     * What's been read of a "testsuite" or "testcase" element.
+     */
+    private static final class Item {
+
+        final String name;
+        final String className;
+        final String pkg;
+        final String timestamp;
+        final String time;
+        Text errorText;
+        String errorMessage;
+        Text failureText;
+        String failureMessage;
+        boolean skipped;
+        /**
+         * True if this item, or one of its test cases, has an error or a
+         * failure.
+         */
+        boolean failed;
+        Text stdout;
+        Text stderr;
+        final List<Item> cases = new ArrayList<Item>();
+
+        Item(XMLStreamReader reader) {
+            name = reader.getAttributeValue(null, "name");
+            className = reader.getAttributeValue(null, "classname");
+            pkg = reader.getAttributeValue(null, "package");
+            timestamp = reader.getAttributeValue(null, "timestamp");
+            time = reader.getAttributeValue(null, "time");
+        }
+    }
+
+    /**
+     * Text of an element, which only keeps its beginning and end when it
+     * doesn't have to be kept in full.
+     */
+    private static final class Text {
+
+        private final boolean keepAll;
+        private final StringBuilder buf = new StringBuilder();
+        private long length;
+
+        Text(boolean keepAll) {
+            this.keepAll = keepAll;
+        }
+
+        void append(char[] ch, int start, int len) {
+            buf.append(ch, start, len);
+            length += len;
+            if (!keepAll && buf.length() > MAX_BUFFER) {
+                buf.delete(CaseResult.HALF_MAX_SIZE, buf.length() - CaseResult.HALF_MAX_SIZE);
+            }
+        }
+
+        /**
+         * @param keep whether the text is to be kept in full, which it can
+         * only be if it has been buffered in full.
+         */
+        String toString(boolean keep) { // HUDSON-6516
+            if (keep && buf.length() == length) {
+                return buf.toString();
+            }
+            long middle = length - CaseResult.HALF_MAX_SIZE * 2;
+            if (middle <= 0) {
+                return buf.toString();
+            }
+            return buf.substring(0, CaseResult.HALF_MAX_SIZE) + "...[truncated " + middle + " chars]..." + buf.substring(buf.length() - CaseResult.HALF_MAX_SIZE);
+        }
+    }
+
+    /**
+     * How much of a trimmed text is buffered before its middle is dropped.
+     */
+    private static final int MAX_BUFFER = 64 * 1024;
+    private static final Pattern SUREFIRE_FILENAME = Pattern.compile("TEST-(.+)\\.xml");
+}
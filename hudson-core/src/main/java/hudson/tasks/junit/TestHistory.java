@@ -0,0 +1,611 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.tasks.junit;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.listeners.RunListener;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Test results of the builds of a job, so that the history of a test can be
+ * looked up without loading the builds and their test reports.
+ *
+ * <p> For each build that has a {@link TestResultAction}, this keeps its
+ * counts and, for each test case, whether it passed, its duration and since
+ * when it has been failing. Tests are identified by numbers, which are
+ * assigned to their names the first time they're recorded.
+ *
+ * <p> The history is kept in <tt>testHistory.log</tt> in the job's
+ * directory, which is appended to, and rewritten with only the builds that
+ * are left once the records of deleted and replaced builds take up half of
+ * it. Builds recorded before the file was created aren't in it, so
+ * {@link #getPrevious(int)} tells when it doesn't know the answer, and
+ * callers then walk the builds as before.
+ *
+ * @since 3.3.4
+ */
+public final class TestHistory {
+
+    private final File file;
+    private boolean loaded;
+    private long size;
+    /**
+     * Number of bytes of the file taken by records of builds that have been
+     * deleted or replaced, and by the records of their deletion.
+     */
+    private long dead;
+    /**
+     * Number of the first build recorded. Builds before it may have test
+     * results that aren't in the history.
+     */
+    private int firstRecorded = Integer.MAX_VALUE;
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private final TreeMap<Integer, Build> builds = new TreeMap<Integer, Build>();
+
+    TestHistory(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets the history of the given job.
+     */
+    public static TestHistory of(AbstractProject<?, ?> job) {
+        return of(new File(job.getRootDir(), "testHistory.log"));
+    }
+
+    /**
+     * Gets the history kept in the given file. There's one instance per
+     * file, even when the job is reloaded, so that appends to the file are
+     * serialized, and what's loaded matches what's in it.
+     */
+    static TestHistory of(File file) {
+        file = file.getAbsoluteFile();
+        synchronized (HISTORIES) {
+            SoftReference<TestHistory> ref = HISTORIES.get(file);
+            TestHistory h = ref == null ? null : ref.get();
+            if (h == null) {
+                // it's read again from the file when needed
+                for (Iterator<SoftReference<TestHistory>> itr = HISTORIES.values().iterator(); itr.hasNext();) {
+                    if (itr.next().get() == null) {
+                        itr.remove();
+                    }
+                }
+                h = new TestHistory(file);
+                HISTORIES.put(file, new SoftReference<TestHistory>(h));
+            }
+            return h;
+        }
+    }
+
+    /**
+     * Gets a build, or null if it isn't in the history.
+     */
+    public synchronized Build get(int number) {
+        load();
+        return builds.get(number);
+    }
+
+    /**
+     * Gets the latest build before the given one that has test results.
+     *
+     * @return null if the history doesn't know, because there may be earlier
+     * builds that weren't recorded.
+     */
+    public synchronized Build getPrevious(int number) {
+        load();
+        Entry<Integer, Build> e = builds.lowerEntry(number);
+        return e == null ? null : e.getValue();
+    }
+
+    /**
+     * Returns true if all the builds from the given one on that have test
+     * results are in the history.
+     */
+    public synchronized boolean covers(int number) {
+        load();
+        return number >= firstRecorded;
+    }
+
+    /**
+     * Records the result of a build, replacing what was recorded for it.
+     */
+    public synchronized void record(int number, TestResult result) throws IOException {
+        load();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+
+        // last one wins, like SuiteResult.getCase()
+        Map<Integer, CaseResult> cases = new TreeMap<Integer, CaseResult>();
+        Map<String, Integer> added = new HashMap<String, Integer>();
+        for (SuiteResult s : result.getSuites()) {
+            for (CaseResult c : s.getCases()) {
+                String key = key(s.getName(), c.getName());
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = added.get(key);
+                }
+                if (id == null) {
+                    id = ids.size() + added.size();
+                    added.put(key, id);
+                    byte[] name = key.getBytes("UTF-8");
+                    out.writeInt(1 + name.length);
+                    out.writeByte(NAME);
+                    out.write(name);
+                }
+                cases.put(id, c);
+            }
+        }
+
+        out.writeInt(1 + 24 + cases.size() * CASE_SIZE);
+        out.writeByte(BUILD);
+        out.writeInt(number);
+        out.writeInt(result.getTotalCount());
+        out.writeInt(result.getFailCount());
+        out.writeInt(result.getSkipCount());
+        out.writeFloat(result.getDuration());
+        out.writeInt(cases.size());
+        long offset = size + buf.size();
+        for (Entry<Integer, CaseResult> e : cases.entrySet()) {
+            CaseResult c = e.getValue();
+            out.writeInt(e.getKey());
+            out.writeByte(c.isSkipped() ? SKIPPED : c.isPassed() ? PASSED : FAILED);
+            out.writeFloat(c.getDuration());
+            out.writeInt(c.getStoredFailedSince());
+        }
+
+        append(buf);
+        ids.putAll(added);
+        Build old = builds.put(number, new Build(number, result.getTotalCount(), result.getFailCount(),
+                result.getSkipCount(), result.getDuration(), offset, cases.size()));
+        if (old != null) {
+            dead += old.discard();
+        }
+        firstRecorded = Math.min(firstRecorded, number);
+    }
+
+    /**
+     * Removes a build from the history.
+     */
+    public synchronized void delete(int number) throws IOException {
+        load();
+        Build old = builds.remove(number);
+        if (old == null) {
+            return;
+        }
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(1 + 4);
+        out.writeByte(DELETE);
+        out.writeInt(number);
+        append(buf);
+        dead += old.discard() + buf.size();
+        if (dead >= size / 2) {
+            compact();
+        }
+    }
+
+    private void append(ByteArrayOutputStream buf) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            buf.writeTo(out);
+        } finally {
+            out.close();
+        }
+        size += buf.size();
+    }
+
+    /**
+     * Reads the file the first time the history is used. An incomplete
+     * record at its end, left by a crash, is cut off.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+                long pos = 0;
+                long length = raf.length();
+                try {
+                    while (pos < length) {
+                        int len = in.readInt();
+                        if (len < 1 || pos + 4 + len > length) {
+                            throw new EOFException();
+                        }
+                        byte type = in.readByte();
+                        if (type == NAME) {
+                            byte[] name = new byte[len - 1];
+                            in.readFully(name);
+                            ids.put(new String(name, "UTF-8"), ids.size());
+                        } else if (type == BUILD) {
+                            int number = in.readInt();
+                            Build b = new Build(number, in.readInt(), in.readInt(), in.readInt(), in.readFloat(),
+                                    pos + 4 + 1 + 24, in.readInt());
+                            in.skipBytes(len - 1 - 24);
+                            Build old = builds.put(number, b);
+                            if (old != null) {
+                                dead += old.discard();
+                            }
+                            firstRecorded = Math.min(firstRecorded, number);
+                        } else if (type == DELETE) {
+                            Build old = builds.remove(in.readInt());
+                            dead += 4 + len + (old != null ? old.discard() : 0);
+                        } else if (type == FIRST) {
+                            firstRecorded = Math.min(firstRecorded, in.readInt());
+                        } else {
+                            throw new EOFException();
+                        }
+                        pos += 4 + len;
+                    }
+                } catch (EOFException e) {
+                    LOGGER.warning("Discarding the incomplete end of " + file + " after " + pos + " bytes");
+                    raf.setLength(pos);
+                }
+                size = pos;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            ids.clear();
+            builds.clear();
+            firstRecorded = Integer.MAX_VALUE;
+            // start over, so that what's recorded from now on is consistent
+            file.delete();
+            size = 0;
+            dead = 0;
+            return;
+        }
+        if (dead > 0 && dead >= size / 2) {
+            try {
+                compact();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to compact " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the file with the test names and the builds that are left.
+     * The first build recorded is kept as well, so that the history covers
+     * the same builds.
+     */
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Map<Build, Long> offsets = new HashMap<Build, Long>();
+        long pos = 0;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                if (firstRecorded != Integer.MAX_VALUE) {
+                    out.writeInt(1 + 4);
+                    out.writeByte(FIRST);
+                    out.writeInt(firstRecorded);
+                    pos += 4 + 1 + 4;
+                }
+                String[] names = new String[ids.size()];
+                for (Entry<String, Integer> e : ids.entrySet()) {
+                    names[e.getValue()] = e.getKey();
+                }
+                for (String n : names) {
+                    byte[] name = n.getBytes("UTF-8");
+                    out.writeInt(1 + name.length);
+                    out.writeByte(NAME);
+                    out.write(name);
+                    pos += 4 + 1 + name.length;
+                }
+                byte[] cases = new byte[0];
+                for (Build b : builds.values()) {
+                    out.writeInt(1 + 24 + b.caseCount * CASE_SIZE);
+                    out.writeByte(BUILD);
+                    out.writeInt(b.number);
+                    out.writeInt(b.totalCount);
+                    out.writeInt(b.failCount);
+                    out.writeInt(b.skipCount);
+                    out.writeFloat(b.duration);
+                    out.writeInt(b.caseCount);
+                    pos += 4 + 1 + 24;
+                    offsets.put(b, pos);
+                    int len = b.caseCount * CASE_SIZE;
+                    if (cases.length < len) {
+                        cases = new byte[len];
+                    }
+                    raf.seek(b.offset);
+                    raf.readFully(cases, 0, len);
+                    out.write(cases, 0, len);
+                    pos += len;
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            raf.close();
+        }
+        replace(tmp, file);
+        for (Entry<Build, Long> e : offsets.entrySet()) {
+            e.getKey().offset = e.getValue();
+        }
+        size = pos;
+        dead = 0;
+    }
+
+    private static void replace(File src, File dst) throws IOException {
+        if (src.renameTo(dst)) {
+            return;
+        }
+        // can't rename over an existing file on some platforms
+        if (!dst.delete() || !src.renameTo(dst)) {
+            src.delete();
+            throw new IOException("Failed to rename " + src + " to " + dst);
+        }
+    }
+
+    private static String key(String suiteName, String caseName) {
+        return suiteName + '/' + caseName;
+    }
+
+    /**
+     * Test results of a build.
+     */
+    public final class Build {
+
+        private final int number;
+        private final int totalCount;
+        private final int failCount;
+        private final int skipCount;
+        private final float duration;
+        /**
+         * Where the cases are in the file, or -1 if the build has been
+         * removed from the history.
+         */
+        private long offset;
+        private final int caseCount;
+        private SoftReference<byte[]> cases;
+
+        private Build(int number, int totalCount, int failCount, int skipCount, float duration, long offset, int caseCount) {
+            this.number = number;
+            this.totalCount = totalCount;
+            this.failCount = failCount;
+            this.skipCount = skipCount;
+            this.duration = duration;
+            this.offset = offset;
+            this.caseCount = caseCount;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Marks the build as removed from the history.
+         *
+         * @return the size of its record.
+         */
+        private long discard() {
+            offset = -1;
+            return 4 + 1 + 24 + caseCount * CASE_SIZE;
+        }
+
+        public int getTotalCount() {
+            return totalCount;
+        }
+
+        public int getFailCount() {
+            return failCount;
+        }
+
+        public int getSkipCount() {
+            return skipCount;
+        }
+
+        public int getPassCount() {
+            return totalCount - failCount - skipCount;
+        }
+
+        /**
+         * Duration of the tests, in seconds.
+         */
+        public float getDuration() {
+            return duration;
+        }
+
+        /**
+         * Gets a test case of this build.
+         *
+         * @return null if there was no such test.
+         */
+        public Case getCase(String suiteName, String caseName) {
+            synchronized (TestHistory.this) {
+                Integer id = ids.get(key(suiteName, caseName));
+                if (id == null) {
+                    return null;
+                }
+                byte[] data = loadCases();
+                if (data == null) {
+                    return null;
+                }
+                // cases are sorted by their ids
+                int low = 0;
+                int high = caseCount - 1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    int i = mid * CASE_SIZE;
+                    int midId = readInt(data, i);
+                    if (midId < id) {
+                        low = mid + 1;
+                    } else if (midId > id) {
+                        high = mid - 1;
+                    } else {
+                        return new Case(this, data[i + 4], Float.intBitsToFloat(readInt(data, i + 5)), readInt(data, i + 9));
+                    }
+                }
+                return null;
+            }
+        }
+
+        private byte[] loadCases() {
+            byte[] data = cases == null ? null : cases.get();
+            if (data != null || offset < 0) {
+                return data;
+            }
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    data = new byte[caseCount * CASE_SIZE];
+                    raf.seek(offset);
+                    raf.readFully(data);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to read build " + number + " from " + file, e);
+                return null;
+            }
+            cases = new SoftReference<byte[]>(data);
+            return data;
+        }
+    }
+
+    /**
+     * Result of a test case in a build.
+     */
+    public static final class Case {
+
+        private final Build build;
+        private final byte status;
+        private final float duration;
+        private final int failedSince;
+
+        private Case(Build build, byte status, float duration, int failedSince) {
+            this.build = build;
+            this.status = status;
+            this.duration = duration;
+            this.failedSince = failedSince;
+        }
+
+        /**
+         * Wraps a test case that's been loaded from its build.
+         */
+        Case(CaseResult c) {
+            this(null, c.isSkipped() ? SKIPPED : c.isPassed() ? PASSED : FAILED, c.getDuration(), c.getStoredFailedSince());
+        }
+
+        /**
+         * @return null if the case wasn't read from the history.
+         */
+        public Build getBuild() {
+            return build;
+        }
+
+        /**
+         * @see CaseResult#isPassed()
+         */
+        public boolean isPassed() {
+            return status == PASSED;
+        }
+
+        public boolean isSkipped() {
+            return status == SKIPPED;
+        }
+
+        public float getDuration() {
+            return duration;
+        }
+
+        /**
+         * @see CaseResult#getFailedSince()
+         */
+        public int getFailedSince() {
+            return failedSince;
+        }
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+    }
+
+    /**
+     * Removes deleted builds from the history.
+     */
+    @Extension
+    public static final class DeletionListener extends RunListener<AbstractBuild> {
+
+        public DeletionListener() {
+            super(AbstractBuild.class);
+        }
+
+        @Override
+        public void onDeleted(AbstractBuild build) {
+            if (build.getAction(TestResultAction.class) == null) {
+                return;
+            }
+            try {
+                of(build.getProject()).delete(build.getNumber());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove " + build + " from the test history", e);
+            }
+        }
+    }
+
+    private static final byte NAME = 1;
+    private static final byte BUILD = 2;
+    private static final byte DELETE = 3;
+    private static final byte FIRST = 4;
+    private static final byte PASSED = 0;
+    private static final byte FAILED = 1;
+    private static final byte SKIPPED = 2;
+    /**
+     * Size of a test case in a build record: its id, status, duration and
+     * the build it has been failing since.
+     */
+    private static final int CASE_SIZE = 13;
+    /**
+     * Histories by their files. They're softly referenced, as the files are
+     * what persists them.
+     */
+    private static final Map<File, SoftReference<TestHistory>> HISTORIES = new HashMap<File, SoftReference<TestHistory>>();
+    private static final Logger LOGGER = Logger.getLogger(TestHistory.class.getName());
+}
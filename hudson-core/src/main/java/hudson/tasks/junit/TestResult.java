@@ -23,6 +23,8 @@ import hudson.model.Run;
 import hudson.tasks.test.MetaTabulatedResult;
 import hudson.tasks.test.TestObject;
 import hudson.tasks.test.AbstractTestResultAction;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
 import hudson.util.IOException2;
 import org.apache.tools.ant.DirectoryScanner;
 import org.dom4j.DocumentException;
@@ -41,6 +43,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -86,6 +96,18 @@ public final class TestResult extends MetaTabulatedResult {
         keepLongStdio = false;
     }
 
+    /**
+     * Creates a result of the given suites, which have already been checked
+     * for duplicates.
+     */
+    TestResult(List<SuiteResult> suites) {
+        keepLongStdio = false;
+        this.suites.addAll(suites);
+        for (SuiteResult sr : suites) {
+            duration += sr.getDuration();
+        }
+    }
+
     @Deprecated
     public TestResult(long buildTime, DirectoryScanner results) throws IOException {
         this(buildTime, results, false);
@@ -126,25 +148,16 @@ public final class TestResult extends MetaTabulatedResult {
         String[] includedFiles = results.getIncludedFiles();
         File baseDir = results.getBasedir();
 
-        boolean parsed = false;
-
+        List<File> reportFiles = new ArrayList<File>();
         for (String value : includedFiles) {
             File reportFile = new File(baseDir, value);
             // only count files that were actually updated during this build
             if ((buildTime - 3000/*error margin*/ <= reportFile.lastModified()) || !checkTimestamps) {
-                if (reportFile.length() == 0) {
-                    // this is a typical problem when JVM quits abnormally, like OutOfMemoryError during a test.
-                    SuiteResult sr = new SuiteResult(reportFile.getName(), "", "");
-                    sr.addCase(new CaseResult(sr, "<init>", "Test report file " + reportFile.getAbsolutePath() + " was length 0"));
-                    add(sr);
-                } else {
-                    parse(reportFile);
-                }
-                parsed = true;
+                reportFiles.add(reportFile);
             }
         }
 
-        if (!parsed) {
+        if (reportFiles.isEmpty()) {
             long localTime = System.currentTimeMillis();
             if (localTime < buildTime - 1000) /*margin*/ // build time is in the the future. clock on this slave must be running behind
             {
@@ -161,6 +174,34 @@ public final class TestResult extends MetaTabulatedResult {
                     + "For example, %s is %s old\n", f,
                     Util.getTimeSpanString(buildTime - f.lastModified())));
         }
+
+        int threads = Math.min(PARSER_THREADS, reportFiles.size());
+        if (threads <= 1) {
+            for (File reportFile : reportFiles) {
+                parse(reportFile);
+            }
+            return;
+        }
+
+        // parse the reports concurrently, but add them in order,
+        // so that the result doesn't depend on which finishes first
+        List<Future<List<SuiteResult>>> parsed = new ArrayList<Future<List<SuiteResult>>>();
+        try {
+            for (File reportFile : reportFiles) {
+                parsed.add(PARSER.submit(parser(reportFile)));
+            }
+            for (int i = 0; i < reportFiles.size(); i++) {
+                add(reportFiles.get(i), parsed.get(i));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException2("Interrupted while parsing test reports", e);
+        } finally {
+            // the reports left to parse if one failed
+            for (Future<List<SuiteResult>> f : parsed) {
+                f.cancel(true);
+            }
+        }
     }
 
     private void add(SuiteResult sr) {
@@ -183,13 +224,44 @@ public final class TestResult extends MetaTabulatedResult {
      * Parses an additional report file.
      */
     public void parse(File reportFile) throws IOException {
+        FutureTask<List<SuiteResult>> task = new FutureTask<List<SuiteResult>>(parser(reportFile));
+        task.run();
         try {
-            for (SuiteResult suiteResult : SuiteResult.parse(reportFile, keepLongStdio)) {
-                add(suiteResult);
+            add(reportFile, task);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e); // the task is done
+        }
+    }
+
+    private Callable<List<SuiteResult>> parser(final File reportFile) {
+        return new Callable<List<SuiteResult>>() {
+            public List<SuiteResult> call() throws Exception {
+                if (reportFile.length() == 0) {
+                    // this is a typical problem when JVM quits abnormally, like OutOfMemoryError during a test.
+                    SuiteResult sr = new SuiteResult(reportFile.getName(), "", "");
+                    sr.addCase(new CaseResult(sr, "<init>", "Test report file " + reportFile.getAbsolutePath() + " was length 0"));
+                    return Collections.singletonList(sr);
+                }
+                return SuiteResult.parse(reportFile, keepLongStdio);
+            }
+        };
+    }
+
+    /**
+     * Adds the suites parsed from a report file.
+     */
+    private void add(File reportFile, Future<List<SuiteResult>> parsed) throws IOException, InterruptedException {
+        List<SuiteResult> r;
+        try {
+            r = parsed.get();
+        } catch (ExecutionException x) {
+            Throwable e = x.getCause();
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            if (!(e instanceof DocumentException)) {
+                throw new IOException2("Failed to read " + reportFile, e);
             }
-        } catch (RuntimeException e) {
-            throw new IOException2("Failed to read " + reportFile, e);
-        } catch (DocumentException e) {
             if (!reportFile.getPath().endsWith(".xml")) {
                 throw new IOException2("Failed to read " + reportFile + "\n"
                         + "Is this really a JUnit report file? Your configuration must be matching too many files", e);
@@ -203,6 +275,9 @@ public final class TestResult extends MetaTabulatedResult {
                 throw new IOException2("Failed to read " + reportFile, e);
             }
         }
+        for (SuiteResult suiteResult : r) {
+            add(suiteResult);
+        }
     }
 
     public String getDisplayName() {
@@ -557,4 +632,23 @@ public final class TestResult extends MetaTabulatedResult {
     }
     private static final long serialVersionUID = 1L;
     private static final boolean checkTimestamps = true; // TODO: change to System.getProperty  
+    /**
+     * How many report files are parsed concurrently.
+     *
+     * @since 3.3.4
+     */
+    public static int PARSER_THREADS = Integer.getInteger(TestResult.class.getName() + ".parserThreads", Runtime.getRuntime().availableProcessors());
+    /**
+     * Executor shared by all the parses, so that concurrent builds don't
+     * parse more than {@link #PARSER_THREADS} reports at once in total.
+     */
+    private static final ExecutorService PARSER = createParser();
+
+    private static ExecutorService createParser() {
+        int threads = Math.max(1, PARSER_THREADS);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ExceptionCatchingThreadFactory(new DaemonThreadFactory()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
@@ -39,7 +39,8 @@ import java.util.logging.Logger;
  * {@link Action} that displays the JUnit test result.
  *
  * <p> The actual test reports are isolated by {@link WeakReference} so that it
- * doesn't eat up too much memory.
+ * doesn't eat up too much memory. They're kept in a {@link TestResultFile},
+ * so that the output of the tests is only loaded when it's shown.
  *
  * @author Kohsuke Kawaguchi
  */
@@ -72,10 +73,20 @@ public class TestResultAction extends AbstractTestResultAction<TestResultAction>
 
         // persist the data
         try {
-            getDataFile().write(result);
+            if (XML_STORAGE) {
+                getDataFile().write(result);
+                getBinaryFile().delete();
+            } else {
+                TestResultFile.write(getBinaryFile(), result);
+            }
         } catch (IOException e) {
             e.printStackTrace(listener.fatalError("Failed to save the JUnit test result"));
         }
+        try {
+            TestHistory.of(owner.getProject()).record(owner.getNumber(), result);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to record the test history of " + owner, e);
+        }
 
         this.result = new WeakReference<TestResult>(result);
     }
@@ -84,6 +95,10 @@ public class TestResultAction extends AbstractTestResultAction<TestResultAction>
         return new XmlFile(XSTREAM, new File(owner.getRootDir(), "junitResult.xml"));
     }
 
+    private File getBinaryFile() {
+        return new File(owner.getRootDir(), "junitResult.bin");
+    }
+
     public synchronized TestResult getResult() {
         TestResult r;
         if (result == null) {
@@ -139,10 +154,15 @@ public class TestResultAction extends AbstractTestResultAction<TestResultAction>
      */
     private TestResult load() {
         TestResult r;
+        File binaryFile = getBinaryFile();
         try {
-            r = (TestResult) getDataFile().read();
+            if (binaryFile.exists()) {
+                r = TestResultFile.read(binaryFile);
+            } else {
+                r = (TestResult) getDataFile().read();
+            }
         } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Failed to load " + getDataFile(), e);
+            LOGGER.log(Level.WARNING, "Failed to load " + (binaryFile.exists() ? binaryFile : getDataFile()), e);
             r = new TestResult();   // return a dummy
         }
         r.freeze(this);
@@ -198,6 +218,14 @@ public class TestResultAction extends AbstractTestResultAction<TestResultAction>
         return this;
     }
 
+    /**
+     * Set to true to keep test results in <tt>junitResult.xml</tt>, as they
+     * were before {@link TestResultFile}.
+     *
+     * @since 3.3.4
+     */
+    public static boolean XML_STORAGE = Boolean.getBoolean(TestResultAction.class.getName() + ".xml");
+
     static {
         XSTREAM.alias("result", TestResult.class);
         XSTREAM.alias("suite", SuiteResult.class);
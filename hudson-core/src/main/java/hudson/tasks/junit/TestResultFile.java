@@ -0,0 +1,247 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.tasks.junit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Binary file of a {@link TestResult}, which is loaded without the stdout,
+ * stderr and stack traces of the tests. Those make up most of a result, and
+ * are only read from the file when they're shown.
+ *
+ * <p> The file starts with a magic number and a version, followed by the
+ * texts that are loaded lazily, as UTF-8. Then comes the index: a table of
+ * the other strings, each stored once, and the suites and cases referring
+ * to it. The file ends with the offset of the index.
+ *
+ * @since 3.3.4
+ */
+final class TestResultFile {
+
+    private TestResultFile() {
+    }
+
+    /**
+     * Writes a result, replacing the file atomically.
+     */
+    static void write(File file, TestResult result) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Writer w = new Writer(out);
+            for (SuiteResult s : result.getSuites()) {
+                w.writeSuite(s);
+            }
+            long index = w.pos;
+
+            out.writeInt(w.strings.size());
+            for (String s : w.strings) {
+                byte[] bytes = s.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(w.suiteCount);
+            w.records.writeTo(out);
+            out.writeLong(index);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // Windows doesn't rename over an existing file
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads a result, except for the texts that are loaded lazily.
+     */
+    static TestResult read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < 16 || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                throw new IOException(file + " isn't a test result file");
+            }
+            raf.seek(raf.length() - 8);
+            raf.seek(raf.readLong());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                strings[i] = new String(bytes, "UTF-8");
+            }
+
+            List<SuiteResult> suites = new ArrayList<SuiteResult>();
+            for (int i = in.readInt(); i > 0; i--) {
+                SuiteResult suite = new SuiteResult(string(in, strings), string(in, strings), string(in, strings),
+                        blob(in, file), blob(in, file));
+                for (int j = in.readInt(); j > 0; j--) {
+                    suite.addCase(new CaseResult(suite, string(in, strings), string(in, strings), string(in, strings),
+                            in.readFloat(), in.readBoolean(), in.readInt(),
+                            blob(in, file), blob(in, file), blob(in, file)));
+                }
+                suites.add(suite);
+            }
+            return new TestResult(suites);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String string(DataInputStream in, String[] strings) throws IOException {
+        int i = in.readInt();
+        return i < 0 ? null : strings[i];
+    }
+
+    private static Blob blob(DataInputStream in, File file) throws IOException {
+        long offset = in.readLong();
+        int length = in.readInt();
+        return offset < 0 ? null : new Blob(file, offset, length);
+    }
+
+    /**
+     * Writes the texts of suites and cases as it goes, and their records to
+     * a buffer, as they can only be written after the string table.
+     */
+    private static final class Writer {
+
+        private final DataOutputStream out;
+        private long pos = 8;
+        private final Map<String, Integer> index = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        private final DataOutputStream record = new DataOutputStream(records);
+        private int suiteCount;
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeSuite(SuiteResult s) throws IOException {
+            writeString(s.getFile());
+            writeString(s.getName());
+            writeString(s.getTimestamp());
+            writeBlob(s.getStdout());
+            writeBlob(s.getStderr());
+            record.writeInt(s.getCases().size());
+            for (CaseResult c : s.getCases()) {
+                writeString(c.getClassName());
+                writeString(c.getName());
+                writeString(c.getErrorDetails());
+                record.writeFloat(c.getDuration());
+                record.writeBoolean(c.isSkipped());
+                record.writeInt(c.getStoredFailedSince());
+                writeBlob(c.getErrorStackTrace());
+                writeBlob(c.getCaseStdout());
+                writeBlob(c.getCaseStderr());
+            }
+            suiteCount++;
+        }
+
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                record.writeInt(-1);
+                return;
+            }
+            Integer i = index.get(s);
+            if (i == null) {
+                i = strings.size();
+                index.put(s, i);
+                strings.add(s);
+            }
+            record.writeInt(i);
+        }
+
+        private void writeBlob(String s) throws IOException {
+            if (s == null) {
+                record.writeLong(-1);
+                record.writeInt(0);
+                return;
+            }
+            byte[] bytes = s.getBytes("UTF-8");
+            out.write(bytes);
+            record.writeLong(pos);
+            record.writeInt(bytes.length);
+            pos += bytes.length;
+        }
+    }
+
+    /**
+     * A text in a {@link TestResultFile}, which is read when it's needed.
+     * It isn't cached, so that the memory it takes can be reclaimed once it's
+     * been shown.
+     */
+    static final class Blob {
+
+        private final File file;
+        private final long offset;
+        private final int length;
+
+        Blob(File file, long offset, int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        String load() {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    byte[] bytes = new byte[length];
+                    raf.seek(offset);
+                    raf.readFully(bytes);
+                    return new String(bytes, "UTF-8");
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to read test output from " + file, e);
+                return null;
+            }
+        }
+
+        /**
+         * Loads the text of a blob, if there is one.
+         */
+        static String load(Blob blob) {
+            return blob == null ? null : blob.load();
+        }
+    }
+
+    private static final int MAGIC = 0x48545253;
+    private static final int VERSION = 1;
+    private static final Logger LOGGER = Logger.getLogger(TestResultFile.class.getName());
+}
@@ -232,7 +232,7 @@ public abstract class AbstractTestResultAction<T extends AbstractTestResultActio
         }
 
         Area defSize = calcDefaultSize();
-        Graph graph = new Graph(-1, defSize.width, defSize.height);
+        Graph graph = new Graph(owner.getTimestamp(), defSize.width, defSize.height);
         graph.setYAxisLabel("count");
         graph.setData(getGraphDataSet(req));
         graph.doPng(req, rsp);
@@ -250,7 +250,7 @@ public abstract class AbstractTestResultAction<T extends AbstractTestResultActio
         }
 
         Area defSize = calcDefaultSize();
-        Graph graph = new Graph(-1, defSize.width, defSize.height);
+        Graph graph = new Graph(owner.getTimestamp(), defSize.width, defSize.height);
         graph.setYAxisLabel("count");
         graph.setData(getGraphDataSet(req));
         graph.doMap(req, rsp);
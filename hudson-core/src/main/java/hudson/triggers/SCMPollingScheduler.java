@@ -0,0 +1,313 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.triggers;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.SCMedItem;
+import hudson.model.listeners.ItemListener;
+import hudson.scm.SCM;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides when the {@link SCMTrigger}s poll, so that jobs with the same
+ * schedule don't all poll at once.
+ *
+ * <ul> <li>Each job starts its polls at its own delay into the interval of
+ * its trigger, derived from its name. <li>Jobs that poll without finding
+ * changes skip more and more ticks, up to {@link SCMTrigger#MAX_BACKOFF}.
+ * <li>Jobs that use the same repository, as told by
+ * {@link SCM#getRepositoryKey()}, take turns: a poll waits for the one in
+ * progress on the same repository. Each job still polls, as the answer
+ * depends on what it built last, so the polls aren't merged. </ul>
+ *
+ * <p> By default, a job that keeps finding no changes ends up polling once
+ * every {@link SCMTrigger#MAX_BACKOFF} ticks, so at worst a change is found
+ * that many ticks late. No {@link SCM} of the core returns a repository key,
+ * so polls take turns only for the SCMs of plugins that do. Setting
+ * {@link SCMTrigger#MAX_BACKOFF} to 1 makes the jobs poll at every tick, and
+ * {@link SCMTrigger#JITTER} to 0 makes them poll right at the tick again.
+ *
+ * @since 3.3.4
+ */
+public final class SCMPollingScheduler {
+
+    /**
+     * Number of polls without changes after which a job skips twice as many
+     * ticks.
+     */
+    static final int BACKOFF_STEP = 10;
+
+    private final Map<String, Backoff> backoffs = new HashMap<String, Backoff>();
+    private final Map<String, Repository> repositories = new HashMap<String, Repository>();
+    /**
+     * Key of the repository each job polled last.
+     */
+    private final Map<String, String> keys = new HashMap<String, String>();
+
+    /**
+     * Gets how long the poll of a job waits after the tick of its trigger.
+     *
+     * @param interval time until the next tick, which the delay stays below.
+     */
+    public long getDelay(String job, long interval) {
+        long spread = Math.min(interval, SCMTrigger.JITTER);
+        if (spread <= 0) {
+            return 0;
+        }
+        return (job.hashCode() & Integer.MAX_VALUE) % spread;
+    }
+
+    /**
+     * Called at each tick of the trigger of a job, returns false if the job
+     * is to skip this one.
+     */
+    public synchronized boolean shouldPoll(String job) {
+        Backoff b = backoffs.get(job);
+        if (b == null) {
+            return true;
+        }
+        if (++b.skipped < b.getFactor()) {
+            return false;
+        }
+        b.skipped = 0;
+        return true;
+    }
+
+    /**
+     * Records the outcome of a poll of a job.
+     */
+    public synchronized void recordPoll(String job, boolean changes) {
+        if (changes) {
+            backoffs.remove(job);
+            return;
+        }
+        Backoff b = backoffs.get(job);
+        if (b == null) {
+            b = new Backoff();
+            backoffs.put(job, b);
+        }
+        b.unchanged++;
+    }
+
+    /**
+     * Gets the number of ticks out of which a job polls once.
+     */
+    public synchronized int getBackoff(String job) {
+        Backoff b = backoffs.get(job);
+        return b == null ? 1 : b.getFactor();
+    }
+
+    /**
+     * Forgets a job, when it's renamed or deleted, and the repositories no
+     * other job polls.
+     */
+    public synchronized void remove(String job) {
+        backoffs.remove(job);
+        String key = keys.remove(job);
+        if (key != null) {
+            repositories.get(key).remove(job);
+            prune();
+        }
+    }
+
+    /**
+     * Gets the repository a job polls, creating it if need be.
+     *
+     * @param key key of the repository, or null if it isn't known, in which
+     * case the job has a repository of its own.
+     */
+    public synchronized Repository getRepository(String job, String key) {
+        if (key == null) {
+            key = job;
+        }
+        String old = keys.put(job, key);
+        if (old != null && !old.equals(key)) {
+            prune();
+        }
+        Repository r = repositories.get(key);
+        if (r == null) {
+            r = new Repository(key);
+            repositories.put(key, r);
+        }
+        return r;
+    }
+
+    /**
+     * Gets the repositories that were polled, or are to be.
+     */
+    public synchronized List<Repository> getRepositories() {
+        prune();
+        return Collections.unmodifiableList(new ArrayList<Repository>(repositories.values()));
+    }
+
+    /**
+     * Removes the repositories that no job polls anymore, once their polls
+     * are over.
+     */
+    private void prune() {
+        Set<String> used = new HashSet<String>(keys.values());
+        for (Iterator<Repository> it = repositories.values().iterator(); it.hasNext();) {
+            Repository r = it.next();
+            if (!used.contains(r.getKey()) && r.isIdle()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets the backoff of the jobs that are renamed or deleted.
+     */
+    @Extension
+    public static final class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            remove(item, oldName);
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            remove(item, item.getName());
+        }
+
+        private void remove(Item item, String name) {
+            if (item instanceof SCMedItem) {
+                SCMTrigger.DescriptorImpl d = Hudson.getInstance().getDescriptorByType(SCMTrigger.DescriptorImpl.class);
+                if (d != null) {
+                    String parent = item.getParent().getFullName();
+                    d.getScheduler().remove(parent.length() == 0 ? name : parent + '/' + name);
+                }
+            }
+        }
+    }
+
+    private static final class Backoff {
+
+        int unchanged;
+        int skipped;
+
+        int getFactor() {
+            return Math.min(1 << Math.min(unchanged / BACKOFF_STEP, 30), Math.max(1, SCMTrigger.MAX_BACKOFF));
+        }
+    }
+
+    /**
+     * Polls of the jobs that use one repository, or of one job when the
+     * repository isn't known.
+     */
+    public static final class Repository {
+
+        private final String key;
+        /**
+         * Job that is polling, if any.
+         */
+        private String polling;
+        /**
+         * Polls that wait for the one in progress, by job.
+         */
+        private final Map<String, Runnable> waiting = new LinkedHashMap<String, Runnable>();
+        private int polls;
+        private long totalTime;
+        private long lastTime;
+
+        Repository(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Number of jobs waiting to poll or polling.
+         */
+        public synchronized int getQueueDepth() {
+            return waiting.size() + (polling == null ? 0 : 1);
+        }
+
+        public synchronized int getPollCount() {
+            return polls;
+        }
+
+        /**
+         * Average time the polls took, in milliseconds.
+         */
+        public synchronized long getAverageTime() {
+            return polls == 0 ? 0 : totalTime / polls;
+        }
+
+        /**
+         * Time the last poll took, in milliseconds.
+         */
+        public synchronized long getLastTime() {
+            return lastTime;
+        }
+
+        /**
+         * Starts the poll of a job, unless another poll is in progress. In that
+         * case the poll is kept, replacing any earlier one of the same job, and
+         * handed back by {@link #finish(long)} so that it's run again, instead
+         * of holding a polling thread while it waits.
+         *
+         * @return false if the poll has to wait.
+         */
+        synchronized boolean start(String job, Runnable poll) {
+            if (polling != null) {
+                waiting.put(job, poll);
+                return false;
+            }
+            polling = job;
+            return true;
+        }
+
+        /**
+         * Ends the poll in progress.
+         *
+         * @param time how long it took.
+         * @return the next poll to run, or null if none is waiting.
+         */
+        synchronized Runnable finish(long time) {
+            polls++;
+            totalTime += time;
+            lastTime = time;
+            polling = null;
+            Iterator<Runnable> it = waiting.values().iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            Runnable next = it.next();
+            it.remove();
+            return next;
+        }
+
+        synchronized void remove(String job) {
+            waiting.remove(job);
+        }
+
+        synchronized boolean isIdle() {
+            return polling == null && waiting.isEmpty();
+        }
+    }
+}
@@ -28,6 +28,7 @@ import hudson.model.Item;
 import hudson.model.Project;
 import hudson.model.SCMedItem;
 import hudson.model.AdministrativeMonitor;
+import hudson.scm.SCM;
 import hudson.util.*;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.jelly.XMLOutput;
@@ -85,21 +86,41 @@ public class SCMTrigger extends Trigger<SCMedItem> {
         if (Hudson.getInstance().isQuietingDown()) {
             return; // noop
         }
-        DescriptorImpl d = getDescriptor();
+        final DescriptorImpl d = getDescriptor();
+        long now = System.currentTimeMillis();
+        long next = tabs.nextFireAfter(now);
+        long interval = next < 0 ? 0 : next - now;
 
         for (SCMedItem job : jobs) {
+            String name = job.asProject().getFullName();
+            if (additionalActions == null && !d.scheduler.shouldPoll(name)) {
+                LOGGER.fine("Skipping the polling of " + name + ", which hasn't found changes for a while");
+                continue;
+            }
             LOGGER.fine("Scheduling a polling for jobs " + getJobNames());
+            final Runner runner = new Runner(job, additionalActions);
             if (d.synchronousPolling) {
                 LOGGER.fine("Running the trigger directly without threading, "
                         + "as it's already taken care of by Trigger.Cron");
-                new Runner(job, additionalActions).run();
+                runner.run();
             } else {
             // schedule the polling.
                 // even if we end up submitting this too many times, that's OK.
                 // the real exclusion control happens inside Runner.
                 LOGGER.fine("scheduling the trigger to (asynchronously) run");
-                d.queue.execute(new Runner(job, additionalActions));
-                d.clogCheck();
+                long delay = additionalActions == null ? d.scheduler.getDelay(name, interval) : 0;
+                if (delay == 0 || timer == null) {
+                    d.queue.execute(runner);
+                    d.clogCheck();
+                } else {
+                    // spread the polls of the jobs with the same schedule
+                    timer.schedule(new SafeTimerTask() {
+                        protected void doRun() {
+                            d.queue.execute(runner);
+                            d.clogCheck();
+                        }
+                    }, delay);
+                }
             }
         }
     }
@@ -134,6 +155,10 @@ public class SCMTrigger extends Trigger<SCMedItem> {
          * --- they may block.
          */
         private transient final SequentialExecutionQueue queue = new SequentialExecutionQueue(Executors.newSingleThreadExecutor());
+        /**
+         * Spreads the polls over time and keeps track of them by repository.
+         */
+        private transient final SCMPollingScheduler scheduler = new SCMPollingScheduler();
         /**
          * Whether the projects should be polled all in one go in the order of
          * dependencies. The default behavior is that each project polls for
@@ -163,6 +188,13 @@ public class SCMTrigger extends Trigger<SCMedItem> {
             return queue.getExecutors();
         }
 
+        /**
+         * @since 3.3.4
+         */
+        public SCMPollingScheduler getScheduler() {
+            return scheduler;
+        }
+
         /**
          * Returns true if the SCM polling thread queue has too many jobs than
          * it can handle.
@@ -479,12 +511,37 @@ public class SCMTrigger extends Trigger<SCMedItem> {
             }
         }
 
+        /**
+         * Gets the repository the job polls.
+         */
+        SCMPollingScheduler.Repository getRepository() {
+            SCM scm = scmedItem.getScm();
+            return getDescriptor().scheduler.getRepository(scmedItem.asProject().getFullName(),
+                    scm == null ? null : scm.getRepositoryKey());
+        }
+
         public void run() {
             String threadName = Thread.currentThread().getName();
             Thread.currentThread().setName("SCM polling for " + scmedItem);
+            String jobName = scmedItem.asProject().getFullName();
+            SCMPollingScheduler.Repository repository = getRepository();
             try {
+                if (!repository.start(jobName, this)) {
+                    LOGGER.fine("Polling of " + jobName + " waits for another job of " + repository.getKey());
+                    return;
+                }
+                boolean changes;
                 startTime = System.currentTimeMillis();
-                if (runPolling()) {
+                try {
+                    changes = runPolling();
+                } finally {
+                    Runnable next = repository.finish(System.currentTimeMillis() - startTime);
+                    if (next != null) {
+                        getDescriptor().queue.execute(next);
+                    }
+                }
+                getDescriptor().scheduler.recordPoll(jobName, changes);
+                if (changes) {
                     if (scmedItem instanceof AbstractProject) {
                     AbstractProject job = (AbstractProject) scmedItem;
                     String name = " #" + job.getNextBuildNumber();
@@ -578,4 +635,19 @@ public class SCMTrigger extends Trigger<SCMedItem> {
      * How long is too long for a polling activity to be in the queue?
      */
     public static long STARVATION_THRESHOLD = Long.getLong(SCMTrigger.class.getName() + ".starvationThreshold", TimeUnit2.HOURS.toMillis(1));
+    /**
+     * At most how long a poll waits after the tick of its trigger, so that
+     * the jobs with the same schedule don't poll all at once. 0 to poll right
+     * away.
+     *
+     * @since 3.3.4
+     */
+    public static long JITTER = Long.getLong(SCMTrigger.class.getName() + ".jitter", TimeUnit2.MINUTES.toMillis(5));
+    /**
+     * At most how many ticks out of which a job that doesn't find changes
+     * polls once. 1 to poll at every tick.
+     *
+     * @since 3.3.4
+     */
+    public static int MAX_BACKOFF = Integer.getInteger(SCMTrigger.class.getName() + ".maxBackoff", 4);
 }
@@ -279,7 +279,20 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
         }
 
         // Process all triggers, except SCMTriggers when synchronousPolling is set
-        for (AbstractProject<?, ?> p : inst.getAllItems(AbstractProject.class)) {
+        long start = System.currentTimeMillis();
+        int fired = 0;
+        List<AbstractProject<?, ?>> projects = new ArrayList<AbstractProject<?, ?>>();
+        for (String name : schedule.poll(cal.getTimeInMillis())) {
+            Item item = inst.getItemByFullName(name);
+            if (item == null) {
+                schedule.update(name, Collections.<String, String>emptyMap());
+            } else if (!schedule.isKnown(name)) {
+                projects.addAll(schedule.update(item));
+            } else if (item instanceof AbstractProject) {
+                projects.add((AbstractProject<?, ?>) item);
+            }
+        }
+        for (AbstractProject<?, ?> p : projects) {
             for (Trigger t : p.getTriggers().values()) {
                 //Fix: 457113 - Unnecessary calls of Trigger.run()
                 if (p.hasCascadingProject()){
@@ -293,6 +306,7 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
 
                     if (t.tabs.check(cal)) {
                         LOGGER.config("cron triggered " + p.getName());
+                        fired++;
                         try {
                             t.run();
                         } catch (Throwable e) {
@@ -304,7 +318,20 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
                 }
             }
         }
+        schedule.recordTick(cal.getTimeInMillis(), start, fired);
+        LOGGER.log(Level.FINE, "cron ran {0} triggers, {1} ms late", new Object[]{fired, start - cal.getTimeInMillis()});
+    }
+
+    /**
+     * Gets the schedule of the triggers of the projects.
+     *
+     * @since 3.3.4
+     */
+    public static TriggerSchedule getSchedule() {
+        return schedule;
     }
+
+    private static final TriggerSchedule schedule = new TriggerSchedule();
     private static final Logger LOGGER = Logger.getLogger(Trigger.class.getName());
     /**
      * This timer is available for all the components inside Hudson to schedule
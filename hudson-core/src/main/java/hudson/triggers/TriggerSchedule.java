@@ -0,0 +1,349 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.triggers;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.JobSummary;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.scheduler.CronTabList;
+import hudson.util.CascadingUtil;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.antlr.runtime.RecognitionException;
+
+/**
+ * Projects, by full name, ordered by the next time one of their triggers is
+ * due, so that {@link Trigger#checkTriggers(java.util.Calendar)} only loads
+ * the projects that have something to run.
+ *
+ * <p> The cron specs of the triggers come from the {@link JobSummary}s of the
+ * top level projects at first, and from the projects when they are saved.
+ * Projects whose specs aren't known yet, and the top level items that contain
+ * other items, are checked at every tick until they are loaded.
+ *
+ * @since 3.3.4
+ */
+public final class TriggerSchedule {
+
+    private static final long MINUTE = 60 * 1000;
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    /**
+     * Projects whose specs aren't known.
+     */
+    private final Set<String> unknown = new LinkedHashSet<String>();
+    private boolean initialized;
+    private long lastTime;
+
+    private volatile long tickLag;
+    private volatile int triggersFired;
+
+    /**
+     * Gets the projects that may have a trigger due at the given minute, and
+     * moves them to their next time.
+     */
+    public synchronized List<String> poll(long time) {
+        time = time - time % MINUTE;
+        lastTime = time;
+        if (!initialized) {
+            load();
+            initialized = true;
+            for (Entry e : entries.values()) {
+                schedule(e, time);
+            }
+        }
+
+        List<String> r = new ArrayList<String>(unknown);
+        List<Entry> due = new ArrayList<Entry>();
+        while (!queue.isEmpty() && queue.peek().time <= time) {
+            due.add(queue.poll());
+        }
+        for (Entry e : due) {
+            r.add(e.name);
+            schedule(e, time + MINUTE);
+        }
+        return r;
+    }
+
+    /**
+     * Records the cron specs of the triggers of a project.
+     *
+     * @param specs null if they aren't known.
+     */
+    public synchronized void update(String name, Map<String, String> specs) {
+        removeEntry(name);
+        if (specs == null) {
+            unknown.add(name);
+            return;
+        }
+        List<CronTabList> tabs = new ArrayList<CronTabList>();
+        for (String spec : specs.values()) {
+            try {
+                tabs.add(CronTabList.create(spec));
+            } catch (RecognitionException e) {
+                LOGGER.log(Level.WARNING, "Invalid cron spec of a trigger of " + name, e);
+            }
+        }
+        if (!tabs.isEmpty()) {
+            Entry e = new Entry(name, tabs);
+            entries.put(name, e);
+            if (initialized) {
+                schedule(e, lastTime + MINUTE);
+            }
+        }
+    }
+
+    /**
+     * Records the cron specs of the triggers of a loaded item, and of the
+     * projects nested in it, like the configurations of a matrix project.
+     *
+     * @return the projects among them.
+     */
+    public synchronized List<AbstractProject<?, ?>> update(Item item) {
+        remove(item.getFullName());
+        List<AbstractProject<?, ?>> r = new ArrayList<AbstractProject<?, ?>>();
+        add(item, r);
+        return r;
+    }
+
+    /**
+     * Forgets a project, and the projects nested in it.
+     */
+    public synchronized void remove(String name) {
+        removeEntry(name);
+        String prefix = name + '/';
+        for (String n : new ArrayList<String>(unknown)) {
+            if (n.startsWith(prefix)) {
+                unknown.remove(n);
+            }
+        }
+        for (String n : new ArrayList<String>(entries.keySet())) {
+            if (n.startsWith(prefix)) {
+                removeEntry(n);
+            }
+        }
+    }
+
+    /**
+     * Forgets all the projects, so that they're read again from the
+     * {@link JobSummary}s at the next tick.
+     */
+    public synchronized void reset() {
+        queue.clear();
+        entries.clear();
+        unknown.clear();
+        initialized = false;
+    }
+
+    /**
+     * Returns true if the specs of the project are known, even if it has no
+     * cron trigger.
+     */
+    public synchronized boolean isKnown(String name) {
+        return !unknown.contains(name);
+    }
+
+    /**
+     * Gets the next time a trigger of the project is due, or -1 if it has no
+     * cron trigger or isn't known.
+     */
+    public synchronized long getNextTime(String name) {
+        Entry e = entries.get(name);
+        return e == null || !initialized || e.time == Long.MAX_VALUE ? -1 : e.time;
+    }
+
+    /**
+     * Milliseconds between the minute the last tick checked and the time it
+     * ran. Grows when the ticks can't keep up.
+     */
+    public long getTickLag() {
+        return tickLag;
+    }
+
+    /**
+     * Number of triggers the last tick ran, that is in one minute.
+     */
+    public int getTriggersFired() {
+        return triggersFired;
+    }
+
+    void recordTick(long time, long start, int fired) {
+        tickLag = start - time;
+        triggersFired = fired;
+    }
+
+    private void removeEntry(String name) {
+        unknown.remove(name);
+        Entry e = entries.remove(name);
+        if (e != null) {
+            queue.remove(e);
+        }
+    }
+
+    private void add(Item item, List<AbstractProject<?, ?>> projects) {
+        if (item instanceof AbstractProject) {
+            AbstractProject<?, ?> p = (AbstractProject<?, ?>) item;
+            update(p.getFullName(), getSpecs(p));
+            projects.add(p);
+        } else {
+            update(item.getFullName(), Collections.<String, String>emptyMap());
+        }
+        if (item instanceof ItemGroup) {
+            for (Item child : ((ItemGroup<?>) item).getItems()) {
+                add(child, projects);
+            }
+        }
+    }
+
+    /**
+     * Reads the specs of the top level projects from their summaries. The
+     * items that contain other items are left unknown, so that they're loaded
+     * at the first tick along with what they contain.
+     */
+    private void load() {
+        Hudson h = Hudson.getInstance();
+        if (h == null) {
+            return;
+        }
+        for (String name : h.getItemMap().keySet()) {
+            JobSummary summary = h.getJobSummary(name);
+            if (summary == null || isItemGroup(h, summary.getType())) {
+                unknown.add(name);
+            } else {
+                update(name, summary.getTriggerSpecs());
+            }
+        }
+    }
+
+    private static boolean isItemGroup(Hudson h, String type) {
+        try {
+            return ItemGroup.class.isAssignableFrom(h.getPluginManager().uberClassLoader.loadClass(type));
+        } catch (ClassNotFoundException e) {
+            return true;
+        } catch (LinkageError e) {
+            return true;
+        }
+    }
+
+    private void schedule(Entry e, long from) {
+        queue.remove(e);
+        e.time = Long.MAX_VALUE;
+        for (CronTabList tab : e.tabs) {
+            long t = tab.nextFireAfter(from - 1);
+            if (t >= 0) {
+                e.time = Math.min(e.time, t);
+            }
+        }
+        if (e.time != Long.MAX_VALUE) {
+            queue.add(e);
+        }
+    }
+
+    /**
+     * Gets the cron specs of the triggers that run for the given project, by
+     * trigger class name. The triggers a project inherits from its cascading
+     * parent run with the parent's.
+     */
+    public static Map<String, String> getSpecs(AbstractProject<?, ?> p) {
+        Map<String, String> r = new TreeMap<String, String>();
+        for (Trigger<?> t : p.getTriggersList()) {
+            if (p.hasCascadingProject()
+                    && !CascadingUtil.getTriggerProjectProperty(p, t.getDescriptor().getJsonSafeClassName()).isOverridden()) {
+                continue;
+            }
+            r.put(t.getClass().getName(), t.getSpec());
+        }
+        return Collections.unmodifiableMap(r);
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+
+        final String name;
+        final List<CronTabList> tabs;
+        long time;
+
+        Entry(String name, List<CronTabList> tabs) {
+            this.name = name;
+            this.tabs = tabs;
+        }
+
+        public int compareTo(Entry that) {
+            return time < that.time ? -1 : time > that.time ? 1 : 0;
+        }
+    }
+
+    /**
+     * Reschedules the projects when they're saved.
+     */
+    @Extension
+    public static final class SaveableListenerImpl extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof AbstractProject) {
+                AbstractProject<?, ?> p = (AbstractProject<?, ?>) o;
+                Trigger.getSchedule().update(p.getFullName(), getSpecs(p));
+            }
+        }
+    }
+
+    /**
+     * Keeps track of the projects that are added, renamed and deleted.
+     */
+    @Extension
+    public static final class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onCreated(Item item) {
+            Trigger.getSchedule().update(item);
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            String parent = item.getParent().getFullName();
+            Trigger.getSchedule().remove(parent.length() == 0 ? oldName : parent + '/' + oldName);
+            onCreated(item);
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            Trigger.getSchedule().remove(item.getFullName());
+        }
+
+        @Override
+        public void onLoaded() {
+            Trigger.getSchedule().reset();
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(TriggerSchedule.class.getName());
+}
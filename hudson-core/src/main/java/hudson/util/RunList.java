@@ -16,7 +16,12 @@
 
 package hudson.util;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
 import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildHistory.Record;
+import hudson.model.Hudson;
 import hudson.model.Item;
 import hudson.model.Job;
 import hudson.model.Node;
@@ -25,6 +30,7 @@ import hudson.model.Run;
 import hudson.model.View;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
@@ -32,16 +38,34 @@ import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 
 /**
  * {@link List} of {@link Run}s, sorted in the descending date order.
  *
+ * <p> A list of the builds of several jobs is evaluated lazily. It merges the
+ * build records of the jobs, which are already in order, and only loads the
+ * builds as far as the list is read. Filters are applied to the records that
+ * haven't been read yet, so builds that are filtered out by their record
+ * aren't loaded at all. The methods of {@link java.util.ArrayList} that
+ * work on its elements are overridden to add the pending builds first, which
+ * doesn't cover the ones a newer JDK adds to it, like <tt>forEach</tt> and
+ * <tt>stream</tt>, so those only see the builds that have been read.
+ *
  * TODO: this should be immutable
  *
  * @author Kohsuke Kawaguchi
  */
 public class RunList<R extends Run> extends AbstractRunList<R> {
 
+    /**
+     * Records of the builds that haven't been added to the list yet, newest
+     * first. Null once they all have.
+     */
+    private Iterator<Record> pending;
+
     public RunList() {
     }
 
@@ -59,20 +83,16 @@ public class RunList<R extends Run> extends AbstractRunList<R> {
         return isEmpty() ? null : get(0);
     }
 
-    public RunList(View view) {// this is a type unsafe operation
+    public RunList(View view) {
+        List<Job> jobs = new ArrayList<Job>();
         for (Item item : view.getItems()) {
-            for (Job<?, ?> j : item.getAllJobs()) {
-                addAll((Collection<R>) j.getBuilds());
-            }
+            jobs.addAll(item.getAllJobs());
         }
-        Collections.sort(this, Run.ORDER_BY_DATE);
+        pending = new MergedRecords(jobs);
     }
 
     public RunList(Collection<? extends Job> jobs) {
-        for (Job j : jobs) {
-            addAll(j.getBuilds());
-        }
-        Collections.sort(this, Run.ORDER_BY_DATE);
+        pending = new MergedRecords(jobs);
     }
 
     private RunList(Collection<? extends R> c, boolean dummy) {
@@ -88,27 +108,39 @@ public class RunList<R extends Run> extends AbstractRunList<R> {
      */
     @Override
     public RunList<R> failureOnly() {
-        for (Iterator<R> itr = iterator(); itr.hasNext();) {
-            Run r = itr.next();
-            if (r.getResult() == Result.SUCCESS) {
-                itr.remove();
+        return filter(new Predicate<R>() {
+            public boolean apply(R r) {
+                return r.getResult() != Result.SUCCESS;
             }
-        }
-        return this;
+        }, new Predicate<Record>() {
+            public boolean apply(Record r) {
+                return r.getResult() != Result.SUCCESS;
+            }
+        });
     }
 
     /**
      * Filter the list to builds on a single node only
      */
     @Override
-    public RunList<R> node(Node node) {
-        for (Iterator<R> itr = iterator(); itr.hasNext();) {
-            Run r = itr.next();
-            if (!(r instanceof AbstractBuild) || ((AbstractBuild) r).getBuiltOn() != node) {
-                itr.remove();
+    public RunList<R> node(final Node node) {
+        return filter(new Predicate<R>() {
+            public boolean apply(R r) {
+                return r instanceof AbstractBuild && ((AbstractBuild) r).getBuiltOn() == node;
             }
-        }
-        return this;
+        }, new Predicate<Record>() {
+            public boolean apply(Record r) {
+                if (!(r.getParent() instanceof AbstractProject)) {
+                    return false;
+                }
+                // same as AbstractBuild.getBuiltOn()
+                String builtOn = r.getBuiltOnNodeName();
+                if (builtOn == null || builtOn.equals("")) {
+                    return Hudson.getInstance() == node;
+                }
+                return Hudson.getInstance().getNode(builtOn) == node;
+            }
+        });
     }
 
     /**
@@ -116,12 +148,49 @@ public class RunList<R extends Run> extends AbstractRunList<R> {
      */
     @Override
     public RunList<R> regressionOnly() {
-        for (Iterator<R> itr = iterator(); itr.hasNext();) {
-            Run r = itr.next();
-            if (!r.getBuildStatusSummary().isWorse) {
-                itr.remove();
+        return filter(new Predicate<R>() {
+            public boolean apply(R r) {
+                return r.getBuildStatusSummary().isWorse;
+            }
+        }, new Predicate<Record>() {
+            public boolean apply(Record r) {
+                return r.getBuildStatusSummary().isWorse;
+            }
+        });
+    }
+
+    /**
+     * Filter the list to the builds that satisfy the given condition.
+     *
+     * @since 3.3.4
+     */
+    public RunList<R> filter(final Predicate<? super R> predicate) {
+        return filter(predicate, new Predicate<Record>() {
+            public boolean apply(Record r) {
+                R b = (R) r.getBuild();
+                return b != null && predicate.apply(b);
+            }
+        });
+    }
+
+    /**
+     * Removes the builds already in the list that don't satisfy the first
+     * predicate, and skips the pending records that don't satisfy the second.
+     * The builds are checked in the order of the list.
+     */
+    private RunList<R> filter(Predicate<? super R> runs, Predicate<Record> records) {
+        List<R> kept = new ArrayList<R>();
+        for (int i = 0; i < super.size(); i++) {
+            R r = super.get(i);
+            if (runs.apply(r)) {
+                kept.add(r);
             }
         }
+        super.clear();
+        super.addAll(kept);
+        if (pending != null) {
+            pending = Iterators.filter(pending, records);
+        }
         return this;
     }
 
@@ -132,13 +201,18 @@ public class RunList<R extends Run> extends AbstractRunList<R> {
      */
     @Override
     public RunList<R> byTimestamp(long start, long end) {
+        // nothing after the first build older than start can match
+        while (pending != null && (super.isEmpty() || super.get(super.size() - 1).getTimeInMillis() >= start)) {
+            fill(super.size());
+        }
+
         AbstractList<Long> TIMESTAMP_ADAPTER = new AbstractList<Long>() {
             public Long get(int index) {
-                return RunList.this.get(index).getTimeInMillis();
+                return RunList.super.get(index).getTimeInMillis();
             }
 
             public int size() {
-                return RunList.this.size();
+                return RunList.super.size();
             }
         };
         Comparator<Long> DESCENDING_ORDER = new Comparator<Long>() {
@@ -163,7 +237,7 @@ public class RunList<R extends Run> extends AbstractRunList<R> {
         } else {
             e++;   // max is exclusive, so the exact match should be excluded
         }
-        return fromRuns(subList(e, s));
+        return fromRuns(super.subList(e, s));
     }
 
     /**
@@ -175,26 +249,333 @@ public class RunList<R extends Run> extends AbstractRunList<R> {
     public RunList<R> newBuilds() {
         GregorianCalendar threshold = new GregorianCalendar();
         threshold.add(Calendar.DAY_OF_YEAR, -7);
+        final NewBuilds newBuilds = new NewBuilds(threshold.getTimeInMillis());
+
+        return filter(new Predicate<R>() {
+            public boolean apply(R r) {
+                return newBuilds.apply(r.isBuilding(), r.getTimeInMillis());
+            }
+        }, new Predicate<Record>() {
+            public boolean apply(Record r) {
+                return newBuilds.apply(r.isBuilding(), r.getTimeInMillis());
+            }
+        });
+    }
 
-        int count = 0;
+    /**
+     * Condition of {@link #newBuilds()}, which counts the builds it has seen.
+     */
+    private static final class NewBuilds {
+
+        private final long threshold;
+        private int count;
 
-        for (Iterator<R> itr = iterator(); itr.hasNext();) {
-            R r = itr.next();
-            if (r.isBuilding()) {
+        NewBuilds(long threshold) {
+            this.threshold = threshold;
+        }
+
+        boolean apply(boolean building, long timestamp) {
+            if (building) {
                 // can't publish on-going builds
-                itr.remove();
-                continue;
+                return false;
             }
             // at least put 10 items
             if (count < 10) {
                 count++;
-                continue;
+                return true;
             }
             // anything older than 7 days will be ignored
-            if (r.getTimestamp().before(threshold)) {
-                itr.remove();
+            return timestamp >= threshold;
+        }
+    }
+
+    /**
+     * Adds pending builds until there are more than the given number of them
+     * in the list, or there are no more.
+     */
+    private void fill(int index) {
+        while (pending != null && super.size() <= index) {
+            if (!pending.hasNext()) {
+                pending = null;
+                break;
+            }
+            R r = (R) pending.next().getBuild();
+            if (r != null) {
+                super.add(r);
             }
         }
-        return this;
+    }
+
+    private void fillAll() {
+        fill(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int size() {
+        fillAll();
+        return super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        fill(0);
+        return super.isEmpty();
+    }
+
+    @Override
+    public R get(int index) {
+        fill(index);
+        return super.get(index);
+    }
+
+    @Override
+    public R set(int index, R element) {
+        fill(index);
+        return super.set(index, element);
+    }
+
+    @Override
+    public boolean add(R e) {
+        fillAll();
+        return super.add(e);
+    }
+
+    @Override
+    public void add(int index, R element) {
+        fill(index - 1);
+        super.add(index, element);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends R> c) {
+        fillAll();
+        return super.addAll(c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends R> c) {
+        fill(index - 1);
+        return super.addAll(index, c);
+    }
+
+    @Override
+    public R remove(int index) {
+        fill(index);
+        return super.remove(index);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        fillAll();
+        return super.remove(o);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        fillAll();
+        return super.removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        fillAll();
+        return super.retainAll(c);
+    }
+
+    @Override
+    public void clear() {
+        pending = null;
+        super.clear();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        fillAll();
+        return super.contains(o);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        fillAll();
+        return super.indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        fillAll();
+        return super.lastIndexOf(o);
+    }
+
+    @Override
+    public Object[] toArray() {
+        fillAll();
+        return super.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        fillAll();
+        return super.toArray(a);
+    }
+
+    @Override
+    public List<R> subList(int fromIndex, int toIndex) {
+        fill(toIndex - 1);
+        return super.subList(fromIndex, toIndex);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        fillAll();
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        fillAll();
+        return super.hashCode();
+    }
+
+    @Override
+    public Object clone() {
+        fillAll();
+        return super.clone();
+    }
+
+    @Override
+    public Iterator<R> iterator() {
+        return new Itr(0);
+    }
+
+    @Override
+    public ListIterator<R> listIterator() {
+        return new Itr(0);
+    }
+
+    @Override
+    public ListIterator<R> listIterator(int index) {
+        fill(index - 1);
+        if (index < 0 || index > super.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return new Itr(index);
+    }
+
+    /**
+     * Iterator that only adds the pending builds to the list as it gets to
+     * them.
+     */
+    private final class Itr implements ListIterator<R> {
+
+        private int cursor;
+        private int lastRet = -1;
+
+        Itr(int cursor) {
+            this.cursor = cursor;
+        }
+
+        public boolean hasNext() {
+            fill(cursor);
+            return cursor < RunList.super.size();
+        }
+
+        public R next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastRet = cursor;
+            return RunList.super.get(cursor++);
+        }
+
+        public boolean hasPrevious() {
+            return cursor > 0;
+        }
+
+        public R previous() {
+            if (!hasPrevious()) {
+                throw new NoSuchElementException();
+            }
+            lastRet = --cursor;
+            return RunList.super.get(cursor);
+        }
+
+        public int nextIndex() {
+            return cursor;
+        }
+
+        public int previousIndex() {
+            return cursor - 1;
+        }
+
+        public void remove() {
+            if (lastRet < 0) {
+                throw new IllegalStateException();
+            }
+            RunList.super.remove(lastRet);
+            cursor = lastRet;
+            lastRet = -1;
+        }
+
+        public void set(R e) {
+            if (lastRet < 0) {
+                throw new IllegalStateException();
+            }
+            RunList.super.set(lastRet, e);
+        }
+
+        public void add(R e) {
+            RunList.super.add(cursor++, e);
+            lastRet = -1;
+        }
+    }
+
+    /**
+     * Merges the build records of several jobs, newest first. Each job's
+     * records are walked from its last build backwards.
+     */
+    private static final class MergedRecords implements Iterator<Record> {
+
+        private final PriorityQueue<Record> heads = new PriorityQueue<Record>(11, new Comparator<Record>() {
+            public int compare(Record lhs, Record rhs) {
+                long lt = lhs.getTimeInMillis();
+                long rt = rhs.getTimeInMillis();
+                if (lt > rt) {
+                    return -1;
+                }
+                if (lt < rt) {
+                    return 1;
+                }
+                return 0;
+            }
+        });
+
+        MergedRecords(Collection<? extends Job> jobs) {
+            for (Job j : jobs) {
+                Record last = j.getBuildHistoryData().getLast();
+                if (last != null) {
+                    heads.add(last);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        public Record next() {
+            Record r = heads.poll();
+            if (r == null) {
+                throw new NoSuchElementException();
+            }
+            Record previous = r.getPrevious();
+            if (previous != null) {
+                heads.add(previous);
+            }
+            return r;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 }
@@ -0,0 +1,330 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.util.io;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * File compressed in blocks of {@link #BLOCK_SIZE} bytes, each compressed on
+ * its own, so that it can be read from any offset by inflating a single block
+ * first.
+ *
+ * <p> The file starts with a header of {@link #MAGIC}, {@link #VERSION} and
+ * the block size, followed by the compressed blocks. Then comes the offset of
+ * each block in the file, and a trailer of the number of blocks, the
+ * uncompressed length, the offset of the block offsets and {@link #MAGIC}.
+ *
+ * <p> Files are written at once by {@link #compress(File, File)}, as a text
+ * that's still growing can't be compressed this way.
+ *
+ * @since 3.3.4
+ */
+public class BlockCompressedFile {
+
+    public static final int BLOCK_SIZE = 64 * 1024;
+    static final int MAGIC = 0x48424C4B;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 24;
+
+    private final File file;
+    private final int blockSize;
+    private final long length;
+    /**
+     * Offset of each block, plus the end of the last one.
+     */
+    private final long[] offsets;
+
+    /**
+     * Reads the header and the block offsets of the given file.
+     *
+     * @throws IOException if the file is not a complete block compressed file.
+     */
+    public BlockCompressedFile(File file) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long fileLength = raf.length();
+            if (fileLength < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("Truncated " + file);
+            }
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                throw new IOException("Not a block compressed file: " + file);
+            }
+            blockSize = raf.readInt();
+
+            raf.seek(fileLength - TRAILER_SIZE);
+            int count = raf.readInt();
+            length = raf.readLong();
+            long offsetsStart = raf.readLong();
+            if (raf.readInt() != MAGIC || count < 0 || blockSize <= 0
+                    || offsetsStart + 8L * count != fileLength - TRAILER_SIZE
+                    || length > (long) count * blockSize) {
+                throw new IOException("Corrupt " + file);
+            }
+            offsets = new long[count + 1];
+            raf.seek(offsetsStart);
+            for (int i = 0; i < count; i++) {
+                offsets[i] = raf.readLong();
+            }
+            offsets[count] = offsetsStart;
+        } finally {
+            raf.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Length of the uncompressed data.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Opens the uncompressed data, starting at the given offset.
+     */
+    public InputStream open(long offset) throws IOException {
+        if (offset < 0 || offset > length) {
+            throw new IOException("Offset " + offset + " is outside of " + file);
+        }
+        return new BlockInputStream(offset);
+    }
+
+    /**
+     * Compresses a file.
+     *
+     * @param src the file to compress.
+     * @param dst the compressed file, which is only created once complete.
+     */
+    public static void compress(File src, File dst) throws IOException {
+        File tmp = new File(dst.getPath() + ".tmp");
+        InputStream in = new FileInputStream(src);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        Deflater deflater = new Deflater();
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(BLOCK_SIZE);
+
+            byte[] block = new byte[BLOCK_SIZE];
+            byte[] buf = new byte[BLOCK_SIZE + BLOCK_SIZE / 8];
+            LongList offsets = new LongList();
+            long length = 0;
+            long pos = HEADER_SIZE;
+            while (true) {
+                int size = readBlock(in, block);
+                if (size == 0) {
+                    break;
+                }
+                offsets.add(pos);
+                length += size;
+
+                deflater.reset();
+                deflater.setInput(block, 0, size);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buf);
+                    out.write(buf, 0, n);
+                    pos += n;
+                }
+            }
+
+            for (int i = 0; i < offsets.size; i++) {
+                out.writeLong(offsets.values[i]);
+            }
+            out.writeInt(offsets.size);
+            out.writeLong(length);
+            out.writeLong(pos);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+            in.close();
+            out.close();
+        }
+        if (dst.exists() && !dst.delete()) {
+            throw new IOException("Failed to delete " + dst);
+        }
+        if (!tmp.renameTo(dst)) {
+            throw new IOException("Failed to rename " + tmp + " to " + dst);
+        }
+    }
+
+    /**
+     * Fills the buffer unless the end of the stream is reached.
+     */
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int size = 0;
+        while (size < block.length) {
+            int n = in.read(block, size, block.length - size);
+            if (n < 0) {
+                break;
+            }
+            size += n;
+        }
+        return size;
+    }
+
+    /**
+     * Reads the blocks one after the other.
+     */
+    private final class BlockInputStream extends InputStream {
+
+        private final RandomAccessFile raf;
+        private final Inflater inflater = new Inflater();
+        private final byte[] block = new byte[blockSize];
+        private byte[] compressed = new byte[0];
+        /**
+         * Next block to inflate.
+         */
+        private int next;
+        /**
+         * Uncompressed offset of the start of {@link #block}.
+         */
+        private long blockStart;
+        private int pos;
+        private int size;
+
+        BlockInputStream(long offset) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            seek(offset);
+        }
+
+        /**
+         * Moves to the given offset, inflating only the block that holds it.
+         */
+        private void seek(long offset) throws IOException {
+            size = pos = 0;
+            if (offset >= length) {
+                next = offsets.length - 1;
+                blockStart = length;
+                return;
+            }
+            next = (int) (offset / blockSize);
+            inflateNext();
+            pos = (int) (offset - blockStart);
+        }
+
+        private boolean inflateNext() throws IOException {
+            if (next >= offsets.length - 1) {
+                return false;
+            }
+            int compressedSize = (int) (offsets[next + 1] - offsets[next]);
+            if (compressed.length < compressedSize) {
+                compressed = new byte[compressedSize];
+            }
+            raf.seek(offsets[next]);
+            raf.readFully(compressed, 0, compressedSize);
+
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedSize);
+            try {
+                size = 0;
+                while (size < block.length && !inflater.finished()) {
+                    int n = inflater.inflate(block, size, block.length - size);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new EOFException("Truncated block " + next + " of " + file);
+                    }
+                    size += n;
+                }
+            } catch (DataFormatException e) {
+                throw (IOException) new IOException("Corrupt block " + next + " of " + file).initCause(e);
+            }
+            blockStart = (long) next * blockSize;
+            pos = 0;
+            next++;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == size && !inflateNext()) {
+                return -1;
+            }
+            return block[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos == size && !inflateNext()) {
+                return -1;
+            }
+            int n = Math.min(len, size - pos);
+            System.arraycopy(block, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            long current = blockStart + pos;
+            long target = Math.min(current + n, length);
+            if (target < blockStart + size) {
+                pos = (int) (target - blockStart);
+            } else {
+                seek(target);
+            }
+            return target - current;
+        }
+
+        @Override
+        public int available() {
+            return size - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            raf.close();
+        }
+    }
+
+    /**
+     * Growable list of longs, to avoid boxing one per block.
+     */
+    private static final class LongList {
+
+        long[] values = new long[64];
+        int size;
+
+        void add(long v) {
+            if (size == values.length) {
+                long[] a = new long[size * 2];
+                System.arraycopy(values, 0, a, 0, size);
+                values = a;
+            }
+            values[size++] = v;
+        }
+    }
+}
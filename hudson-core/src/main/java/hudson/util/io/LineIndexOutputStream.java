@@ -0,0 +1,103 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.util.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link OutputStream} filter that records where the lines of the text
+ * written through it start, so that {@link LogLines} can get to a line
+ * without reading everything before it.
+ *
+ * <p> The index file holds the offset of every {@link #INTERVAL}th line as
+ * big-endian longs, followed by a trailer with the number of newlines, the
+ * number of bytes and {@link #MAGIC}, which is written when the stream is
+ * closed. Writes to the text aren't buffered, and the entries of the index
+ * are flushed as they're added, so that the text can be followed and its
+ * lines counted while it's written.
+ *
+ * @since 3.3.4
+ */
+public class LineIndexOutputStream extends FilterOutputStream {
+
+    /**
+     * Number of lines between two entries of the index.
+     */
+    public static final int INTERVAL = 1024;
+    static final long MAGIC = 0x4C494458L;
+    static final int TRAILER_SIZE = 24;
+
+    private final DataOutputStream index;
+    private long bytes;
+    private long newlines;
+
+    public LineIndexOutputStream(OutputStream out, File indexFile) throws IOException {
+        super(out);
+        this.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+    }
+
+    /**
+     * Gets the index file of the given text file.
+     */
+    public static File getIndexFile(File text) {
+        return new File(text.getPath() + ".idx");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        bytes++;
+        if (b == '\n') {
+            onNewline(bytes);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        for (int i = 0; i < len; i++) {
+            if (b[off + i] == '\n') {
+                onNewline(bytes + i + 1);
+            }
+        }
+        bytes += len;
+    }
+
+    private void onNewline(long nextLineStart) throws IOException {
+        newlines++;
+        if (newlines % INTERVAL == 0) {
+            index.writeLong(nextLineStart);
+            index.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            index.writeLong(newlines);
+            index.writeLong(bytes);
+            index.writeLong(MAGIC);
+            index.close();
+        } finally {
+            out.close();
+        }
+    }
+}
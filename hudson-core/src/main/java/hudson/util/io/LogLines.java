@@ -0,0 +1,375 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.util.io;
+
+import hudson.console.ConsoleNote;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads lines of a console log without going through the whole file.
+ *
+ * <p> The last lines are found by scanning the file backward from the end,
+ * and other lines with the index written by {@link LineIndexOutputStream}.
+ * Only the lines that are returned are decoded, and {@link ConsoleNote}s are
+ * removed from them. Logs compressed with {@link BlockCompressedFile} can't
+ * be scanned backward, so they rely on the index.
+ *
+ * <p> Lines are terminated by LF, or CR LF. Charsets in which LF isn't the
+ * single byte 0x0A can't be scanned, so they are read from the beginning.
+ *
+ * @since 3.3.4
+ */
+public class LogLines {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File file;
+    private final BlockCompressedFile compressed;
+    private final File indexFile;
+    private final Charset charset;
+    private final boolean scannable;
+
+    /**
+     * @param file the log.
+     * @param indexFile the index of the log, which doesn't need to exist.
+     */
+    public LogLines(File file, File indexFile, Charset charset) {
+        this(file, null, indexFile, charset);
+    }
+
+    /**
+     * @param compressed the compressed log.
+     * @param indexFile the index of the uncompressed log, which doesn't need to exist.
+     */
+    public LogLines(BlockCompressedFile compressed, File indexFile, Charset charset) {
+        this(null, compressed, indexFile, charset);
+    }
+
+    private LogLines(File file, BlockCompressedFile compressed, File indexFile, Charset charset) {
+        this.file = file;
+        this.compressed = compressed;
+        this.indexFile = indexFile;
+        this.charset = charset;
+        this.scannable = Arrays.equals("\n".getBytes(charset), new byte[]{'\n'});
+    }
+
+    /**
+     * Counts the lines of the log, which takes a single read of the index
+     * when it's complete, and a read of the lines written since the last
+     * entry of the index while the log is being written.
+     */
+    public long count() throws IOException {
+        if (!scannable) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(open(0), charset));
+            try {
+                long r = 0;
+                while (reader.readLine() != null) {
+                    r++;
+                }
+                return r;
+            } finally {
+                reader.close();
+            }
+        }
+        long length = length();
+        long[] trailer = readTrailer(length);
+        long newlines;
+        if (trailer != null) {
+            newlines = trailer[0];
+        } else {
+            // the log is still being written, so only the lines after the
+            // last entry of the index need to be counted
+            long entries = countIndexEntries(length);
+            long offset = entries > 0 ? readIndexEntry(entries - 1) : 0;
+            InputStream in = open(offset);
+            try {
+                newlines = entries * LineIndexOutputStream.INTERVAL + countNewlines(in, Long.MAX_VALUE);
+            } finally {
+                in.close();
+            }
+        }
+        return newlines + (endsWithPartialLine(length) ? 1 : 0);
+    }
+
+    /**
+     * Reads the last lines of the log.
+     *
+     * @return at most {@code n} lines.
+     */
+    public List<String> tail(int n) throws IOException {
+        if (n <= 0) {
+            return new ArrayList<String>();
+        }
+        if (!scannable) {
+            return decode(open(0), 0, n, true);
+        }
+        if (compressed != null) {
+            long length = length();
+            if (readTrailer(length) == null) {
+                return decode(open(0), 0, n, true);
+            }
+            long from = Math.max(0, count() - n);
+            return decode(open(offsetOf(from, length)), 0, n, true);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            // a newline at the very end terminates the last line, it doesn't start another
+            long end = endsWithPartialLine(length) || length == 0 ? length : length - 1;
+            long start = 0;
+            int found = 0;
+            byte[] buf = new byte[BUFFER_SIZE];
+            scan:
+            for (long p = end; p > 0;) {
+                int len = (int) Math.min(buf.length, p);
+                p -= len;
+                raf.seek(p);
+                raf.readFully(buf, 0, len);
+                for (int i = len - 1; i >= 0; i--) {
+                    if (buf[i] == '\n' && ++found == n) {
+                        start = p + i + 1;
+                        break scan;
+                    }
+                }
+            }
+            raf.seek(start);
+            // closes raf as well
+            return decode(Channels.newInputStream(raf.getChannel()), 0, n, true);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads lines from the middle of the log.
+     *
+     * @param from index of the first line to read, starting from 0.
+     * @return at most {@code n} lines.
+     */
+    public List<String> read(long from, int n) throws IOException {
+        if (n <= 0 || from < 0) {
+            return new ArrayList<String>();
+        }
+        if (!scannable) {
+            return decode(open(0), from, n, false);
+        }
+        long offset = offsetOf(from, length());
+        if (offset < 0) {
+            return new ArrayList<String>();
+        }
+        return decode(open(offset), 0, n, false);
+    }
+
+    /**
+     * Finds where the given line starts, with the index if possible.
+     *
+     * @return -1 if the log doesn't have that many lines.
+     */
+    private long offsetOf(long line, long length) throws IOException {
+        long offset = 0;
+        long skip = line;
+        long entry = line / LineIndexOutputStream.INTERVAL - 1;
+        if (entry >= 0) {
+            if (entry < countIndexEntries(length)) {
+                offset = readIndexEntry(entry);
+                skip = line - (entry + 1) * LineIndexOutputStream.INTERVAL;
+            }
+        }
+        if (skip == 0) {
+            return offset;
+        }
+        InputStream in = open(offset);
+        try {
+            long bytes = skipNewlines(in, skip);
+            return bytes != Long.MAX_VALUE && offset + bytes < length ? offset + bytes : -1;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes lines from the given stream, and closes it.
+     *
+     * @param skip number of lines to skip first.
+     * @param last keep the last {@code n} lines rather than the first ones.
+     */
+    private List<String> decode(InputStream in, long skip, int n, boolean last) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset));
+        try {
+            LinkedList<String> lines = new LinkedList<String>();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                if (lines.size() == n) {
+                    if (!last) {
+                        break;
+                    }
+                    lines.removeFirst();
+                }
+                lines.add(ConsoleNote.removeNotes(line));
+            }
+            return new ArrayList<String>(lines);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private long length() {
+        return compressed != null ? compressed.length() : file.length();
+    }
+
+    private InputStream open(long offset) throws IOException {
+        if (compressed != null) {
+            return compressed.open(offset);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        raf.seek(offset);
+        return new BufferedInputStream(Channels.newInputStream(raf.getChannel()), BUFFER_SIZE);
+    }
+
+    /**
+     * Counts the newlines in the stream, up to the given number.
+     *
+     * @return number of bytes read to find the last newline, if {@code max}
+     * of them are found, or else the number of newlines.
+     */
+    private long scan(InputStream in, long max, boolean returnBytes) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long found = 0;
+        long pos = 0;
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            for (int i = 0; i < len; i++) {
+                if (buf[i] == '\n' && ++found == max) {
+                    return returnBytes ? pos + i + 1 : found;
+                }
+            }
+            pos += len;
+        }
+        return returnBytes ? Long.MAX_VALUE : found;
+    }
+
+    private long countNewlines(InputStream in, long max) throws IOException {
+        return scan(in, max, false);
+    }
+
+    /**
+     * @return number of bytes up to and including the {@code count}th
+     * newline, or {@link Long#MAX_VALUE} if there aren't that many.
+     */
+    private long skipNewlines(InputStream in, long count) throws IOException {
+        return scan(in, count, true);
+    }
+
+    private boolean endsWithPartialLine(long length) throws IOException {
+        if (length == 0) {
+            return false;
+        }
+        InputStream in = open(length - 1);
+        try {
+            return in.read() != '\n';
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the number of newlines and bytes recorded when the index was
+     * completed.
+     *
+     * @return null if there's no complete index of a log of this length.
+     */
+    private long[] readTrailer(long logLength) throws IOException {
+        if (indexFile == null || !indexFile.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            long length = raf.length();
+            if (length < LineIndexOutputStream.TRAILER_SIZE || length % 8 != 0) {
+                return null;
+            }
+            raf.seek(length - LineIndexOutputStream.TRAILER_SIZE);
+            long newlines = raf.readLong();
+            long bytes = raf.readLong();
+            if (raf.readLong() != LineIndexOutputStream.MAGIC || bytes != logLength) {
+                return null;
+            }
+            if ((length - LineIndexOutputStream.TRAILER_SIZE) / 8 != newlines / LineIndexOutputStream.INTERVAL) {
+                return null;
+            }
+            return new long[]{newlines, bytes};
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Gets the number of entries of the index that can be used for a log of
+     * the given length, including the ones of an index that's still being
+     * written.
+     */
+    private long countIndexEntries(long logLength) throws IOException {
+        long[] trailer = readTrailer(logLength);
+        if (trailer != null) {
+            return trailer[0] / LineIndexOutputStream.INTERVAL;
+        }
+        if (indexFile == null || !indexFile.exists()) {
+            return 0;
+        }
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            // a partially written entry at the end is left out
+            long entries = raf.length() / 8;
+            if (entries == 0) {
+                return 0;
+            }
+            raf.seek((entries - 1) * 8);
+            long last = raf.readLong();
+            if (last == LineIndexOutputStream.MAGIC || last <= 0 || last > logLength) {
+                // the index of another log
+                return 0;
+            }
+            return entries;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private long readIndexEntry(long entry) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            raf.seek(entry * 8);
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+}
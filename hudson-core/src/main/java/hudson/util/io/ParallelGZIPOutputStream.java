@@ -0,0 +1,201 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.util.io;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.IOException2;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes data in the gzip format, compressing blocks of it on several
+ * threads.
+ *
+ * <p> Each block is deflated on its own, with the end of the previous block
+ * as the dictionary, and ends on a byte boundary. The compressed blocks are
+ * written in order and make up one deflate stream, so the output is a plain
+ * gzip file that {@link java.util.zip.GZIPInputStream} reads, only slightly
+ * bigger than what {@link java.util.zip.GZIPOutputStream} writes.
+ *
+ * @since 3.3.4
+ */
+public class ParallelGZIPOutputStream extends FilterOutputStream {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {
+        (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private final int threads;
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private final CRC32 crc = new CRC32();
+    private long size;
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int count;
+    private byte[] dictionary;
+    private boolean closed;
+
+    public ParallelGZIPOutputStream(OutputStream out) throws IOException {
+        this(out, THREADS);
+    }
+
+    /**
+     * @param threads number of blocks compressed at the same time.
+     */
+    public ParallelGZIPOutputStream(OutputStream out, int threads) throws IOException {
+        super(out);
+        this.threads = Math.max(1, threads);
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        size += len;
+        while (len > 0) {
+            int n = Math.min(len, BLOCK_SIZE - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == BLOCK_SIZE) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks compressed so far. The data of the block being filled
+     * stays where it is, as it is compressed when the block is full.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writeInt((int) crc.getValue());
+            writeInt((int) size);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submit(final boolean last) throws IOException {
+        final byte[] data = block;
+        final int length = count;
+        final byte[] dict = dictionary;
+        if (length >= DICTIONARY_SIZE) {
+            dictionary = new byte[DICTIONARY_SIZE];
+            System.arraycopy(data, length - DICTIONARY_SIZE, dictionary, 0, DICTIONARY_SIZE);
+        }
+        block = new byte[BLOCK_SIZE];
+        count = 0;
+
+        pending.add(EXECUTOR.submit(new Callable<byte[]>() {
+            public byte[] call() {
+                return deflate(data, length, dict, last);
+            }
+        }));
+        while (pending.size() > threads) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        try {
+            out.write(pending.removeFirst().get());
+        } catch (InterruptedException e) {
+            throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+        } catch (ExecutionException e) {
+            throw new IOException2("Failed to compress", e.getCause());
+        }
+    }
+
+    private void writeInt(int i) throws IOException {
+        out.write(i & 0xff);
+        out.write((i >> 8) & 0xff);
+        out.write((i >> 16) & 0xff);
+        out.write((i >> 24) & 0xff);
+    }
+
+    static byte[] deflate(byte[] data, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data, 0, length);
+            ByteArrayOutputStream r = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buf = new byte[BLOCK_SIZE];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    r.write(buf, 0, deflater.deflate(buf));
+                }
+            } else {
+                // sync flush ends the block on a byte boundary without ending the stream
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    r.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+            return r.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Default number of blocks compressed at the same time.
+     */
+    public static int THREADS = Integer.getInteger(ParallelGZIPOutputStream.class.getName() + ".threads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new ExceptionCatchingThreadFactory(new DaemonThreadFactory()));
+}
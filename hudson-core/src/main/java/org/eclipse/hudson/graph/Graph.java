@@ -18,15 +18,19 @@ import hudson.model.Descriptor.FormException;
 import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.HeadlessException;
+import org.eclipse.hudson.graph.GraphCache.Rendering;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
 import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Calendar;
 import java.awt.image.BufferedImage;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * A Graph interface for graphing support. Actual graph generation is delegated
@@ -37,6 +41,11 @@ import java.util.List;
  *
  * <dt>/map <dd>Clickable map </dl>
  *
+ * <p> Graphs with a timestamp are rendered once for each timestamp and size,
+ * and kept in a cache shared by all graphs. The image and the map are made
+ * together, as a page that shows the image asks for the map right after.
+ * Graphs without a timestamp are rendered on every request.
+ *
  * @since 2.3.0
  */
 public class Graph {
@@ -47,7 +56,9 @@ public class Graph {
     private final long timestamp;
     private int width;
     private int height;
+    private int chartType;
     private volatile GraphSupport graphSupport;
+    private DataSet data;
 
     /**
      * @param timestamp Timestamp of this graph. Used for HTTP cache related
@@ -79,6 +90,7 @@ public class Graph {
     }
 
     public void setChartType(int chartType) {
+        this.chartType = chartType;
         if (graphSupport != null) {
             graphSupport.setChartType(chartType);
         }
@@ -91,6 +103,7 @@ public class Graph {
     }
 
     public void setData(DataSet data) {
+        this.data = data;
         if (graphSupport != null) {
             graphSupport.setData(data);
         }
@@ -128,23 +141,23 @@ public class Graph {
      * Renders the graph.
      */
     public void doPng(StaplerRequest req, StaplerResponse rsp) throws IOException {
-        if (req.checkIfModified(timestamp, rsp)) {
+        readSize(req);
+        if (isNotModified(req, rsp)) {
             return;
         }
 
         try {
-            String w = req.getParameter("width");
-            if (w != null) {
-                width = Integer.parseInt(w);
-            }
-            String h = req.getParameter("height");
-            if (h != null) {
-                height = Integer.parseInt(h);
+            byte[] png;
+            Rendering r = getRendering(req);
+            if (r != null) {
+                png = r.png;
+            } else {
+                png = toPng(createImage(width, height));
             }
             rsp.setContentType("image/png");
+            rsp.setContentLength(png.length);
             ServletOutputStream os = rsp.getOutputStream();
-            BufferedImage image = createImage(width, height);
-            ImageIO.write(image, "PNG", os);
+            os.write(png);
             os.close();
         } catch (Error e) {
             /* OpenJDK on ARM produces an error like this in case of headless error
@@ -181,24 +194,122 @@ public class Graph {
      */
     public void doMap(StaplerRequest req, StaplerResponse rsp) throws IOException {
         if (graphSupport != null) {
-            if (req.checkIfModified(timestamp, rsp)) {
+            readSize(req);
+            if (isNotModified(req, rsp)) {
                 return;
             }
 
-            String w = req.getParameter("width");
-            if (w != null) {
-                width = Integer.parseInt(w);
-            }
-            String h = req.getParameter("height");
-            if (h != null) {
-                height = Integer.parseInt(h);
+            String mapHtml;
+            Rendering r = getRendering(req);
+            if (r != null && equal(r.rel, req.getParameter("rel"))) {
+                mapHtml = r.map;
+            } else {
+                mapHtml = createImageMap("map", width, height);
             }
             rsp.setContentType("text/plain;charset=UTF-8");
-            String mapHtml = createImageMap("map", width, height);
             rsp.getWriter().println(mapHtml);
         }
     }
 
+    private void readSize(StaplerRequest req) {
+        String w = req.getParameter("width");
+        if (w != null) {
+            width = Integer.parseInt(w);
+        }
+        String h = req.getParameter("height");
+        if (h != null) {
+            height = Integer.parseInt(h);
+        }
+    }
+
+    /**
+     * Checks the request's <tt>If-None-Match</tt> and
+     * <tt>If-Modified-Since</tt> headers against the timestamp of the graph.
+     */
+    private boolean isNotModified(StaplerRequest req, StaplerResponse rsp) {
+        if (timestamp >= 0) {
+            String etag = "\"" + Long.toHexString(timestamp) + '-' + width + 'x' + height + '-' + chartType + "\"";
+            rsp.setHeader("ETag", etag);
+            if (etag.equals(req.getHeader("If-None-Match"))) {
+                rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+        return req.checkIfModified(timestamp, rsp);
+    }
+
+    /**
+     * Gets the image and the map of this graph from the cache, rendering them
+     * if they aren't there.
+     *
+     * @return null if the graph can't be cached.
+     */
+    private Rendering getRendering(final StaplerRequest req) throws IOException {
+        if (timestamp < 0 || graphSupport == null || CACHE_SIZE <= 0) {
+            return null;
+        }
+        return CACHE.get(getCacheKey(req), new Callable<Rendering>() {
+            public Rendering call() throws IOException {
+                byte[] png = toPng(createImage(width, height));
+                return new Rendering(png, createImageMap("map", width, height), req.getParameter("rel"));
+            }
+        });
+    }
+
+    /**
+     * Identifies the graph by the URL it's served from, without the last
+     * path segment which tells the image from the map. The query parameters
+     * that select the data are kept, the size is added separately and
+     * <tt>rel</tt> only changes the links of the map.
+     */
+    private String getCacheKey(StaplerRequest req) {
+        String uri = req.getRequestURI();
+        StringBuilder key = new StringBuilder(uri.substring(0, uri.lastIndexOf('/') + 1));
+        String query = req.getQueryString();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (!param.startsWith("width=") && !param.startsWith("height=") && !param.startsWith("rel=")) {
+                    key.append('&').append(param);
+                }
+            }
+        }
+        key.append('\n').append(timestamp).append('\n').append(width).append('x').append(height)
+                .append('\n').append(chartType).append('\n').append(describe(data));
+        return key.toString();
+    }
+
+    /**
+     * Sums up the data of a graph for its cache key. The timestamp of a graph
+     * is the one of its latest build, which stays the same when older builds
+     * are deleted, so the number of points and the series, whose x values
+     * are the build numbers, are part of the key as well.
+     */
+    static String describe(DataSet data) {
+        if (data == null) {
+            return "";
+        }
+        StringBuilder s = new StringBuilder().append(data.getColumns().size());
+        s.append(',').append(Integer.toHexString(data.getValues().hashCode()));
+        GraphSeries x = data.getXSeries();
+        if (x != null) {
+            s.append(',').append(Integer.toHexString(x.getData().hashCode()));
+        }
+        for (Object y : data.getYSeries()) {
+            s.append(',').append(Integer.toHexString(((GraphSeries) y).getData().hashCode()));
+        }
+        return s.toString();
+    }
+
+    private static byte[] toPng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", out);
+        return out.toByteArray();
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     private BufferedImage createErrorImage(int width, int height) {
         BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
         Graphics2D graphics = img.createGraphics();
@@ -208,4 +319,11 @@ public class Graph {
         graphics.drawString("Graph Support missing. \n Install Graph Support Plugin", 10, height / 2);
         return img;
     }
+
+    /**
+     * Bytes of rendered graphs to keep. Set it to 0 to render graphs on
+     * every request.
+     */
+    public static final int CACHE_SIZE = Integer.getInteger(Graph.class.getName() + ".cacheSize", 8 * 1024 * 1024);
+    private static final GraphCache CACHE = new GraphCache(CACHE_SIZE);
 }
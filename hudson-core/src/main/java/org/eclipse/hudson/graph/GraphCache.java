@@ -0,0 +1,139 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package org.eclipse.hudson.graph;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Rendered graphs, so that a graph whose data hasn't changed is only drawn
+ * once. The least recently used graphs are dropped when the rendered images
+ * take more than the given number of bytes.
+ *
+ * <p> When several requests ask for a graph that isn't in the cache, only the
+ * first one renders it and the others wait for it.
+ *
+ * @since 3.3.4
+ */
+final class GraphCache {
+
+    private final long capacity;
+    private long size;
+    private final LinkedHashMap<String, Rendering> entries = new LinkedHashMap<String, Rendering>(16, 0.75f, true);
+    private final Map<String, FutureTask<Rendering>> pending = new HashMap<String, FutureTask<Rendering>>();
+
+    GraphCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets a rendered graph, rendering it if it isn't in the cache.
+     */
+    Rendering get(String key, Callable<Rendering> renderer) throws IOException {
+        FutureTask<Rendering> task;
+        boolean render = false;
+        synchronized (this) {
+            Rendering r = entries.get(key);
+            if (r != null) {
+                return r;
+            }
+            task = pending.get(key);
+            if (task == null) {
+                task = new FutureTask<Rendering>(renderer);
+                pending.put(key, task);
+                render = true;
+            }
+        }
+
+        if (render) {
+            task.run();
+        }
+        try {
+            Rendering r = task.get();
+            if (render) {
+                synchronized (this) {
+                    pending.remove(key);
+                    put(key, r);
+                }
+            }
+            return r;
+        } catch (InterruptedException e) {
+            throw (IOException) new InterruptedIOException().initCause(e);
+        } catch (ExecutionException e) {
+            if (render) {
+                synchronized (this) {
+                    pending.remove(key);
+                }
+            }
+            Throwable t = e.getCause();
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new IOException(t);
+        }
+    }
+
+    private void put(String key, Rendering r) {
+        if (r.size() > capacity) {
+            return;
+        }
+        Rendering old = entries.put(key, r);
+        if (old != null) {
+            size -= old.size();
+        }
+        size += r.size();
+        for (Iterator<Rendering> it = entries.values().iterator(); size > capacity && it.hasNext();) {
+            size -= it.next().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * A graph rendered as a PNG image, with its clickable map.
+     */
+    static final class Rendering {
+
+        final byte[] png;
+        final String map;
+        /**
+         * The <tt>rel</tt> query parameter the map was made for, as the links
+         * in it depend on it.
+         */
+        final String rel;
+
+        Rendering(byte[] png, String map, String rel) {
+            this.png = png;
+            this.map = map;
+            this.rel = rel;
+        }
+
+        long size() {
+            return png.length + (map == null ? 0 : 2L * map.length());
+        }
+    }
+}
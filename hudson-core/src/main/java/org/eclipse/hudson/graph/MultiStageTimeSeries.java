@@ -74,6 +74,10 @@ public class MultiStageTimeSeries {
     @Exported
     public final TimeSeries hour;
     private int counter;
+    /**
+     * When the last data point was added.
+     */
+    private volatile long lastUpdated = System.currentTimeMillis();
 
     public MultiStageTimeSeries(Localizable title, Color color, float initialValue, float decay) {
         this.title = title;
@@ -103,6 +107,7 @@ public class MultiStageTimeSeries {
         if (counter == 0) {
             hour.update(f);
         }
+        lastUpdated = System.currentTimeMillis();
     }
 
     /**
@@ -249,7 +254,11 @@ public class MultiStageTimeSeries {
         }
 
         public Graph createGraph() {
-            Graph graph = new Graph(-1, 500, 400);
+            long timestamp = 0;
+            for (MultiStageTimeSeries s : series) {
+                timestamp = Math.max(timestamp, s.lastUpdated);
+            }
+            Graph graph = new Graph(timestamp, 500, 400);
             graph.setYAxisLabel("");
             graph.setData(createDataset());
             graph.setChartType(Graph.TYPE_LINE);
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson;
+
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.remoting.Callable;
+import hudson.remoting.Channel;
+import hudson.remoting.Engine;
+import hudson.slaves.SlaveComputer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.easymock.PowerMock.createMock;
+import static org.powermock.api.easymock.PowerMock.mockStatic;
+import static org.powermock.api.easymock.PowerMock.replayAll;
+
+/**
+ * Connects a slave to {@link TcpSlaveAgentListener} with the JNLP protocol,
+ * and talks to it over the remoting channel.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Hudson.class, SlaveComputer.class})
+public class TcpSlaveAgentJnlpTest {
+
+    private TcpSlaveAgentListener listener;
+    private Socket socket;
+
+    @After
+    public void tearDown() throws Exception {
+        if (socket != null) {
+            socket.close();
+        }
+        if (listener != null) {
+            listener.shutdown();
+            listener.join(10 * 1000);
+        }
+    }
+
+    @Test
+    public void testJnlpConnect() throws Exception {
+        final BlockingQueue<Channel> channels = new LinkedBlockingQueue<Channel>();
+        SlaveComputer computer = createMock(SlaveComputer.class);
+        expect(computer.getChannel()).andReturn(null).anyTimes();
+        expect(computer.getName()).andReturn("slave").anyTimes();
+        expect(computer.openLogFile()).andReturn(new ByteArrayOutputStream());
+        computer.setChannel(isA(InputStream.class), isA(OutputStream.class), isA(OutputStream.class),
+                isA(Channel.Listener.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() throws Throwable {
+                Object[] args = getCurrentArguments();
+                channels.add(new Channel("slave", Computer.threadPoolForRemoting, Channel.Mode.NEGOTIATE,
+                        (InputStream) args[0], (OutputStream) args[1], (OutputStream) args[2]));
+                return null;
+            }
+        });
+        Hudson hudson = createMock(Hudson.class);
+        expect(hudson.getComputer("slave", true)).andReturn(computer);
+        mockStatic(Hudson.class);
+        expect(Hudson.getInstance()).andReturn(hudson).anyTimes();
+        replayAll();
+
+        listener = new TcpSlaveAgentListener(0, "secret");
+        socket = new Socket("localhost", listener.getPort());
+        socket.setSoTimeout(60 * 1000);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF("Protocol:JNLP-connect");
+        out.writeUTF("secret");
+        out.writeUTF("slave");
+        out.flush();
+        assertEquals(Engine.GREETING_SUCCESS, readLine(socket.getInputStream()));
+
+        Channel slave = new Channel("master", Computer.threadPoolForRemoting,
+                new BufferedInputStream(socket.getInputStream()), new BufferedOutputStream(socket.getOutputStream()));
+        Channel master = channels.poll(60, TimeUnit.SECONDS);
+        assertNotNull(master);
+        assertEquals("pong", master.call(new Ping()));
+        assertEquals("pong", slave.call(new Ping()));
+
+        // the master writes the request while interrupted
+        Thread.currentThread().interrupt();
+        try {
+            master.call(new Ping());
+        } catch (InterruptedException e) {
+            // expected, as the call waits for the response
+        }
+        Thread.interrupted();
+        assertEquals("pong", master.call(new Ping()));
+        assertEquals("pong", slave.call(new Ping()));
+        assertTrue(socket.isConnected());
+
+        slave.close();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            line.write(c);
+        }
+        return line.toString("UTF-8");
+    }
+
+    private static final class Ping implements Callable<String, IOException> {
+
+        public String call() {
+            return "pong";
+        }
+    }
+}
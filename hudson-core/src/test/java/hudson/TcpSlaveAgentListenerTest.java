@@ -0,0 +1,123 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class TcpSlaveAgentListenerTest extends TestCase {
+
+    private TcpSlaveAgentListener listener;
+    private int maxConnectsPerSecond;
+    private long handshakeTimeout;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        maxConnectsPerSecond = TcpSlaveAgentListener.MAX_CONNECTS_PER_SECOND;
+        handshakeTimeout = TcpSlaveAgentListener.HANDSHAKE_TIMEOUT;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (listener != null) {
+            listener.shutdown();
+            listener.join(10 * 1000);
+        }
+        TcpSlaveAgentListener.MAX_CONNECTS_PER_SECOND = maxConnectsPerSecond;
+        TcpSlaveAgentListener.HANDSHAKE_TIMEOUT = handshakeTimeout;
+        super.tearDown();
+    }
+
+    /**
+     * Connects 1000 agents at once, half of them with the wrong secret key
+     * and half of them with a protocol the listener doesn't know, which
+     * their handlers turn away.
+     */
+    public void testManyConnects() throws Exception {
+        TcpSlaveAgentListener.MAX_CONNECTS_PER_SECOND = 0;
+        listener = new TcpSlaveAgentListener(0, "secret");
+
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                Socket s = new Socket("localhost", listener.getPort());
+                s.setSoTimeout(60 * 1000);
+                sockets.add(s);
+            }
+            for (int i = 0; i < sockets.size(); i++) {
+                DataOutputStream out = new DataOutputStream(sockets.get(i).getOutputStream());
+                if (i % 2 == 0) {
+                    out.writeUTF("Protocol:JNLP-connect");
+                    out.writeUTF("wrong");
+                    out.writeUTF("slave" + i);
+                } else {
+                    out.writeUTF("Protocol:Test");
+                }
+                out.flush();
+            }
+            for (int i = 0; i < sockets.size(); i++) {
+                String reply = readLine(sockets.get(i));
+                assertEquals(i % 2 == 0 ? "Unauthorized access" : "Unknown protocol:Protocol:Test", reply);
+            }
+        } finally {
+            for (Socket s : sockets) {
+                s.close();
+            }
+        }
+    }
+
+    public void testHandshakeInPieces() throws Exception {
+        listener = new TcpSlaveAgentListener(0, "secret");
+        Socket s = new Socket("localhost", listener.getPort());
+        try {
+            s.setSoTimeout(60 * 1000);
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            out.writeUTF("Protocol:JNLP-connect");
+            out.flush();
+            Thread.sleep(200);
+            out.writeUTF("wrong");
+            out.flush();
+            Thread.sleep(200);
+            out.writeUTF("slave");
+            out.flush();
+            assertEquals("Unauthorized access", readLine(s));
+        } finally {
+            s.close();
+        }
+    }
+
+    public void testHandshakeTimeout() throws Exception {
+        TcpSlaveAgentListener.HANDSHAKE_TIMEOUT = 500;
+        listener = new TcpSlaveAgentListener(0, "secret");
+        Socket s = new Socket("localhost", listener.getPort());
+        try {
+            s.setSoTimeout(60 * 1000);
+            assertEquals(-1, s.getInputStream().read());
+        } finally {
+            s.close();
+        }
+    }
+
+    private static String readLine(Socket s) throws IOException {
+        return new BufferedReader(new InputStreamReader(s.getInputStream(), "UTF-8")).readLine();
+    }
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.console;
+
+import hudson.MarkupText;
+import hudson.Util;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import javax.servlet.http.HttpServletResponse;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+public class AnnotatedLargeTextTest extends TestCase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("log", "");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteFile(file);
+        super.tearDown();
+    }
+
+    public void testWriteLogTo() throws Exception {
+        write("first\nsecond\n");
+        AnnotatedLargeText<Void> text = new AnnotatedLargeText<Void>(file, UTF8, true, null);
+
+        assertEquals(13, text.writeLogTo(0, out));
+        assertEquals("first\nsecond\n", out());
+        assertEquals(13, text.writeLogTo(6, out));
+        assertEquals("second\n", out());
+        assertEquals(13, text.writeLogTo(13, out));
+        assertEquals("", out());
+    }
+
+    public void testWriteLogToFile() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            lines.append("line ").append(i).append('\n');
+        }
+        write(lines.toString());
+        AnnotatedLargeText<Void> text = new AnnotatedLargeText<Void>(file, UTF8, true, null);
+
+        File copy = File.createTempFile("copy", "");
+        try {
+            FileOutputStream fos = new FileOutputStream(copy);
+            try {
+                assertEquals(file.length(), text.writeLogTo(0, fos));
+            } finally {
+                fos.close();
+            }
+            assertEquals(lines.toString(), FileUtils.readFileToString(copy, "UTF-8"));
+        } finally {
+            Util.deleteFile(copy);
+        }
+    }
+
+    public void testWriteLogToRemovesNotes() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            lines.append("line ").append(i).append('\n');
+        }
+        String plain = lines.toString();
+        write(plain + "a" + new Note().encode() + "b\nc\n");
+        AnnotatedLargeText<Void> text = new AnnotatedLargeText<Void>(file, UTF8, true, null);
+
+        assertEquals(file.length(), text.writeLogTo(0, out));
+        assertEquals(plain + "ab\nc\n", out());
+        assertEquals(file.length(), text.writeLogTo(plain.length(), out));
+        assertEquals("ab\nc\n", out());
+    }
+
+    public void testWriteIncompleteLogTo() throws Exception {
+        write("first\nsec");
+        AnnotatedLargeText<Void> text = new AnnotatedLargeText<Void>(file, UTF8, false, null);
+
+        assertEquals(6, text.writeLogTo(0, out));
+        assertEquals("first\n", out());
+        assertEquals(6, text.writeLogTo(6, out));
+        assertEquals("", out());
+    }
+
+    public void testProgressText() throws Exception {
+        write("first\nsecond\n");
+        AnnotatedLargeText<Void> text = new AnnotatedLargeText<Void>(file, UTF8, true, null);
+
+        StringWriter w = new StringWriter();
+        StaplerResponse rsp = createMock(StaplerResponse.class);
+        rsp.setContentType("text/plain;charset=UTF-8");
+        rsp.setStatus(HttpServletResponse.SC_OK);
+        rsp.addHeader("X-Text-Size", "13");
+        expect(rsp.getWriter()).andReturn(new PrintWriter(w));
+        replay(rsp);
+
+        text.doProgressText(request("6"), rsp);
+        verify(rsp);
+        assertEquals("second\r\n", w.toString());
+    }
+
+    public void testProgressIncompleteText() throws Exception {
+        write("first\nsec");
+        AnnotatedLargeText<Void> text = new AnnotatedLargeText<Void>(file, UTF8, false, null);
+
+        StringWriter w = new StringWriter();
+        StaplerResponse rsp = createMock(StaplerResponse.class);
+        rsp.setContentType("text/plain;charset=UTF-8");
+        rsp.setStatus(HttpServletResponse.SC_OK);
+        rsp.addHeader("X-Text-Size", "6");
+        rsp.addHeader("X-More-Data", "true");
+        expect(rsp.getWriter()).andReturn(new PrintWriter(w));
+        replay(rsp);
+
+        text.doProgressText(request(null), rsp);
+        verify(rsp);
+        assertEquals("first\r\n", w.toString());
+    }
+
+    public void testProgressMissingFile() throws Exception {
+        Util.deleteFile(file);
+        AnnotatedLargeText<Void> text = new AnnotatedLargeText<Void>(file, UTF8, false, null);
+
+        StaplerResponse rsp = createMock(StaplerResponse.class);
+        rsp.setContentType("text/plain;charset=UTF-8");
+        rsp.setStatus(HttpServletResponse.SC_OK);
+        rsp.addHeader("X-Text-Size", "0");
+        rsp.addHeader("X-More-Data", "true");
+        replay(rsp);
+
+        text.doProgressText(request("0"), rsp);
+        verify(rsp);
+    }
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private String out() throws Exception {
+        String s = out.toString("UTF-8");
+        out.reset();
+        return s;
+    }
+
+    private static final class Note extends ConsoleNote<Object> {
+
+        @Override
+        public ConsoleAnnotator annotate(Object context, MarkupText text, int charPos) {
+            return null;
+        }
+    }
+
+    private void write(String s) throws Exception {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(s.getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static StaplerRequest request(String start) {
+        StaplerRequest req = createNiceMock(StaplerRequest.class);
+        expect(req.getParameter("start")).andReturn(start).anyTimes();
+        replay(req);
+        return req;
+    }
+}
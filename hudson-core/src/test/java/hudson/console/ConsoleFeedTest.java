@@ -0,0 +1,51 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.console;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+public class ConsoleFeedTest extends TestCase {
+
+    public void testWriteEvent() throws Exception {
+        StringWriter w = new StringWriter();
+        ConsoleFeed.writeEvent(w, "first\r\nsecond\nthird", 42);
+        assertEquals("id: 42\ndata: first\ndata: second\ndata: third\n\n", w.toString());
+    }
+
+    public void testHistory() {
+        ConsoleFeed.History history = new ConsoleFeed.History(2);
+        history.reset(10);
+        ConsoleFeed.Chunk a = new ConsoleFeed.Chunk("a", 20);
+        ConsoleFeed.Chunk b = new ConsoleFeed.Chunk("b", 30);
+        history.add(a);
+        history.add(b);
+        history.add(ConsoleFeed.Chunk.END);
+
+        assertEquals(Arrays.asList(a, b), history.since(10));
+        assertEquals(Arrays.asList(b), history.since(20));
+        assertEquals(Collections.emptyList(), history.since(30));
+        assertNull(history.since(25));
+        assertNull(history.since(0));
+
+        ConsoleFeed.Chunk c = new ConsoleFeed.Chunk("c", 40);
+        history.add(c);
+        assertNull(history.since(10));
+        assertEquals(Arrays.asList(b, c), history.since(20));
+        assertEquals(Arrays.asList(c), history.since(30));
+    }
+}
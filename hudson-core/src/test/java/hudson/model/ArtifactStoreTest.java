@@ -0,0 +1,92 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import hudson.FilePath;
+import hudson.Util;
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ArtifactStore}.
+ */
+public class ArtifactStoreTest extends TestCase {
+
+    private File dir;
+    private ArtifactStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Util.createTempDir();
+        store = new ArtifactStore(new File(dir, "store"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteRecursive(dir);
+    }
+
+    public void testStoresContentOnce() throws Exception {
+        File a = artifact("1/archive/a.jar", "content");
+        File b = artifact("2/archive/lib/b.jar", "content");
+        String md5sum = store.add(a);
+        assertEquals(Util.getDigestOf("content"), md5sum);
+        assertEquals(md5sum, store.add(b));
+        assertEquals(1, store.getFile(md5sum).getParentFile().list().length);
+
+        File c = new File(dir, "3/archive/c.jar");
+        assertTrue(store.link(md5sum, c));
+        assertEquals("content", new FilePath(c).readToString());
+        assertFalse(store.link(Util.getDigestOf("other"), new File(dir, "3/archive/d.jar")));
+    }
+
+    public void testManifest() throws Exception {
+        File build = new File(dir, "1");
+        build.mkdirs();
+        store.addToManifest(build, Collections.singletonMap("a.jar", "0123"));
+        store.addToManifest(build, Collections.singletonMap("lib/b c.jar", "4567"));
+        Map<String, String> manifest = ArtifactStore.readManifest(build);
+        assertEquals(2, manifest.size());
+        assertEquals("0123", manifest.get("a.jar"));
+        assertEquals("4567", manifest.get("lib/b c.jar"));
+    }
+
+    public void testRelease() throws Exception {
+        File a = artifact("1/archive/a.jar", "content");
+        File b = artifact("2/archive/b.jar", "content");
+        String md5sum = store.add(a);
+        store.add(b);
+        store.addToManifest(new File(dir, "1"), Collections.singletonMap("a.jar", md5sum));
+        store.addToManifest(new File(dir, "2"), Collections.singletonMap("b.jar", md5sum));
+
+        a.delete();
+        store.release(new File(dir, "1"));
+        assertTrue(store.getFile(md5sum).exists());
+        assertFalse(new File(dir, "1/" + ArtifactStore.MANIFEST).exists());
+
+        b.delete();
+        store.release(new File(dir, "2"));
+        assertFalse(store.getFile(md5sum).exists());
+    }
+
+    private File artifact(String path, String content) throws Exception {
+        File f = new File(dir, path);
+        f.getParentFile().mkdirs();
+        new FilePath(f).write(content, null);
+        return f;
+    }
+}
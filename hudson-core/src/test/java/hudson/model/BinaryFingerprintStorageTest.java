@@ -0,0 +1,194 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import hudson.Util;
+import hudson.model.Fingerprint.BuildPtr;
+import hudson.model.Fingerprint.RangeSet;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link BinaryFingerprintStorage}.
+ */
+public class BinaryFingerprintStorageTest extends TestCase {
+
+    private File root;
+
+    @Override
+    protected void setUp() throws Exception {
+        root = File.createTempFile("fingerprints", null);
+        root.delete();
+        root.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteRecursive(root);
+    }
+
+    public void testRoundTrip() throws Exception {
+        BinaryFingerprintStorage storage = new BinaryFingerprintStorage(root);
+        Fingerprint fp = fingerprint(1, "foo.jar");
+        RangeSet rs = new RangeSet();
+        for (int i : new int[]{1, 2, 3, 7, 1000, 1001}) {
+            rs.add(i);
+        }
+        fp.getUsages().put("foo", rs);
+        fp.getUsages().put("folder/bar", RangeSet.fromString("5", false));
+        storage.save(fp);
+
+        for (FingerprintStorage s : Arrays.asList(storage, new BinaryFingerprintStorage(root))) {
+            Fingerprint loaded = s.load(md5sum(1));
+            assertEquals("foo.jar", loaded.getFileName());
+            assertEquals(fp.getTimestamp(), loaded.getTimestamp());
+            assertEquals("bar", loaded.getOriginal().getName());
+            assertEquals(3, loaded.getOriginal().getNumber());
+            assertEquals("[1,4),[7,8),[1000,1002)", loaded.getRangeSet("foo").toString());
+            assertEquals("[5,6)", loaded.getRangeSet("folder/bar").toString());
+            assertNull(s.load(md5sum(2)));
+        }
+    }
+
+    public void testBatch() throws Exception {
+        BinaryFingerprintStorage storage = new BinaryFingerprintStorage(root);
+        FingerprintStorage.Batch batch = storage.startBatch();
+        try {
+            storage.save(fingerprint(1, "a.jar"));
+            storage.save(fingerprint(2, "b.jar"));
+            // nested batches are written with the outer one
+            storage.startBatch().commit();
+            assertNull(new BinaryFingerprintStorage(root).load(md5sum(1)));
+        } finally {
+            batch.commit();
+        }
+        BinaryFingerprintStorage reopened = new BinaryFingerprintStorage(root);
+        assertEquals("a.jar", reopened.load(md5sum(1)).getFileName());
+        assertEquals("b.jar", reopened.load(md5sum(2)).getFileName());
+    }
+
+    public void testDelete() throws Exception {
+        BinaryFingerprintStorage storage = new BinaryFingerprintStorage(root);
+        for (int i = 0; i < 50; i++) {
+            storage.save(fingerprint(i, "f" + i));
+        }
+        for (int i = 0; i < 50; i += 2) {
+            storage.delete(md5sum(i));
+        }
+        storage.delete(md5sum(100));
+
+        for (FingerprintStorage s : Arrays.asList(storage, new BinaryFingerprintStorage(root))) {
+            assertEquals(25, s.list().size());
+            for (int i = 0; i < 50; i++) {
+                Fingerprint fp = s.load(md5sum(i));
+                if (i % 2 == 0) {
+                    assertNull(fp);
+                } else {
+                    assertEquals("f" + i, fp.getFileName());
+                }
+            }
+        }
+    }
+
+    public void testCompaction() throws Exception {
+        BinaryFingerprintStorage storage = new BinaryFingerprintStorage(root);
+        Fingerprint fp = fingerprint(1, "foo.jar");
+        File shard = new File(root, "store/" + Util.toHexString(md5sum(1), 0, 1) + ".dat");
+        long recordSize = 0;
+        for (int i = 1; i <= 3000; i++) {
+            fp.getUsages().put("foo", RangeSet.fromString("1-" + i, false));
+            storage.save(fp);
+            if (i == 1) {
+                recordSize = shard.length() - 8;
+            }
+        }
+        // never more than twice as many records as fingerprints, past the threshold
+        assertTrue(shard.length() < 1100 * (recordSize + 2));
+        assertEquals("[1,3001)", new BinaryFingerprintStorage(root).load(md5sum(1)).getRangeSet("foo").toString());
+        assertEquals("[1,3001)", storage.load(md5sum(1)).getRangeSet("foo").toString());
+    }
+
+    public void testIncompleteRecordIsDiscarded() throws Exception {
+        BinaryFingerprintStorage storage = new BinaryFingerprintStorage(root);
+        storage.save(fingerprint(1, "a.jar"));
+        File shard = new File(root, "store/" + Util.toHexString(md5sum(1), 0, 1) + ".dat");
+        long length = shard.length();
+        OutputStream out = new FileOutputStream(shard, true);
+        out.write(new byte[]{0, 0, 1, 0, 1, 2, 3});
+        out.close();
+
+        BinaryFingerprintStorage reopened = new BinaryFingerprintStorage(root);
+        assertEquals("a.jar", reopened.load(md5sum(1)).getFileName());
+        assertEquals(length, shard.length());
+        reopened.save(fingerprint(1, "b.jar"));
+        assertEquals("b.jar", new BinaryFingerprintStorage(root).load(md5sum(1)).getFileName());
+    }
+
+    public void testJobIndex() throws Exception {
+        BinaryFingerprintStorage storage = new BinaryFingerprintStorage(root);
+        for (int i = 0; i < 3; i++) {
+            Fingerprint fp = fingerprint(i, "f" + i);
+            fp.getUsages().put("foo", RangeSet.fromString("1", false));
+            if (i > 0) {
+                fp.getUsages().put("bar", RangeSet.fromString("1", false));
+            }
+            fp.markAllJobsNew();
+            storage.save(fp);
+        }
+        // already indexed
+        storage.save(storage.load(md5sum(0)));
+
+        assertEquals(Arrays.asList(hex(0), hex(1), hex(2)), storage.getFingerprints("foo"));
+        assertEquals(Arrays.asList(hex(1), hex(2)), storage.getFingerprints("bar"));
+        assertEquals(Collections.emptyList(), storage.getFingerprints("baz"));
+
+        storage.delete(md5sum(1));
+        assertEquals(Arrays.asList(hex(0), hex(2)), new BinaryFingerprintStorage(root).getFingerprints("foo"));
+    }
+
+    public void testKeyIndex() throws Exception {
+        BinaryFingerprintStorage.KeyIndex index = new BinaryFingerprintStorage.KeyIndex();
+        for (int i = 0; i < 1000; i++) {
+            index.put(md5sum(i), 0, i + 1);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            index.remove(md5sum(i), 0);
+        }
+        assertEquals(666, index.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 3 == 0 ? -1 : i + 1, index.get(md5sum(i), 0));
+        }
+        List<byte[]> keys = index.keys();
+        assertEquals(666, keys.size());
+    }
+
+    private static Fingerprint fingerprint(int i, String fileName) {
+        return new Fingerprint(new BuildPtr("bar", 3), fileName, md5sum(i), new Date(1000L * i));
+    }
+
+    private static byte[] md5sum(int i) {
+        return Util.fromHexString(hex(i));
+    }
+
+    private static String hex(int i) {
+        return Util.getDigestOf(String.valueOf(i));
+    }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import junit.framework.TestCase;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+/**
+ * Tests for the incremental updates of {@link DependencyGraph}.
+ */
+public class DependencyGraphTest extends TestCase {
+
+    private static final List<AbstractProject> NONE = Collections.emptyList();
+
+    private ItemGroup parent;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        parent = createNiceMock(ItemGroup.class);
+        expect(parent.getFullName()).andReturn("").anyTimes();
+        replay(parent);
+    }
+
+    public void testAdd() {
+        Project c = project("c");
+        Project b = project("b", c);
+        Project a = project("a", b);
+        DependencyGraph graph = DependencyGraph.EMPTY.update(NONE, Arrays.asList(a, b, c));
+
+        assertEquals(Arrays.asList(b), graph.getDownstream(a));
+        assertEquals(Arrays.asList(a), graph.getUpstream(b));
+        assertEquals(new HashSet<AbstractProject>(Arrays.asList(b, c)), graph.getTransitiveDownstream(a));
+        assertEquals(new HashSet<AbstractProject>(Arrays.asList(a, b)), graph.getTransitiveUpstream(c));
+    }
+
+    public void testReconfigure() {
+        Project c = project("c");
+        Project b = project("b");
+        Project a = project("a", b);
+        DependencyGraph graph = DependencyGraph.EMPTY.update(NONE, Arrays.asList(a, b, c));
+
+        a.downstream.clear();
+        a.downstream.add(c);
+        DependencyGraph updated = graph.update(NONE, Arrays.asList(a));
+        assertEquals(Arrays.asList(c), updated.getDownstream(a));
+        assertEquals(NONE, updated.getUpstream(b));
+        assertEquals(Arrays.asList(a), updated.getUpstream(c));
+
+        // Graphs are immutable
+        assertEquals(Arrays.asList(b), graph.getDownstream(a));
+        assertEquals(NONE, graph.getUpstream(c));
+    }
+
+    public void testReconfigureReloaded() {
+        Project c = project("c");
+        Project b = project("b");
+        Project a = project("a", b);
+        DependencyGraph graph = DependencyGraph.EMPTY.update(NONE, Arrays.asList(a, b, c));
+
+        // Lazily loaded projects come back as new instances
+        Project reloaded = project("a", c);
+        assertTrue(graph.hasOtherInstance(reloaded));
+        assertFalse(graph.hasOtherInstance(a));
+        DependencyGraph updated = graph.update(NONE, Arrays.asList(reloaded));
+        assertEquals(Arrays.asList(c), updated.getDownstream(reloaded));
+        assertEquals(Arrays.asList(c), updated.getDownstream(a));
+        assertEquals(NONE, updated.getUpstream(b));
+    }
+
+    public void testRemove() {
+        Project c = project("c");
+        Project b = project("b", c);
+        Project a = project("a", b);
+        DependencyGraph graph = DependencyGraph.EMPTY.update(NONE, Arrays.asList(a, b, c));
+
+        DependencyGraph updated = graph.update(Arrays.asList(project("b")), NONE);
+        assertEquals(NONE, updated.getDownstream(a));
+        assertEquals(NONE, updated.getDownstream(b));
+        assertEquals(NONE, updated.getUpstream(c));
+        assertEquals(Collections.emptySet(), updated.getTransitiveDownstream(a));
+    }
+
+    private Project project(String name, AbstractProject... downstream) {
+        return new Project(parent, name, downstream);
+    }
+
+    private static class Project extends FreeStyleProject {
+
+        final List<AbstractProject> downstream = new ArrayList<AbstractProject>();
+
+        Project(ItemGroup parent, String name, AbstractProject... downstream) {
+            super(parent, name);
+            this.downstream.addAll(Arrays.asList(downstream));
+        }
+
+        @Override
+        protected void buildDependencyGraph(DependencyGraph graph) {
+            for (AbstractProject p : downstream) {
+                graph.addDependency(new DependencyGraph.Dependency(this, p));
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import hudson.Util;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link JobSummary}.
+ */
+public class JobSummaryTest extends TestCase {
+
+    private static final String TYPE = FreeStyleProject.class.getName();
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = Util.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteRecursive(dir);
+        super.tearDown();
+    }
+
+    public void testRoundTrip() throws Exception {
+        JobSummary summary = new JobSummary("job", TYPE, "parent", set("child1", "child2"), set("linux"),
+                Collections.singletonMap("hudson.triggers.TimerTrigger", "@daily"), set("hudson.tasks.BuildTrigger"));
+        summary.save(dir);
+
+        JobSummary loaded = JobSummary.load(dir);
+        assertEquals(summary, loaded);
+        assertEquals("parent", loaded.getCascadingProjectName());
+        assertEquals(set("child1", "child2"), loaded.getCascadingChildrenNames());
+        assertEquals(set("linux"), loaded.getTiedLabelNames());
+        assertEquals("@daily", loaded.getTriggerSpecs().get("hudson.triggers.TimerTrigger"));
+        assertEquals(set("hudson.tasks.BuildTrigger"), loaded.getDependencyDeclarers());
+    }
+
+    public void testMissing() throws Exception {
+        assertNull(JobSummary.load(dir));
+    }
+
+    public void testOlderSummary() throws Exception {
+        Writer w = new OutputStreamWriter(new FileOutputStream(new File(dir, JobSummary.FILE_NAME)), "UTF-8");
+        w.write("<?xml version='1.0' encoding='UTF-8'?>\n"
+                + "<jobSummary><name>job</name><type>" + TYPE + "</type>"
+                + "<cascadingChildrenNames class=\"tree-set\"><no-comparator/></cascadingChildrenNames></jobSummary>");
+        w.close();
+
+        JobSummary loaded = JobSummary.load(dir);
+        assertEquals("job", loaded.getName());
+        // Not known, rather than tied to no label and triggered by nothing
+        assertNull(loaded.getTiedLabelNames());
+        assertNull(loaded.getTriggerSpecs());
+        assertNull(loaded.getDependencyDeclarers());
+        assertFalse(loaded.equals(new JobSummary("job", TYPE, null, set(), set(), new HashMap<String, String>(), set())));
+    }
+
+    public void testCascadingConsistent() {
+        Map<String, JobSummary> summaries = new HashMap<String, JobSummary>();
+        summaries.put("parent", new JobSummary("parent", TYPE, null, set("child"), set(), null, null));
+        summaries.put("child", new JobSummary("child", TYPE, "parent", set(), set(), null, null));
+        summaries.put("other", new JobSummary("other", TYPE, "parent", set(), set(), null, null));
+        assertTrue(summaries.get("parent").isCascadingConsistent(summaries));
+
+        // The child was moved to another parent
+        summaries.put("child", new JobSummary("child", TYPE, "other", set(), set(), null, null));
+        assertFalse(summaries.get("parent").isCascadingConsistent(summaries));
+
+        // The child was deleted
+        summaries.remove("child");
+        assertFalse(summaries.get("parent").isCascadingConsistent(summaries));
+    }
+
+    public void testMayDeclareDependencies() {
+        Map<String, JobSummary> summaries = new HashMap<String, JobSummary>();
+        summaries.put("up", new JobSummary("up", TYPE, null, set("child"), set(), null, set("hudson.tasks.BuildTrigger")));
+        summaries.put("child", new JobSummary("child", TYPE, "up", set(), set(), null, set()));
+        summaries.put("plain", new JobSummary("plain", TYPE, null, set(), set(), null, set()));
+        summaries.put("older", new JobSummary("older", TYPE, null, set(), set(), null, null));
+        assertTrue(JobSummary.mayDeclareDependencies("up", summaries));
+        // Inherits the build trigger of its parent
+        assertTrue(JobSummary.mayDeclareDependencies("child", summaries));
+        assertFalse(JobSummary.mayDeclareDependencies("plain", summaries));
+        assertTrue(JobSummary.mayDeclareDependencies("older", summaries));
+        assertTrue(JobSummary.mayDeclareDependencies("unsummarized", summaries));
+
+        // A cycle of cascading parents
+        summaries.put("a", new JobSummary("a", TYPE, "b", set(), set(), null, set()));
+        summaries.put("b", new JobSummary("b", TYPE, "a", set(), set(), null, set()));
+        assertFalse(JobSummary.mayDeclareDependencies("a", summaries));
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<String>(Arrays.asList(names));
+    }
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LabelIndex}.
+ */
+public class LabelIndexTest extends TestCase {
+
+    public void testPutAndRemove() {
+        LabelIndex index = new LabelIndex();
+        index.put("a", Arrays.asList("linux", "x64"));
+        index.put("b", Arrays.asList("linux"));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), index.get("linux"));
+        assertEquals(Collections.singleton("a"), index.get("x64"));
+
+        // reconfigured
+        index.put("a", Arrays.asList("windows"));
+        assertEquals(Collections.singleton("b"), index.get("linux"));
+        assertTrue(index.get("x64").isEmpty());
+        assertEquals(Collections.singleton("a"), index.get("windows"));
+
+        index.remove("b");
+        assertTrue(index.get("linux").isEmpty());
+        index.put("a", Collections.<String>emptyList());
+        assertTrue(index.get("windows").isEmpty());
+    }
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import java.io.File;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link PeopleIndex}.
+ */
+public class PeopleIndexTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("people", ".xml");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testKeepsLastChange() throws Exception {
+        PeopleIndex index = new PeopleIndex(file);
+        assertTrue(index.isEmpty());
+        assertTrue(index.add("alice", 100));
+        assertTrue(index.add("bob", 50));
+        assertFalse(index.add("alice", 80));
+        assertTrue(index.add("bob", 200));
+        index.save();
+
+        Map<String, Long> lastChanges = new PeopleIndex(file).getLastChanges();
+        assertEquals(2, lastChanges.size());
+        assertEquals(Long.valueOf(100), lastChanges.get("alice"));
+        assertEquals(Long.valueOf(200), lastChanges.get("bob"));
+    }
+
+    public void testOneIndexPerFile() {
+        PeopleIndex index = PeopleIndex.of(file);
+        assertSame(index, PeopleIndex.of(new File(file.getParentFile(), file.getName())));
+        assertNotSame(index, PeopleIndex.of(new File(file.getPath() + "2")));
+    }
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import hudson.model.Queue.BlockedItem;
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.Task;
+import hudson.model.Queue.WaitingItem;
+import hudson.triggers.Trigger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Timer;
+import junit.framework.TestCase;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.replay;
+
+/**
+ * Tests for {@link Queue}.
+ */
+public class QueueTest extends TestCase {
+
+    private Timer timer;
+    private Queue queue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The queue schedules its maintenance on the trigger timer
+        timer = Trigger.timer;
+        Trigger.timer = new Timer(true);
+        queue = new Queue(LoadBalancer.CONSISTENT_HASH);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Trigger.timer.cancel();
+        Trigger.timer = timer;
+        super.tearDown();
+    }
+
+    public void testSnapshot() {
+        Task a = task();
+        Task b = task();
+        Task c = task();
+        WaitingItem waiting = waiting(a);
+        BlockedItem blocked = queue.new BlockedItem(waiting(b));
+        List<BuildableItem> buildables = new ArrayList<BuildableItem>(Arrays.asList(
+                new BuildableItem(waiting(a)), new BuildableItem(waiting(c))));
+        List<BuildableItem> pendings = Arrays.asList(new BuildableItem(waiting(c)));
+
+        Queue.Snapshot s = new Queue.Snapshot(Collections.singleton(waiting),
+                Collections.singletonList(blocked), buildables, pendings);
+
+        // Items built sooner come last
+        assertEquals(Arrays.<Queue.Item>asList(waiting, blocked, buildables.get(1), buildables.get(0), pendings.get(0)),
+                Arrays.asList(s.items));
+        // By task, blocked first, then buildable, pending and waiting
+        assertEquals(Arrays.<Queue.Item>asList(buildables.get(0), waiting), s.byTask.get(a));
+        assertEquals(Arrays.<Queue.Item>asList(blocked), s.byTask.get(b));
+        assertEquals(Arrays.<Queue.Item>asList(buildables.get(1), pendings.get(0)), s.byTask.get(c));
+        assertNull(s.byTask.get(task()));
+
+        // Later changes to the queue don't show
+        buildables.clear();
+        assertEquals(2, s.buildables.size());
+        assertEquals(5, s.items.length);
+    }
+
+    public void testEmptySnapshot() {
+        Queue.Snapshot s = new Queue.Snapshot();
+        assertEquals(0, s.items.length);
+        assertTrue(s.byTask.isEmpty());
+    }
+
+    private static Task task() {
+        Task t = createNiceMock(Task.class);
+        replay(t);
+        return t;
+    }
+
+    private static WaitingItem waiting(Task t) {
+        return new WaitingItem(new GregorianCalendar(), t, Collections.<Action>emptyList());
+    }
+}
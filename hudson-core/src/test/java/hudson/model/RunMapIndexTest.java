@@ -0,0 +1,155 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import hudson.Util;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link RunMapIndex}.
+ */
+public class RunMapIndexTest extends TestCase {
+
+    private File dir;
+    private RunMap runMap;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Util.createTempDir();
+        runMap = new RunMap(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteRecursive(dir);
+    }
+
+    public void testRoundTrip() throws Exception {
+        List<RunMap.RunValue> values = new ArrayList<RunMap.RunValue>();
+        values.add(value(1, Result.SUCCESS, "master"));
+        values.add(value(2, Result.FAILURE, "slave1"));
+        values.add(value(3, null, "slave1"));
+        values.get(2).isBuilding = true;
+        values.get(2).state = Run.State.BUILDING;
+
+        RunMapIndex index = new RunMapIndex(dir);
+        assertFalse(index.exists());
+        index.rewrite((List) values);
+        assertTrue(index.exists());
+
+        Map<Integer, RunMap.LazyRunValue> loaded = load();
+        assertEquals(3, loaded.size());
+        for (RunMap.RunValue rv : values) {
+            RunMap.LazyRunValue l = loaded.get(rv.getNumber());
+            assertEquals(rv.getResult(), l.getResult());
+            assertEquals(rv.getState(), l.getState());
+            assertEquals(rv.isBuilding(), l.isBuilding());
+            assertEquals(rv.getTimeInMillis(), l.getTimeInMillis());
+            assertEquals(rv.getDuration(), l.getDuration());
+            assertEquals(rv.getDisplayName(), l.getDisplayName());
+            assertEquals(rv.getBuiltOnNodeName(), l.getBuiltOnNodeName());
+            assertEquals(rv.getDescription(), l.getDescription());
+            assertEquals(new File(dir, String.valueOf(rv.getNumber())), l.buildDir());
+        }
+        // Strings are shared
+        assertSame(loaded.get(2).getBuiltOnNodeName(), loaded.get(3).getBuiltOnNodeName());
+    }
+
+    public void testAppendPatchAndDelete() throws Exception {
+        List<RunMap.RunValue> values = new ArrayList<RunMap.RunValue>();
+        values.add(value(1, Result.SUCCESS, "master"));
+        values.add(value(2, null, "master"));
+
+        RunMapIndex index = new RunMapIndex(dir);
+        index.rewrite((List) values);
+        long length = new File(dir, RunMapIndex.INDEX_FILE).length();
+
+        // Build 2 completes, build 3 is added
+        values.get(1).setResult(Result.UNSTABLE);
+        values.add(value(3, Result.SUCCESS, "master"));
+        index.update((List) values);
+        assertEquals(length + RunMapIndex.RECORD_SIZE, new File(dir, RunMapIndex.INDEX_FILE).length());
+
+        // Build 1 is deleted, which only flags the record
+        values.remove(0);
+        index.update((List) values);
+        assertEquals(length + RunMapIndex.RECORD_SIZE, new File(dir, RunMapIndex.INDEX_FILE).length());
+
+        Map<Integer, RunMap.LazyRunValue> loaded = load();
+        assertEquals(2, loaded.size());
+        assertNull(loaded.get(1));
+        assertEquals(Result.UNSTABLE, loaded.get(2).getResult());
+        assertEquals(Result.SUCCESS, loaded.get(3).getResult());
+    }
+
+    public void testCorruptIndexIsRejected() throws Exception {
+        RunMapIndex index = new RunMapIndex(dir);
+        index.rewrite(new ArrayList<RunMap.RunValue<?, ?>>());
+        new FileOutputStream(new File(dir, RunMapIndex.INDEX_FILE)).close();
+        try {
+            new RunMapIndex(dir).load(runMap);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testTruncatedStringTableIsRejected() throws Exception {
+        List<RunMap.RunValue> values = new ArrayList<RunMap.RunValue>();
+        values.add(value(1, Result.SUCCESS, "master"));
+        new RunMapIndex(dir).rewrite((List) values);
+
+        // As left by a string table replaced without its index
+        RandomAccessFile str = new RandomAccessFile(new File(dir, RunMapIndex.STRINGS_FILE), "rw");
+        str.setLength(6);
+        str.close();
+        try {
+            new RunMapIndex(dir).load(runMap);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private Map<Integer, RunMap.LazyRunValue> load() throws Exception {
+        Map<Integer, RunMap.LazyRunValue> r = new HashMap<Integer, RunMap.LazyRunValue>();
+        for (Object o : new RunMapIndex(dir).load(runMap)) {
+            RunMap.LazyRunValue rv = (RunMap.LazyRunValue) o;
+            r.put(rv.getNumber(), rv);
+        }
+        return r;
+    }
+
+    private RunMap.RunValue value(int number, Result result, String builtOn) {
+        RunMap.LazyRunValue rv = RunMap.LazyRunValue.fromIndex(runMap, dir, String.valueOf(number));
+        rv.buildNumber = number;
+        rv.result = result;
+        rv.state = Run.State.COMPLETED;
+        rv.timeInMillis = 1000L * number;
+        rv.duration = 10L * number;
+        rv.displayName = "#" + number;
+        rv.description = "build " + number;
+        rv.builtOnStr = builtOn;
+        return rv;
+    }
+}
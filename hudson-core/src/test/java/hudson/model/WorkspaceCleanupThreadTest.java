@@ -0,0 +1,94 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.model;
+
+import hudson.Util;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the clean up of the workspaces of a node.
+ */
+public class WorkspaceCleanupThreadTest extends TestCase {
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    private File root;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = File.createTempFile("workspaces", "");
+        root.delete();
+        root.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteRecursive(root);
+        super.tearDown();
+    }
+
+    public void testCleanup() throws Exception {
+        long now = System.currentTimeMillis();
+        workspace("gone", now);
+        workspace("young", now - DAY);
+        workspace("old", now - 40 * DAY);
+        workspace("old_2", now - 40 * DAY);
+        workspace("active", now - 40 * DAY);
+        workspace("checked", now - 40 * DAY);
+        new File(root, "file").createNewFile();
+
+        WorkspaceCleanupThread.NodePolicy policy = new WorkspaceCleanupThread.NodePolicy(
+                new HashSet<String>(Arrays.asList("young", "old", "active", "checked")),
+                Collections.singleton("active"), Collections.singleton("checked"));
+        WorkspaceCleanupThread.Summary summary = new WorkspaceCleanupThread.Cleanup(policy, now).invoke(root, null);
+
+        assertEquals(new HashSet<String>(Arrays.asList("gone", "old", "old_2")), new HashSet<String>(summary.deleted));
+        assertTrue(summary.failed.isEmpty());
+        assertEquals(Arrays.asList("checked"), summary.toConfirm);
+        assertEquals(2, summary.kept);
+
+        assertFalse(new File(root, "gone").exists());
+        assertFalse(new File(root, "old").exists());
+        assertFalse(new File(root, "old_2").exists());
+        assertTrue(new File(root, "young/file").exists());
+        assertTrue(new File(root, "active").exists());
+        assertTrue(new File(root, "checked").exists());
+        assertTrue(new File(root, "file").exists());
+    }
+
+    public void testGetOwner() {
+        WorkspaceCleanupThread.NodePolicy policy = new WorkspaceCleanupThread.NodePolicy(
+                new HashSet<String>(Arrays.asList("job", "my_job")),
+                Collections.<String>emptySet(), Collections.<String>emptySet());
+        assertEquals("job", policy.getOwner("job"));
+        assertEquals("job", policy.getOwner("job_3"));
+        assertEquals("my_job", policy.getOwner("my_job"));
+        assertEquals("my_job", policy.getOwner("my_job_2"));
+        assertNull(policy.getOwner("other"));
+        assertNull(policy.getOwner("other_2"));
+    }
+
+    private void workspace(String name, long lastModified) throws Exception {
+        File dir = new File(root, name);
+        dir.mkdirs();
+        new File(dir, "file").createNewFile();
+        dir.setLastModified(lastModified);
+    }
+}
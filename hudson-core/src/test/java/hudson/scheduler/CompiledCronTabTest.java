@@ -0,0 +1,135 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.scheduler;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+import junit.framework.TestCase;
+
+/**
+ * Checks {@link CompiledCronTab} against {@link CronTab}.
+ */
+public class CompiledCronTabTest extends TestCase {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+
+    private TimeZone defaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        defaultTimeZone = TimeZone.getDefault();
+        // CronTab.ceil works in the default time zone
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(defaultTimeZone);
+        super.tearDown();
+    }
+
+    public void testSameAsCronTab() throws Exception {
+        Random r = new Random(0);
+        for (int i = 0; i < 500; i++) {
+            String spec = field(r, 0, 59) + ' ' + field(r, 0, 23) + ' ' + field(r, 1, 31) + ' '
+                    + field(r, 1, 12) + ' ' + field(r, 0, 7);
+            CronTab tab = new CronTab(spec);
+            CompiledCronTab compiled = tab.compile();
+            for (int j = 0; j < 20; j++) {
+                // 1990 to 2030
+                long t = (631152000000L + (long) (r.nextDouble() * 1262304000000L)) / MINUTE * MINUTE;
+                Calendar cal = new GregorianCalendar();
+                cal.setTimeInMillis(t);
+                assertEquals(spec + " at " + t, tab.check(cal), compiled.matches(t));
+
+                // CronTab.ceil misses some days at the end of the months and
+                // some days of week, so look for the next time minute by
+                // minute, up to some point
+                long next = compiled.nextFireAfter(t - 1);
+                long limit = next < 0 ? t + 2 * DAY : Math.min(next, t + 2 * DAY);
+                assertEquals(spec + " after " + t, limit, scan(tab, t, limit));
+                if (next >= 0) {
+                    cal.setTimeInMillis(next);
+                    assertTrue(spec + " at " + next, tab.check(cal));
+                }
+            }
+        }
+    }
+
+    public void testNextFireAfter() throws Exception {
+        CompiledCronTab tab = new CronTab("0,30 * * * *").compile();
+        long t = time(2000, 2, 1, 1, 10);
+        assertEquals(time(2000, 2, 1, 1, 30), tab.nextFireAfter(t));
+        assertEquals(time(2000, 2, 1, 1, 30), tab.nextFireAfter(t + 5 * MINUTE));
+        assertEquals(time(2000, 2, 1, 2, 0), tab.nextFireAfter(time(2000, 2, 1, 1, 30)));
+        assertEquals(time(2000, 2, 1, 1, 0), tab.nextFireAfter(time(2000, 2, 1, 0, 59)));
+
+        // the first 1st of the month that's a Sunday in 2010 is Aug 1st
+        tab = new CronTab("0 0 1 * 0").compile();
+        assertEquals(time(2010, 7, 1, 0, 0), tab.nextFireAfter(time(2010, 0, 1, 15, 55)));
+
+        tab = new CronTab("0 0 29 2 *").compile();
+        assertEquals(time(2004, 1, 29, 0, 0), tab.nextFireAfter(time(2001, 0, 1, 0, 0)));
+    }
+
+    public void testNeverMatches() throws Exception {
+        CompiledCronTab tab = new CronTab("0 0 30 2 *").compile();
+        assertEquals(-1, tab.nextFireAfter(time(2000, 0, 1, 0, 0)));
+        assertFalse(tab.matches(time(2000, 1, 30, 0, 0)));
+    }
+
+    public void testTimeZone() throws Exception {
+        CompiledCronTab tab = new CronTab("0 9 * * *").compile(TimeZone.getTimeZone("GMT+02:00"));
+        assertEquals(time(2000, 0, 1, 7, 0), tab.nextFireAfter(time(2000, 0, 1, 0, 0)));
+        assertTrue(tab.matches(time(2000, 0, 1, 7, 0)));
+    }
+
+    /**
+     * Finds the first time from t that matches, or limit if it comes first.
+     */
+    private static long scan(CronTab tab, long t, long limit) {
+        Calendar cal = new GregorianCalendar();
+        cal.setTimeInMillis(t);
+        while (cal.getTimeInMillis() < limit && !tab.check(cal)) {
+            cal.add(Calendar.MINUTE, 1);
+        }
+        return cal.getTimeInMillis();
+    }
+
+    private static long time(int year, int month, int day, int hour, int minute) {
+        return new GregorianCalendar(year, month, day, hour, minute).getTimeInMillis();
+    }
+
+    private static String field(Random r, int min, int max) {
+        int a = min + r.nextInt(max - min + 1);
+        int b = min + r.nextInt(max - min + 1);
+        switch (r.nextInt(5)) {
+            case 0:
+                return "*";
+            case 1:
+                return String.valueOf(a);
+            case 2:
+                return Math.min(a, b) + "-" + Math.max(a, b);
+            case 3:
+                return "*/" + (1 + r.nextInt(Math.max(1, max / 2)));
+            default:
+                return a == b ? String.valueOf(a) : a + "," + b;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link NameIndex}.
+ */
+public class NameIndexTest extends TestCase {
+
+    public void testSuggest() {
+        NameIndex index = new NameIndex();
+        index.reset(Arrays.asList("core-tests", "core", "plugins-core", "docs", "cocore"));
+        assertEquals(Arrays.asList("core", "core-tests", "cocore", "plugins-core"), index.suggest("core", 10));
+        assertEquals(Arrays.asList("core", "core-tests"), index.suggest("core", 2));
+        assertEquals(Collections.singletonList("docs"), index.suggest("ocs", 10));
+        assertTrue(index.suggest("Core", 10).isEmpty());
+        assertTrue(index.suggest("cores", 10).isEmpty());
+    }
+
+    public void testAddAndRemove() {
+        NameIndex index = new NameIndex();
+        index.add("abc");
+        index.add("bcd");
+        index.add("abc");
+        assertEquals(2, index.size());
+        assertEquals(Arrays.asList("bcd", "abc"), index.suggest("bc", 10));
+        index.remove("bcd");
+        assertFalse(index.contains("bcd"));
+        assertEquals(Collections.singletonList("abc"), index.suggest("bc", 10));
+        index.remove("abc");
+        assertTrue(index.suggest("b", 10).isEmpty());
+    }
+}
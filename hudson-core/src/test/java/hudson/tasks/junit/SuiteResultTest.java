@@ -28,6 +28,7 @@ import java.io.PrintWriter;
 import java.io.Writer;
 
 import org.apache.commons.io.IOUtils;
+import org.dom4j.DocumentException;
 
 /**
  * Test cases for parsing JUnit report XML files.
@@ -174,4 +175,120 @@ public class SuiteResultTest extends TestCase {
         }
     }
 
+    public void testNestedSuites() throws Exception {
+        File data = writeReport(
+                "<testsuites>",
+                "<testsuite name='outer'>",
+                "<testsuite name='inner'><testcase name='b' classname='x'/></testsuite>",
+                "<testcase name='a' classname='x'/>",
+                "</testsuite>",
+                "<testsuite name='empty'/>",
+                "</testsuites>");
+        try {
+            List<SuiteResult> results = SuiteResult.parse(data, false);
+            assertEquals(2, results.size());
+            assertEquals("outer", results.get(0).getName());
+            assertEquals("a", results.get(0).getCases().get(0).getName());
+            assertEquals("inner", results.get(1).getName());
+            assertEquals("b", results.get(1).getCases().get(0).getName());
+        } finally {
+            data.delete();
+        }
+    }
+
+    public void testSuiteError() throws Exception {
+        File data = writeReport(
+                "<testsuite name='x' time='1.5'>",
+                "<error message='no class'>stack</error>",
+                "<testcase name='a' classname='x' time='2'><failure message='oops'>trace</failure></testcase>",
+                "<testcase name='b' classname='x'><skipped/></testcase>",
+                "</testsuite>");
+        try {
+            List<CaseResult> cases = parseOne(data).getCases();
+            assertEquals(3, cases.size());
+            assertEquals("<init>", cases.get(0).getClassName());
+            assertEquals("stack", cases.get(0).getErrorStackTrace());
+            assertEquals("no class", cases.get(0).getErrorDetails());
+            assertEquals(1.5f, cases.get(0).getDuration());
+            assertEquals("trace", cases.get(1).getErrorStackTrace());
+            assertEquals("oops", cases.get(1).getErrorDetails());
+            assertEquals(2f, cases.get(1).getDuration());
+            assertTrue(cases.get(2).isSkipped());
+            assertNull(cases.get(2).getErrorStackTrace());
+        } finally {
+            data.delete();
+        }
+    }
+
+    /**
+     * Output that's much longer than what's kept is trimmed as it's read.
+     */
+    public void testLongStdioTrimming() throws Exception {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            line.append('x');
+        }
+        String[] report = new String[1004];
+        report[0] = "<testsuite name='x'><testcase name='a' classname='x'/>";
+        report[1] = "<system-out>first";
+        for (int i = 0; i < 1000; i++) {
+            report[i + 2] = line.toString();
+        }
+        report[1002] = "last</system-out>";
+        report[1003] = "</testsuite>";
+        File data = writeReport(report);
+        try {
+            String stdout = parseOne(data).getStdout();
+            assertEquals(1000 + "...[truncated 1000010 chars]...".length(), stdout.length());
+            assertTrue(stdout.startsWith("first\nxxx"));
+            assertTrue(stdout.endsWith("xxx\nlast"));
+
+            SuiteResult kept = SuiteResult.parse(data, true).get(0);
+            assertEquals(1001010, kept.getStdout().length());
+        } finally {
+            data.delete();
+        }
+    }
+
+    public void testDoctype() throws Exception {
+        File data = writeReport(
+                "<?xml version='1.0' encoding='UTF-8'?>",
+                "<!DOCTYPE testsuite SYSTEM 'http://testng.org/testng-1.0.dtd'>",
+                "<testsuite name='x'><testcase name='a' classname='x'/></testsuite>");
+        try {
+            assertEquals("a", parseOne(data).getCases().get(0).getName());
+        } finally {
+            data.delete();
+        }
+    }
+
+    public void testExternalEntity() throws Exception {
+        File secret = writeReport("secret");
+        File data = writeReport(
+                "<?xml version='1.0' encoding='UTF-8'?>",
+                "<!DOCTYPE testsuite [<!ENTITY xxe SYSTEM '" + secret.toURI() + "'>]>",
+                "<testsuite name='x'><testcase name='a' classname='x'/><system-out>&xxe;</system-out></testsuite>");
+        try {
+            parseOne(data);
+            fail("the entity isn't declared, as DTDs aren't read");
+        } catch (DocumentException e) {
+            // expected
+        } finally {
+            data.delete();
+            secret.delete();
+        }
+    }
+
+    private File writeReport(String... lines) throws Exception {
+        File data = File.createTempFile("report", ".xml");
+        PrintWriter pw = new PrintWriter(new FileWriter(data));
+        try {
+            for (String line : lines) {
+                pw.println(line);
+            }
+        } finally {
+            pw.close();
+        }
+        return data;
+    }
 }
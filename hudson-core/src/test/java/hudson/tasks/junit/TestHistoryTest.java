@@ -0,0 +1,166 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.tasks.junit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link TestHistory}.
+ */
+public class TestHistoryTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("testHistory", ".log");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testRecord() throws Exception {
+        TestHistory history = new TestHistory(file);
+        assertFalse(history.covers(1));
+        history.record(3, result("a"));
+        history.record(5, result("b"));
+
+        for (TestHistory h : new TestHistory[]{history, new TestHistory(file)}) {
+            assertFalse(h.covers(2));
+            assertTrue(h.covers(3));
+            assertNull(h.get(4));
+            assertNull(h.getPrevious(3));
+            assertEquals(3, h.getPrevious(5).getNumber());
+            assertEquals(5, h.getPrevious(6).getNumber());
+
+            TestHistory.Build b = h.get(5);
+            assertEquals(3, b.getTotalCount());
+            assertEquals(1, b.getFailCount());
+            assertEquals(1, b.getSkipCount());
+            assertEquals(1, b.getPassCount());
+            assertTrue(h.get(3).getCase("s", "a").isPassed());
+            assertNull(h.get(3).getCase("s", "b"));
+            assertNull(b.getCase("s", "a"));
+            assertNull(b.getCase("t", "b"));
+
+            TestHistory.Case c = b.getCase("s", "b");
+            assertTrue(c.isPassed());
+            assertEquals(2f, c.getDuration());
+            assertSame(b, c.getBuild());
+            assertTrue(b.getCase("s", "c").isSkipped());
+            assertFalse(b.getCase("s", "fail").isPassed());
+            assertFalse(b.getCase("s", "fail").isSkipped());
+        }
+    }
+
+    public void testDelete() throws Exception {
+        TestHistory history = new TestHistory(file);
+        history.record(1, result("a"));
+        history.record(2, result("a"));
+        history.delete(2);
+        history.delete(7);
+
+        for (TestHistory h : new TestHistory[]{history, new TestHistory(file)}) {
+            assertNull(h.get(2));
+            assertEquals(1, h.getPrevious(3).getNumber());
+        }
+    }
+
+    public void testDeleteCompacts() throws Exception {
+        TestHistory history = new TestHistory(file);
+        for (int i = 1; i <= 10; i++) {
+            history.record(i, result("a", "b"));
+        }
+        TestHistory.Build last = history.get(10);
+        long length = file.length();
+        for (int i = 2; i <= 7; i++) {
+            history.delete(i);
+        }
+        assertTrue(file.length() < length);
+
+        for (TestHistory h : new TestHistory[]{history, new TestHistory(file)}) {
+            assertTrue(h.covers(1));
+            assertNull(h.get(5));
+            assertEquals(1, h.getPrevious(8).getNumber());
+            assertEquals(9, h.getPrevious(10).getNumber());
+            assertTrue(h.get(8).getCase("s", "b").isPassed());
+        }
+        assertTrue(last.getCase("s", "a").isPassed());
+        assertFalse(last.getCase("s", "fail").isPassed());
+    }
+
+    public void testLoadCompacts() throws Exception {
+        TestHistory history = new TestHistory(file);
+        // replaced builds are only reclaimed when the file is loaded
+        for (String name : new String[]{"a", "a", "b"}) {
+            for (int i = 1; i <= 4; i++) {
+                history.record(i, result(name));
+            }
+        }
+        long length = file.length();
+
+        history = new TestHistory(file);
+        assertTrue(history.get(4).getCase("s", "b").isPassed());
+        assertTrue(file.length() < length);
+        assertTrue(history.covers(1));
+        assertTrue(new TestHistory(file).get(1).getCase("s", "b").isPassed());
+    }
+
+    public void testIncompleteRecordIsDiscarded() throws Exception {
+        new TestHistory(file).record(1, result("a"));
+        long length = file.length();
+        OutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[]{0, 0, 1, 0, 2, 0, 0});
+        out.close();
+
+        TestHistory history = new TestHistory(file);
+        assertNotNull(history.get(1).getCase("s", "a"));
+        assertEquals(length, file.length());
+        history.record(2, result("b"));
+        assertTrue(new TestHistory(file).get(2).getCase("s", "b").isPassed());
+    }
+
+    public void testOneHistoryPerFile() throws Exception {
+        TestHistory history = TestHistory.of(file);
+        assertSame(history, TestHistory.of(new File(file.getParentFile(), file.getName())));
+        assertNotSame(history, TestHistory.of(new File(file.getPath() + "2")));
+    }
+
+    /**
+     * Builds a result of suite "s" with the given passing tests, a failing
+     * one and a skipped one.
+     */
+    private static TestResult result(String... passed) {
+        SuiteResult s = new SuiteResult("file", "s", null, (String) null, null);
+        for (String name : passed) {
+            s.addCase(new CaseResult(s, "Foo", name, null, null, 2f, false, null, null));
+        }
+        s.addCase(new CaseResult(s, "Foo", "fail", "trace", "message", 1f, false, null, null));
+        s.addCase(new CaseResult(s, "Foo", "c", null, null, 0f, true, null, null));
+        List<SuiteResult> suites = new ArrayList<SuiteResult>();
+        suites.add(s);
+        TestResult result = new TestResult(suites);
+        result.tally();
+        return result;
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.tasks.junit;
+
+import com.thoughtworks.xstream.XStream;
+import hudson.XmlFile;
+import hudson.util.StringConverter2;
+import hudson.util.XStream2;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link TestResultFile}.
+ */
+public class TestResultFileTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("junitResult", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testRoundTrip() throws Exception {
+        XmlFile xmlFile = new XmlFile(XSTREAM, new File(TestResultFileTest.class.getResource("junitResult.xml").toURI()));
+        TestResult source = (TestResult) xmlFile.read();
+        TestResultFile.write(file, source);
+        TestResult result = TestResultFile.read(file);
+
+        source.tally();
+        result.tally();
+        assertEquals(source.getTotalCount(), result.getTotalCount());
+        assertEquals(source.getSkipCount(), result.getSkipCount());
+        assertEquals(source.getFailCount(), result.getFailCount());
+        assertEquals(source.getDuration(), result.getDuration(), 0.0001);
+        assertEquals(source.getSuites().size(), result.getSuites().size());
+
+        Iterator<SuiteResult> it = result.getSuites().iterator();
+        for (SuiteResult s : source.getSuites()) {
+            SuiteResult r = it.next();
+            assertEquals(s.getName(), r.getName());
+            assertEquals(s.getFile(), r.getFile());
+            assertEquals(s.getTimestamp(), r.getTimestamp());
+            assertEquals(s.getStdout(), r.getStdout());
+            assertEquals(s.getStderr(), r.getStderr());
+            assertEquals(s.getCases().size(), r.getCases().size());
+            for (int i = 0; i < s.getCases().size(); i++) {
+                CaseResult c = s.getCases().get(i);
+                CaseResult d = r.getCases().get(i);
+                assertEquals(c.getClassName(), d.getClassName());
+                assertEquals(c.getName(), d.getName());
+                assertEquals(c.getDuration(), d.getDuration());
+                assertEquals(c.isSkipped(), d.isSkipped());
+                assertEquals(c.isPassed(), d.isPassed());
+                assertEquals(c.getErrorDetails(), d.getErrorDetails());
+                assertEquals(c.getErrorStackTrace(), d.getErrorStackTrace());
+                assertEquals(c.getStdout(), d.getStdout());
+                assertEquals(c.getStoredFailedSince(), d.getStoredFailedSince());
+            }
+        }
+        assertEquals(5, result.getSuite("broken").getCase("becomeUglier").getFailedSince());
+    }
+
+    public void testOutputIsLoadedLazily() throws Exception {
+        SuiteResult suite = new SuiteResult("TEST-x.xml", "x", null, "suite out", null);
+        suite.addCase(new CaseResult(suite, "x", "a", "trace \u00e9", "message", 1f, false, "case out", "case err"));
+        suite.addCase(new CaseResult(suite, "x", "b", null, null, 2f, false, null, null));
+        List<SuiteResult> suites = new ArrayList<SuiteResult>();
+        suites.add(suite);
+        TestResultFile.write(file, new TestResult(suites));
+
+        SuiteResult r = TestResultFile.read(file).getSuite("x");
+        CaseResult a = r.getCase("a");
+        assertFalse(a.isPassed());
+        assertEquals("message", a.getErrorDetails());
+        assertEquals("trace \u00e9", a.getErrorStackTrace());
+        assertEquals("case out", a.getStdout());
+        assertEquals("case err", a.getStderr());
+        CaseResult b = r.getCase("b");
+        assertTrue(b.isPassed());
+        assertNull(b.getErrorStackTrace());
+        assertEquals("suite out", b.getStdout());
+        assertNull(b.getStderr());
+        assertEquals(3f, r.getDuration());
+    }
+
+    private static final XStream XSTREAM = new XStream2();
+
+    static {
+        XSTREAM.alias("result", TestResult.class);
+        XSTREAM.alias("suite", SuiteResult.class);
+        XSTREAM.alias("case", CaseResult.class);
+        XSTREAM.registerConverter(new StringConverter2(), 100);
+    }
+}
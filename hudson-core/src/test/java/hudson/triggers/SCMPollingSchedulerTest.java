@@ -0,0 +1,130 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.triggers;
+
+import junit.framework.TestCase;
+
+public class SCMPollingSchedulerTest extends TestCase {
+
+    private long jitter;
+    private int maxBackoff;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        jitter = SCMTrigger.JITTER;
+        maxBackoff = SCMTrigger.MAX_BACKOFF;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SCMTrigger.JITTER = jitter;
+        SCMTrigger.MAX_BACKOFF = maxBackoff;
+        super.tearDown();
+    }
+
+    public void testDelay() {
+        SCMTrigger.JITTER = 300 * 1000;
+        SCMPollingScheduler s = new SCMPollingScheduler();
+        boolean spread = false;
+        for (int i = 0; i < 10; i++) {
+            long delay = s.getDelay("job" + i, 60 * 1000);
+            assertTrue(delay >= 0 && delay < 60 * 1000);
+            assertEquals(delay, s.getDelay("job" + i, 60 * 1000));
+            spread |= delay != s.getDelay("job0", 60 * 1000);
+        }
+        assertTrue(spread);
+        assertTrue(s.getDelay("job", 3600 * 1000) < 300 * 1000);
+        assertEquals(0, s.getDelay("job", 0));
+
+        SCMTrigger.JITTER = 0;
+        assertEquals(0, s.getDelay("job", 60 * 1000));
+    }
+
+    public void testBackoff() {
+        SCMTrigger.MAX_BACKOFF = 4;
+        SCMPollingScheduler s = new SCMPollingScheduler();
+        for (int i = 0; i < SCMPollingScheduler.BACKOFF_STEP; i++) {
+            assertTrue(s.shouldPoll("job"));
+            s.recordPoll("job", false);
+        }
+        assertEquals(2, s.getBackoff("job"));
+        assertFalse(s.shouldPoll("job"));
+        assertTrue(s.shouldPoll("job"));
+
+        for (int i = 0; i < 10 * SCMPollingScheduler.BACKOFF_STEP; i++) {
+            s.recordPoll("job", false);
+        }
+        assertEquals(4, s.getBackoff("job"));
+
+        s.recordPoll("job", true);
+        assertEquals(1, s.getBackoff("job"));
+        assertTrue(s.shouldPoll("job"));
+        assertTrue(s.shouldPoll("job"));
+    }
+
+    public void testNoBackoff() {
+        SCMTrigger.MAX_BACKOFF = 1;
+        SCMPollingScheduler s = new SCMPollingScheduler();
+        for (int i = 0; i < 10 * SCMPollingScheduler.BACKOFF_STEP; i++) {
+            assertTrue(s.shouldPoll("job"));
+            s.recordPoll("job", false);
+        }
+    }
+
+    public void testRepository() {
+        SCMPollingScheduler s = new SCMPollingScheduler();
+        SCMPollingScheduler.Repository r = s.getRepository("a", "svn:http://example.org/trunk");
+        assertSame(r, s.getRepository("b", "svn:http://example.org/trunk"));
+        assertEquals(1, s.getRepositories().size());
+
+        Runnable a = new Poll(), b = new Poll(), b2 = new Poll();
+        assertTrue(r.start("a", a));
+        assertFalse(r.start("b", b));
+        assertFalse(r.start("b", b2));
+        assertEquals(2, r.getQueueDepth());
+        assertSame(b2, r.finish(100));
+        assertEquals(0, r.getQueueDepth());
+        assertTrue(r.start("b", b2));
+        assertNull(r.finish(300));
+        assertEquals(0, r.getQueueDepth());
+        assertEquals(2, r.getPollCount());
+        assertEquals(200, r.getAverageTime());
+        assertEquals(300, r.getLastTime());
+    }
+
+    public void testPrune() {
+        SCMPollingScheduler s = new SCMPollingScheduler();
+        SCMPollingScheduler.Repository r = s.getRepository("a", "svn:http://example.org/trunk");
+        s.getRepository("b", "svn:http://example.org/trunk");
+        assertEquals("a", s.getRepository("a", null).getKey());
+        assertEquals(2, s.getRepositories().size());
+
+        assertTrue(r.start("b", new Poll()));
+        s.remove("b");
+        assertEquals(2, s.getRepositories().size());
+        assertNull(r.finish(100));
+        assertEquals(1, s.getRepositories().size());
+
+        s.remove("a");
+        assertTrue(s.getRepositories().isEmpty());
+    }
+
+    private static final class Poll implements Runnable {
+
+        public void run() {
+        }
+    }
+}
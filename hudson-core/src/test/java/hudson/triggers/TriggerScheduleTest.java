@@ -0,0 +1,101 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.triggers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link TriggerSchedule}.
+ */
+public class TriggerScheduleTest extends TestCase {
+
+    public void testPoll() {
+        TriggerSchedule s = new TriggerSchedule();
+        s.update("a", Collections.singletonMap("t", "*/15 * * * *"));
+        s.update("b", Collections.singletonMap("t", "# comment\n5 * * * *"));
+        s.update("c", Collections.<String, String>emptyMap());
+        s.update("d", null);
+        assertFalse(s.isKnown("d"));
+
+        assertEquals(Arrays.asList("d", "a"), s.poll(time(10, 0)));
+        assertEquals(time(10, 15), s.getNextTime("a"));
+        assertEquals(time(10, 5), s.getNextTime("b"));
+        assertEquals(-1, s.getNextTime("c"));
+
+        s.update("d", Collections.<String, String>emptyMap());
+        for (int m = 1; m < 5; m++) {
+            assertTrue(s.poll(time(10, m)).isEmpty());
+        }
+        assertEquals(Collections.singletonList("b"), s.poll(time(10, 5)));
+        assertEquals(time(11, 5), s.getNextTime("b"));
+
+        // reconfigured
+        s.update("a", Collections.singletonMap("t", "7 * * * *"));
+        assertEquals(time(10, 7), s.getNextTime("a"));
+        s.remove("b");
+        assertTrue(s.poll(time(10, 6)).isEmpty());
+        assertEquals(Collections.singletonList("a"), s.poll(time(10, 7)));
+    }
+
+    public void testNeverDue() {
+        TriggerSchedule s = new TriggerSchedule();
+        s.update("a", Collections.singletonMap("t", "0 0 30 2 *"));
+        assertTrue(s.poll(time(10, 0)).isEmpty());
+        assertEquals(-1, s.getNextTime("a"));
+    }
+
+    public void testRemoveNested() {
+        TriggerSchedule s = new TriggerSchedule();
+        s.update("m", Collections.<String, String>emptyMap());
+        s.update("m/a", Collections.singletonMap("t", "* * * * *"));
+        s.update("m/b", null);
+        s.update("mm", Collections.singletonMap("t", "* * * * *"));
+        assertEquals(Arrays.asList("m/b", "m/a", "mm"), sort(s.poll(time(10, 0)), 1));
+
+        s.remove("m");
+        assertTrue(s.isKnown("m/b"));
+        assertEquals(-1, s.getNextTime("m/a"));
+        assertEquals(Collections.singletonList("mm"), s.poll(time(10, 1)));
+    }
+
+    public void testSeveralLines() {
+        TriggerSchedule s = new TriggerSchedule();
+        s.update("a", Collections.singletonMap("t", "# comment\n\n10 * * * *\n5 * * * *"));
+        assertTrue(s.poll(time(10, 0)).isEmpty());
+        assertEquals(time(10, 5), s.getNextTime("a"));
+        assertEquals(Collections.singletonList("a"), s.poll(time(10, 5)));
+        assertEquals(time(10, 10), s.getNextTime("a"));
+
+        s.update("b", Collections.singletonMap("t", "not a spec"));
+        assertTrue(s.isKnown("b"));
+        assertEquals(-1, s.getNextTime("b"));
+    }
+
+    /**
+     * Sorts the due projects that follow the unknown ones.
+     */
+    private static List<String> sort(List<String> names, int unknown) {
+        Collections.sort(names.subList(unknown, names.size()));
+        return names;
+    }
+
+    private static long time(int hour, int minute) {
+        return new GregorianCalendar(2013, 0, 1, hour, minute).getTimeInMillis();
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.util;
+
+import hudson.model.BuildHistory;
+import hudson.model.BuildHistory.Record;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import junit.framework.TestCase;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+/**
+ * Tests for {@link RunList}.
+ */
+public class RunListTest extends TestCase {
+
+    private final List<Run> runs = new ArrayList<Run>();
+
+    public void testMerge() {
+        RunList<Run> list = new RunList<Run>(Arrays.asList(
+                job(50, Result.SUCCESS, 30, Result.FAILURE, 10, Result.SUCCESS),
+                job(40, Result.FAILURE, 20, Result.SUCCESS),
+                job()));
+        assertEquals(Arrays.asList(runs.get(0), runs.get(3), runs.get(1), runs.get(4), runs.get(2)), list);
+        assertSame(runs.get(0), list.getLastBuild());
+        assertSame(runs.get(2), list.getFirstBuild());
+    }
+
+    public void testOnlyReadBuildsAreLoaded() {
+        RunList<Run> list = new RunList<Run>(Arrays.asList(
+                job(50, Result.SUCCESS, 30, Result.FAILURE, 10, null),
+                job(40, Result.FAILURE, 20, null)));
+        Iterator<Run> it = list.iterator();
+        assertSame(runs.get(0), it.next());
+        assertSame(runs.get(3), it.next());
+        assertSame(runs.get(1), list.get(2));
+        assertFalse(list.isEmpty());
+    }
+
+    public void testFilterPendingRecords() {
+        // the successful builds can't be loaded
+        RunList<Run> list = new RunList<Run>(Arrays.asList(
+                job(50, Result.FAILURE, 30, null, 10, Result.FAILURE),
+                job(40, null, 20, Result.FAILURE)));
+        assertSame(runs.get(0), list.get(0));
+        list.failureOnly();
+        assertEquals(Arrays.asList(runs.get(0), runs.get(4), runs.get(2)), list);
+    }
+
+    public void testIteratorRemove() {
+        RunList<Run> list = new RunList<Run>(Arrays.asList(
+                job(50, Result.SUCCESS, 30, Result.SUCCESS, 10, Result.SUCCESS)));
+        Iterator<Run> it = list.iterator();
+        it.next();
+        it.next();
+        it.remove();
+        assertEquals(Arrays.asList(runs.get(0), runs.get(2)), list);
+    }
+
+    /**
+     * Creates a job with builds of the given timestamps and results, newest
+     * first, and adds the builds to {@link #runs}. Builds with a null result
+     * are successful but can't be loaded.
+     */
+    private Job job(Object... builds) {
+        List<Run> jobRuns = new ArrayList<Run>();
+        Record previous = null;
+        for (int i = builds.length - 2; i >= 0; i -= 2) {
+            Result result = (Result) builds[i + 1];
+            Record r = createMock(Record.class);
+            expect(r.getTimeInMillis()).andReturn(((Integer) builds[i]).longValue()).anyTimes();
+            expect(r.getPrevious()).andReturn(previous).anyTimes();
+            expect(r.getResult()).andReturn(result == null ? Result.SUCCESS : result).anyTimes();
+            Run run = createMock(Run.class);
+            expect(run.getResult()).andReturn(result).anyTimes();
+            replay(run);
+            if (result != null) {
+                expect(r.getBuild()).andReturn(run).anyTimes();
+            }
+            replay(r);
+            jobRuns.add(0, run);
+            previous = r;
+        }
+        runs.addAll(jobRuns);
+        BuildHistory history = createMock(BuildHistory.class);
+        expect(history.getLast()).andReturn(previous).anyTimes();
+        replay(history);
+        Job job = createMock(Job.class);
+        expect(job.getBuildHistoryData()).andReturn(history).anyTimes();
+        replay(job);
+        return job;
+    }
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.util.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link BlockCompressedFile}.
+ */
+public class BlockCompressedFileTest extends TestCase {
+
+    private File src;
+    private File dst;
+
+    @Override
+    protected void setUp() throws Exception {
+        src = File.createTempFile("log", null);
+        dst = new File(src.getPath() + ".blk");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        src.delete();
+        dst.delete();
+    }
+
+    public void testRoundTrip() throws Exception {
+        byte[] data = text(BlockCompressedFile.BLOCK_SIZE * 3 + 1234);
+        write(data);
+        BlockCompressedFile.compress(src, dst);
+        assertTrue(dst.length() < data.length / 5);
+
+        BlockCompressedFile f = new BlockCompressedFile(dst);
+        assertEquals(data.length, f.length());
+        assertTrue(Arrays.equals(data, readFrom(f, 0)));
+
+        for (long offset : new long[]{1, BlockCompressedFile.BLOCK_SIZE - 1, BlockCompressedFile.BLOCK_SIZE,
+                    BlockCompressedFile.BLOCK_SIZE * 3 + 1000, data.length}) {
+            byte[] expected = Arrays.copyOfRange(data, (int) offset, data.length);
+            assertTrue("offset " + offset, Arrays.equals(expected, readFrom(f, offset)));
+        }
+    }
+
+    public void testSkip() throws Exception {
+        byte[] data = text(BlockCompressedFile.BLOCK_SIZE * 2 + 10);
+        write(data);
+        BlockCompressedFile.compress(src, dst);
+
+        InputStream in = new BlockCompressedFile(dst).open(10);
+        try {
+            assertEquals(5, in.skip(5));
+            assertEquals(data[15], (byte) in.read());
+            assertEquals(BlockCompressedFile.BLOCK_SIZE, in.skip(BlockCompressedFile.BLOCK_SIZE));
+            assertEquals(data[16 + BlockCompressedFile.BLOCK_SIZE], (byte) in.read());
+            assertEquals(data.length - 17 - BlockCompressedFile.BLOCK_SIZE, in.skip(Long.MAX_VALUE / 2));
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testEmpty() throws Exception {
+        write(new byte[0]);
+        BlockCompressedFile.compress(src, dst);
+        BlockCompressedFile f = new BlockCompressedFile(dst);
+        assertEquals(0, f.length());
+        assertEquals(0, readFrom(f, 0).length);
+    }
+
+    public void testTruncatedFileIsRejected() throws Exception {
+        write(text(1000));
+        BlockCompressedFile.compress(src, dst);
+        RandomAccessFile raf = new RandomAccessFile(dst, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+        try {
+            new BlockCompressedFile(dst);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testLogLines() throws Exception {
+        File index = LineIndexOutputStream.getIndexFile(src);
+        try {
+            LineIndexOutputStream out = new LineIndexOutputStream(new FileOutputStream(src), index);
+            int count = LineIndexOutputStream.INTERVAL * 20;
+            for (int i = 0; i < count; i++) {
+                out.write(("line " + i + "\n").getBytes("UTF-8"));
+            }
+            out.close();
+            BlockCompressedFile.compress(src, dst);
+
+            LogLines lines = new LogLines(new BlockCompressedFile(dst), index, Charset.forName("UTF-8"));
+            assertEquals(count, lines.count());
+            assertEquals(Arrays.asList("line " + (count - 2), "line " + (count - 1)), lines.tail(2));
+            assertEquals(Arrays.asList("line 12345"), lines.read(12345, 1));
+
+            // without the index, the whole log is read
+            index.delete();
+            assertEquals(count, lines.count());
+            assertEquals(Arrays.asList("line " + (count - 1)), lines.tail(1));
+        } finally {
+            index.delete();
+        }
+    }
+
+    private byte[] text(int size) {
+        Random r = new Random(0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        while (out.size() < size) {
+            byte[] line = ("[INFO] Compiling " + r.nextInt(100) + " source files\n").getBytes();
+            out.write(line, 0, Math.min(line.length, size - out.size()));
+        }
+        return out.toByteArray();
+    }
+
+    private void write(byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(src);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private byte[] readFrom(BlockCompressedFile f, long offset) throws IOException {
+        InputStream in = f.open(offset);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[5000];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
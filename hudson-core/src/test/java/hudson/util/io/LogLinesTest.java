@@ -0,0 +1,153 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.util.io;
+
+import hudson.console.ConsoleNote;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LogLines} and {@link LineIndexOutputStream}.
+ */
+public class LogLinesTest extends TestCase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File log;
+    private File index;
+
+    @Override
+    protected void setUp() throws Exception {
+        log = File.createTempFile("log", null);
+        index = LineIndexOutputStream.getIndexFile(log);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        log.delete();
+        index.delete();
+    }
+
+    public void testTail() throws Exception {
+        write(false, "a\nb\r\nc\n");
+        LogLines lines = new LogLines(log, index, UTF8);
+        assertEquals(Arrays.asList("b", "c"), lines.tail(2));
+        assertEquals(Arrays.asList("a", "b", "c"), lines.tail(10));
+        assertEquals(3, lines.count());
+
+        write(false, "a\nb\nc");
+        assertEquals(Arrays.asList("c"), lines.tail(1));
+        assertEquals(3, lines.count());
+
+        write(false, "");
+        assertTrue(lines.tail(5).isEmpty());
+        assertEquals(0, lines.count());
+    }
+
+    public void testTailRemovesNotes() throws Exception {
+        write(false, "a\nx" + ConsoleNote.PREAMBLE_STR + "note" + ConsoleNote.POSTAMBLE_STR + "y\n");
+        assertEquals(Arrays.asList("xy"), new LogLines(log, index, UTF8).tail(1));
+    }
+
+    public void testTailAcrossBuffers() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        write(false, text.toString());
+        List<String> tail = new LogLines(log, index, UTF8).tail(2000);
+        assertEquals(2000, tail.size());
+        assertEquals("line 3000", tail.get(0));
+        assertEquals("line 4999", tail.get(1999));
+    }
+
+    public void testReadWithIndex() throws Exception {
+        StringBuilder text = new StringBuilder();
+        int count = LineIndexOutputStream.INTERVAL * 3 + 10;
+        for (int i = 0; i < count; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        write(true, text.toString());
+        assertEquals(8 * 3 + LineIndexOutputStream.TRAILER_SIZE, index.length());
+
+        LogLines lines = new LogLines(log, index, UTF8);
+        assertEquals(count, lines.count());
+        assertEquals(Arrays.asList("line 0", "line 1"), lines.read(0, 2));
+        assertEquals(Arrays.asList("line 1024"), lines.read(1024, 1));
+        assertEquals(Arrays.asList("line 2050", "line 2051"), lines.read(2050, 2));
+        assertEquals(Arrays.asList("line " + (count - 1)), lines.read(count - 1, 5));
+        assertTrue(lines.read(count, 5).isEmpty());
+
+        // An index that doesn't match the log is ignored
+        OutputStream out = new FileOutputStream(log, true);
+        out.write("more\n".getBytes("UTF-8"));
+        out.close();
+        assertEquals(count + 1, lines.count());
+        assertEquals(Arrays.asList("line 2050"), lines.read(2050, 1));
+    }
+
+    public void testCountWhileWriting() throws Exception {
+        OutputStream out = new LineIndexOutputStream(new FileOutputStream(log), index);
+        try {
+            LogLines lines = new LogLines(log, index, UTF8);
+            int count = LineIndexOutputStream.INTERVAL * 2 + 10;
+            for (int i = 0; i < count; i++) {
+                out.write(("line " + i + "\n").getBytes("UTF-8"));
+            }
+            assertEquals(8 * 2, index.length());
+            assertEquals(count, lines.count());
+            assertEquals(Arrays.asList("line 2048"), lines.read(2048, 1));
+
+            // the lines before the last entry aren't read again
+            RandomAccessFile raf = new RandomAccessFile(log, "rw");
+            try {
+                raf.seek(0);
+                raf.write("xxxxx\n".getBytes("UTF-8"));
+            } finally {
+                raf.close();
+            }
+            assertEquals(count, lines.count());
+
+            out.write("partial".getBytes("UTF-8"));
+            assertEquals(count + 1, lines.count());
+        } finally {
+            out.close();
+        }
+    }
+
+    private void write(boolean indexed, String text) throws IOException {
+        OutputStream out = new FileOutputStream(log);
+        if (indexed) {
+            out = new LineIndexOutputStream(out, index);
+        }
+        try {
+            byte[] bytes = text.getBytes("UTF-8");
+            // mix single byte and array writes
+            out.write(bytes, 0, bytes.length / 2);
+            for (int i = bytes.length / 2; i < bytes.length; i++) {
+                out.write(bytes[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package hudson.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Tests for {@link ParallelGZIPOutputStream}.
+ */
+public class ParallelGZIPOutputStreamTest extends TestCase {
+
+    public void testRoundTrip() throws Exception {
+        byte[] data = new byte[1000 * 1000];
+        Random r = new Random(0);
+        for (int i = 0; i < data.length; i++) {
+            // compressible, with matches across blocks
+            data[i] = (byte) ('a' + r.nextInt(4));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelGZIPOutputStream gz = new ParallelGZIPOutputStream(out, 3);
+        gz.write(data, 0, 1000);
+        gz.write(data[1000]);
+        gz.flush();
+        gz.write(data, 1001, data.length - 1001);
+        gz.close();
+
+        assertTrue(out.size() < data.length / 2);
+        assertTrue(Arrays.equals(data, gunzip(out.toByteArray())));
+    }
+
+    public void testEmpty() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ParallelGZIPOutputStream(out, 2).close();
+        assertEquals(0, gunzip(out.toByteArray()).length);
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(data)));
+    }
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package org.eclipse.hudson.graph;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import junit.framework.TestCase;
+import org.eclipse.hudson.graph.GraphCache.Rendering;
+
+/**
+ * Tests for {@link GraphCache}.
+ */
+public class GraphCacheTest extends TestCase {
+
+    private int renders;
+
+    public void testRendersOnce() throws Exception {
+        GraphCache cache = new GraphCache(1000);
+        Rendering r = cache.get("a", renderer(100));
+        assertSame(r, cache.get("a", renderer(100)));
+        assertEquals(1, renders);
+        cache.get("b", renderer(100));
+        assertEquals(2, renders);
+    }
+
+    public void testEviction() throws Exception {
+        GraphCache cache = new GraphCache(1000);
+        cache.get("a", renderer(400));
+        cache.get("b", renderer(400));
+        cache.get("a", renderer(400));
+        // evicts b, which was used the longest time ago
+        cache.get("c", renderer(400));
+        assertEquals(3, renders);
+        cache.get("a", renderer(400));
+        cache.get("c", renderer(400));
+        assertEquals(3, renders);
+        cache.get("b", renderer(400));
+        assertEquals(4, renders);
+
+        // too large to be kept
+        cache.get("d", renderer(2000));
+        cache.get("d", renderer(2000));
+        assertEquals(6, renders);
+    }
+
+    public void testFailureIsNotCached() throws Exception {
+        GraphCache cache = new GraphCache(1000);
+        try {
+            cache.get("a", new Callable<Rendering>() {
+                public Rendering call() throws IOException {
+                    throw new IOException("failed");
+                }
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        cache.get("a", renderer(100));
+        assertEquals(1, renders);
+    }
+
+    private Callable<Rendering> renderer(final int size) {
+        return new Callable<Rendering>() {
+            public Rendering call() {
+                renders++;
+                return new Rendering(new byte[size], null, null);
+            }
+        };
+    }
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2004-2013 Oracle Corporation.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *
+ *******************************************************************************/
+
+package org.eclipse.hudson.graph;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the cache keys of {@link Graph}.
+ */
+public class GraphTest extends TestCase {
+
+    public void testDescribe() {
+        String all = Graph.describe(data(1, 2, 3));
+        assertEquals(all, Graph.describe(data(1, 2, 3)));
+        // the latest build, and so the timestamp, stay the same
+        assertFalse(all.equals(Graph.describe(data(1, 3))));
+        assertFalse(all.equals(Graph.describe(data(2, 3, 4))));
+        assertEquals("", Graph.describe(null));
+    }
+
+    private static DataSet<String, String> data(int... builds) {
+        DataSet<String, String> data = new DataSet<String, String>();
+        GraphSeries<String> x = new GraphSeries<String>("Build No.");
+        data.setXSeries(x);
+        GraphSeries<Number> y = new GraphSeries<Number>(GraphSeries.TYPE_AREA, "Passed", ColorPalette.BLUE);
+        data.addYSeries(y);
+        for (int b : builds) {
+            x.add("#" + b);
+            y.add(10.0);
+            data.add(10.0, "passed", "#" + b);
+        }
+        return data;
+    }
+}